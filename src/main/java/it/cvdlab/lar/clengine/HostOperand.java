@@ -0,0 +1,121 @@
+package it.cvdlab.lar.clengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.DirectCsrMatrix;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bridj.Pointer;
+
+// Host side of a kernel operand. Pointers to a DirectCsrMatrix are taken
+// in place when the device and the buffers share the native byte order;
+// heap matrices (or a foreign byte order) are copied once in bulk into
+// freshly allocated memory, which is added to the release list of the caller.
+final class HostOperand {
+	private final CsrMatrix matrix;
+	private final DirectCsrMatrix direct;
+	private final boolean binary;
+
+	private HostOperand(CsrMatrix matrix, DirectCsrMatrix direct, boolean binary) {
+		this.matrix = matrix;
+		this.direct = direct;
+		this.binary = binary;
+	}
+
+	static HostOperand of(CsrMatrix matrix) {
+		return new HostOperand(matrix, null, matrix.isBinary());
+	}
+
+	static HostOperand of(DirectCsrMatrix direct) {
+		return new HostOperand(null, direct, direct.isBinary());
+	}
+
+	int getRowCount() {
+		return (matrix != null) ? matrix.getRowCount() : direct.getRowCount();
+	}
+
+	int getColCount() {
+		return (matrix != null) ? matrix.getColCount() : direct.getColCount();
+	}
+
+	int getNonZeroElementsCount() {
+		return (matrix != null) ? matrix.getNonZeroElementsCount() : direct.getNonZeroElementsCount();
+	}
+
+	boolean isBinary() {
+		return binary;
+	}
+
+	// The heap matrix, null for off-heap operands
+	CsrMatrix getMatrix() {
+		return matrix;
+	}
+
+	// Heap copy for the Java engines
+	CsrMatrix toCsrMatrix() {
+		return (matrix != null) ? matrix : direct.toCsrMatrix();
+	}
+
+	private boolean inPlace(ByteOrder byteOrder) {
+		return (direct != null) && (byteOrder == ByteOrder.nativeOrder()) && (direct.order() == byteOrder);
+	}
+
+	@SuppressWarnings("rawtypes")
+	Pointer<Integer> rowPtr(ByteOrder byteOrder, List<Pointer> pointersRelease) {
+		if (inPlace(byteOrder)) {
+			return Pointer.pointerToInts(direct.getRowptrBuffer());
+		}
+		return copy(toIntArray(true), byteOrder, pointersRelease);
+	}
+
+	@SuppressWarnings("rawtypes")
+	Pointer<Integer> colIndices(ByteOrder byteOrder, List<Pointer> pointersRelease) {
+		if (inPlace(byteOrder)) {
+			return Pointer.pointerToInts(direct.getColdataBuffer());
+		}
+		return copy(toIntArray(false), byteOrder, pointersRelease);
+	}
+
+	// Ones for binary matrices, kernels reading values always get an array
+	@SuppressWarnings("rawtypes")
+	Pointer<Float> data(ByteOrder byteOrder, List<Pointer> pointersRelease) {
+		if (inPlace(byteOrder) && (direct.getDataBuffer() != null)) {
+			return Pointer.pointerToFloats(direct.getDataBuffer());
+		}
+
+		float[] values;
+		if (matrix != null) {
+			values = matrix.getDataArray();
+		} else if (direct.getDataBuffer() != null) {
+			values = new float[direct.getNonZeroElementsCount()];
+			direct.getDataBuffer().get(values);
+		} else {
+			values = new float[direct.getNonZeroElementsCount()];
+			Arrays.fill(values, 1F);
+		}
+
+		Pointer<Float> pointer = Pointer.allocateFloats(values.length).order(byteOrder);
+		pointersRelease.add(pointer);
+		pointer.setFloats(values);
+		return pointer;
+	}
+
+	private int[] toIntArray(boolean rowPtr) {
+		if (matrix != null) {
+			return rowPtr ? matrix.getRowptrArray() : matrix.getColdataArray();
+		}
+		int[] values = new int[rowPtr ? (direct.getRowCount() + 1) : direct.getNonZeroElementsCount()];
+		(rowPtr ? direct.getRowptrBuffer() : direct.getColdataBuffer()).get(values);
+		return values;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Pointer<Integer> copy(int[] values, ByteOrder byteOrder, List<Pointer> pointersRelease) {
+		Pointer<Integer> pointer = Pointer.allocateInts(values.length).order(byteOrder);
+		pointersRelease.add(pointer);
+		pointer.setInts(values);
+		return pointer;
+	}
+}
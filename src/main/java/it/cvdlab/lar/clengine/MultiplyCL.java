@@ -4,13 +4,19 @@ import it.cvdlab.lar.clengine.utils.CLEngineConfig;
 import it.cvdlab.lar.clengine.utils.KernelConfig;
 import it.cvdlab.lar.clengine.utils.PointerUtils;
 import it.cvdlab.lar.clengine.utils.worksize.SizeEstimator;
+import it.cvdlab.lar.cpuengine.NnzEstimate;
+import it.cvdlab.lar.cpuengine.NnzEstimator;
+import it.cvdlab.lar.cpuengine.SymbolicProduct;
 import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.DirectCsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
 
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.List;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.bridj.Pointer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,50 +38,176 @@ public final class MultiplyCL {
 	// Logger
 	private static final Logger logger = LoggerFactory.getLogger(MultiplyCL.class);
 	
-	public static synchronized CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, boolean forceCOO) {
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, boolean forceCOO) {
+		return multiply(matrixA, matrixB, forceCOO, ResultFilter.POSITIVE);
+	}
+	
+	// Entries outside the filter are dropped by every engine while the product is accumulated
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, boolean forceCOO, ResultFilter filter) {
+		return multiply(matrixA, matrixB, forceCOO, Semiring.PLUS_TIMES, filter);
+	}
+	
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, boolean forceCOO, Semiring semiring, ResultFilter filter) {
 		System.err.println("===");
-		System.err.println("A Res: " + matrixA.getRowCount() + "x" + matrixA.getColCount() + " NNz: " + matrixA.getColdata().size());
-		System.err.println("B Res: " + matrixB.getRowCount() + "x" + matrixB.getColCount() + " NNz: " + matrixB.getColdata().size());
+		System.err.println("A Res: " + matrixA.getRowCount() + "x" + matrixA.getColCount() + " NNz: " + matrixA.getColdataArray().length);
+		System.err.println("B Res: " + matrixB.getRowCount() + "x" + matrixB.getColCount() + " NNz: " + matrixB.getColdataArray().length);
 		long denseResult = matrixA.getRowCount();
 		denseResult *= (long)matrixB.getColCount();
 		System.err.println("Dim Res: " + denseResult);	
 		
+		if (matrixA.getColCount() != matrixB.getRowCount()) {
+			logger.error("Current matrix columns are different from argument matrix rows");
+			return null;
+		}
+		
 		// Js-like computation
 		// TODO: There is a bug in which if A*B and B has 1 col OpenCL kernel compute strange stuff
 		if (CLEngineConfig.isNO_OPENCL() || (matrixB.getColCount() == 1)) {
 			System.err.println("== JS Multiply ==");
-			return jsMultiply(matrixA, matrixB);
+			return jsMultiply(matrixA, matrixB, semiring, filter);
+		}
+		
+		// Kernels read B by columns: transpose it once, only the structure when values are never read
+		CsrMatrix matrixBt = structureOnly(matrixA, matrixB, semiring) ? matrixB.toPattern().transpose() : matrixB.transpose();
+		
+		return deviceMultiply(HostOperand.of(matrixA), matrixB, HostOperand.of(matrixBt), forceCOO, semiring, filter, denseResult);
+	}
+	
+	public static CsrMatrix multiplyTransposed(CsrMatrix matrixA, CsrMatrix matrixBt, boolean forceCOO) {
+		return multiplyTransposed(matrixA, matrixBt, forceCOO, ResultFilter.POSITIVE);
+	}
+	
+	// A * Bt^T, with Bt already in the layout the kernels read (one row per
+	// column of the result): the device path does no transpose at all
+	public static CsrMatrix multiplyTransposed(CsrMatrix matrixA, CsrMatrix matrixBt, boolean forceCOO, ResultFilter filter) {
+		return multiplyTransposed(matrixA, matrixBt, forceCOO, Semiring.PLUS_TIMES, filter);
+	}
+	
+	public static CsrMatrix multiplyTransposed(CsrMatrix matrixA, CsrMatrix matrixBt, boolean forceCOO, Semiring semiring, ResultFilter filter) {
+		System.err.println("===");
+		System.err.println("A Res: " + matrixA.getRowCount() + "x" + matrixA.getColCount() + " NNz: " + matrixA.getColdataArray().length);
+		System.err.println("Bt Res: " + matrixBt.getRowCount() + "x" + matrixBt.getColCount() + " NNz: " + matrixBt.getColdataArray().length);
+		long denseResult = matrixA.getRowCount();
+		denseResult *= (long)matrixBt.getRowCount();
+		System.err.println("Dim Res: " + denseResult);	
+		
+		if (matrixA.getColCount() != matrixBt.getColCount()) {
+			logger.error("Current matrix columns are different from argument matrix columns");
+			return null;
+		}
+		
+		// Same single column workaround as multiply
+		if (CLEngineConfig.isNO_OPENCL() || (matrixBt.getRowCount() == 1)) {
+			System.err.println("== JS Multiply ==");
+			return jsMultiplyTransposed(matrixA, matrixBt, semiring, filter);
+		}
+		
+		return deviceMultiply(HostOperand.of(matrixA), null, HostOperand.of(matrixBt), forceCOO, semiring, filter, denseResult);
+	}
+	
+	public static CsrMatrix multiplyTransposed(DirectCsrMatrix matrixA, DirectCsrMatrix matrixBt, boolean forceCOO) {
+		return multiplyTransposed(matrixA, matrixBt, forceCOO, Semiring.PLUS_TIMES, ResultFilter.POSITIVE);
+	}
+	
+	// Off-heap operands: the device path hands their buffers to the kernels
+	// without copying them through the Java heap
+	public static CsrMatrix multiplyTransposed(DirectCsrMatrix matrixA, DirectCsrMatrix matrixBt, boolean forceCOO, Semiring semiring, ResultFilter filter) {
+		System.err.println("===");
+		System.err.println("A Res: " + matrixA.getRowCount() + "x" + matrixA.getColCount() + " NNz: " + matrixA.getNonZeroElementsCount());
+		System.err.println("Bt Res: " + matrixBt.getRowCount() + "x" + matrixBt.getColCount() + " NNz: " + matrixBt.getNonZeroElementsCount());
+		long denseResult = matrixA.getRowCount();
+		denseResult *= (long)matrixBt.getRowCount();
+		System.err.println("Dim Res: " + denseResult);	
+		
+		if (matrixA.getColCount() != matrixBt.getColCount()) {
+			logger.error("Current matrix columns are different from argument matrix columns");
+			return null;
+		}
+		
+		if (CLEngineConfig.isNO_OPENCL() || (matrixBt.getRowCount() == 1)) {
+			System.err.println("== JS Multiply ==");
+			return jsMultiplyTransposed(matrixA.toCsrMatrix(), matrixBt.toCsrMatrix(), semiring, filter);
 		}
 		
-		// Use the cached shared object way
+		return deviceMultiply(HostOperand.of(matrixA), null, HostOperand.of(matrixBt), forceCOO, semiring, filter, denseResult);
+	}
+	
+	// Binary kernels are enough when no value is read
+	private static boolean structureOnly(CsrMatrix matrixA, CsrMatrix matrixB, Semiring semiring) {
+		return !semiring.readsValues() || (matrixA.isBinary() && matrixB.isBinary());
+	}
+	
+	// A dense result could not tell a kept zero from no entry: a zero weight
+	// min-plus path, or any zero the filter accepts, needs the COO path
+	static boolean keepsZeros(Semiring semiring, ResultFilter filter) {
+		return (semiring == Semiring.MIN_PLUS) || filter.accept(0F);
+	}
+	
+	private static boolean structureOnly(HostOperand matrixA, HostOperand matrixB, Semiring semiring) {
+		return !semiring.readsValues() || (matrixA.isBinary() && matrixB.isBinary());
+	}
+	
+	// The OpenCL device is shared: one product at a time, the Java path above runs outside this lock.
+	// matrixB is null when only its transpose was given
+	private static synchronized CsrMatrix deviceMultiply(HostOperand matrixA, CsrMatrix matrixB, HostOperand matrixBt, boolean forceCOO, Semiring semiring, ResultFilter filter, long denseResult) {
+		// Use the cached shared object way (it keeps its own copies on the heap)
 		if (CLEngineConfig.isSHARED_CL()) {
 			System.err.println("== Cached CL ==");
-			return MultiplyCLCached.multiply(matrixA, matrixB, forceCOO);
+			return MultiplyCLCached.multiply(matrixA.toCsrMatrix(), matrixBt.toCsrMatrix(), forceCOO, semiring, filter);
 		}
 		
 		// Go through OpenCL
-		// First calculate NNZ elements!! This is necessary!
-		int nnzCount = -1;
-		
-		try {
-			nnzCount = matrixA.nnzMultiplyCount(matrixB);
-//			nnzCount = clCalcNNZ(matrixA,matrixB);
-//			System.out.println("NNZCount: " + nnzCount );
-		} catch (Exception e) {
-			logger.error(e.toString());
-			return null; 
+		boolean cooWay = forceCOO || keepsZeros(semiring, filter) || CLEngineConfig.isUSECOO();
+		int deviceCount = -1;
+		if (!cooWay) {
+			if ((matrixA.getMatrix() != null) && (matrixBt.getMatrix() != null)) {
+				// Pick the path on a sampled estimate: the exact count is only needed to size the COO output
+				NnzEstimate estimate = NnzEstimator.estimate(matrixA.getMatrix(), matrixBt.getMatrix());
+				System.err.println("NNZ Estimate: " + estimate);
+				cooWay = estimate.favorsCOO(denseResult, CLEngineConfig.getNNZ_WEIGHT());
+			} else {
+				// Off-heap operands are not sampled: count on the device, the count sizes the COO output too
+				deviceCount = clCalcNNZ(matrixA, matrixBt);
+				if (deviceCount < 0) {
+					return null;
+				}
+				cooWay = (denseResult > ((long)deviceCount * CLEngineConfig.getNNZ_WEIGHT()));
+			}
 		}
 		
-		System.err.println("NNZ Res: " + nnzCount);
-		
 		CsrMatrix resultMatrix = null;
-		if ( forceCOO || CLEngineConfig.isUSECOO() || (denseResult > ( nnzCount * CLEngineConfig.getNNZ_WEIGHT() )) ) {
+		if ( cooWay ) {
 			System.err.println("COO Way");
-			// resultMatrix = clMultiplyCOO(matrixA, matrixB, nnzCount);
-			resultMatrix = clMultiplyCOO_FLAT(matrixA, matrixB, nnzCount);
+			SymbolicProduct symbolic = null;
+			int nnzCount = deviceCount;
+			
+			try {
+				if ((matrixB != null) && (matrixA.getMatrix() != null)) {
+					symbolic = matrixA.getMatrix().multiplySymbolic(matrixB);
+					nnzCount = symbolic.getNnz();
+				} else if (nnzCount < 0) {
+					// The row counts need B by rows: count the total on the device instead
+					nnzCount = clCalcNNZ(matrixA, matrixBt);
+				}
+			} catch (Exception e) {
+				logger.error(e.toString());
+				return null; 
+			}
+			
+			if (nnzCount < 0) {
+				return null;
+			}
+			
+			System.err.println("NNZ Res: " + nnzCount);
+			
+			if (symbolic != null) {
+				resultMatrix = clMultiplyCOO_FLAT(matrixA, matrixBt, symbolic, semiring, filter);
+			} else {
+				resultMatrix = clMultiplyCOO(matrixA, matrixBt, nnzCount, semiring, filter);
+			}
 		} else {
 			System.err.println("Dense Way");
-			resultMatrix = clMultiply(matrixA, matrixB);
+			resultMatrix = clMultiply(matrixA, matrixBt, semiring, filter);
 		}
 		
 		if ( CLEngineConfig.isFORCE_GC() ) {
@@ -85,16 +217,25 @@ public final class MultiplyCL {
 		
 		return resultMatrix;
 	}
-	private static CsrMatrix jsMultiply(CsrMatrix matrixA, CsrMatrix matrixBToTranspose) {
+	private static CsrMatrix jsMultiply(CsrMatrix matrixA, CsrMatrix matrixBToTranspose, Semiring semiring, ResultFilter filter) {
 		try {
-			return matrixA.multiply(matrixBToTranspose);
+			return matrixA.multiply(matrixBToTranspose, semiring, filter);
 		} catch (Exception e) {
 			logger.error(e.toString());
 			return null;
 		}
 	}
 	
-	private static CsrMatrix clMultiply(CsrMatrix matrixA, CsrMatrix matrixBToTranspose) {
+	private static CsrMatrix jsMultiplyTransposed(CsrMatrix matrixA, CsrMatrix matrixBt, Semiring semiring, ResultFilter filter) {
+		try {
+			return matrixA.multiplyTransposed(matrixBt, semiring, filter);
+		} catch (Exception e) {
+			logger.error(e.toString());
+			return null;
+		}
+	}
+	
+	private static CsrMatrix clMultiply(HostOperand matrixA, HostOperand matrixB, Semiring semiring, ResultFilter filter) {
 		// Lista di CL buffer da deallocare
 		List<CLMem> buffersRelease = Lists.newArrayList();
 		@SuppressWarnings("rawtypes")
@@ -120,39 +261,22 @@ public final class MultiplyCL {
         CLQueue queue = context.createDefaultQueue();
         ByteOrder byteOrder = context.getByteOrder();
         
-        CsrMatrix matrixB = matrixBToTranspose.transpose();
-        boolean isBinary = matrixA.isBinary() && matrixB.isBinary();
+        boolean isBinary = structureOnly(matrixA, matrixB, semiring);
         
         // Native memory
         Pointer<Float> matA_data = null, matB_data = null;
         Pointer<Integer> matA_rowptr, matA_colindices, matB_rowptr, matB_colindices;
         
-        // Allocate
-        matA_rowptr = Pointer.allocateInts(matrixA.getRowptr().size()).order(byteOrder);
-        pointersRelease.add(matA_rowptr);
-        matA_colindices = Pointer.allocateInts(matrixA.getColdata().size()).order(byteOrder);
-        pointersRelease.add(matA_colindices);
-        matB_rowptr = Pointer.allocateInts(matrixB.getRowptr().size()).order(byteOrder);
-        pointersRelease.add(matB_rowptr);
-        matB_colindices = Pointer.allocateInts(matrixB.getColdata().size()).order(byteOrder);
-        pointersRelease.add(matB_colindices);
+        // Allocate, or take off-heap operands in place
+        matA_rowptr = matrixA.rowPtr(byteOrder, pointersRelease);
+        matA_colindices = matrixA.colIndices(byteOrder, pointersRelease);
+        matB_rowptr = matrixB.rowPtr(byteOrder, pointersRelease);
+        matB_colindices = matrixB.colIndices(byteOrder, pointersRelease);
         if (!isBinary) {
-        	matA_data = Pointer.allocateFloats(matrixA.getData().size()).order(byteOrder);
-        	pointersRelease.add(matA_data);
-        	matB_data = Pointer.allocateFloats(matrixB.getData().size()).order(byteOrder);
-        	pointersRelease.add(matB_data);
+        	matA_data = matrixA.data(byteOrder, pointersRelease);
+        	matB_data = matrixB.data(byteOrder, pointersRelease);
         }
         
-        PointerUtils.copyToPointer(matrixA.getRowptr(), matA_rowptr);
-        PointerUtils.copyToPointer(matrixA.getColdata(), matA_colindices);
-        PointerUtils.copyToPointer(matrixB.getRowptr(), matB_rowptr);
-        PointerUtils.copyToPointer(matrixB.getColdata(), matB_colindices);
-        if (!isBinary) {
-        	PointerUtils.copyToPointer(matrixA.getData(), matA_data);
-        	PointerUtils.copyToPointer(matrixB.getData(), matB_data);
-        }
-        
-        
         // CLBuffers
         CLBuffer<Integer> cl_matA_rowptr = null, cl_matA_colindices = null, cl_matB_rowptr = null, cl_matB_colindices = null;
         CLBuffer<Float> cl_matA_data = null, cl_matB_data = null;
@@ -175,7 +299,7 @@ public final class MultiplyCL {
             }
             
             // Output buffer
-            cl_output_data = context.createFloatBuffer(Usage.Output, matrixA.getRowCount()*matrixBToTranspose.getColCount());
+            cl_output_data = context.createFloatBuffer(Usage.Output, matrixA.getRowCount()*matrixB.getRowCount());
             buffersRelease.add(cl_output_data);
         } catch (CLException e) {
 			queue.flush();
@@ -205,6 +329,8 @@ public final class MultiplyCL {
 		}
     	kernelSource = kernelSource.replaceAll(KernelConfig.DEFINE_ROW, Integer.toString( matrixA.getRowCount() ) );
     	kernelSource = kernelSource.replaceAll(KernelConfig.DEFINE_COL, Integer.toString( matrixB.getRowCount() ) );
+    	kernelSource = KernelConfig.defineFilter(kernelSource, filter);
+    	kernelSource = KernelConfig.defineSemiring(kernelSource, semiring);
         
     	// System.out.println(kernelSource);
         
@@ -268,7 +394,7 @@ public final class MultiplyCL {
         // Pointer<Float> matrixDataOut = Pointer.allocateFloats(matrixA.getRowCount()*matrixBToTranspose.getColCount()).order(byteOrder);
         // cl_output_data.read(queue, matrixDataOut, true, addEvt);
         
-        List<Float> listMatrixOut = PointerUtils.copyFromPointerFloat(matrixDataOut);
+        float[] listMatrixOut = PointerUtils.copyFromPointerToFloats(matrixDataOut);
         
         addEvt.release();
         queue.flush();
@@ -282,12 +408,11 @@ public final class MultiplyCL {
 		// System.out.println(listMatrixOut);
 		System.err.println("Calculated in: " + (System.currentTimeMillis() - startTime) + " millis");
 		
-		return CsrMatrix.fromFlattenArray(ArrayUtils.toPrimitive( listMatrixOut.toArray(new Float[0]) ), matrixBToTranspose.getColCount());
+		return CsrMatrix.fromFlattenArray(listMatrixOut, matrixB.getRowCount());
 	}
 	
 	
-	@SuppressWarnings("unused")
-	private static CsrMatrix clMultiplyCOO(CsrMatrix matrixA, CsrMatrix matrixBToTranspose, int nnzCount) {
+	private static CsrMatrix clMultiplyCOO(HostOperand matrixA, HostOperand matrixB, int nnzCount, Semiring semiring, ResultFilter filter) {
 		// Lista di CL buffer da deallocare
 		List<CLMem> buffersRelease = Lists.newArrayList();
 		@SuppressWarnings("rawtypes")
@@ -295,6 +420,11 @@ public final class MultiplyCL {
 		
 		long startTime = System.currentTimeMillis();
 		
+		// Nothing to compute, and zero sized buffers are not allowed
+		if (nnzCount == 0) {
+			return new CsrMatrix(new int[matrixA.getRowCount() + 1], new int[0], new float[0], matrixA.getRowCount(), matrixB.getRowCount());
+		}
+		
 		//
 		CLContext context = KernelConfig.createContext();
 		
@@ -316,8 +446,7 @@ public final class MultiplyCL {
         CLQueue queue = context.createDefaultQueue();
         ByteOrder byteOrder = context.getByteOrder();
         
-        CsrMatrix matrixB = matrixBToTranspose.transpose();
-        boolean isBinary = matrixA.isBinary() && matrixB.isBinary();
+        boolean isBinary = structureOnly(matrixA, matrixB, semiring);
         
         // Native memory
         Pointer<Float> matA_data = null, matB_data = null;
@@ -327,31 +456,15 @@ public final class MultiplyCL {
         counter = Pointer.allocateInt().order(byteOrder);
         counter.set(0);
         pointersRelease.add(counter);
-        matA_rowptr = Pointer.allocateInts(matrixA.getRowptr().size()).order(byteOrder);
-        pointersRelease.add(matA_rowptr);
-        matA_colindices = Pointer.allocateInts(matrixA.getColdata().size()).order(byteOrder);
-        pointersRelease.add(matA_colindices);
-        matB_rowptr = Pointer.allocateInts(matrixB.getRowptr().size()).order(byteOrder);
-        pointersRelease.add(matB_rowptr);
-        matB_colindices = Pointer.allocateInts(matrixB.getColdata().size()).order(byteOrder);
-        pointersRelease.add(matB_colindices);
+        matA_rowptr = matrixA.rowPtr(byteOrder, pointersRelease);
+        matA_colindices = matrixA.colIndices(byteOrder, pointersRelease);
+        matB_rowptr = matrixB.rowPtr(byteOrder, pointersRelease);
+        matB_colindices = matrixB.colIndices(byteOrder, pointersRelease);
         if (!isBinary) {
-        	matA_data = Pointer.allocateFloats(matrixA.getData().size()).order(byteOrder);
-        	pointersRelease.add(matA_data);
-        	matB_data = Pointer.allocateFloats(matrixB.getData().size()).order(byteOrder);
-        	pointersRelease.add(matB_data);
+        	matA_data = matrixA.data(byteOrder, pointersRelease);
+        	matB_data = matrixB.data(byteOrder, pointersRelease);
         }
         
-        PointerUtils.copyToPointer(matrixA.getRowptr(), matA_rowptr);
-        PointerUtils.copyToPointer(matrixA.getColdata(), matA_colindices);
-        PointerUtils.copyToPointer(matrixB.getRowptr(), matB_rowptr);
-        PointerUtils.copyToPointer(matrixB.getColdata(), matB_colindices);
-        if (!isBinary) {
-        	PointerUtils.copyToPointer(matrixA.getData(), matA_data);
-        	PointerUtils.copyToPointer(matrixB.getData(), matB_data);
-        }
-        
-        
         // CLBuffers
         CLBuffer<Integer> cl_counter = null, cl_matA_rowptr = null, cl_matA_colindices = null, cl_matB_rowptr = null, cl_matB_colindices = null;
         CLBuffer<Float> cl_matA_data = null, cl_matB_data = null;
@@ -412,6 +525,8 @@ public final class MultiplyCL {
 		}
     	kernelSource = kernelSource.replaceAll(KernelConfig.DEFINE_ROW, Integer.toString( matrixA.getRowCount() ) );
     	kernelSource = kernelSource.replaceAll(KernelConfig.DEFINE_COL, Integer.toString( matrixB.getRowCount() ) );
+    	kernelSource = KernelConfig.defineFilter(kernelSource, filter);
+    	kernelSource = KernelConfig.defineSemiring(kernelSource, semiring);
         
     	// System.out.println(kernelSource);
         
@@ -486,9 +601,19 @@ public final class MultiplyCL {
         // Pointer<Float> matrixDataOut = Pointer.allocateFloats(matrixA.getRowCount()*matrixBToTranspose.getColCount()).order(byteOrder);
         // cl_output_data.read(queue, matrixDataOut, true, addEvt);
         
-        List<Integer> listMatrixOut_x = PointerUtils.copyFromPointerInteger(matrixDataOut_x);
-        List<Integer> listMatrixOut_y = PointerUtils.copyFromPointerInteger(matrixDataOut_y);
-        List<Float> listMatrixOut_val = PointerUtils.copyFromPointerFloat(matrixDataOut_val);
+        int[] listMatrixOut_x = PointerUtils.copyFromPointerToInts(matrixDataOut_x);
+        int[] listMatrixOut_y = PointerUtils.copyFromPointerToInts(matrixDataOut_y);
+        float[] listMatrixOut_val = PointerUtils.copyFromPointerToFloats(matrixDataOut_val);
+        
+        // Entries dropped by the filter leave the tail of the output unwritten
+        Pointer<Integer> counterOut = cl_counter.read(queue);
+        pointersRelease.add(counterOut);
+        int resultCount = counterOut.get();
+        if (resultCount < nnzCount) {
+        	listMatrixOut_x = Arrays.copyOf(listMatrixOut_x, resultCount);
+        	listMatrixOut_y = Arrays.copyOf(listMatrixOut_y, resultCount);
+        	listMatrixOut_val = Arrays.copyOf(listMatrixOut_val, resultCount);
+        }
 		
         addEvt.release();
         queue.flush();
@@ -504,10 +629,10 @@ public final class MultiplyCL {
 //		System.out.println(listMatrixOut_val);
 		System.err.println("Calculated in: " + (System.currentTimeMillis() - startTime) + " millis");
 		
-		return CsrMatrix.fromCOOArray(listMatrixOut_x, listMatrixOut_y, listMatrixOut_val, matrixA.getRowshape(), matrixBToTranspose.getColshape());
+		return CsrMatrix.fromCOOArray(listMatrixOut_x, listMatrixOut_y, listMatrixOut_val, matrixA.getRowCount(), matrixB.getRowCount());
 	}
 	
-	private static CsrMatrix clMultiplyCOO_FLAT(CsrMatrix matrixA, CsrMatrix matrixBToTranspose, int nnzCount) {
+	private static CsrMatrix clMultiplyCOO_FLAT(HostOperand matrixA, HostOperand matrixB, SymbolicProduct symbolic, Semiring semiring, ResultFilter filter) {
 		// Lista di CL buffer da deallocare
 		List<CLMem> buffersRelease = Lists.newArrayList();
 		@SuppressWarnings("rawtypes")
@@ -515,6 +640,12 @@ public final class MultiplyCL {
 		
 		long startTime = System.currentTimeMillis();
 		
+		// Nothing to compute, and zero sized buffers are not allowed
+		int nnzCount = symbolic.getNnz();
+		if (nnzCount == 0) {
+			return symbolic.toMatrix(new int[matrixA.getRowCount()], new int[0], new float[0]);
+		}
+		
 		//
 		CLContext context = KernelConfig.createContext();
 		
@@ -536,53 +667,37 @@ public final class MultiplyCL {
         CLQueue queue = context.createDefaultQueue();
         ByteOrder byteOrder = context.getByteOrder();
         
-        CsrMatrix matrixB = matrixBToTranspose.transpose();
-        boolean isBinary = matrixA.isBinary() && matrixB.isBinary();
+        boolean isBinary = structureOnly(matrixA, matrixB, semiring);
         // System.err.println("IsBinary: " + isBinary);
         
         // Native memory
         Pointer<Float> matA_data = null, matB_data = null;
-        Pointer<Integer> counter, matA_rowptr, matA_colindices, matB_rowptr, matB_colindices;
+        Pointer<Integer> matC_rowptr, matA_rowptr, matA_colindices, matB_rowptr, matB_colindices;
         
         // Allocate
-        counter = Pointer.allocateInt().order(byteOrder);
-        counter.set(0);
-        pointersRelease.add(counter);
-        matA_rowptr = Pointer.allocateInts(matrixA.getRowptr().size()).order(byteOrder);
-        pointersRelease.add(matA_rowptr);
-        matA_colindices = Pointer.allocateInts(matrixA.getColdata().size()).order(byteOrder);
-        pointersRelease.add(matA_colindices);
-        matB_rowptr = Pointer.allocateInts(matrixB.getRowptr().size()).order(byteOrder);
-        pointersRelease.add(matB_rowptr);
-        matB_colindices = Pointer.allocateInts(matrixB.getColdata().size()).order(byteOrder);
-        pointersRelease.add(matB_colindices);
+        matC_rowptr = Pointer.allocateInts(symbolic.getRowPtr().length).order(byteOrder);
+        pointersRelease.add(matC_rowptr);
+        matA_rowptr = matrixA.rowPtr(byteOrder, pointersRelease);
+        matA_colindices = matrixA.colIndices(byteOrder, pointersRelease);
+        matB_rowptr = matrixB.rowPtr(byteOrder, pointersRelease);
+        matB_colindices = matrixB.colIndices(byteOrder, pointersRelease);
         if (!isBinary) {
-        	matA_data = Pointer.allocateFloats(matrixA.getData().size()).order(byteOrder);
-        	pointersRelease.add(matA_data);
-        	matB_data = Pointer.allocateFloats(matrixB.getData().size()).order(byteOrder);
-        	pointersRelease.add(matB_data);
+        	matA_data = matrixA.data(byteOrder, pointersRelease);
+        	matB_data = matrixB.data(byteOrder, pointersRelease);
         }
         
-        PointerUtils.copyToPointer(matrixA.getRowptr(), matA_rowptr);
-        PointerUtils.copyToPointer(matrixA.getColdata(), matA_colindices);
-        PointerUtils.copyToPointer(matrixB.getRowptr(), matB_rowptr);
-        PointerUtils.copyToPointer(matrixB.getColdata(), matB_colindices);
-        if (!isBinary) {
-        	PointerUtils.copyToPointer(matrixA.getData(), matA_data);
-        	PointerUtils.copyToPointer(matrixB.getData(), matB_data);
-        }
+        PointerUtils.copyToPointer(symbolic.getRowPtr(), matC_rowptr);
         
         
         // CLBuffers
-        CLBuffer<Integer> cl_counter = null, cl_matA_rowptr = null, cl_matA_colindices = null, cl_matB_rowptr = null, cl_matB_colindices = null;
+        CLBuffer<Integer> cl_matC_rowptr = null, cl_matA_rowptr = null, cl_matA_colindices = null, cl_matB_rowptr = null, cl_matB_colindices = null;
         CLBuffer<Float> cl_matA_data = null, cl_matB_data = null;
-        CLBuffer<Integer> cl_output_data_x = null, cl_output_data_y = null;
+        CLBuffer<Integer> cl_output_rowcount = null, cl_output_data_y = null;
         CLBuffer<Float> cl_output_data_val = null;
         
         try {
-        	// Always use device mem for the counter
-        	cl_counter = context.createBuffer(Usage.InputOutput, counter);
-        	buffersRelease.add(cl_counter);
+        	cl_matC_rowptr = context.createBuffer(Usage.Input, matC_rowptr, CLEngineConfig.isUSE_DEVICE_MEM());
+        	buffersRelease.add(cl_matC_rowptr);
             cl_matA_rowptr = context.createBuffer(Usage.Input, matA_rowptr, CLEngineConfig.isUSE_DEVICE_MEM());
             buffersRelease.add(cl_matA_rowptr);
             cl_matA_colindices = context.createBuffer(Usage.Input, matA_colindices, CLEngineConfig.isUSE_DEVICE_MEM());
@@ -599,8 +714,8 @@ public final class MultiplyCL {
             }
             
             // Output buffer
-            cl_output_data_x = context.createIntBuffer(Usage.Output, nnzCount);
-            buffersRelease.add(cl_output_data_x);
+            cl_output_rowcount = context.createIntBuffer(Usage.Output, matrixA.getRowCount());
+            buffersRelease.add(cl_output_rowcount);
             cl_output_data_y = context.createIntBuffer(Usage.Output, nnzCount);
             buffersRelease.add(cl_output_data_y);
             cl_output_data_val = context.createFloatBuffer(Usage.Output, nnzCount);
@@ -633,6 +748,8 @@ public final class MultiplyCL {
 		}
     	kernelSource = kernelSource.replaceAll(KernelConfig.DEFINE_ROW, Integer.toString( matrixA.getRowCount() ) );
     	kernelSource = kernelSource.replaceAll(KernelConfig.DEFINE_COL, Integer.toString( matrixB.getRowCount() ) );
+    	kernelSource = KernelConfig.defineFilter(kernelSource, filter);
+    	kernelSource = KernelConfig.defineSemiring(kernelSource, semiring);
         
     	// System.out.println(kernelSource);
         
@@ -641,25 +758,25 @@ public final class MultiplyCL {
         // Get and call the kernel :
         CLKernel multiplyMatrixKernel = null;
         if (!isBinary) {
-        	multiplyMatrixKernel = program.createKernel(KernelConfig.KERNEL_COO_FUN_FULL);
+        	multiplyMatrixKernel = program.createKernel(KernelConfig.KERNEL_CSR_FUN_FULL);
         	multiplyMatrixKernel.setArgs(cl_matA_rowptr,
         			cl_matA_colindices,
         			cl_matA_data,
         			cl_matB_rowptr,
         			cl_matB_colindices,
         			cl_matB_data,
-        			cl_counter,
-        			cl_output_data_x,
+        			cl_matC_rowptr,
+        			cl_output_rowcount,
         			cl_output_data_y,
         			cl_output_data_val);
         } else {
-        	multiplyMatrixKernel = program.createKernel(KernelConfig.KERNEL_COO_FUN_SHORT);
+        	multiplyMatrixKernel = program.createKernel(KernelConfig.KERNEL_CSR_FUN_SHORT);
         	multiplyMatrixKernel.setArgs(cl_matA_rowptr,
         			cl_matA_colindices,
         			cl_matB_rowptr,
         			cl_matB_colindices,
-        			cl_counter,
-        			cl_output_data_x,
+        			cl_matC_rowptr,
+        			cl_output_rowcount,
         			cl_output_data_y,
         			cl_output_data_val);
         }
@@ -697,8 +814,8 @@ public final class MultiplyCL {
         	addEvt = multiplyMatrixKernel.enqueueNDRange(queue, wgSize, locSize);
         }
        
-        Pointer<Integer> matrixDataOut_x = cl_output_data_x.read(queue, addEvt);
-        pointersRelease.add(matrixDataOut_x);
+        Pointer<Integer> matrixDataOut_rowcount = cl_output_rowcount.read(queue, addEvt);
+        pointersRelease.add(matrixDataOut_rowcount);
         Pointer<Integer> matrixDataOut_y = cl_output_data_y.read(queue, addEvt);
         pointersRelease.add(matrixDataOut_y);
         Pointer<Float> matrixDataOut_val = cl_output_data_val.read(queue, addEvt);
@@ -706,9 +823,9 @@ public final class MultiplyCL {
         // Pointer<Float> matrixDataOut = Pointer.allocateFloats(matrixA.getRowCount()*matrixBToTranspose.getColCount()).order(byteOrder);
         // cl_output_data.read(queue, matrixDataOut, true, addEvt);
         
-        List<Integer> listMatrixOut_x = PointerUtils.copyFromPointerInteger(matrixDataOut_x);
-        List<Integer> listMatrixOut_y = PointerUtils.copyFromPointerInteger(matrixDataOut_y);
-        List<Float> listMatrixOut_val = PointerUtils.copyFromPointerFloat(matrixDataOut_val);
+        int[] listMatrixOut_rowcount = PointerUtils.copyFromPointerToInts(matrixDataOut_rowcount);
+        int[] listMatrixOut_y = PointerUtils.copyFromPointerToInts(matrixDataOut_y);
+        float[] listMatrixOut_val = PointerUtils.copyFromPointerToFloats(matrixDataOut_val);
 		
         addEvt.release();
         queue.flush();
@@ -721,16 +838,15 @@ public final class MultiplyCL {
 		
 		System.err.println("Calculated in: " + (System.currentTimeMillis() - startTime) + " millis");
 		
-//		System.out.println(listMatrixOut_x);
 //		System.out.println(listMatrixOut_y);
 //		System.out.println(listMatrixOut_val);
 		
-		return CsrMatrix.fromCOOArray(listMatrixOut_x, listMatrixOut_y, listMatrixOut_val, matrixA.getRowshape(), matrixBToTranspose.getColshape());
+		// Rows are already in place and column ordered
+		return symbolic.toMatrix(listMatrixOut_rowcount, listMatrixOut_y, listMatrixOut_val);
 	}
 	
 	
-	@SuppressWarnings("unused")
-	private static int clCalcNNZ(CsrMatrix matrixA, CsrMatrix matrixBToTranspose) {
+	private static int clCalcNNZ(HostOperand matrixA, HostOperand matrixB) {
 		// Lista di CL buffer da deallocare
 		List<CLMem> buffersRelease = Lists.newArrayList();
 		@SuppressWarnings("rawtypes")
@@ -758,8 +874,6 @@ public final class MultiplyCL {
         CLQueue queue = context.createDefaultQueue();
         ByteOrder byteOrder = context.getByteOrder();
         
-        CsrMatrix matrixB = matrixBToTranspose.transpose();
-        
         // Native memory
         Pointer<Integer> counter, matA_rowptr, matA_colindices, matB_rowptr, matB_colindices;
         
@@ -767,19 +881,11 @@ public final class MultiplyCL {
         counter = Pointer.allocateInt().order(byteOrder);
         counter.set(0);
         pointersRelease.add(counter);
-        matA_rowptr = Pointer.allocateInts(matrixA.getRowptr().size()).order(byteOrder);
-        pointersRelease.add(matA_rowptr);
-        matA_colindices = Pointer.allocateInts(matrixA.getColdata().size()).order(byteOrder);
-        pointersRelease.add(matA_colindices);
-        matB_rowptr = Pointer.allocateInts(matrixB.getRowptr().size()).order(byteOrder);
-        pointersRelease.add(matB_rowptr);
-        matB_colindices = Pointer.allocateInts(matrixB.getColdata().size()).order(byteOrder);
-        pointersRelease.add(matB_colindices);
+        matA_rowptr = matrixA.rowPtr(byteOrder, pointersRelease);
+        matA_colindices = matrixA.colIndices(byteOrder, pointersRelease);
+        matB_rowptr = matrixB.rowPtr(byteOrder, pointersRelease);
+        matB_colindices = matrixB.colIndices(byteOrder, pointersRelease);
         
-        PointerUtils.copyToPointer(matrixA.getRowptr(), matA_rowptr);
-        PointerUtils.copyToPointer(matrixA.getColdata(), matA_colindices);
-        PointerUtils.copyToPointer(matrixB.getRowptr(), matB_rowptr);
-        PointerUtils.copyToPointer(matrixB.getColdata(), matB_colindices);
         
         
         // CLBuffers
@@ -929,7 +1035,7 @@ public final class MultiplyCL {
 //		System.out.println("==========");
 //		
 //		System.out.println(KernelConfig.KERNEL_COO_FLAT());
-//		System.out.println(clMultiplyCOO_FLAT(csrMatrixOne, csrMatrixTwo, clCalcNNZ(csrMatrixOne, csrMatrixTwo)));
+//		System.out.println(clMultiplyCOO_FLAT(csrMatrixOne, csrMatrixTwo.transpose(), csrMatrixOne.multiplySymbolic(csrMatrixTwo), Semiring.PLUS_TIMES, ResultFilter.POSITIVE));
 //		System.out.println(csrMatrixOne.multiply(csrMatrixTwo));
 //		
 ////		float[] ccoOutput = new float[]{0, 0, 2, 
@@ -946,7 +1052,7 @@ public final class MultiplyCL {
 ////				);
 		
 //		System.out.println(csrMatrixOne.nnzMultiplyCount(csrMatrixTwo));
-//		System.out.println(clCalcNNZ(csrMatrixOne, csrMatrixTwo));
+//		System.out.println(clCalcNNZ(csrMatrixOne, csrMatrixTwo.transpose()));
 	}
 }
 
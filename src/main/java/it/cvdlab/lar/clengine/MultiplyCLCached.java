@@ -5,13 +5,17 @@ import it.cvdlab.lar.clengine.utils.CLEngineConfig;
 import it.cvdlab.lar.clengine.utils.KernelConfig;
 import it.cvdlab.lar.clengine.utils.PointerUtils;
 import it.cvdlab.lar.clengine.utils.worksize.SizeEstimator;
+import it.cvdlab.lar.cpuengine.NnzEstimate;
+import it.cvdlab.lar.cpuengine.NnzEstimator;
 import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
 
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.List;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.bridj.Pointer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,15 +35,18 @@ final class MultiplyCLCached {
 	
 	// Buffer identifier (TODO)
 	
-	static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, boolean forceCOO) {
+	// matrixBt is B already transposed, as the kernels read it
+	static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixBt, boolean forceCOO, Semiring semiring, ResultFilter filter) {
 		// Dense result
 		long denseResult = matrixA.getRowCount();
-		denseResult *= (long)matrixB.getColCount();
+		denseResult *= (long)matrixBt.getRowCount();
 		
 		// Init cache object
 		MultiplyCLStatus clCache = new MultiplyCLStatus();
 		clCache.setMatrixA(matrixA);
-		clCache.setMatrixB(matrixB);
+		clCache.setMatrixBt(matrixBt);
+		clCache.setFilter(filter);
+		clCache.setSemiring(semiring);
 		
 		// Context
 		clCache.setContext( KernelConfig.createContext() );
@@ -49,18 +56,32 @@ final class MultiplyCLCached {
 			return null;    	
         }		
 		
-		try {
-			clCache.setNnz( clCalcNNZ( clCache ) );
-		} catch (Exception e) {
-			logger.error(e.toString());
-			return null; 
+		// Row pointers and column indices are shared by every kernel below
+		if (!uploadStructure(clCache)) {
+			return null;
 		}
 		
-		System.err.println("NNZ Res: " + clCache.getNnz());
+		// Pick the path on a sampled estimate: the exact count is only needed to size the COO output
+		NnzEstimate estimate = NnzEstimator.estimate(matrixA, matrixBt);
+		System.err.println("NNZ Estimate: " + estimate);
 		
 		CsrMatrix resultMatrix = null;
-		if ( forceCOO || CLEngineConfig.isUSECOO() || (denseResult > ( clCache.getNnz() * CLEngineConfig.getNNZ_WEIGHT() )) ) {
+		// Kept zeros are lost in a dense result
+		if ( forceCOO || MultiplyCL.keepsZeros(semiring, filter) || CLEngineConfig.isUSECOO() || estimate.favorsCOO(denseResult, CLEngineConfig.getNNZ_WEIGHT()) ) {
 			System.err.println("COO Way");
+			try {
+				clCache.setNnz( clCalcNNZ( clCache ) );
+			} catch (Exception e) {
+				logger.error(e.toString());
+				clCache.free();
+				return null; 
+			}
+			
+			if (clCache.getNnz() < 0) {
+				return null;
+			}
+			
+			System.err.println("NNZ Res: " + clCache.getNnz());
 			resultMatrix = clMultiplyCOO(clCache);
 		} else {
 			System.err.println("Dense Way");
@@ -77,7 +98,7 @@ final class MultiplyCLCached {
 	
 	private static CsrMatrix clMultiply(MultiplyCLStatus clCache) {
 		CsrMatrix matrixA = clCache.getMatrixA();
-		CsrMatrix matrixBToTranspose = clCache.getMatrixB();
+		CsrMatrix matrixB = clCache.getMatrixBt();
 
 		// WorkGroupSize
 		long maxWorkGroupSize = Long.MAX_VALUE;
@@ -88,8 +109,8 @@ final class MultiplyCLCached {
         CLQueue queue = clCache.getContext().createDefaultQueue();
         ByteOrder byteOrder = clCache.getContext().getByteOrder();
         
-        CsrMatrix matrixB = matrixBToTranspose.transpose();
-        boolean isBinary = matrixA.isBinary() && matrixB.isBinary();
+        // Binary kernels never read values
+        boolean isBinary = !clCache.getSemiring().readsValues() || (matrixA.isBinary() && matrixB.isBinary());
         
         long startTime = System.currentTimeMillis();
         
@@ -99,13 +120,8 @@ final class MultiplyCLCached {
         
         // Allocate
         if (!isBinary) {
-            clCache.setPointerFloat( "matA_data", Pointer.allocateFloats(matrixA.getData().size()).order(byteOrder) );
-            clCache.setPointerFloat( "matB_data", Pointer.allocateFloats(matrixB.getData().size()).order(byteOrder) );
-        }
-
-        if (!isBinary) {
-        	PointerUtils.copyToPointer(matrixA.getData(), clCache.getPointerFloat( "matA_data" ) );
-        	PointerUtils.copyToPointer(matrixB.getData(), clCache.getPointerFloat( "matB_data" ) );
+            clCache.setPointerFloat( "matA_data", dataPointer(matrixA, byteOrder) );
+            clCache.setPointerFloat( "matB_data", dataPointer(matrixB, byteOrder) );
         }
         
         
@@ -121,7 +137,7 @@ final class MultiplyCLCached {
             }
             
             // Output buffer
-            clCache.setBufferFloat( "cl_output_data", clCache.getContext().createFloatBuffer(Usage.Output, matrixA.getRowCount()*matrixBToTranspose.getColCount() ) );
+            clCache.setBufferFloat( "cl_output_data", clCache.getContext().createFloatBuffer(Usage.Output, matrixA.getRowCount()*matrixB.getRowCount() ) );
         } catch (CLException e) {
 			queue.flush();
 			queue.release();
@@ -146,6 +162,8 @@ final class MultiplyCLCached {
 		}
     	kernelSource = kernelSource.replaceAll(KernelConfig.DEFINE_ROW, Integer.toString( matrixA.getRowCount() ) );
     	kernelSource = kernelSource.replaceAll(KernelConfig.DEFINE_COL, Integer.toString( matrixB.getRowCount() ) );
+    	kernelSource = KernelConfig.defineFilter(kernelSource, clCache.getFilter());
+    	kernelSource = KernelConfig.defineSemiring(kernelSource, clCache.getSemiring());
         
     	// System.out.println(kernelSource);
         
@@ -210,7 +228,7 @@ final class MultiplyCLCached {
         // Pointer<Float> matrixDataOut = Pointer.allocateFloats(matrixA.getRowCount()*matrixBToTranspose.getColCount()).order(byteOrder);
         // cl_output_data.read(queue, matrixDataOut, true, addEvt);
         
-        List<Float> listMatrixOut = PointerUtils.copyFromPointerFloat( clCache.getPointerFloat( "matrixDataOut") );
+        float[] listMatrixOut = PointerUtils.copyFromPointerToFloats( clCache.getPointerFloat( "matrixDataOut") );
         
         addEvt.release();
         queue.flush();
@@ -222,13 +240,13 @@ final class MultiplyCLCached {
 		// System.out.println(listMatrixOut);
 		System.err.println("Calculated in: " + (System.currentTimeMillis() - startTime) + " millis");
 		
-		return CsrMatrix.fromFlattenArray(ArrayUtils.toPrimitive( listMatrixOut.toArray(new Float[0]) ), matrixBToTranspose.getColCount());
+		return CsrMatrix.fromFlattenArray(listMatrixOut, matrixB.getRowCount());
 	}
 	
 	
 	private static CsrMatrix clMultiplyCOO(MultiplyCLStatus clCache) {
 		CsrMatrix matrixA = clCache.getMatrixA();
-		CsrMatrix matrixBToTranspose = clCache.getMatrixB();
+		CsrMatrix matrixB = clCache.getMatrixBt();
 		int nnzCount = clCache.getNnz();
 
 		
@@ -241,8 +259,8 @@ final class MultiplyCLCached {
         CLQueue queue = clCache.getContext().createDefaultQueue();
         ByteOrder byteOrder = clCache.getContext().getByteOrder();
         
-        CsrMatrix matrixB = matrixBToTranspose.transpose();
-        boolean isBinary = matrixA.isBinary() && matrixB.isBinary();
+        // Binary kernels never read values
+        boolean isBinary = !clCache.getSemiring().readsValues() || (matrixA.isBinary() && matrixB.isBinary());
         
         long startTime = System.currentTimeMillis();
         
@@ -254,13 +272,8 @@ final class MultiplyCLCached {
         clCache.setPointerInteger("counter", Pointer.allocateInt().order(byteOrder) );
         clCache.getPointerInteger("counter").set(0);
         if (!isBinary) {
-            clCache.setPointerFloat( "matA_data", Pointer.allocateFloats(matrixA.getData().size()).order(byteOrder) );
-            clCache.setPointerFloat( "matB_data", Pointer.allocateFloats(matrixB.getData().size()).order(byteOrder) );
-        }
-
-        if (!isBinary) {
-        	PointerUtils.copyToPointer(matrixA.getData(), clCache.getPointerFloat( "matA_data" ) );
-        	PointerUtils.copyToPointer(matrixB.getData(), clCache.getPointerFloat( "matB_data" ) );
+            clCache.setPointerFloat( "matA_data", dataPointer(matrixA, byteOrder) );
+            clCache.setPointerFloat( "matB_data", dataPointer(matrixB, byteOrder) );
         }
         
         
@@ -307,6 +320,8 @@ final class MultiplyCLCached {
 		}
     	kernelSource = kernelSource.replaceAll(KernelConfig.DEFINE_ROW, Integer.toString( matrixA.getRowCount() ) );
     	kernelSource = kernelSource.replaceAll(KernelConfig.DEFINE_COL, Integer.toString( matrixB.getRowCount() ) );
+    	kernelSource = KernelConfig.defineFilter(kernelSource, clCache.getFilter());
+    	kernelSource = KernelConfig.defineSemiring(kernelSource, clCache.getSemiring());
         
     	// System.out.println(kernelSource);
         
@@ -379,9 +394,18 @@ final class MultiplyCLCached {
         // Pointer<Float> matrixDataOut = Pointer.allocateFloats(matrixA.getRowCount()*matrixBToTranspose.getColCount()).order(byteOrder);
         // cl_output_data.read(queue, matrixDataOut, true, addEvt);
         
-        List<Integer> listMatrixOut_x = PointerUtils.copyFromPointerInteger( clCache.getPointerInteger( "matrixDataOut_x") );
-        List<Integer> listMatrixOut_y = PointerUtils.copyFromPointerInteger( clCache.getPointerInteger( "matrixDataOut_y") );
-        List<Float> listMatrixOut_val = PointerUtils.copyFromPointerFloat( clCache.getPointerFloat( "matrixDataOut_val") );
+        int[] listMatrixOut_x = PointerUtils.copyFromPointerToInts( clCache.getPointerInteger( "matrixDataOut_x") );
+        int[] listMatrixOut_y = PointerUtils.copyFromPointerToInts( clCache.getPointerInteger( "matrixDataOut_y") );
+        float[] listMatrixOut_val = PointerUtils.copyFromPointerToFloats( clCache.getPointerFloat( "matrixDataOut_val") );
+        
+        // Entries dropped by the filter leave the tail of the output unwritten
+        clCache.setPointerInteger( "counterOut", clCache.getBufferInteger("cl_counter").read(queue) );
+        int resultCount = clCache.getPointerInteger("counterOut").get();
+        if (resultCount < nnzCount) {
+        	listMatrixOut_x = Arrays.copyOf(listMatrixOut_x, resultCount);
+        	listMatrixOut_y = Arrays.copyOf(listMatrixOut_y, resultCount);
+        	listMatrixOut_val = Arrays.copyOf(listMatrixOut_val, resultCount);
+        }
         
         addEvt.release();
         queue.flush();
@@ -392,9 +416,55 @@ final class MultiplyCLCached {
 		
 		System.err.println("Calculated in: " + (System.currentTimeMillis() - startTime) + " millis");
 		
-		return CsrMatrix.fromCOOArray(listMatrixOut_x, listMatrixOut_y, listMatrixOut_val, matrixA.getRowshape(), matrixBToTranspose.getColshape());
+		return CsrMatrix.fromCOOArray(listMatrixOut_x, listMatrixOut_y, listMatrixOut_val, matrixA.getRowshape(), matrixB.getRowshape());
+	}
+	
+	// Copy the structure of A and Bt to the device once; on failure clCache is freed
+	private static boolean uploadStructure(MultiplyCLStatus clCache) {
+        ByteOrder byteOrder = clCache.getContext().getByteOrder();
+        
+        CsrMatrix matrixA = clCache.getMatrixA();
+        CsrMatrix matrixB = clCache.getMatrixBt();
+        
+        // Native memory
+        // matA_rowptr, matA_colindices, matB_rowptr, matB_colindices;
+        
+        // Allocate
+        clCache.setPointerInteger( "matA_rowptr", Pointer.allocateInts(matrixA.getRowptrArray().length).order(byteOrder) );
+        clCache.setPointerInteger( "matA_colindices", Pointer.allocateInts(matrixA.getColdataArray().length).order(byteOrder) );
+        clCache.setPointerInteger( "matB_rowptr", Pointer.allocateInts(matrixB.getRowptrArray().length).order(byteOrder) );
+        clCache.setPointerInteger( "matB_colindices", Pointer.allocateInts(matrixB.getColdataArray().length).order(byteOrder) );
+        
+        PointerUtils.copyToPointer(matrixA.getRowptrArray(), clCache.getPointerInteger("matA_rowptr") );
+        PointerUtils.copyToPointer(matrixA.getColdataArray(), clCache.getPointerInteger("matA_colindices") );
+        PointerUtils.copyToPointer(matrixB.getRowptrArray(), clCache.getPointerInteger("matB_rowptr") );
+        PointerUtils.copyToPointer(matrixB.getColdataArray(), clCache.getPointerInteger("matB_colindices") );
+        
+        // CLBuffers
+        try {
+        	clCache.setBufferInteger( "cl_matA_rowptr", clCache.getContext().createBuffer(Usage.Input, clCache.getPointerInteger("matA_rowptr"), CLEngineConfig.isUSE_DEVICE_MEM() ) );
+        	clCache.setBufferInteger( "cl_matA_colindices", clCache.getContext().createBuffer(Usage.Input, clCache.getPointerInteger("matA_colindices"), CLEngineConfig.isUSE_DEVICE_MEM() ) );
+        	clCache.setBufferInteger( "cl_matB_rowptr", clCache.getContext().createBuffer(Usage.Input, clCache.getPointerInteger("matB_rowptr"), CLEngineConfig.isUSE_DEVICE_MEM() ) );
+            clCache.setBufferInteger( "cl_matB_colindices", clCache.getContext().createBuffer(Usage.Input, clCache.getPointerInteger("matB_colindices"), CLEngineConfig.isUSE_DEVICE_MEM() ));
+        } catch (CLException e) {
+			clCache.free();
+			
+			System.err.println(e.toString());
+			return false;    	
+        }
+        
+        return true;
 	}
 	
+	// Sized from the nonzero count: getDataArray() builds a new ones array for
+	// pattern matrices, so it is called once per operand
+	private static Pointer<Float> dataPointer(CsrMatrix matrix, ByteOrder byteOrder) {
+		Pointer<Float> pointer = Pointer.allocateFloats(matrix.getNonZeroElementsCount()).order(byteOrder);
+		PointerUtils.copyToPointer(matrix.getDataArray(), pointer);
+		return pointer;
+	}
+	
+	// Exact nonzeros of the product, needed to size the COO output. Expects uploadStructure
 	private static int clCalcNNZ(MultiplyCLStatus clCache) {		
 		// WorkGroupSize
 		long maxWorkGroupSize = Long.MAX_VALUE;
@@ -406,35 +476,21 @@ final class MultiplyCLCached {
         ByteOrder byteOrder = clCache.getContext().getByteOrder();
         
         CsrMatrix matrixA = clCache.getMatrixA();
-        CsrMatrix matrixB = clCache.getMatrixB().transpose();
+        CsrMatrix matrixB = clCache.getMatrixBt();
         
         long startTime = System.currentTimeMillis();
         
         // Native memory
-        // counter, matA_rowptr, matA_colindices, matB_rowptr, matB_colindices;
+        // counter
         
         // Allocate
         clCache.setPointerInteger("counter", Pointer.allocateInt().order(byteOrder) );
         clCache.getPointerInteger("counter").set(0);
         
-        clCache.setPointerInteger( "matA_rowptr", Pointer.allocateInts(matrixA.getRowptr().size()).order(byteOrder) );
-        clCache.setPointerInteger( "matA_colindices", Pointer.allocateInts(matrixA.getColdata().size()).order(byteOrder) );
-        clCache.setPointerInteger( "matB_rowptr", Pointer.allocateInts(matrixB.getRowptr().size()).order(byteOrder) );
-        clCache.setPointerInteger( "matB_colindices", Pointer.allocateInts(matrixB.getColdata().size()).order(byteOrder) );
-        
-        PointerUtils.copyToPointer(matrixA.getRowptr(), clCache.getPointerInteger("matA_rowptr") );
-        PointerUtils.copyToPointer(matrixA.getColdata(), clCache.getPointerInteger("matA_colindices") );
-        PointerUtils.copyToPointer(matrixB.getRowptr(), clCache.getPointerInteger("matB_rowptr") );
-        PointerUtils.copyToPointer(matrixB.getColdata(), clCache.getPointerInteger("matB_colindices") );
-        
         // CLBuffers
         try {
         	// Always use device mem for the counter
         	clCache.setBufferInteger( "cl_counter", clCache.getContext().createBuffer(Usage.InputOutput, clCache.getPointerInteger("counter")) );
-        	clCache.setBufferInteger( "cl_matA_rowptr", clCache.getContext().createBuffer(Usage.Input, clCache.getPointerInteger("matA_rowptr"), CLEngineConfig.isUSE_DEVICE_MEM() ) );
-        	clCache.setBufferInteger( "cl_matA_colindices", clCache.getContext().createBuffer(Usage.Input, clCache.getPointerInteger("matA_colindices"), CLEngineConfig.isUSE_DEVICE_MEM() ) );
-        	clCache.setBufferInteger( "cl_matB_rowptr", clCache.getContext().createBuffer(Usage.Input, clCache.getPointerInteger("matB_rowptr"), CLEngineConfig.isUSE_DEVICE_MEM() ) );
-            clCache.setBufferInteger( "cl_matB_colindices", clCache.getContext().createBuffer(Usage.Input, clCache.getPointerInteger("matB_colindices"), CLEngineConfig.isUSE_DEVICE_MEM() ));
         } catch (CLException e) {
         	queue.flush();
 			queue.release();
@@ -1,6 +1,8 @@
 package it.cvdlab.lar.clengine;
 
 import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
 
 import java.util.Map;
 
@@ -24,8 +26,12 @@ final class MultiplyCLStatus {
 	// qui il valore di nnz
 	private int nnz;
 	
-	// qui matrix a,b
-	private CsrMatrix a,b;
+	// qui matrix a e b trasposta
+	private CsrMatrix a,bt;
+	
+	// qui il filtro del risultato
+	private ResultFilter filter = ResultFilter.POSITIVE;
+	private Semiring semiring = Semiring.PLUS_TIMES;
 	// =======================
 	
 	// il method free
@@ -38,7 +44,7 @@ final class MultiplyCLStatus {
 		context = null;
 		//
 		a = null;
-		b = null;
+		bt = null;
     }
     
     public void releaseSingleCL(String key) {
@@ -121,12 +127,28 @@ final class MultiplyCLStatus {
 		this.a = a;
 	}
 
-	public CsrMatrix getMatrixB() {
-		return b;
+	public CsrMatrix getMatrixBt() {
+		return bt;
+	}
+
+	public void setMatrixBt(CsrMatrix bt) {
+		this.bt = bt;
+	}
+
+	public ResultFilter getFilter() {
+		return filter;
+	}
+
+	public void setFilter(ResultFilter filter) {
+		this.filter = filter;
+	}
+
+	public Semiring getSemiring() {
+		return semiring;
 	}
 
-	public void setMatrixB(CsrMatrix b) {
-		this.b = b;
+	public void setSemiring(Semiring semiring) {
+		this.semiring = semiring;
 	}
 
 	public Map<String, CLMem> getBuffersRelease() {
@@ -18,6 +18,8 @@ public final class CLEngineConfig {
             + ".useSharedCL";
     private static final String PROPERTY_USEIMPLLOCAL = CLEngineConfig.class.getPackage().getName()
             + ".useNoLocalSize";
+    private static final String PROPERTY_CPUTHREADS = CLEngineConfig.class.getPackage().getName()
+            + ".cpuThreads";
 	
     // 
 	private static int NNZ_WEIGHT = 3;
@@ -28,6 +30,7 @@ public final class CLEngineConfig {
 	private static boolean FORCE_GC = false;
 	private static boolean SHARED_CL = false;
 	private static boolean IMPL_LOCAL = true;
+	private static int CPU_THREADS = Runtime.getRuntime().availableProcessors();
 	
 	static {
 		String nnzWeight = System.getProperty(PROPERTY_NNZWEIGHT);
@@ -38,6 +41,7 @@ public final class CLEngineConfig {
 		String forceGC = System.getProperty(PROPERTY_FORCEGC);
 		String sharedCL = System.getProperty(PROPERTY_USESHAREDCL);
 		String implLocal = System.getProperty(PROPERTY_USEIMPLLOCAL);
+		String cpuThreads = System.getProperty(PROPERTY_CPUTHREADS);
 		
 		if (nnzWeight != null) {
 			try{
@@ -85,6 +89,18 @@ public final class CLEngineConfig {
 			IMPL_LOCAL = Boolean.valueOf(implLocal);
 			System.out.println(PROPERTY_USEIMPLLOCAL+ ": " + IMPL_LOCAL);			
 		}		
+		
+		if (cpuThreads != null) {
+			try{
+				int value = Integer.valueOf(cpuThreads);
+				if (value >= 1) {
+					System.out.println(PROPERTY_CPUTHREADS+ ": " + value);
+					CPU_THREADS = value;
+				}
+			} catch(NumberFormatException e) {
+				
+			}
+		}
 	}
 
 	public static int getNNZ_WEIGHT() {
@@ -118,4 +134,8 @@ public final class CLEngineConfig {
 	public static boolean isIMPL_LOCAL() {
 		return IMPL_LOCAL;
 	}
+
+	public static int getCPU_THREADS() {
+		return CPU_THREADS;
+	}
 }
\ No newline at end of file
@@ -12,8 +12,8 @@ final class CLInputSizeEstimator {
 	private static final int COO_TRIPLET = 3;
 	
 	private int genericInputSize(CsrMatrix a, CsrMatrix b) {
-		int firstMatrix = a.getRowPointer().size() + a.getColdata().size();
-		int secondMatrix = b.getRowPointer().size() + b.getColdata().size();
+		int firstMatrix = (a.getRowCount() + 1) + a.getNonZeroElementsCount();
+		int secondMatrix = (b.getRowCount() + 1) + b.getNonZeroElementsCount();
 		
 		int inputSize = (firstMatrix + secondMatrix) * (Integer.SIZE / BIT_PER_BYTES);
 		
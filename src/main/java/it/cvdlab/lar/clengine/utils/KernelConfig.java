@@ -1,5 +1,7 @@
 package it.cvdlab.lar.clengine.utils;
 
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
 
 import com.nativelibs4java.opencl.CLContext;
 import com.nativelibs4java.opencl.CLException;
@@ -71,8 +73,65 @@ public final class KernelConfig {
 	public static final String KERNEL_DENSE_FUN_SHORT = "spmm_binary_kernel_naive";
 	public static final String KERNEL_COO_FUN_FULL = "spmm_coo_kernel_naive";
 	public static final String KERNEL_COO_FUN_SHORT = "spmm_coo_binary_kernel_naive";
+	public static final String KERNEL_CSR_FUN_FULL = "spmm_csr_kernel_naive";
+	public static final String KERNEL_CSR_FUN_SHORT = "spmm_csr_binary_kernel_naive";
 	public static final String KERNEL_NNZ_FUN = "nnz_calc_kernel";
 	
 	public static final String DEFINE_ROW = "%%AROW%%";
 	public static final String DEFINE_COL = "%%BCOL%%";
+	public static final String DEFINE_FILTER_MIN = "%%FMIN%%";
+	public static final String DEFINE_FILTER_MAX = "%%FMAX%%";
+	
+	public static String defineFilter(String kernelSource, ResultFilter filter) {
+		kernelSource = kernelSource.replaceAll(DEFINE_FILTER_MIN, floatLiteral( filter.getMin() ));
+		return kernelSource.replaceAll(DEFINE_FILTER_MAX, floatLiteral( filter.getMax() ));
+	}
+	
+	public static final String DEFINE_SR_ZERO = "%%SRZERO%%";
+	public static final String DEFINE_SR_ADD = "%%SRADD%%";
+	public static final String DEFINE_SR_MUL = "%%SRMUL%%";
+	
+	// Kernel templates per semiring: additive identity, SR_ADD(x, y) and SR_MUL(x, y).
+	// The kernels only emit entries reached by a path, so the identity never shows up.
+	public static String defineSemiring(String kernelSource, Semiring semiring) {
+		String zero, add, mul;
+		switch (semiring) {
+		case OR_AND:
+			zero = "0.0f";
+			add = "1.0f";
+			mul = "1.0f";
+			break;
+		case MIN_PLUS:
+			zero = "INFINITY";
+			add = "fmin((x), (y))";
+			mul = "((x) + (y))";
+			break;
+		case COUNT:
+			zero = "0.0f";
+			add = "((x) + (y))";
+			mul = "1.0f";
+			break;
+		default:
+			zero = "0.0f";
+			add = "((x) + (y))";
+			mul = "((x) * (y))";
+			break;
+		}
+		
+		kernelSource = kernelSource.replaceAll(DEFINE_SR_ZERO, zero);
+		kernelSource = kernelSource.replaceAll(DEFINE_SR_ADD, add);
+		return kernelSource.replaceAll(DEFINE_SR_MUL, mul);
+	}
+	
+	// OpenCL C literal for value
+	static String floatLiteral(float value) {
+		if (Float.isInfinite(value)) {
+			return (value > 0) ? "INFINITY" : "-INFINITY";
+		}
+		// Devices may flush denormals to zero, which would turn "> 0" into ">= 0"
+		if ((value > 0) && (value < Float.MIN_NORMAL)) {
+			return "FLT_MIN";
+		}
+		return Float.toString(value) + "f";
+	}
 }
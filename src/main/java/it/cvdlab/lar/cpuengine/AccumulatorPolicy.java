@@ -0,0 +1,11 @@
+package it.cvdlab.lar.cpuengine;
+
+// How GustavsonMultiply accumulates an output row
+public enum AccumulatorPolicy {
+	// Dense array indexed by column, best for narrow B or dense rows
+	DENSE,
+	// Open-addressing hash table, best for very wide B with short rows
+	HASH,
+	// Pick one of the above per row from its estimated output density
+	ADAPTIVE;
+}
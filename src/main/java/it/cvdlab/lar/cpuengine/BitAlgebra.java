@@ -0,0 +1,9 @@
+package it.cvdlab.lar.cpuengine;
+
+// How BitsetMultiply combines the 0/1 rows of B selected by a row of A
+public enum BitAlgebra {
+	// OR-AND: (i, j) is set when at least one path i -> k -> j exists
+	BOOLEAN,
+	// XOR-AND over GF(2): (i, j) is set when the number of paths is odd
+	GF2;
+}
@@ -0,0 +1,110 @@
+package it.cvdlab.lar.cpuengine;
+
+import java.util.Arrays;
+
+// One output row as a bitset of colshape bits, one per thread. Whole
+// packed rows are merged with branch-free word loops the JIT can
+// vectorize, single bits are scattered and their words remembered so
+// sparse rows are drained without scanning every word.
+final class BitRowAccumulator {
+	private final long[] words;
+	// Words that may hold bits, meaningful while full is false
+	private final int[] touched;
+	private int touchedCount = 0;
+	// A packed row was merged (or touched overflowed): drain scans all words
+	private boolean full = false;
+
+	BitRowAccumulator(int colshape) {
+		this.words = new long[PackedRows.wordCount(colshape)];
+		this.touched = new int[Math.max(1, this.words.length)];
+	}
+
+	void orWords(long[] packed) {
+		for(int w = 0; w < packed.length; w++) {
+			words[w] |= packed[w];
+		}
+		full = true;
+	}
+
+	void xorWords(long[] packed) {
+		for(int w = 0; w < packed.length; w++) {
+			words[w] ^= packed[w];
+		}
+		full = true;
+	}
+
+	void setBit(int col) {
+		touch(col >>> 6);
+		words[col >>> 6] |= (1L << col);
+	}
+
+	void flipBit(int col) {
+		touch(col >>> 6);
+		words[col >>> 6] ^= (1L << col);
+	}
+
+	private void touch(int w) {
+		if (full || (words[w] != 0L)) {
+			return;
+		}
+		if (touchedCount == touched.length) {
+			full = true;
+			return;
+		}
+		touched[touchedCount++] = w;
+	}
+
+	// Popcount of the row: sorts out the touched words, call before drainTo
+	int count() {
+		int count = 0;
+		if (full) {
+			for(int w = 0; w < words.length; w++) {
+				count += Long.bitCount(words[w]);
+			}
+			return count;
+		}
+
+		// A word cleared by XOR and set again is listed twice
+		Arrays.sort(touched, 0, touchedCount);
+		int unique = 0;
+		for(int t = 0; t < touchedCount; t++) {
+			if ((unique == 0) || (touched[unique - 1] != touched[t])) {
+				touched[unique++] = touched[t];
+			}
+		}
+		touchedCount = unique;
+
+		for(int t = 0; t < touchedCount; t++) {
+			count += Long.bitCount(words[touched[t]]);
+		}
+		return count;
+	}
+
+	// Write the set columns in order and clear the row, returns how many
+	int drainTo(int[] colData, int offset) {
+		int next = offset;
+		if (full) {
+			for(int w = 0; w < words.length; w++) {
+				next = drainWord(w, colData, next);
+			}
+		} else {
+			for(int t = 0; t < touchedCount; t++) {
+				next = drainWord(touched[t], colData, next);
+			}
+		}
+
+		touchedCount = 0;
+		full = false;
+		return next - offset;
+	}
+
+	private int drainWord(int w, int[] colData, int next) {
+		long word = words[w];
+		while (word != 0L) {
+			colData[next++] = (w << 6) + Long.numberOfTrailingZeros(word);
+			word &= word - 1;
+		}
+		words[w] = 0L;
+		return next;
+	}
+}
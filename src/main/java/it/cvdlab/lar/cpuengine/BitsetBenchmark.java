@@ -0,0 +1,73 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+
+import java.util.Random;
+
+// Bitset engine against the index based pattern products on random 0/1
+// matrices. Arguments: rows inner cols density [repetitions]
+final class BitsetBenchmark {
+	public static void main(String[] args) {
+		int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+		int inner = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		int cols = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+		double density = (args.length > 3) ? Double.parseDouble(args[3]) : 0.05;
+		int repetitions = (args.length > 4) ? Integer.parseInt(args[4]) : 5;
+
+		Random random = new Random(1);
+		CsrMatrix matrixA = randomPattern(random, rows, inner, density);
+		CsrMatrix matrixB = randomPattern(random, inner, cols, density);
+		System.out.println("A: " + rows + "x" + inner + " NNz: " + matrixA.getNonZeroElementsCount());
+		System.out.println("B: " + inner + "x" + cols + " NNz: " + matrixB.getNonZeroElementsCount());
+
+		// Warm up every path once
+		PatternMultiply.multiplyBoolean(matrixA, matrixB);
+		PatternMultiply.multiplyCount(matrixA, matrixB);
+		BitsetMultiply.multiply(matrixA, matrixB, BitAlgebra.BOOLEAN);
+		BitsetMultiply.multiply(matrixA, matrixB, BitAlgebra.GF2);
+
+		long indexBoolean = 0, indexCount = 0, bitsBoolean = 0, bitsParity = 0;
+		for(int r = 0; r < repetitions; r++) {
+			long startTime = System.nanoTime();
+			PatternMultiply.multiplyBoolean(matrixA, matrixB);
+			indexBoolean += System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			PatternMultiply.multiplyCount(matrixA, matrixB);
+			indexCount += System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			BitsetMultiply.multiply(matrixA, matrixB, BitAlgebra.BOOLEAN);
+			bitsBoolean += System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			BitsetMultiply.multiply(matrixA, matrixB, BitAlgebra.GF2);
+			bitsParity += System.nanoTime() - startTime;
+		}
+
+		report("OR-AND", indexBoolean, bitsBoolean, repetitions);
+		// GF(2) by indices needs the full counts, parity is taken afterwards
+		report("GF(2)", indexCount, bitsParity, repetitions);
+	}
+
+	private static void report(String name, long indexNanos, long bitsetNanos, int repetitions) {
+		System.out.println(name + " index: " + (indexNanos / repetitions / 1000000) + " millis"
+				+ ", bitset: " + (bitsetNanos / repetitions / 1000000) + " millis"
+				+ ", speedup: " + String.format("%.2f", (double) indexNanos / Math.max(1L, bitsetNanos)) + "x");
+	}
+
+	private static CsrMatrix randomPattern(Random random, int rows, int cols, double density) {
+		CsrRowBuilder builder = new CsrRowBuilder(rows, (int) (rows * (cols * density)), true);
+		for(int i = 0; i < rows; i++) {
+			int offset = builder.reserve(cols);
+			int count = 0;
+			for(int j = 0; j < cols; j++) {
+				if (random.nextDouble() < density) {
+					builder.getColData()[offset + count++] = j;
+				}
+			}
+			builder.endRow(count);
+		}
+		return builder.build(cols);
+	}
+}
@@ -0,0 +1,121 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+
+import java.util.concurrent.RecursiveAction;
+
+// Boolean and GF(2) products of 0/1 matrices on bitsets: each output row is
+// a bitset, rows of B dense enough to be packed (see PackedRows) are merged
+// 64 columns per OR/XOR, the others bit by bit, and the row is read back
+// with popcount. Values of the operands are ignored, any stored entry is a 1.
+// The result is a pattern matrix.
+public final class BitsetMultiply {
+
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, BitAlgebra algebra) {
+		return multiply(matrixA, matrixB, algebra, ResultFilter.POSITIVE);
+	}
+
+	// Every entry of the result is 1: the filter keeps all or nothing
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, BitAlgebra algebra, ResultFilter filter) {
+		if (!filter.accept(1F)) {
+			return PatternMultiply.emptyPattern(matrixA.getRowCount(), matrixB.getColCount());
+		}
+
+		int rowCount = matrixA.getRowCount();
+		PackedRows packedB = PackedRows.pack(matrixB);
+
+		long[] flopsPrefix = ParallelMultiply.rowFlopsPrefix(matrixA, matrixB);
+		int[] chunkStart = ParallelMultiply.partitionRows(flopsPrefix,
+				ParallelMultiply.getPool().getParallelism() * ParallelMultiply.CHUNKS_PER_THREAD,
+				ParallelMultiply.MIN_CHUNK_FLOPS);
+		int chunkCount = chunkStart.length - 1;
+
+		if (chunkCount <= 1) {
+			CsrRowBuilder builder = new CsrRowBuilder(rowCount, matrixA.getNonZeroElementsCount(), true);
+			multiplyRows(matrixA, matrixB, packedB, algebra, 0, rowCount, builder);
+			return builder.build(matrixB.getColCount());
+		}
+
+		CsrRowBuilder[] builders = new CsrRowBuilder[chunkCount];
+		ParallelMultiply.getPool().invoke(new ChunkBitsetTask(matrixA, matrixB, packedB, algebra, chunkStart, builders, 0, chunkCount));
+
+		return ParallelMultiply.stitch(builders, chunkStart, rowCount, matrixB.getColCount());
+	}
+
+	// Compute rows [rowStart, rowEnd) of A * B into builder
+	static void multiplyRows(CsrMatrix matrixA, CsrMatrix matrixB, PackedRows packedB, BitAlgebra algebra,
+			int rowStart, int rowEnd, CsrRowBuilder builder) {
+		int[] aRowPtr = matrixA.getRowptrArray(),
+				aColData = matrixA.getColdataArray(),
+				bRowPtr = matrixB.getRowptrArray(),
+				bColData = matrixB.getColdataArray();
+		BitRowAccumulator row = new BitRowAccumulator(matrixB.getColCount());
+		boolean parity = (algebra == BitAlgebra.GF2);
+
+		for(int i = rowStart; i < rowEnd; i++) {
+			for(int k = aRowPtr[i]; k < aRowPtr[i + 1]; k++) {
+				int bRow = aColData[k];
+				long[] packed = packedB.get(bRow);
+
+				if (packed != null) {
+					if (parity) {
+						row.xorWords(packed);
+					} else {
+						row.orWords(packed);
+					}
+				} else if (parity) {
+					for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+						row.flipBit(bColData[j]);
+					}
+				} else {
+					for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+						row.setBit(bColData[j]);
+					}
+				}
+			}
+
+			int offset = builder.reserve( row.count() );
+			builder.endRow( row.drainTo(builder.getColData(), offset) );
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class ChunkBitsetTask extends RecursiveAction {
+		private final CsrMatrix matrixA, matrixB;
+		private final PackedRows packedB;
+		private final BitAlgebra algebra;
+		private final int[] chunkStart;
+		private final CsrRowBuilder[] builders;
+		private final int from, to;
+
+		ChunkBitsetTask(CsrMatrix matrixA, CsrMatrix matrixB, PackedRows packedB, BitAlgebra algebra,
+				int[] chunkStart, CsrRowBuilder[] builders, int from, int to) {
+			this.matrixA = matrixA;
+			this.matrixB = matrixB;
+			this.packedB = packedB;
+			this.algebra = algebra;
+			this.chunkStart = chunkStart;
+			this.builders = builders;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ChunkBitsetTask(matrixA, matrixB, packedB, algebra, chunkStart, builders, from, middle),
+						new ChunkBitsetTask(matrixA, matrixB, packedB, algebra, chunkStart, builders, middle, to));
+				return;
+			}
+
+			int rowStart = chunkStart[from],
+					rowEnd = chunkStart[from + 1];
+			int expectedNnz = matrixA.rowPtrAt(rowEnd) - matrixA.rowPtrAt(rowStart);
+			CsrRowBuilder builder = new CsrRowBuilder(rowEnd - rowStart, expectedNnz, true);
+			multiplyRows(matrixA, matrixB, packedB, algebra, rowStart, rowEnd, builder);
+			builders[from] = builder;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+// COO to CSR without per-element objects: a counting sort by row scatters
+// the triplets straight into the CSR arrays, then every row is sorted by
+// column inside its own slice. Both the scatter and the row sort are stable,
+// so duplicate coordinates keep their input order. Large inputs run the
+// same passes as ParallelTranspose on blocks of triplets.
+public final class CooToCsr {
+	// Below this many triplets per block the fork/join overhead dominates
+	static final int MIN_BLOCK_NNZ = 1 << 16;
+	// Rows up to this length are sorted by insertion
+	private static final int INSERTION_SORT_LENGTH = 32;
+
+	private static final int PHASE_COUNT = 0;
+	private static final int PHASE_SCAN = 1;
+	private static final int PHASE_OFFSET = 2;
+	private static final int PHASE_SCATTER = 3;
+	private static final int PHASE_SORT = 4;
+
+	// A null dVal builds a pattern matrix
+	public static CsrMatrix convert(int[] xVal, int[] yVal, float[] dVal, int rowshape, int colshape) {
+		return convert(new Conversion(xVal, yVal, dVal, null, rowshape), colshape);
+	}
+
+	// Interleaved x, y, value triplets as written by the flat COO kernels
+	public static CsrMatrix convert(float[] cooArray, int rowshape, int colshape) {
+		return convert(new Conversion(null, null, null, cooArray, rowshape), colshape);
+	}
+
+	private static CsrMatrix convert(Conversion job, int colshape) {
+		int blocks = job.blockCount();
+
+		if (blocks == 1) {
+			job.countBlock(0);
+			job.scanRows(0);
+			job.scatterBlock(0);
+			job.closeRows();
+			job.sortRows(0);
+		} else {
+			ParallelMultiply.getPool().invoke(new PhaseTask(job, PHASE_COUNT, 0, blocks));
+			ParallelMultiply.getPool().invoke(new PhaseTask(job, PHASE_SCAN, 0, blocks));
+			job.addSegmentBases();
+			ParallelMultiply.getPool().invoke(new PhaseTask(job, PHASE_OFFSET, 0, blocks));
+			ParallelMultiply.getPool().invoke(new PhaseTask(job, PHASE_SCATTER, 0, blocks));
+			job.closeRows();
+			job.splitSortedRows();
+			ParallelMultiply.getPool().invoke(new PhaseTask(job, PHASE_SORT, 0, blocks));
+		}
+
+		return new CsrMatrix(job.rowPtr, job.colData, job.data, job.rowCount, colshape);
+	}
+
+	// Merges the equal columns that convert() leaves next to each other in a
+	// row, summing their values as Matrix Market readers do; the engines want
+	// strictly increasing columns. A pattern keeps one entry per column.
+	// Without duplicates the matrix itself is returned.
+	public static CsrMatrix sumDuplicates(CsrMatrix matrix) {
+		int[] rowPtr = matrix.getRowptrArray();
+		int[] colData = matrix.getColdataArray();
+		float[] data = matrix.getStoredDataArray();
+		int rowCount = matrix.getRowCount();
+
+		int first = -1;
+		for(int i = 0; (i < rowCount) && (first < 0); i++) {
+			for(int k = rowPtr[i] + 1; k < rowPtr[i + 1]; k++) {
+				if (colData[k] == colData[k - 1]) {
+					first = i;
+					break;
+				}
+			}
+		}
+		if (first < 0) {
+			return matrix;
+		}
+
+		int[] newRowPtr = Arrays.copyOf(rowPtr, rowCount + 1);
+		int[] newColData = colData.clone();
+		float[] newData = (data == null) ? null : data.clone();
+		int l = rowPtr[first];
+		for(int i = first; i < rowCount; i++) {
+			int rowStart = l;
+			for(int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+				if ((l > rowStart) && (newColData[l - 1] == colData[k])) {
+					if (newData != null) {
+						newData[l - 1] += data[k];
+					}
+					continue;
+				}
+				newColData[l] = colData[k];
+				if (newData != null) {
+					newData[l] = data[k];
+				}
+				l++;
+			}
+			newRowPtr[i + 1] = l;
+		}
+
+		return new CsrMatrix(newRowPtr, Arrays.copyOf(newColData, l), (newData == null) ? null : Arrays.copyOf(newData, l),
+				rowCount, matrix.getColCount());
+	}
+
+	// Stable sort of colData[from, to) and data[from, to) by column
+	static void sortRow(int[] colData, float[] data, int from, int to, long[] scratch) {
+		int length = to - from;
+		boolean sorted = true;
+		for(int k = from + 1; (k < to) && sorted; k++) {
+			sorted = (colData[k - 1] <= colData[k]);
+		}
+		if (sorted) {
+			return;
+		}
+
+		// Equal columns of a pattern cannot be told apart
+		if (data == null) {
+			Arrays.sort(colData, from, to);
+			return;
+		}
+
+		if (length <= INSERTION_SORT_LENGTH) {
+			for(int k = from + 1; k < to; k++) {
+				int col = colData[k];
+				float value = data[k];
+				int l = k - 1;
+				while ((l >= from) && (colData[l] > col)) {
+					colData[l + 1] = colData[l];
+					data[l + 1] = data[l];
+					l--;
+				}
+				colData[l + 1] = col;
+				data[l + 1] = value;
+			}
+			return;
+		}
+
+		// (column, position) keys sort stably, then the row is permuted through the scratch
+		for(int k = 0; k < length; k++) {
+			scratch[k] = ((long) colData[from + k] << 32) | k;
+		}
+		Arrays.sort(scratch, 0, length);
+
+		for(int k = 0; k < length; k++) {
+			scratch[k] = ((scratch[k] >>> 32) << 32) | (Float.floatToRawIntBits( data[from + (int) scratch[k]] ) & 0xFFFFFFFFL);
+		}
+		for(int k = 0; k < length; k++) {
+			colData[from + k] = (int) (scratch[k] >>> 32);
+			data[from + k] = Float.intBitsToFloat( (int) scratch[k] );
+		}
+	}
+
+	private static final class Conversion {
+		// Either the three arrays or the interleaved triplets are set
+		private final int[] xVal, yVal;
+		private final float[] dVal;
+		private final float[] triplets;
+		private final int rowCount, nnz;
+
+		private int[] blockStart;
+		// histograms first, then write offsets, one row per block
+		private int[][] offsets;
+		// the scan is split in as many row segments as there are blocks
+		private int[] segmentBase;
+		// result rows handed to every block for the sort
+		private int[] sortStart;
+
+		final int[] rowPtr, colData;
+		final float[] data;
+
+		Conversion(int[] xVal, int[] yVal, float[] dVal, float[] triplets, int rowCount) {
+			this.xVal = xVal;
+			this.yVal = yVal;
+			this.dVal = dVal;
+			this.triplets = triplets;
+			this.rowCount = rowCount;
+			this.nnz = (triplets == null) ? xVal.length : (triplets.length / 3);
+
+			this.rowPtr = new int[rowCount + 1];
+			this.colData = new int[nnz];
+			this.data = ((triplets == null) && (dVal == null)) ? null : new float[nnz];
+		}
+
+		private int row(int k) {
+			return (triplets == null) ? xVal[k] : (int) triplets[3 * k];
+		}
+
+		private int col(int k) {
+			return (triplets == null) ? yVal[k] : (int) triplets[3 * k + 1];
+		}
+
+		private float value(int k) {
+			return (triplets == null) ? dVal[k] : triplets[3 * k + 2];
+		}
+
+		// One histogram of rowCount ints per block: keep them within about nnz ints
+		int blockCount() {
+			int blocks = Math.min(ParallelMultiply.getPool().getParallelism(), nnz / MIN_BLOCK_NNZ);
+			blocks = Math.max(1, Math.min(blocks, nnz / Math.max(1, rowCount)));
+
+			blockStart = new int[blocks + 1];
+			for(int b = 0; b <= blocks; b++) {
+				blockStart[b] = (int) (((long) nnz * b) / blocks);
+			}
+			offsets = new int[blocks][rowCount];
+			segmentBase = new int[blocks + 1];
+			sortStart = new int[]{0, rowCount};
+
+			return blocks;
+		}
+
+		void countBlock(int block) {
+			int[] histogram = offsets[block];
+			for(int k = blockStart[block]; k < blockStart[block + 1]; k++) {
+				histogram[row(k)]++;
+			}
+		}
+
+		private int segmentStart(int segment) {
+			return (int) (((long) rowCount * segment) / (offsets.length));
+		}
+
+		// Exclusive scan of the segment rows starting from 0, the segment
+		// total is kept for addSegmentBases
+		void scanRows(int segment) {
+			int running = 0;
+			for(int i = segmentStart(segment); i < segmentStart(segment + 1); i++) {
+				rowPtr[i] = running;
+				for(int b = 0; b < offsets.length; b++) {
+					int count = offsets[b][i];
+					offsets[b][i] = running;
+					running += count;
+				}
+			}
+			segmentBase[segment + 1] = running;
+		}
+
+		// Sequential over the segments, a handful of values
+		void addSegmentBases() {
+			for(int s = 0; s < offsets.length; s++) {
+				segmentBase[s + 1] += segmentBase[s];
+			}
+		}
+
+		void offsetRows(int segment) {
+			int base = segmentBase[segment];
+			for(int i = segmentStart(segment); i < segmentStart(segment + 1); i++) {
+				rowPtr[i] += base;
+				for(int b = 0; b < offsets.length; b++) {
+					offsets[b][i] += base;
+				}
+			}
+		}
+
+		void scatterBlock(int block) {
+			int[] next = offsets[block];
+			for(int k = blockStart[block]; k < blockStart[block + 1]; k++) {
+				int l = next[row(k)]++;
+
+				colData[l] = col(k);
+				if (data != null) {
+					data[l] = value(k);
+				}
+			}
+		}
+
+		void closeRows() {
+			rowPtr[rowCount] = nnz;
+		}
+
+		void splitSortedRows() {
+			sortStart = ParallelTranspose.splitRows(rowPtr, offsets.length);
+		}
+
+		void sortRows(int block) {
+			long[] scratch = null;
+			for(int i = sortStart[block]; i < sortStart[block + 1]; i++) {
+				int length = rowPtr[i + 1] - rowPtr[i];
+				if ((length > INSERTION_SORT_LENGTH) && ((scratch == null) || (scratch.length < length))) {
+					scratch = new long[length];
+				}
+				sortRow(colData, data, rowPtr[i], rowPtr[i + 1], scratch);
+			}
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class PhaseTask extends RecursiveAction {
+		private final Conversion job;
+		private final int phase;
+		private final int from, to;
+
+		PhaseTask(Conversion job, int phase, int from, int to) {
+			this.job = job;
+			this.phase = phase;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new PhaseTask(job, phase, from, middle),
+						new PhaseTask(job, phase, middle, to));
+				return;
+			}
+
+			switch (phase) {
+			case PHASE_COUNT:
+				job.countBlock(from);
+				break;
+			case PHASE_SCAN:
+				job.scanRows(from);
+				break;
+			case PHASE_OFFSET:
+				job.offsetRows(from);
+				break;
+			case PHASE_SCATTER:
+				job.scatterBlock(from);
+				break;
+			default:
+				job.sortRows(from);
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+
+import java.util.Arrays;
+
+// Growable CSR output, filled one row at a time. A pattern builder keeps
+// no values and builds pattern matrices.
+final class CsrRowBuilder {
+	private static final int MIN_CAPACITY = 16;
+
+	private final int[] rowPtr;
+	private int[] colData;
+	private float[] data;
+	private int rows = 0;
+	private int nnz = 0;
+
+	CsrRowBuilder(int rowCount, int expectedNnz) {
+		this(rowCount, expectedNnz, false);
+	}
+
+	CsrRowBuilder(int rowCount, int expectedNnz, boolean pattern) {
+		this.rowPtr = new int[rowCount + 1];
+		this.colData = new int[Math.max(MIN_CAPACITY, expectedNnz)];
+		this.data = pattern ? null : new float[this.colData.length];
+	}
+
+	// Make room for "count" more entries, returns the offset to write from
+	int reserve(int count) {
+		int required = nnz + count;
+		if (required > colData.length) {
+			int newLength = Math.max(required, colData.length + (colData.length >> 1));
+			colData = Arrays.copyOf(colData, newLength);
+			if (data != null) {
+				data = Arrays.copyOf(data, newLength);
+			}
+		}
+		return nnz;
+	}
+
+	// Close the current row after "count" entries have been written at reserve()
+	void endRow(int count) {
+		nnz += count;
+		rows++;
+		rowPtr[rows] = nnz;
+	}
+
+	int[] getRowPtr() {
+		return rowPtr;
+	}
+
+	int[] getColData() {
+		return colData;
+	}
+
+	// null for a pattern builder
+	float[] getData() {
+		return data;
+	}
+
+	int getRows() {
+		return rows;
+	}
+
+	int getNnz() {
+		return nnz;
+	}
+
+	CsrMatrix build(int colshape) {
+		return new CsrMatrix(rowPtr, Arrays.copyOf(colData, nnz), (data == null) ? null : Arrays.copyOf(data, nnz), rows, colshape);
+	}
+}
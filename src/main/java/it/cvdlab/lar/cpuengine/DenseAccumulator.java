@@ -0,0 +1,74 @@
+package it.cvdlab.lar.cpuengine;
+
+import java.util.Arrays;
+
+// Sparse accumulator (SPA) for one output row: dense values indexed by
+// column plus the list of occupied columns, so a reset only touches
+// the columns that were actually written
+final class DenseAccumulator {
+	private final float[] values;
+	private final boolean[] occupied;
+	private final int[] columns;
+	private int count = 0;
+
+	DenseAccumulator(int colshape) {
+		this.values = new float[colshape];
+		this.occupied = new boolean[colshape];
+		this.columns = new int[colshape];
+	}
+
+	void add(int col, float value) {
+		if (!occupied[col]) {
+			occupied[col] = true;
+			columns[count++] = col;
+			values[col] = value;
+		} else {
+			values[col] += value;
+		}
+	}
+
+	// Min-plus: keep the smallest value
+	void min(int col, float value) {
+		if (!occupied[col]) {
+			occupied[col] = true;
+			columns[count++] = col;
+			values[col] = value;
+		} else if (value < values[col]) {
+			values[col] = value;
+		}
+	}
+
+	// Or-and: any path sets the entry to 1
+	void mark(int col) {
+		if (!occupied[col]) {
+			occupied[col] = true;
+			columns[count++] = col;
+			values[col] = 1F;
+		}
+	}
+
+	int size() {
+		return count;
+	}
+
+	// Write the entries within [min, max] sorted by column, clears the
+	// accumulator and returns the number of written entries
+	int drainTo(int[] colData, float[] data, int offset, float min, float max) {
+		Arrays.sort(columns, 0, count);
+
+		int written = 0;
+		for(int i = 0; i < count; i++) {
+			int col = columns[i];
+			float value = values[col];
+			if ((value >= min) && (value <= max)) {
+				colData[offset + written] = col;
+				data[offset + written] = value;
+				written++;
+			}
+			occupied[col] = false;
+		}
+		count = 0;
+
+		return written;
+	}
+}
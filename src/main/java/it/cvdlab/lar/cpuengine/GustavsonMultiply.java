@@ -0,0 +1,61 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
+
+// Row-by-row SpGEMM (Gustavson): row i of the result is the sum of the
+// rows of B selected by the nonzeros of row i of A, scaled by them.
+// The cost is proportional to the number of multiply-adds, not to
+// rows(A) x cols(B), and B is never transposed. Other semirings swap
+// the sum and the scaling, see Semiring.
+public final class GustavsonMultiply {
+	// Up to this many columns the dense accumulator stays cache resident
+	private static final int DENSE_CACHED_COLUMNS = 1 << 16;
+	// Past that, a row goes to the hash accumulator when its upper-bound
+	// flops cover less than 1/HASH_DENSITY_RATIO of the columns
+	private static final int HASH_DENSITY_RATIO = 16;
+
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB) {
+		return multiply(matrixA, matrixB, AccumulatorPolicy.ADAPTIVE);
+	}
+
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, AccumulatorPolicy policy) {
+		return multiply(matrixA, matrixB, policy, ResultFilter.POSITIVE);
+	}
+
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, AccumulatorPolicy policy, ResultFilter filter) {
+		return multiply(matrixA, matrixB, policy, Semiring.PLUS_TIMES, filter);
+	}
+
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, AccumulatorPolicy policy, Semiring semiring, ResultFilter filter) {
+		int rowCount = matrixA.getRowCount();
+		CsrRowBuilder builder = new CsrRowBuilder(rowCount, matrixA.getNonZeroElementsCount());
+
+		multiplyRows(matrixA, matrixB, 0, rowCount, policy, semiring, filter, builder);
+
+		return builder.build(matrixB.getColCount());
+	}
+
+	// Compute rows [rowStart, rowEnd) of A * B into builder
+	static void multiplyRows(CsrMatrix matrixA, CsrMatrix matrixB, int rowStart, int rowEnd,
+			AccumulatorPolicy policy, Semiring semiring, ResultFilter filter, CsrRowBuilder builder) {
+		RowMultiplier multiplier = new RowMultiplier(matrixA, matrixB, policy, semiring, filter);
+
+		for(int i = rowStart; i < rowEnd; i++) {
+			int offset = builder.reserve( multiplier.accumulate(i) );
+			builder.endRow( multiplier.drainTo(builder.getColData(), builder.getData(), offset) );
+		}
+	}
+
+	static boolean useHash(AccumulatorPolicy policy, long rowFlops, int colshape) {
+		switch (policy) {
+		case DENSE:
+			return false;
+		case HASH:
+			return true;
+		default:
+			return (colshape > DENSE_CACHED_COLUMNS) && ((rowFlops * HASH_DENSITY_RATIO) < colshape);
+		}
+	}
+}
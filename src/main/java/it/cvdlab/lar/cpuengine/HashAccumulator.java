@@ -0,0 +1,129 @@
+package it.cvdlab.lar.cpuengine;
+
+import java.util.Arrays;
+
+// Open-addressing (linear probing) int -> float accumulator for one output
+// row. The table is sized from the row's upper-bound flops, only grows and
+// is reused across rows: a reset clears just the slots that were used.
+final class HashAccumulator {
+	private static final int EMPTY = -1;
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] keys;
+	private float[] values;
+	private int[] usedSlots;
+	private long[] sortBuffer;
+	private int mask;
+	private int count = 0;
+
+	HashAccumulator() {
+		allocate(MIN_CAPACITY);
+	}
+
+	// Get ready for a row producing at most maxEntries distinct columns
+	void prepare(int maxEntries) {
+		// Keep the load factor under 0.5
+		int capacity = MIN_CAPACITY;
+		while ((capacity >> 1) < maxEntries) {
+			capacity <<= 1;
+		}
+
+		if (capacity > keys.length) {
+			allocate(capacity);
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new float[capacity];
+		usedSlots = new int[capacity];
+		sortBuffer = new long[capacity];
+		mask = capacity - 1;
+		count = 0;
+	}
+
+	void add(int col, float value) {
+		int slot = find(col);
+		if (keys[slot] == col) {
+			values[slot] += value;
+		} else {
+			insert(slot, col, value);
+		}
+	}
+
+	// Min-plus: keep the smallest value
+	void min(int col, float value) {
+		int slot = find(col);
+		if (keys[slot] == col) {
+			if (value < values[slot]) {
+				values[slot] = value;
+			}
+		} else {
+			insert(slot, col, value);
+		}
+	}
+
+	// Or-and: any path sets the entry to 1
+	void mark(int col) {
+		int slot = find(col);
+		if (keys[slot] != col) {
+			insert(slot, col, 1F);
+		}
+	}
+
+	// Slot holding col, or the empty slot where it goes
+	private int find(int col) {
+		int h = col * 0x9E3779B9;
+		int slot = (h ^ (h >>> 16)) & mask;
+
+		while ((keys[slot] != col) && (keys[slot] != EMPTY)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void insert(int slot, int col, float value) {
+		keys[slot] = col;
+		values[slot] = value;
+		usedSlots[count++] = slot;
+	}
+
+	int size() {
+		return count;
+	}
+
+	// Forget the current entries without reading them
+	void clear() {
+		for(int i = 0; i < count; i++) {
+			keys[usedSlots[i]] = EMPTY;
+		}
+		count = 0;
+	}
+
+	// Write the entries within [min, max] sorted by column, clears the
+	// accumulator and returns the number of written entries
+	int drainTo(int[] colData, float[] data, int offset, float min, float max) {
+		// Columns are non negative, so packing (column, value bits) in a long
+		// and sorting the longs orders the entries by column
+		for(int i = 0; i < count; i++) {
+			int slot = usedSlots[i];
+			sortBuffer[i] = ((long) keys[slot] << 32) | (Float.floatToRawIntBits(values[slot]) & 0xFFFFFFFFL);
+			keys[slot] = EMPTY;
+		}
+		Arrays.sort(sortBuffer, 0, count);
+
+		int written = 0;
+		for(int i = 0; i < count; i++) {
+			float value = Float.intBitsToFloat((int) sortBuffer[i]);
+			if ((value >= min) && (value <= max)) {
+				colData[offset + written] = (int) (sortBuffer[i] >>> 32);
+				data[offset + written] = value;
+				written++;
+			}
+		}
+		count = 0;
+
+		return written;
+	}
+}
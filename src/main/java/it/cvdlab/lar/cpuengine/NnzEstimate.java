@@ -0,0 +1,50 @@
+package it.cvdlab.lar.cpuengine;
+
+// Structural size of a product as estimated by NnzEstimator: the point
+// estimate and a ~95% interval around it. The interval collapses on the
+// exact count when every pair could be checked.
+public final class NnzEstimate {
+	private final long nnz;
+	private final long low, high;
+	private final int samples;
+	private final boolean exact;
+
+	NnzEstimate(long nnz, long low, long high, int samples, boolean exact) {
+		this.nnz = nnz;
+		this.low = low;
+		this.high = high;
+		this.samples = samples;
+		this.exact = exact;
+	}
+
+	public long getNnz() {
+		return nnz;
+	}
+
+	public long getLow() {
+		return low;
+	}
+
+	public long getHigh() {
+		return high;
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+
+	public boolean isExact() {
+		return exact;
+	}
+
+	// Same rule the engines used on the exact count: a result holding less
+	// than 1 / nnzWeight of its dense size is better written as COO
+	public boolean favorsCOO(long denseSize, int nnzWeight) {
+		return denseSize > (nnz * nnzWeight);
+	}
+
+	@Override
+	public String toString() {
+		return exact ? Long.toString(nnz) : (nnz + " [" + low + ", " + high + "] over " + samples + " samples");
+	}
+}
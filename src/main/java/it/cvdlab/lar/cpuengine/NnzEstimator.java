@@ -0,0 +1,92 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+
+import java.util.Random;
+
+// Estimates the nonzeros of A * B without the symbolic pass, in the layout the
+// OpenCL kernels read: A by rows and B transposed, one row per result column.
+// Random (i, j) cells of the result are checked by merging row i of A with
+// row j of Bt (both sorted), the hit ratio scaled to the whole result; cost
+// depends on the sample size only, not on the size of the operands.
+public final class NnzEstimator {
+	public static final int DEFAULT_SAMPLES = 4096;
+	// Wilson interval at ~95%
+	private static final double Z = 1.96;
+	// Fixed seed: the same operands always take the same path
+	private static final long SEED = 0x5DEECE66DL;
+
+	public static NnzEstimate estimate(CsrMatrix matrixA, CsrMatrix matrixBt) {
+		return estimate(matrixA, matrixBt, DEFAULT_SAMPLES);
+	}
+
+	public static NnzEstimate estimate(CsrMatrix matrixA, CsrMatrix matrixBt, int samples) {
+		if (samples <= 0) {
+			throw new IllegalArgumentException("Sample count must be positive: " + samples);
+		}
+
+		int rowCount = matrixA.getRowCount(),
+				colCount = matrixBt.getRowCount();
+		long cells = (long) rowCount * colCount;
+
+		if ((cells == 0) || (matrixA.getNonZeroElementsCount() == 0) || (matrixBt.getNonZeroElementsCount() == 0)) {
+			return new NnzEstimate(0, 0, 0, 0, true);
+		}
+
+		int[] aRowPtr = matrixA.getRowptrArray(),
+				aColData = matrixA.getColdataArray(),
+				btRowPtr = matrixBt.getRowptrArray(),
+				btColData = matrixBt.getColdataArray();
+
+		// Small enough: check every cell
+		if (cells <= samples) {
+			long nnz = 0;
+			for(int i = 0; i < rowCount; i++) {
+				for(int j = 0; j < colCount; j++) {
+					if (intersects(aColData, aRowPtr[i], aRowPtr[i + 1], btColData, btRowPtr[j], btRowPtr[j + 1])) {
+						nnz++;
+					}
+				}
+			}
+			return new NnzEstimate(nnz, nnz, nnz, (int) cells, true);
+		}
+
+		Random random = new Random(SEED);
+		int hits = 0;
+		for(int s = 0; s < samples; s++) {
+			int i = random.nextInt(rowCount),
+					j = random.nextInt(colCount);
+			if (intersects(aColData, aRowPtr[i], aRowPtr[i + 1], btColData, btRowPtr[j], btRowPtr[j + 1])) {
+				hits++;
+			}
+		}
+
+		double n = samples;
+		double p = hits / n;
+		double z2 = Z * Z;
+		double denominator = 1 + z2 / n;
+		double centre = (p + z2 / (2 * n)) / denominator;
+		double half = Z * Math.sqrt(p * (1 - p) / n + z2 / (4 * n * n)) / denominator;
+
+		long nnz = Math.round(p * cells);
+		long low = (long) Math.floor(Math.max(0, centre - half) * cells);
+		long high = (long) Math.ceil(Math.min(1, centre + half) * cells);
+		return new NnzEstimate(nnz, Math.min(low, nnz), Math.max(high, nnz), samples, false);
+	}
+
+	// Do the sorted column runs [aStart, aEnd) and [bStart, bEnd) share a column?
+	static boolean intersects(int[] aColData, int aStart, int aEnd, int[] bColData, int bStart, int bEnd) {
+		int a = aStart, b = bStart;
+		while ((a < aEnd) && (b < bEnd)) {
+			int aCol = aColData[a], bCol = bColData[b];
+			if (aCol == bCol) {
+				return true;
+			} else if (aCol < bCol) {
+				a++;
+			} else {
+				b++;
+			}
+		}
+		return false;
+	}
+}
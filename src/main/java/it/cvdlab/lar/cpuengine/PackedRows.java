@@ -0,0 +1,44 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+
+// The rows of a matrix worth handling as bitsets: a row is packed when it
+// holds at least as many nonzeros as its bitset has words, so the packed
+// rows never take more longs than the matrix has nonzeros.
+final class PackedRows {
+	private final long[][] rows;
+
+	private PackedRows(long[][] rows) {
+		this.rows = rows;
+	}
+
+	static int wordCount(int colshape) {
+		return (colshape + 63) >>> 6;
+	}
+
+	static PackedRows pack(CsrMatrix matrix) {
+		int[] rowPtr = matrix.getRowptrArray(),
+				colData = matrix.getColdataArray();
+		int words = wordCount(matrix.getColCount());
+
+		long[][] rows = new long[matrix.getRowCount()][];
+		for(int k = 0; k < rows.length; k++) {
+			if ((rowPtr[k + 1] - rowPtr[k]) < Math.max(1, words)) {
+				continue;
+			}
+
+			long[] packed = new long[words];
+			for(int j = rowPtr[k]; j < rowPtr[k + 1]; j++) {
+				packed[colData[j] >>> 6] |= (1L << colData[j]);
+			}
+			rows[k] = packed;
+		}
+
+		return new PackedRows(rows);
+	}
+
+	// null when row k is kept as indices
+	long[] get(int k) {
+		return rows[k];
+	}
+}
@@ -0,0 +1,320 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.clengine.utils.CLEngineConfig;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Multi-core Gustavson SpGEMM. Rows of A are split into chunks carrying
+// about the same number of flops, computed in parallel on a ForkJoinPool.
+// A whole product runs the symbolic phase first: the result is allocated
+// once from its exact row pointer and every chunk writes its rows in place.
+// Row blocks (multiplyRows) compute every chunk into its own CsrRowBuilder
+// instead, then stitch the chunks using the prefix sum of their nnz.
+public final class ParallelMultiply {
+	// Below this many flops per chunk the fork/join overhead dominates
+	static final long MIN_CHUNK_FLOPS = 1 << 16;
+	// Chunks per worker, more chunks smooth out the flops estimate errors
+	static final int CHUNKS_PER_THREAD = 4;
+
+	private static final ForkJoinPool POOL = new ForkJoinPool( CLEngineConfig.getCPU_THREADS() );
+
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB) {
+		return multiply(matrixA, matrixB, AccumulatorPolicy.ADAPTIVE);
+	}
+
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, ResultFilter filter) {
+		return multiply(matrixA, matrixB, AccumulatorPolicy.ADAPTIVE, filter);
+	}
+
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, AccumulatorPolicy policy) {
+		return multiply(matrixA, matrixB, policy, ResultFilter.POSITIVE);
+	}
+
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, AccumulatorPolicy policy, ResultFilter filter) {
+		return multiply(matrixA, matrixB, policy, Semiring.PLUS_TIMES, filter);
+	}
+
+	// Structure only semirings go to the pattern products, which never touch a value
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, Semiring semiring, ResultFilter filter) {
+		switch (semiring) {
+		case OR_AND:
+			return PatternMultiply.multiplyBoolean(matrixA, matrixB, filter);
+		case COUNT:
+			return PatternMultiply.multiplyCount(matrixA, matrixB, filter);
+		default:
+			return multiply(matrixA, matrixB, AccumulatorPolicy.ADAPTIVE, semiring, filter);
+		}
+	}
+
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, AccumulatorPolicy policy, Semiring semiring, ResultFilter filter) {
+		return multiply(matrixA, matrixB, SymbolicMultiply.analyze(matrixA, matrixB), policy, semiring, filter);
+	}
+
+	// Rows [rowStart, rowEnd) of A * B, read from A in place: a row block of A needs no copy
+	public static CsrMatrix multiplyRows(CsrMatrix matrixA, int rowStart, int rowEnd, CsrMatrix matrixB,
+			AccumulatorPolicy policy, Semiring semiring, ResultFilter filter) {
+		int rowCount = rowEnd - rowStart;
+		long[] flopsPrefix = rowFlopsPrefix(matrixA, matrixB, rowStart, rowEnd);
+		int[] chunkStart = partitionRows(flopsPrefix, POOL.getParallelism() * CHUNKS_PER_THREAD, MIN_CHUNK_FLOPS);
+		int chunkCount = chunkStart.length - 1;
+
+		if (chunkCount <= 1) {
+			CsrRowBuilder builder = new CsrRowBuilder(rowCount, matrixA.rowPtrAt(rowEnd) - matrixA.rowPtrAt(rowStart));
+			GustavsonMultiply.multiplyRows(matrixA, matrixB, rowStart, rowEnd, policy, semiring, filter, builder);
+			return builder.build(matrixB.getColCount());
+		}
+
+		// Numeric phase, one builder per chunk
+		CsrRowBuilder[] builders = new CsrRowBuilder[chunkCount];
+		POOL.invoke(new ChunkMultiplyTask(matrixA, matrixB, policy, semiring, filter, rowStart, chunkStart, builders, 0, chunkCount));
+
+		return stitch(builders, chunkStart, rowCount, matrixB.getColCount());
+	}
+
+	// Concatenate the chunk builders, all pattern builders or none
+	static CsrMatrix stitch(CsrRowBuilder[] builders, int[] chunkStart, int rowCount, int colshape) {
+		int chunkCount = builders.length;
+
+		// Chunk offsets in the result
+		int[] chunkOffset = new int[chunkCount + 1];
+		for(int c = 0; c < chunkCount; c++) {
+			chunkOffset[c + 1] = chunkOffset[c] + builders[c].getNnz();
+		}
+
+		int nnz = chunkOffset[chunkCount];
+		int[] rowPtr = new int[rowCount + 1];
+		int[] colData = new int[nnz];
+		float[] data = (builders[0].getData() == null) ? null : new float[nnz];
+		POOL.invoke(new ChunkStitchTask(builders, chunkStart, chunkOffset, rowPtr, colData, data, 0, chunkCount));
+
+		return new CsrMatrix(rowPtr, colData, data, rowCount, colshape);
+	}
+
+	// Numeric phase only: the result structure is already known, every
+	// row is written in place at its final offset, no buffer is stitched
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, SymbolicProduct symbolic) {
+		return multiply(matrixA, matrixB, symbolic, ResultFilter.POSITIVE);
+	}
+
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, SymbolicProduct symbolic, ResultFilter filter) {
+		return multiply(matrixA, matrixB, symbolic, AccumulatorPolicy.ADAPTIVE, Semiring.PLUS_TIMES, filter);
+	}
+
+	public static CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, SymbolicProduct symbolic,
+			AccumulatorPolicy policy, Semiring semiring, ResultFilter filter) {
+		int rowCount = matrixA.getRowCount();
+		int nnz = symbolic.getNnz();
+		int[] written = new int[rowCount];
+		int[] colData = new int[nnz];
+		float[] data = new float[nnz];
+
+		int[] chunkStart = partitionRows(symbolic.getFlopsPrefix(), POOL.getParallelism() * CHUNKS_PER_THREAD, MIN_CHUNK_FLOPS);
+		int chunkCount = chunkStart.length - 1;
+
+		// No rows gives no chunk at all
+		if (chunkCount <= 1) {
+			multiplyInPlace(matrixA, matrixB, policy, semiring, filter, symbolic.getRowPtr(), written, colData, data, 0, rowCount);
+		} else {
+			POOL.invoke(new ChunkInPlaceTask(matrixA, matrixB, policy, semiring, filter, symbolic.getRowPtr(), chunkStart, written, colData, data, 0, chunkCount));
+		}
+
+		return symbolic.toMatrix(written, colData, data);
+	}
+
+	// Rows [rowStart, rowEnd), each written at its offset in rowPtr
+	private static void multiplyInPlace(CsrMatrix matrixA, CsrMatrix matrixB, AccumulatorPolicy policy, Semiring semiring, ResultFilter filter,
+			int[] rowPtr, int[] written, int[] colData, float[] data, int rowStart, int rowEnd) {
+		RowMultiplier multiplier = new RowMultiplier(matrixA, matrixB, policy, semiring, filter);
+		for(int i = rowStart; i < rowEnd; i++) {
+			multiplier.accumulate(i);
+			written[i] = multiplier.drainTo(colData, data, rowPtr[i]);
+		}
+	}
+
+	static ForkJoinPool getPool() {
+		return POOL;
+	}
+
+	// flopsPrefix[i] = multiply-adds needed by rows [0, i) of A * B
+	static long[] rowFlopsPrefix(CsrMatrix matrixA, CsrMatrix matrixB) {
+		return rowFlopsPrefix(matrixA, matrixB, 0, matrixA.getRowCount());
+	}
+
+	// Same, counting rows from rowStart
+	static long[] rowFlopsPrefix(CsrMatrix matrixA, CsrMatrix matrixB, int rowStart, int rowEnd) {
+		int[] aRowPtr = matrixA.getRowptrArray(),
+				aColData = matrixA.getColdataArray(),
+				bRowPtr = matrixB.getRowptrArray();
+
+		long[] flopsPrefix = new long[rowEnd - rowStart + 1];
+		for(int i = rowStart; i < rowEnd; i++) {
+			long rowFlops = 0;
+			for(int k = aRowPtr[i]; k < aRowPtr[i + 1]; k++) {
+				rowFlops += bRowPtr[aColData[k] + 1] - bRowPtr[aColData[k]];
+			}
+			flopsPrefix[i - rowStart + 1] = flopsPrefix[i - rowStart] + rowFlops;
+		}
+
+		return flopsPrefix;
+	}
+
+	// Split the rows in at most maxChunks ranges of about the same flops,
+	// returns the first row of every chunk followed by the row count
+	static int[] partitionRows(long[] flopsPrefix, int maxChunks, long minChunkFlops) {
+		int rowCount = flopsPrefix.length - 1;
+		long totalFlops = flopsPrefix[rowCount];
+		long chunkFlops = Math.max(minChunkFlops, (totalFlops + maxChunks - 1) / Math.max(1, maxChunks));
+
+		int[] bounds = new int[maxChunks + 1];
+		int chunks = 0;
+		int row = 0;
+		while (row < rowCount) {
+			bounds[chunks++] = row;
+			// First row whose prefix reaches the target of this chunk
+			int next = Arrays.binarySearch(flopsPrefix, row + 1, rowCount + 1, flopsPrefix[row] + chunkFlops);
+			if (next < 0) {
+				next = -next - 1;
+			}
+			row = Math.min(Math.max(next, row + 1), rowCount);
+			if (chunks == maxChunks) {
+				row = rowCount;
+			}
+		}
+		bounds[chunks] = rowCount;
+
+		return Arrays.copyOf(bounds, chunks + 1);
+	}
+
+	@SuppressWarnings("serial")
+	private static final class ChunkMultiplyTask extends RecursiveAction {
+		private final CsrMatrix matrixA, matrixB;
+		private final AccumulatorPolicy policy;
+		private final Semiring semiring;
+		private final ResultFilter filter;
+		// chunkStart counts rows from rowBase
+		private final int rowBase;
+		private final int[] chunkStart;
+		private final CsrRowBuilder[] builders;
+		private final int from, to;
+
+		ChunkMultiplyTask(CsrMatrix matrixA, CsrMatrix matrixB, AccumulatorPolicy policy, Semiring semiring, ResultFilter filter,
+				int rowBase, int[] chunkStart, CsrRowBuilder[] builders, int from, int to) {
+			this.matrixA = matrixA;
+			this.matrixB = matrixB;
+			this.policy = policy;
+			this.semiring = semiring;
+			this.filter = filter;
+			this.rowBase = rowBase;
+			this.chunkStart = chunkStart;
+			this.builders = builders;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ChunkMultiplyTask(matrixA, matrixB, policy, semiring, filter, rowBase, chunkStart, builders, from, middle),
+						new ChunkMultiplyTask(matrixA, matrixB, policy, semiring, filter, rowBase, chunkStart, builders, middle, to));
+				return;
+			}
+
+			int rowStart = rowBase + chunkStart[from],
+					rowEnd = rowBase + chunkStart[from + 1];
+			int expectedNnz = matrixA.rowPtrAt(rowEnd) - matrixA.rowPtrAt(rowStart);
+			CsrRowBuilder builder = new CsrRowBuilder(rowEnd - rowStart, expectedNnz);
+			GustavsonMultiply.multiplyRows(matrixA, matrixB, rowStart, rowEnd, policy, semiring, filter, builder);
+			builders[from] = builder;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class ChunkInPlaceTask extends RecursiveAction {
+		private final CsrMatrix matrixA, matrixB;
+		private final AccumulatorPolicy policy;
+		private final Semiring semiring;
+		private final ResultFilter filter;
+		private final int[] rowPtr, chunkStart;
+		private final int[] written, colData;
+		private final float[] data;
+		private final int from, to;
+
+		ChunkInPlaceTask(CsrMatrix matrixA, CsrMatrix matrixB, AccumulatorPolicy policy, Semiring semiring, ResultFilter filter,
+				int[] rowPtr, int[] chunkStart, int[] written, int[] colData, float[] data, int from, int to) {
+			this.matrixA = matrixA;
+			this.matrixB = matrixB;
+			this.policy = policy;
+			this.semiring = semiring;
+			this.filter = filter;
+			this.rowPtr = rowPtr;
+			this.chunkStart = chunkStart;
+			this.written = written;
+			this.colData = colData;
+			this.data = data;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ChunkInPlaceTask(matrixA, matrixB, policy, semiring, filter, rowPtr, chunkStart, written, colData, data, from, middle),
+						new ChunkInPlaceTask(matrixA, matrixB, policy, semiring, filter, rowPtr, chunkStart, written, colData, data, middle, to));
+				return;
+			}
+
+			multiplyInPlace(matrixA, matrixB, policy, semiring, filter, rowPtr, written, colData, data, chunkStart[from], chunkStart[from + 1]);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class ChunkStitchTask extends RecursiveAction {
+		private final CsrRowBuilder[] builders;
+		private final int[] chunkStart, chunkOffset;
+		private final int[] rowPtr, colData;
+		private final float[] data;
+		private final int from, to;
+
+		ChunkStitchTask(CsrRowBuilder[] builders, int[] chunkStart, int[] chunkOffset,
+				int[] rowPtr, int[] colData, float[] data, int from, int to) {
+			this.builders = builders;
+			this.chunkStart = chunkStart;
+			this.chunkOffset = chunkOffset;
+			this.rowPtr = rowPtr;
+			this.colData = colData;
+			this.data = data;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ChunkStitchTask(builders, chunkStart, chunkOffset, rowPtr, colData, data, from, middle),
+						new ChunkStitchTask(builders, chunkStart, chunkOffset, rowPtr, colData, data, middle, to));
+				return;
+			}
+
+			CsrRowBuilder builder = builders[from];
+			int base = chunkOffset[from];
+			int firstRow = chunkStart[from];
+			int[] localRowPtr = builder.getRowPtr();
+
+			for(int r = 1; r <= builder.getRows(); r++) {
+				rowPtr[firstRow + r] = base + localRowPtr[r];
+			}
+			System.arraycopy(builder.getColData(), 0, colData, base, builder.getNnz());
+			if (data != null) {
+				System.arraycopy(builder.getData(), 0, data, base, builder.getNnz());
+			}
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+// CSR to CSC (i.e. transpose) in parallel passes over blocks of rows
+// holding about the same nnz: every block counts its columns in its own
+// histogram, a prefix sum over (column, block) turns the histograms into
+// write offsets, then every block scatters its rows. Blocks are visited in
+// row order, so each output row keeps its columns sorted, as the
+// sequential counting transpose does.
+public final class ParallelTranspose {
+	// Below this many nnz per block the fork/join overhead dominates
+	static final int MIN_BLOCK_NNZ = 1 << 16;
+
+	private static final int PHASE_COUNT = 0;
+	private static final int PHASE_SCAN = 1;
+	private static final int PHASE_OFFSET = 2;
+	private static final int PHASE_SCATTER = 3;
+
+	public static CsrMatrix transpose(CsrMatrix matrix) {
+		int rowCount = matrix.getRowCount();
+		int colCount = matrix.getColCount();
+		int[] rowPtr = matrix.getRowptrArray();
+		int nnz = rowPtr[rowCount];
+
+		int blocks = blockCount(nnz, colCount, ParallelMultiply.getPool().getParallelism());
+		Transposition job = new Transposition(matrix, splitRows(rowPtr, blocks));
+
+		if (blocks == 1) {
+			job.countBlock(0);
+			job.scanColumns(0);
+			job.scatterBlock(0);
+		} else {
+			ParallelMultiply.getPool().invoke(new PhaseTask(job, PHASE_COUNT, 0, blocks));
+			ParallelMultiply.getPool().invoke(new PhaseTask(job, PHASE_SCAN, 0, blocks));
+			job.addSegmentBases();
+			ParallelMultiply.getPool().invoke(new PhaseTask(job, PHASE_OFFSET, 0, blocks));
+			ParallelMultiply.getPool().invoke(new PhaseTask(job, PHASE_SCATTER, 0, blocks));
+		}
+
+		return job.result();
+	}
+
+	// One histogram of colCount ints per block: keep them within about nnz ints
+	static int blockCount(int nnz, int colCount, int parallelism) {
+		int blocks = Math.min(parallelism, nnz / MIN_BLOCK_NNZ);
+		blocks = Math.min(blocks, nnz / Math.max(1, colCount));
+		return Math.max(1, blocks);
+	}
+
+	// First row of every block followed by the row count, blocks of about nnz / blocks elements
+	static int[] splitRows(int[] rowPtr, int blocks) {
+		int rowCount = rowPtr.length - 1;
+		long nnz = rowPtr[rowCount];
+
+		int[] bounds = new int[blocks + 1];
+		for(int b = 1; b < blocks; b++) {
+			int target = (int) ((nnz * b) / blocks);
+			int row = Arrays.binarySearch(rowPtr, bounds[b - 1], rowCount + 1, target);
+			if (row < 0) {
+				row = -row - 1;
+			}
+			bounds[b] = Math.min(Math.max(row, bounds[b - 1]), rowCount);
+		}
+		bounds[blocks] = rowCount;
+
+		return bounds;
+	}
+
+	private static final class Transposition {
+		private final int rowCount, colCount;
+		private final int[] rowPtr, colData;
+		// null stays null: a binary matrix keeps its implicit ones
+		private final float[] values;
+		private final int[] blockStart;
+		// histograms first, then write offsets, one row per block
+		private final int[][] offsets;
+		// the scan is split in as many column segments as there are blocks
+		private final int[] segmentBase;
+
+		private final int[] newPtr, newCol;
+		private final float[] newData;
+
+		Transposition(CsrMatrix matrix, int[] blockStart) {
+			this.rowCount = matrix.getRowCount();
+			this.colCount = matrix.getColCount();
+			this.rowPtr = matrix.getRowptrArray();
+			this.colData = matrix.getColdataArray();
+			this.values = matrix.getStoredDataArray();
+			this.blockStart = blockStart;
+
+			int blocks = blockStart.length - 1;
+			int nnz = rowPtr[rowCount];
+			this.offsets = new int[blocks][colCount];
+			this.segmentBase = new int[blocks + 1];
+			this.newPtr = new int[colCount + 1];
+			this.newCol = new int[nnz];
+			this.newData = (values == null) ? null : new float[nnz];
+		}
+
+		void countBlock(int block) {
+			int[] histogram = offsets[block];
+			for(int k = rowPtr[blockStart[block]]; k < rowPtr[blockStart[block + 1]]; k++) {
+				histogram[colData[k]]++;
+			}
+		}
+
+		private int segmentStart(int segment) {
+			return (int) (((long) colCount * segment) / (offsets.length));
+		}
+
+		// Exclusive scan of the segment columns starting from 0, the segment
+		// total is kept for addSegmentBases
+		void scanColumns(int segment) {
+			int running = 0;
+			for(int j = segmentStart(segment); j < segmentStart(segment + 1); j++) {
+				newPtr[j] = running;
+				for(int b = 0; b < offsets.length; b++) {
+					int count = offsets[b][j];
+					offsets[b][j] = running;
+					running += count;
+				}
+			}
+			segmentBase[segment + 1] = running;
+		}
+
+		// Sequential over the segments, a handful of values
+		void addSegmentBases() {
+			for(int s = 0; s < offsets.length; s++) {
+				segmentBase[s + 1] += segmentBase[s];
+			}
+		}
+
+		void offsetColumns(int segment) {
+			int base = segmentBase[segment];
+			for(int j = segmentStart(segment); j < segmentStart(segment + 1); j++) {
+				newPtr[j] += base;
+				for(int b = 0; b < offsets.length; b++) {
+					offsets[b][j] += base;
+				}
+			}
+		}
+
+		void scatterBlock(int block) {
+			int[] next = offsets[block];
+			for(int i = blockStart[block]; i < blockStart[block + 1]; i++) {
+				for(int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+					int j = colData[k];
+					int l = next[j]++;
+
+					newCol[l] = i;
+					if (newData != null) {
+						newData[l] = values[k];
+					}
+				}
+			}
+		}
+
+		CsrMatrix result() {
+			newPtr[colCount] = rowPtr[rowCount];
+
+			return new CsrMatrix(newPtr, newCol, newData, colCount, rowCount);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class PhaseTask extends RecursiveAction {
+		private final Transposition job;
+		private final int phase;
+		private final int from, to;
+
+		PhaseTask(Transposition job, int phase, int from, int to) {
+			this.job = job;
+			this.phase = phase;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new PhaseTask(job, phase, from, middle),
+						new PhaseTask(job, phase, middle, to));
+				return;
+			}
+
+			switch (phase) {
+			case PHASE_COUNT:
+				job.countBlock(from);
+				break;
+			case PHASE_SCAN:
+				job.scanColumns(from);
+				break;
+			case PHASE_OFFSET:
+				job.offsetColumns(from);
+				break;
+			default:
+				job.scatterBlock(from);
+				break;
+			}
+		}
+	}
+}
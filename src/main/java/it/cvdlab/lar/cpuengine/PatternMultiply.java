@@ -0,0 +1,113 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+// Products of 0/1 matrices that only look at the structure: values of the
+// operands are never read, allocated or transferred.
+// - multiplyCount: entry (i, j) counts the k with A(i, k) and B(k, j),
+//   exactly what the float product of the same 0/1 matrices gives;
+// - multiplyBoolean: the OR-AND product, a pattern matrix without values.
+public final class PatternMultiply {
+	private static final int UNSEEN = -1;
+
+	public static CsrMatrix multiplyCount(CsrMatrix matrixA, CsrMatrix matrixB) {
+		return multiplyCount(matrixA, matrixB, ResultFilter.POSITIVE);
+	}
+
+	// Counts outside the filter are dropped while the rows are accumulated
+	public static CsrMatrix multiplyCount(CsrMatrix matrixA, CsrMatrix matrixB, ResultFilter filter) {
+		return ParallelMultiply.multiply(matrixA.toPattern(), matrixB.toPattern(), filter);
+	}
+
+	public static CsrMatrix multiplyBoolean(CsrMatrix matrixA, CsrMatrix matrixB) {
+		return multiplyBoolean(matrixA, matrixB, ResultFilter.POSITIVE);
+	}
+
+	// Every entry of a boolean product is 1: the filter keeps all or nothing
+	public static CsrMatrix multiplyBoolean(CsrMatrix matrixA, CsrMatrix matrixB, ResultFilter filter) {
+		if (!filter.accept(1F)) {
+			return emptyPattern(matrixA.getRowCount(), matrixB.getColCount());
+		}
+
+		SymbolicProduct symbolic = SymbolicMultiply.analyze(matrixA, matrixB);
+		int[] rowPtr = symbolic.getRowPtr();
+		int[] colData = new int[symbolic.getNnz()];
+
+		int[] chunkStart = ParallelMultiply.partitionRows(symbolic.getFlopsPrefix(),
+				ParallelMultiply.getPool().getParallelism() * ParallelMultiply.CHUNKS_PER_THREAD,
+				ParallelMultiply.MIN_CHUNK_FLOPS);
+		if ((chunkStart.length - 1) <= 1) {
+			collectRows(matrixA, matrixB, 0, matrixA.getRowCount(), rowPtr, colData);
+		} else {
+			ParallelMultiply.getPool().invoke(new ChunkCollectTask(matrixA, matrixB, chunkStart, rowPtr, colData, 0, chunkStart.length - 1));
+		}
+
+		return new CsrMatrix(rowPtr, colData, matrixA.getRowCount(), matrixB.getColCount());
+	}
+
+	static CsrMatrix emptyPattern(int rowshape, int colshape) {
+		return new CsrMatrix(new int[rowshape + 1], new int[0], rowshape, colshape);
+	}
+
+	// Write the sorted distinct columns of rows [rowStart, rowEnd) at their rowPtr offsets
+	static void collectRows(CsrMatrix matrixA, CsrMatrix matrixB, int rowStart, int rowEnd,
+			int[] rowPtr, int[] colData) {
+		int[] aRowPtr = matrixA.getRowptrArray(),
+				aColData = matrixA.getColdataArray(),
+				bRowPtr = matrixB.getRowptrArray(),
+				bColData = matrixB.getColdataArray();
+
+		int[] lastSeen = new int[matrixB.getColCount()];
+		Arrays.fill(lastSeen, UNSEEN);
+
+		for(int i = rowStart; i < rowEnd; i++) {
+			int next = rowPtr[i];
+			for(int k = aRowPtr[i]; k < aRowPtr[i + 1]; k++) {
+				int bRow = aColData[k];
+				for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+					int col = bColData[j];
+					if (lastSeen[col] != i) {
+						lastSeen[col] = i;
+						colData[next++] = col;
+					}
+				}
+			}
+			Arrays.sort(colData, rowPtr[i], next);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class ChunkCollectTask extends RecursiveAction {
+		private final CsrMatrix matrixA, matrixB;
+		private final int[] chunkStart;
+		private final int[] rowPtr, colData;
+		private final int from, to;
+
+		ChunkCollectTask(CsrMatrix matrixA, CsrMatrix matrixB, int[] chunkStart,
+				int[] rowPtr, int[] colData, int from, int to) {
+			this.matrixA = matrixA;
+			this.matrixB = matrixB;
+			this.chunkStart = chunkStart;
+			this.rowPtr = rowPtr;
+			this.colData = colData;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ChunkCollectTask(matrixA, matrixB, chunkStart, rowPtr, colData, from, middle),
+						new ChunkCollectTask(matrixA, matrixB, chunkStart, rowPtr, colData, middle, to));
+				return;
+			}
+
+			collectRows(matrixA, matrixB, chunkStart[from], chunkStart[from + 1], rowPtr, colData);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
+
+// Workspace computing single rows of A * B, one per thread. The dense and
+// hash accumulators are created on first use and reused for every row.
+// Pattern operands are read as ones, no values array is materialized.
+// The semiring picks the accumulation loop once per row.
+final class RowMultiplier {
+	private final int[] aRowPtr, aColData, bRowPtr, bColData;
+	// null for pattern matrices
+	private final float[] aData, bData;
+	private final int colshape;
+	private final AccumulatorPolicy policy;
+	private final Semiring semiring;
+	// Kept entries, see ResultFilter
+	private final float filterMin, filterMax;
+
+	private DenseAccumulator denseAccumulator = null;
+	private HashAccumulator hashAccumulator = null;
+	private boolean hashRow = false;
+
+	RowMultiplier(CsrMatrix matrixA, CsrMatrix matrixB, AccumulatorPolicy policy, ResultFilter filter) {
+		this(matrixA, matrixB, policy, Semiring.PLUS_TIMES, filter);
+	}
+
+	RowMultiplier(CsrMatrix matrixA, CsrMatrix matrixB, AccumulatorPolicy policy, Semiring semiring, ResultFilter filter) {
+		this.aRowPtr = matrixA.getRowptrArray();
+		this.aColData = matrixA.getColdataArray();
+		// Structure only semirings never look at the values
+		this.aData = semiring.readsValues() ? matrixA.getStoredDataArray() : null;
+		this.bRowPtr = matrixB.getRowptrArray();
+		this.bColData = matrixB.getColdataArray();
+		this.bData = semiring.readsValues() ? matrixB.getStoredDataArray() : null;
+		this.colshape = matrixB.getColCount();
+		this.policy = policy;
+		this.semiring = semiring;
+		this.filterMin = filter.getMin();
+		this.filterMax = filter.getMax();
+	}
+
+	long rowFlops(int i) {
+		long rowFlops = 0;
+		for(int k = aRowPtr[i]; k < aRowPtr[i + 1]; k++) {
+			rowFlops += bRowPtr[aColData[k] + 1] - bRowPtr[aColData[k]];
+		}
+		return rowFlops;
+	}
+
+	// Accumulate row i, returns the number of distinct columns touched
+	int accumulate(int i) {
+		long rowFlops = rowFlops(i);
+
+		hashRow = GustavsonMultiply.useHash(policy, rowFlops, colshape);
+		if (hashRow) {
+			if (hashAccumulator == null) {
+				hashAccumulator = new HashAccumulator();
+			}
+			hashAccumulator.prepare( (int) Math.min(rowFlops, colshape) );
+		} else if (denseAccumulator == null) {
+			denseAccumulator = new DenseAccumulator(colshape);
+		}
+
+		// One loop per semiring and accumulator, each stays monomorphic
+		switch (semiring) {
+		case MIN_PLUS:
+			if (hashRow) {
+				minPlusHash(i);
+			} else {
+				minPlusDense(i);
+			}
+			break;
+		case OR_AND:
+			if (hashRow) {
+				orAndHash(i);
+			} else {
+				orAndDense(i);
+			}
+			break;
+		default:
+			// count reads no values: plus-times over ones
+			if (hashRow) {
+				plusTimesHash(i);
+			} else {
+				plusTimesDense(i);
+			}
+			break;
+		}
+
+		return hashRow ? hashAccumulator.size() : denseAccumulator.size();
+	}
+
+	private void plusTimesHash(int i) {
+		for(int k = aRowPtr[i]; k < aRowPtr[i + 1]; k++) {
+			int bRow = aColData[k];
+			float aValue = (aData == null) ? 1F : aData[k];
+			if (bData == null) {
+				for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+					hashAccumulator.add(bColData[j], aValue);
+				}
+			} else {
+				for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+					hashAccumulator.add(bColData[j], aValue * bData[j]);
+				}
+			}
+		}
+	}
+
+	private void plusTimesDense(int i) {
+		for(int k = aRowPtr[i]; k < aRowPtr[i + 1]; k++) {
+			int bRow = aColData[k];
+			float aValue = (aData == null) ? 1F : aData[k];
+			if (bData == null) {
+				for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+					denseAccumulator.add(bColData[j], aValue);
+				}
+			} else {
+				for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+					denseAccumulator.add(bColData[j], aValue * bData[j]);
+				}
+			}
+		}
+	}
+
+	private void minPlusHash(int i) {
+		for(int k = aRowPtr[i]; k < aRowPtr[i + 1]; k++) {
+			int bRow = aColData[k];
+			float aValue = (aData == null) ? 1F : aData[k];
+			for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+				hashAccumulator.min(bColData[j], aValue + ((bData == null) ? 1F : bData[j]));
+			}
+		}
+	}
+
+	private void minPlusDense(int i) {
+		for(int k = aRowPtr[i]; k < aRowPtr[i + 1]; k++) {
+			int bRow = aColData[k];
+			float aValue = (aData == null) ? 1F : aData[k];
+			for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+				denseAccumulator.min(bColData[j], aValue + ((bData == null) ? 1F : bData[j]));
+			}
+		}
+	}
+
+	private void orAndHash(int i) {
+		for(int k = aRowPtr[i]; k < aRowPtr[i + 1]; k++) {
+			int bRow = aColData[k];
+			for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+				hashAccumulator.mark(bColData[j]);
+			}
+		}
+	}
+
+	private void orAndDense(int i) {
+		for(int k = aRowPtr[i]; k < aRowPtr[i + 1]; k++) {
+			int bRow = aColData[k];
+			for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+				denseAccumulator.mark(bColData[j]);
+			}
+		}
+	}
+
+	// Write the kept entries of the row accumulated last, returns how many
+	int drainTo(int[] colData, float[] data, int offset) {
+		if (hashRow) {
+			return hashAccumulator.drainTo(colData, data, offset, filterMin, filterMax);
+		}
+		return denseAccumulator.drainTo(colData, data, offset, filterMin, filterMax);
+	}
+}
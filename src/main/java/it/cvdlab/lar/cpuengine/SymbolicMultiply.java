@@ -0,0 +1,122 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+// Symbolic SpGEMM phase: counts the distinct columns of every row of
+// A * B in O(flops), using a last-seen marker per column (or the hash
+// accumulator for wide, short rows). Rows are processed in parallel on
+// the same flops-balanced chunks used by ParallelMultiply.
+public final class SymbolicMultiply {
+	private static final int UNSEEN = -1;
+
+	public static SymbolicProduct analyze(CsrMatrix matrixA, CsrMatrix matrixB) {
+		int rowCount = matrixA.getRowCount();
+		long[] flopsPrefix = ParallelMultiply.rowFlopsPrefix(matrixA, matrixB);
+		int[] chunkStart = ParallelMultiply.partitionRows(flopsPrefix,
+				ParallelMultiply.getPool().getParallelism() * ParallelMultiply.CHUNKS_PER_THREAD,
+				ParallelMultiply.MIN_CHUNK_FLOPS);
+
+		// rowPtr[i + 1] gets the count of row i, then the prefix sum
+		int[] rowPtr = new int[rowCount + 1];
+		if ((chunkStart.length - 1) <= 1) {
+			countRows(matrixA, matrixB, flopsPrefix, 0, rowCount, rowPtr);
+		} else {
+			ParallelMultiply.getPool().invoke(new ChunkCountTask(matrixA, matrixB, flopsPrefix, chunkStart, rowPtr, 0, chunkStart.length - 1));
+		}
+
+		for(int i = 0; i < rowCount; i++) {
+			rowPtr[i + 1] += rowPtr[i];
+		}
+
+		return new SymbolicProduct(rowPtr, flopsPrefix, matrixB.getColCount());
+	}
+
+	// Store in rowPtr[i + 1] the distinct columns of row i, for i in [rowStart, rowEnd)
+	static void countRows(CsrMatrix matrixA, CsrMatrix matrixB, long[] flopsPrefix,
+			int rowStart, int rowEnd, int[] rowPtr) {
+		int[] aRowPtr = matrixA.getRowptrArray(),
+				aColData = matrixA.getColdataArray(),
+				bRowPtr = matrixB.getRowptrArray(),
+				bColData = matrixB.getColdataArray();
+		int colshape = matrixB.getColCount();
+
+		// Both created on first use
+		int[] lastSeen = null;
+		HashAccumulator hashSet = null;
+
+		for(int i = rowStart; i < rowEnd; i++) {
+			long rowFlops = flopsPrefix[i + 1] - flopsPrefix[i];
+			int count = 0;
+
+			if (GustavsonMultiply.useHash(AccumulatorPolicy.ADAPTIVE, rowFlops, colshape)) {
+				if (hashSet == null) {
+					hashSet = new HashAccumulator();
+				}
+				hashSet.prepare( (int) Math.min(rowFlops, colshape) );
+
+				for(int k = aRowPtr[i]; k < aRowPtr[i + 1]; k++) {
+					int bRow = aColData[k];
+					for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+						hashSet.add(bColData[j], 0F);
+					}
+				}
+
+				count = hashSet.size();
+				hashSet.clear();
+			} else {
+				if (lastSeen == null) {
+					lastSeen = new int[colshape];
+					Arrays.fill(lastSeen, UNSEEN);
+				}
+
+				for(int k = aRowPtr[i]; k < aRowPtr[i + 1]; k++) {
+					int bRow = aColData[k];
+					for(int j = bRowPtr[bRow]; j < bRowPtr[bRow + 1]; j++) {
+						int col = bColData[j];
+						if (lastSeen[col] != i) {
+							lastSeen[col] = i;
+							count++;
+						}
+					}
+				}
+			}
+
+			rowPtr[i + 1] = count;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class ChunkCountTask extends RecursiveAction {
+		private final CsrMatrix matrixA, matrixB;
+		private final long[] flopsPrefix;
+		private final int[] chunkStart;
+		private final int[] rowPtr;
+		private final int from, to;
+
+		ChunkCountTask(CsrMatrix matrixA, CsrMatrix matrixB, long[] flopsPrefix, int[] chunkStart,
+				int[] rowPtr, int from, int to) {
+			this.matrixA = matrixA;
+			this.matrixB = matrixB;
+			this.flopsPrefix = flopsPrefix;
+			this.chunkStart = chunkStart;
+			this.rowPtr = rowPtr;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ChunkCountTask(matrixA, matrixB, flopsPrefix, chunkStart, rowPtr, from, middle),
+						new ChunkCountTask(matrixA, matrixB, flopsPrefix, chunkStart, rowPtr, middle, to));
+				return;
+			}
+
+			countRows(matrixA, matrixB, flopsPrefix, chunkStart[from], chunkStart[from + 1], rowPtr);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package it.cvdlab.lar.cpuengine;
+
+import it.cvdlab.lar.model.CsrMatrix;
+
+// Structure of A * B computed by SymbolicMultiply: the exact number of
+// nonzeros of every result row and the matching row pointer, so numeric
+// engines can allocate once and write every row in place.
+public final class SymbolicProduct {
+	private final int[] rowPtr;
+	private final long[] flopsPrefix;
+	private final int colshape;
+
+	SymbolicProduct(int[] rowPtr, long[] flopsPrefix, int colshape) {
+		this.rowPtr = rowPtr;
+		this.flopsPrefix = flopsPrefix;
+		this.colshape = colshape;
+	}
+
+	public int getRowCount() {
+		return rowPtr.length - 1;
+	}
+
+	public int getColCount() {
+		return colshape;
+	}
+
+	// Row pointer of the result: row i owns [rowPtr[i], rowPtr[i + 1])
+	public int[] getRowPtr() {
+		return rowPtr;
+	}
+
+	public int getRowNnz(int i) {
+		return rowPtr[i + 1] - rowPtr[i];
+	}
+
+	public int[] getRowCounts() {
+		int[] rowCounts = new int[getRowCount()];
+		for(int i = 0; i < rowCounts.length; i++) {
+			rowCounts[i] = getRowNnz(i);
+		}
+		return rowCounts;
+	}
+
+	public int getNnz() {
+		return rowPtr[getRowCount()];
+	}
+
+	long[] getFlopsPrefix() {
+		return flopsPrefix;
+	}
+
+	// Build the result from arrays laid out with getRowPtr() where row i
+	// holds written[i] entries. Numeric phases drop entries that are not
+	// positive, so rows may come back shorter than counted: those gaps are
+	// squeezed out here.
+	public CsrMatrix toMatrix(int[] written, int[] colData, float[] data) {
+		int rowCount = getRowCount();
+		boolean complete = true;
+		for(int i = 0; (i < rowCount) && complete; i++) {
+			complete = (written[i] == getRowNnz(i));
+		}
+
+		if (complete) {
+			return new CsrMatrix(rowPtr, colData, data, rowCount, colshape);
+		}
+
+		int[] newRowPtr = new int[rowCount + 1];
+		for(int i = 0; i < rowCount; i++) {
+			System.arraycopy(colData, rowPtr[i], colData, newRowPtr[i], written[i]);
+			System.arraycopy(data, rowPtr[i], data, newRowPtr[i], written[i]);
+			newRowPtr[i + 1] = newRowPtr[i] + written[i];
+		}
+
+		int nnz = newRowPtr[rowCount];
+		int[] newColData = new int[nnz];
+		float[] newData = new float[nnz];
+		System.arraycopy(colData, 0, newColData, 0, nnz);
+		System.arraycopy(data, 0, newData, 0, nnz);
+
+		return new CsrMatrix(newRowPtr, newColData, newData, rowCount, colshape);
+	}
+}
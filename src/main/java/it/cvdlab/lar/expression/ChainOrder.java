@@ -0,0 +1,103 @@
+package it.cvdlab.lar.expression;
+
+// Association order of a product chain, the matrix chain recurrence solved
+// by dynamic programming. With sparse factors the cost follows the nonzeros,
+// not the shapes: every factor is modelled as uniformly random with its own
+// density, so X (m x k) * Y (k x n) costs dX * dY * m * k * n multiply-adds
+// and holds m * n * (1 - (1 - dX * dY)^k) nonzeros, which are written too.
+final class ChainOrder {
+	private final int[][] split;
+	private final double[][] cost;
+	private final double[][] density;
+
+	private ChainOrder(int factors) {
+		this.split = new int[factors][factors];
+		this.cost = new double[factors][factors];
+		this.density = new double[factors][factors];
+	}
+
+	// rows[i] x cols[i] with nnz[i] nonzeros is the shape of factor i
+	static ChainOrder of(int[] rows, int[] cols, long[] nnz) {
+		int factors = rows.length;
+		ChainOrder order = new ChainOrder(factors);
+
+		for(int i = 0; i < factors; i++) {
+			double cells = (double) rows[i] * cols[i];
+			order.density[i][i] = (cells > 0) ? Math.min(1, nnz[i] / cells) : 0;
+		}
+
+		for(int length = 2; length <= factors; length++) {
+			for(int from = 0; from + length <= factors; from++) {
+				int to = from + length - 1;
+				double m = rows[from], n = cols[to];
+				order.cost[from][to] = Double.POSITIVE_INFINITY;
+
+				for(int s = from; s < to; s++) {
+					double k = cols[s];
+					double p = order.density[from][s] * order.density[s + 1][to];
+					double resultDensity = productDensity(p, k);
+					double splitCost = order.cost[from][s] + order.cost[s + 1][to]
+							+ (p * m * k * n) + (resultDensity * m * n);
+
+					if (splitCost < order.cost[from][to]) {
+						order.cost[from][to] = splitCost;
+						order.split[from][to] = s;
+						order.density[from][to] = resultDensity;
+					}
+				}
+			}
+		}
+
+		return order;
+	}
+
+	// ((0 * 1) * 2) * ..., for products that cannot be reassociated
+	static ChainOrder leftToRight(int factors) {
+		ChainOrder order = new ChainOrder(factors);
+		for(int from = 0; from < factors; from++) {
+			for(int to = from + 1; to < factors; to++) {
+				order.split[from][to] = to - 1;
+			}
+		}
+		return order;
+	}
+
+	// Chance that at least one of k independent terms, each nonzero with probability p, is there
+	private static double productDensity(double p, double k) {
+		if ((p <= 0) || (k <= 0)) {
+			return 0;
+		}
+		if (p >= 1) {
+			return 1;
+		}
+		return -Math.expm1(k * Math.log1p(-p));
+	}
+
+	// Factors [from, to] are computed as [from, split] * [split + 1, to]
+	int split(int from, int to) {
+		return split[from][to];
+	}
+
+	double getCost() {
+		return cost[0][cost.length - 1];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		append(builder, 0, split.length - 1);
+		return builder.toString();
+	}
+
+	private void append(StringBuilder builder, int from, int to) {
+		if (from == to) {
+			builder.append(from);
+			return;
+		}
+		builder.append('(');
+		append(builder, from, split[from][to]);
+		builder.append(" * ");
+		append(builder, split[from][to] + 1, to);
+		builder.append(')');
+	}
+}
@@ -0,0 +1,156 @@
+package it.cvdlab.lar.expression;
+
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Node of a lazy matrix expression. Nodes may be shared, the whole
+// expression is a DAG: ExpressionEvaluator computes every node once.
+// Shapes are checked when nodes are built.
+public abstract class Expression {
+	private final int rowCount;
+	private final int colCount;
+
+	Expression(int rowCount, int colCount) {
+		this.rowCount = rowCount;
+		this.colCount = colCount;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getColCount() {
+		return colCount;
+	}
+
+	// Nodes this one reads
+	abstract List<Expression> children();
+
+	public static Expression operand(CsrMatrix matrix) {
+		return new Operand(matrix);
+	}
+
+	public static Expression transpose(Expression arg) {
+		return new Transpose(arg);
+	}
+
+	public static Expression filter(Expression arg, ResultFilter filter) {
+		return new Filter(arg, filter);
+	}
+
+	public static Expression multiply(List<Expression> args, Semiring semiring) {
+		return multiply(args, semiring, semiring.defaultFilter());
+	}
+
+	// args[0] * args[1] * ...: every intermediate product keeps the default
+	// filter of the semiring, filter applies to the last one. The evaluator
+	// picks the association order only where it cannot change the result,
+	// otherwise the products run left to right
+	public static Expression multiply(List<Expression> args, Semiring semiring, ResultFilter filter) {
+		if (args.size() < 2) {
+			throw new IllegalArgumentException("A product needs at least two factors, got " + args.size());
+		}
+		for(int i = 1; i < args.size(); i++) {
+			if (args.get(i - 1).getColCount() != args.get(i).getRowCount()) {
+				throw new IllegalArgumentException("Factor " + (i - 1) + " is " + args.get(i - 1).getRowCount() + "x" + args.get(i - 1).getColCount()
+						+ ", factor " + i + " is " + args.get(i).getRowCount() + "x" + args.get(i).getColCount());
+			}
+		}
+		return new Multiply(args, semiring, filter);
+	}
+
+	static final class Operand extends Expression {
+		private final CsrMatrix matrix;
+
+		Operand(CsrMatrix matrix) {
+			super(matrix.getRowCount(), matrix.getColCount());
+			this.matrix = matrix;
+		}
+
+		CsrMatrix getMatrix() {
+			return matrix;
+		}
+
+		@Override
+		List<Expression> children() {
+			return Collections.emptyList();
+		}
+	}
+
+	static final class Transpose extends Expression {
+		private final Expression arg;
+
+		Transpose(Expression arg) {
+			super(arg.getColCount(), arg.getRowCount());
+			this.arg = arg;
+		}
+
+		Expression getArg() {
+			return arg;
+		}
+
+		@Override
+		List<Expression> children() {
+			return Collections.singletonList(arg);
+		}
+	}
+
+	static final class Filter extends Expression {
+		private final Expression arg;
+		private final ResultFilter filter;
+
+		Filter(Expression arg, ResultFilter filter) {
+			super(arg.getRowCount(), arg.getColCount());
+			this.arg = arg;
+			this.filter = filter;
+		}
+
+		Expression getArg() {
+			return arg;
+		}
+
+		ResultFilter getFilter() {
+			return filter;
+		}
+
+		@Override
+		List<Expression> children() {
+			return Collections.singletonList(arg);
+		}
+	}
+
+	static final class Multiply extends Expression {
+		private final List<Expression> args;
+		private final Semiring semiring;
+		private final ResultFilter filter;
+
+		Multiply(List<Expression> args, Semiring semiring, ResultFilter filter) {
+			super(args.get(0).getRowCount(), args.get(args.size() - 1).getColCount());
+			this.args = Collections.unmodifiableList(new ArrayList<Expression>(args));
+			this.semiring = semiring;
+			this.filter = filter;
+		}
+
+		List<Expression> getArgs() {
+			return args;
+		}
+
+		Semiring getSemiring() {
+			return semiring;
+		}
+
+		ResultFilter getFilter() {
+			return filter;
+		}
+
+		@Override
+		List<Expression> children() {
+			return args;
+		}
+	}
+}
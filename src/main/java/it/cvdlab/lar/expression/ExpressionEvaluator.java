@@ -0,0 +1,223 @@
+package it.cvdlab.lar.expression;
+
+import it.cvdlab.lar.expression.Expression.Filter;
+import it.cvdlab.lar.expression.Expression.Multiply;
+import it.cvdlab.lar.expression.Expression.Operand;
+import it.cvdlab.lar.expression.Expression.Transpose;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Computes an Expression with every intermediate kept as a CsrMatrix. Only the
+// nodes the root reads are computed, each one once however many nodes share it.
+// Nodes read by a single consumer are fused into it:
+// - nested products of the same semiring become one chain, associated by ChainOrder
+//   when the intermediate filter cannot make the association matter
+// - a transposed right operand goes to multiplyTransposed, not through a transpose
+// - a filter over a product is applied while the product is accumulated
+// - a transpose of a transpose is its argument
+public final class ExpressionEvaluator {
+	private final ProductEngine engine;
+	private final Map<Expression, CsrMatrix> results = new IdentityHashMap<Expression, CsrMatrix>();
+	private final Map<Expression, Integer> consumers = new IdentityHashMap<Expression, Integer>();
+	// Products done by the running evaluate(), read by other threads as progress
+	private volatile int productCount = 0;
+
+	public ExpressionEvaluator(ProductEngine engine) {
+		this.engine = engine;
+	}
+
+	public CsrMatrix evaluate(Expression root) throws Exception {
+		results.clear();
+		consumers.clear();
+		productCount = 0;
+		consumers.put(root, 1);
+		countConsumers(root);
+
+		try {
+			return value(root);
+		} finally {
+			results.clear();
+			consumers.clear();
+		}
+	}
+
+	public int getProductCount() {
+		return productCount;
+	}
+
+	private void countConsumers(Expression node) {
+		for(Expression child : node.children()) {
+			Integer count = consumers.get(child);
+			consumers.put(child, (count == null) ? 1 : count + 1);
+			if (count == null) {
+				countConsumers(child);
+			}
+		}
+	}
+
+	// Can node be folded into its only consumer?
+	private boolean fusable(Expression node) {
+		return (consumers.get(node) == 1) && !results.containsKey(node);
+	}
+
+	private CsrMatrix value(Expression node) throws Exception {
+		CsrMatrix result = results.get(node);
+		if (result == null) {
+			result = compute(node);
+			results.put(node, result);
+		}
+		return result;
+	}
+
+	private CsrMatrix compute(Expression node) throws Exception {
+		if (node instanceof Operand) {
+			return ((Operand) node).getMatrix();
+		}
+
+		if (node instanceof Transpose) {
+			Expression arg = ((Transpose) node).getArg();
+			if (arg instanceof Transpose) {
+				return value( ((Transpose) arg).getArg() );
+			}
+			return value(arg).transpose();
+		}
+
+		if (node instanceof Filter) {
+			Expression arg = ((Filter) node).getArg();
+			ResultFilter filter = ((Filter) node).getFilter();
+			while ((arg instanceof Filter) && fusable(arg)) {
+				filter = filter.intersect( ((Filter) arg).getFilter() );
+				arg = ((Filter) arg).getArg();
+			}
+			if ((arg instanceof Multiply) && fusable(arg)) {
+				return product((Multiply) arg, filter.intersect( ((Multiply) arg).getFilter() ));
+			}
+			return value(arg).filter(filter);
+		}
+
+		Multiply multiply = (Multiply) node;
+		return product(multiply, multiply.getFilter());
+	}
+
+	private CsrMatrix product(Multiply multiply, ResultFilter filter) throws Exception {
+		Semiring semiring = multiply.getSemiring();
+		List<Expression> factors = new ArrayList<Expression>();
+		flatten(multiply, semiring, factors);
+		boolean reassociable = reassociable(semiring, factors);
+		if (!reassociable) {
+			// The nesting as written, each level left to right
+			factors = new ArrayList<Expression>(multiply.getArgs());
+		}
+		return new ChainProduct(factors, semiring, reassociable).compute(filter);
+	}
+
+	// Candidate chain: nested products of the same semiring with the default filter,
+	// but COUNT, which ignores the values it multiplies: (A B) C and A (B C) count different paths
+	private void flatten(Multiply multiply, Semiring semiring, List<Expression> factors) {
+		for(Expression arg : multiply.getArgs()) {
+			if ((arg instanceof Multiply) && fusable(arg) && (semiring != Semiring.COUNT)
+					&& (((Multiply) arg).getSemiring() == semiring)
+					&& ((Multiply) arg).getFilter().equals(semiring.defaultFilter())) {
+				flatten((Multiply) arg, semiring, factors);
+			} else {
+				factors.add(arg);
+			}
+		}
+	}
+
+	// Intermediates keep the default filter. Dropping its rejects commutes with
+	// the association when no sum can cancel: MIN_PLUS keeps every value, OR_AND
+	// ignores them, PLUS_TIMES needs factors without negative values. Otherwise
+	// [1] [-1] [-1] is empty as (A B) C, as A B is dropped, but 1 as A (B C).
+	private boolean reassociable(Semiring semiring, List<Expression> factors) throws Exception {
+		if (semiring == Semiring.COUNT) {
+			return false;
+		}
+		if (!semiring.readsValues() || semiring.defaultFilter().equals(ResultFilter.ALL)) {
+			return true;
+		}
+		for(Expression factor : factors) {
+			if (hasNegatives(factor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// A transpose has the values of its argument, which the chain computes anyway
+	private boolean hasNegatives(Expression factor) throws Exception {
+		while (factor instanceof Transpose) {
+			factor = ((Transpose) factor).getArg();
+		}
+		float[] data = value(factor).getStoredDataArray();
+		if (data != null) {
+			for(float value : data) {
+				if (value < 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private final class ChainProduct {
+		private final List<Expression> factors;
+		private final Semiring semiring;
+		// Not null where the factor is a transpose computed only by multiplyTransposed
+		private final CsrMatrix[] transposed;
+		private final ChainOrder order;
+
+		ChainProduct(List<Expression> factors, Semiring semiring, boolean reassociable) throws Exception {
+			int count = factors.size();
+			this.factors = factors;
+			this.semiring = semiring;
+			this.transposed = new CsrMatrix[count];
+
+			int[] rows = new int[count], cols = new int[count];
+			long[] nnz = new long[count];
+			for(int i = 0; i < count; i++) {
+				Expression factor = factors.get(i);
+				rows[i] = factor.getRowCount();
+				cols[i] = factor.getColCount();
+
+				if ((i > 0) && (factor instanceof Transpose) && fusable(factor)
+						&& !(((Transpose) factor).getArg() instanceof Transpose)) {
+					transposed[i] = value( ((Transpose) factor).getArg() );
+					nnz[i] = transposed[i].getNonZeroElementsCount();
+				} else {
+					nnz[i] = value(factor).getNonZeroElementsCount();
+				}
+			}
+
+			this.order = reassociable ? ChainOrder.of(rows, cols, nnz) : ChainOrder.leftToRight(count);
+			System.err.println("Chain order: " + order);
+		}
+
+		CsrMatrix compute(ResultFilter filter) throws Exception {
+			return compute(0, factors.size() - 1, filter);
+		}
+
+		private CsrMatrix compute(int from, int to, ResultFilter filter) throws Exception {
+			if (from == to) {
+				return value( factors.get(from) );
+			}
+
+			int split = order.split(from, to);
+			CsrMatrix left = compute(from, split, semiring.defaultFilter());
+			CsrMatrix result;
+			if ((split + 1 == to) && (transposed[to] != null)) {
+				result = engine.multiplyTransposed(left, transposed[to], semiring, filter);
+			} else {
+				result = engine.multiply(left, compute(split + 1, to, semiring.defaultFilter()), semiring, filter);
+			}
+			productCount++;
+			return result;
+		}
+	}
+}
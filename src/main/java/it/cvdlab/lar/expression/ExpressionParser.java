@@ -0,0 +1,226 @@
+package it.cvdlab.lar.expression;
+
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+// Reads an expression sent as JSON:
+// {
+//   "operands": { "FV": <matrix>, "EV": <matrix> },
+//   "nodes": {
+//     "EVt": { "op": "transpose", "arg": "EV" },
+//     "FE": { "op": "multiply", "args": ["FV", "EVt"], "semiring": "count", "filterEquals": 2 }
+//   },
+//   "result": "FE"
+// }
+// Arguments name operands or other nodes, declared in any order. semiring,
+// filterEquals, filterMin and filterMax read as in the multiply endpoints;
+// a "filter" node takes the filter fields only.
+public final class ExpressionParser {
+	public static final String JSON_OPERANDS = "operands";
+	public static final String JSON_NODES = "nodes";
+	public static final String JSON_RESULT = "result";
+	public static final String JSON_OP = "op";
+	public static final String JSON_ARG = "arg";
+	public static final String JSON_ARGS = "args";
+	public static final String JSON_SEMIRING = "semiring";
+	public static final String JSON_FILTER_EQUALS = "filterEquals";
+	public static final String JSON_FILTER_MIN = "filterMin";
+	public static final String JSON_FILTER_MAX = "filterMax";
+
+	public static final String OP_MULTIPLY = "multiply";
+	public static final String OP_TRANSPOSE = "transpose";
+	public static final String OP_FILTER = "filter";
+
+	private final ObjectMapper jacksonMapper;
+
+	public ExpressionParser(ObjectMapper jacksonMapper) {
+		this.jacksonMapper = jacksonMapper;
+	}
+
+	public Expression parse(String content) throws IOException {
+		JsonParser jp = jacksonMapper.getJsonFactory().createJsonParser(content);
+		try {
+			return parse(jp);
+		} finally {
+			jp.close();
+		}
+	}
+
+	// Straight from a request body, the JSON is never held as a string
+	public Expression parse(InputStream content) throws IOException {
+		JsonParser jp = jacksonMapper.getJsonFactory().createJsonParser(content);
+		try {
+			return parse(jp);
+		} finally {
+			jp.close();
+		}
+	}
+
+	public Expression parse(JsonParser jp) throws IOException {
+		Map<String, CsrMatrix> operands = new HashMap<String, CsrMatrix>();
+		Map<String, NodeSpec> nodes = new HashMap<String, NodeSpec>();
+		String result = null;
+
+		JsonToken token = (jp.getCurrentToken() == null) ? jp.nextToken() : jp.getCurrentToken();
+		expect(jp, token, JsonToken.START_OBJECT);
+
+		for(token = jp.nextToken(); token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+			String fieldName = jp.getCurrentName();
+			token = jp.nextToken();
+
+			if (JSON_OPERANDS.equals(fieldName)) {
+				expect(jp, token, JsonToken.START_OBJECT);
+				for(token = jp.nextToken(); token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+					String name = jp.getCurrentName();
+					jp.nextToken();
+					operands.put(name, jacksonMapper.readValue(jp, CsrMatrix.class));
+				}
+			} else if (JSON_NODES.equals(fieldName)) {
+				expect(jp, token, JsonToken.START_OBJECT);
+				for(token = jp.nextToken(); token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+					String name = jp.getCurrentName();
+					nodes.put(name, readNode(jp, jp.nextToken()));
+				}
+			} else if (JSON_RESULT.equals(fieldName)) {
+				result = jp.getText();
+			} else {
+				jp.skipChildren();
+			}
+		}
+
+		if (result == null) {
+			throw new IllegalArgumentException("Missing " + JSON_RESULT);
+		}
+		for(String name : nodes.keySet()) {
+			if (operands.containsKey(name)) {
+				throw new IllegalArgumentException("Name " + name + " is both an operand and a node");
+			}
+		}
+
+		return new Resolver(operands, nodes).resolve(result);
+	}
+
+	private static NodeSpec readNode(JsonParser jp, JsonToken token) throws IOException {
+		expect(jp, token, JsonToken.START_OBJECT);
+		NodeSpec node = new NodeSpec();
+
+		for(token = jp.nextToken(); token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+			String fieldName = jp.getCurrentName();
+			token = jp.nextToken();
+
+			if (JSON_OP.equals(fieldName)) {
+				node.op = jp.getText();
+			} else if (JSON_ARG.equals(fieldName)) {
+				node.args.add( jp.getText() );
+			} else if (JSON_ARGS.equals(fieldName)) {
+				expect(jp, token, JsonToken.START_ARRAY);
+				while (jp.nextToken() != JsonToken.END_ARRAY) {
+					node.args.add( jp.getText() );
+				}
+			} else if (JSON_SEMIRING.equals(fieldName)) {
+				node.semiring = jp.getText();
+			} else if (JSON_FILTER_EQUALS.equals(fieldName)) {
+				node.filterEquals = jp.getText();
+			} else if (JSON_FILTER_MIN.equals(fieldName)) {
+				node.filterMin = jp.getText();
+			} else if (JSON_FILTER_MAX.equals(fieldName)) {
+				node.filterMax = jp.getText();
+			} else {
+				jp.skipChildren();
+			}
+		}
+
+		return node;
+	}
+
+	private static void expect(JsonParser jp, JsonToken token, JsonToken expected) throws JsonParseException {
+		if (token != expected) {
+			throw new JsonParseException("Expected " + expected + ", found " + token, jp.getCurrentLocation());
+		}
+	}
+
+	private static final class NodeSpec {
+		private String op;
+		private final List<String> args = new ArrayList<String>();
+		private String semiring;
+		private String filterEquals, filterMin, filterMax;
+
+		private ResultFilter filter(ResultFilter defaults) {
+			return ResultFilter.parse(filterEquals, filterMin, filterMax, defaults);
+		}
+	}
+
+	// Builds each name once, so nodes read twice are shared
+	private static final class Resolver {
+		private final Map<String, CsrMatrix> operands;
+		private final Map<String, NodeSpec> nodes;
+		private final Map<String, Expression> resolved = new HashMap<String, Expression>();
+		private final Set<String> visiting = new HashSet<String>();
+
+		Resolver(Map<String, CsrMatrix> operands, Map<String, NodeSpec> nodes) {
+			this.operands = operands;
+			this.nodes = nodes;
+		}
+
+		Expression resolve(String name) {
+			Expression expression = resolved.get(name);
+			if (expression != null) {
+				return expression;
+			}
+
+			if (operands.containsKey(name)) {
+				expression = Expression.operand(operands.get(name));
+			} else if (nodes.containsKey(name)) {
+				if (!visiting.add(name)) {
+					throw new IllegalArgumentException("Node " + name + " depends on itself");
+				}
+				expression = build(name, nodes.get(name));
+				visiting.remove(name);
+			} else {
+				throw new IllegalArgumentException("Unknown operand or node " + name);
+			}
+
+			resolved.put(name, expression);
+			return expression;
+		}
+
+		private Expression build(String name, NodeSpec node) {
+			List<Expression> args = new ArrayList<Expression>();
+			for(String arg : node.args) {
+				args.add( resolve(arg) );
+			}
+
+			if (OP_MULTIPLY.equals(node.op)) {
+				Semiring semiring = (node.semiring != null) ? Semiring.valueOf( node.semiring.trim().toUpperCase() ) : Semiring.PLUS_TIMES;
+				return Expression.multiply(args, semiring, node.filter( semiring.defaultFilter() ));
+			}
+
+			if (args.size() != 1) {
+				throw new IllegalArgumentException("Node " + name + " needs one argument, got " + args.size());
+			}
+			if (OP_TRANSPOSE.equals(node.op)) {
+				return Expression.transpose(args.get(0));
+			}
+			if (OP_FILTER.equals(node.op)) {
+				// Without bounds a filter node keeps every entry
+				return Expression.filter(args.get(0), node.filter( ResultFilter.ALL ));
+			}
+			throw new IllegalArgumentException("Node " + name + " has unknown op " + node.op);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package it.cvdlab.lar.expression;
+
+import it.cvdlab.lar.clengine.MultiplyCL;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
+
+// Where ExpressionEvaluator runs its products
+public enum ProductEngine {
+	// The CsrMatrix products, on the CPU engines
+	CPU {
+		@Override
+		CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, Semiring semiring, ResultFilter filter) throws Exception {
+			return matrixA.multiply(matrixB, semiring, filter);
+		}
+
+		@Override
+		CsrMatrix multiplyTransposed(CsrMatrix matrixA, CsrMatrix matrixBt, Semiring semiring, ResultFilter filter) throws Exception {
+			return matrixA.multiplyTransposed(matrixBt, semiring, filter);
+		}
+	},
+	// MultiplyCL, as the REST products: OpenCL unless disabled
+	OPENCL {
+		@Override
+		CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, Semiring semiring, ResultFilter filter) throws Exception {
+			return checked( MultiplyCL.multiply(matrixA, matrixB, false, semiring, filter) );
+		}
+
+		@Override
+		CsrMatrix multiplyTransposed(CsrMatrix matrixA, CsrMatrix matrixBt, Semiring semiring, ResultFilter filter) throws Exception {
+			return checked( MultiplyCL.multiplyTransposed(matrixA, matrixBt, false, semiring, filter) );
+		}
+	};
+
+	abstract CsrMatrix multiply(CsrMatrix matrixA, CsrMatrix matrixB, Semiring semiring, ResultFilter filter) throws Exception;
+
+	// matrixA * matrixBt^T
+	abstract CsrMatrix multiplyTransposed(CsrMatrix matrixA, CsrMatrix matrixBt, Semiring semiring, ResultFilter filter) throws Exception;
+
+	// MultiplyCL logs its failures and answers null
+	private static CsrMatrix checked(CsrMatrix result) throws Exception {
+		if (result == null) {
+			throw new Exception("OpenCL product failed");
+		}
+		return result;
+	}
+}
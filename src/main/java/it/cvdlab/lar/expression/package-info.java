@@ -0,0 +1,8 @@
+/**
+ * 
+ */
+/**
+ * @author Furio
+ *
+ */
+package it.cvdlab.lar.expression;
@@ -0,0 +1,126 @@
+package it.cvdlab.lar.model;
+
+import java.io.IOException;
+
+// Compressed COL array: inside every row each column is stored as the
+// difference from the previous one (the first from 0), as a LEB128 varint.
+// Rows are usually sorted, so the deltas are small and non negative: most
+// of them take one byte instead of four. A leading flags byte marks streams
+// of unsorted rows, whose deltas are zig-zag encoded.
+//
+// The row boundaries come from the row pointers, which are not part of the
+// stream.
+public final class ColumnCodec {
+	static final int FLAG_ZIGZAG = 1;
+
+	private ColumnCodec() {}
+
+	public static byte[] encode(int[] rowPtr, int[] colData) {
+		boolean zigzag = !sortedRows(rowPtr, colData);
+		byte[] packed = new byte[encodedLength(rowPtr, colData, zigzag)];
+		packed[0] = (byte) (zigzag ? FLAG_ZIGZAG : 0);
+
+		int position = 1;
+		for(int i = 0; i < rowPtr.length - 1; i++) {
+			int previous = 0;
+			for(int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+				int delta = colData[k] - previous;
+				previous = colData[k];
+				int value = zigzag ? ((delta << 1) ^ (delta >> 31)) : delta;
+
+				// value is unsigned from here on
+				while ((value & ~0x7F) != 0) {
+					packed[position++] = (byte) ((value & 0x7F) | 0x80);
+					value >>>= 7;
+				}
+				packed[position++] = (byte) value;
+			}
+		}
+		return packed;
+	}
+
+	// Fills colData[rowPtr[0], rowPtr[rows]) from packed[offset, ...), returns the end offset
+	public static int decode(byte[] packed, int offset, int[] rowPtr, int[] colData) throws IOException {
+		if (offset >= packed.length) {
+			throw new IOException("Packed columns: empty stream");
+		}
+		boolean zigzag = (packed[offset] & FLAG_ZIGZAG) != 0;
+		int position = offset + 1;
+
+		try {
+			for(int i = 0; i < rowPtr.length - 1; i++) {
+				int previous = 0;
+				for(int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+					int value = packed[position++];
+					// One byte deltas are the common case, no loop for them
+					if (value < 0) {
+						value &= 0x7F;
+						int shift = 7;
+						int b;
+						do {
+							b = packed[position++];
+							value |= (b & 0x7F) << shift;
+							shift += 7;
+						} while ((b < 0) && (shift < 35));
+						if (b < 0) {
+							throw new IOException("Packed columns: varint longer than 5 bytes at " + (position - offset));
+						}
+					}
+					previous += zigzag ? ((value >>> 1) ^ -(value & 1)) : value;
+					colData[k] = previous;
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Packed columns: stream shorter than " + (rowPtr[rowPtr.length - 1] - rowPtr[0]) + " columns");
+		}
+		return position;
+	}
+
+	public static int[] decode(byte[] packed, int[] rowPtr) throws IOException {
+		int[] colData = new int[rowPtr[rowPtr.length - 1]];
+		if (decode(packed, 0, rowPtr, colData) != packed.length) {
+			throw new IOException("Packed columns: trailing bytes");
+		}
+		return colData;
+	}
+
+	private static boolean sortedRows(int[] rowPtr, int[] colData) {
+		for(int i = 0; i < rowPtr.length - 1; i++) {
+			for(int k = rowPtr[i] + 1; k < rowPtr[i + 1]; k++) {
+				if (colData[k - 1] > colData[k]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static int encodedLength(int[] rowPtr, int[] colData, boolean zigzag) {
+		int length = 1;
+		for(int i = 0; i < rowPtr.length - 1; i++) {
+			int previous = 0;
+			for(int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+				int delta = colData[k] - previous;
+				previous = colData[k];
+				length += varintLength(zigzag ? ((delta << 1) ^ (delta >> 31)) : delta);
+			}
+		}
+		return length;
+	}
+
+	private static int varintLength(int value) {
+		if ((value & ~0x7F) == 0) {
+			return 1;
+		}
+		if ((value & ~0x3FFF) == 0) {
+			return 2;
+		}
+		if ((value & ~0x1FFFFF) == 0) {
+			return 3;
+		}
+		if ((value & ~0xFFFFFFF) == 0) {
+			return 4;
+		}
+		return 5;
+	}
+}
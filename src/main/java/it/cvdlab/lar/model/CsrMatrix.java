@@ -1,240 +1,384 @@
 package it.cvdlab.lar.model;
 
+import it.cvdlab.lar.cpuengine.BitAlgebra;
+import it.cvdlab.lar.cpuengine.BitsetMultiply;
+import it.cvdlab.lar.cpuengine.CooToCsr;
+import it.cvdlab.lar.cpuengine.ParallelMultiply;
+import it.cvdlab.lar.cpuengine.ParallelTranspose;
+import it.cvdlab.lar.cpuengine.PatternMultiply;
+import it.cvdlab.lar.cpuengine.SymbolicMultiply;
+import it.cvdlab.lar.cpuengine.SymbolicProduct;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import org.codehaus.jackson.annotate.JsonIgnore;
-import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.annotate.JsonDeserialize;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import com.google.common.primitives.Floats;
 import com.google.common.primitives.Ints;
 
+// Storage is kept in primitive arrays, the JSON wire format
+// (ROW/COL/DATA/ROWCOUNT/COLCOUNT) is handled by CsrMatrixSerializer and
+// CsrMatrixDeserializer.
+@JsonSerialize(using = CsrMatrixSerializer.class)
+@JsonDeserialize(using = CsrMatrixDeserializer.class)
 public class CsrMatrix {
-	@JsonProperty("ROW")
-	private List<Integer> rowptr;
-	@JsonProperty("COL")
-	private List<Integer> coldata;
-	@JsonProperty("DATA")
-	private List<Float> data;
-	@JsonProperty("ROWCOUNT")
+	// JSON field names
+	static final String JSON_ROW = "ROW";
+	static final String JSON_COL = "COL";
+	// COL packed by ColumnCodec, base64: accepted in place of COL
+	static final String JSON_COL_PACKED = "COLPACKED";
+	static final String JSON_DATA = "DATA";
+	static final String JSON_ROWCOUNT = "ROWCOUNT";
+	static final String JSON_COLCOUNT = "COLCOUNT";
+
+	private int[] rowptr;
+	private int[] coldata;
+	// null means pattern only: "every stored value is 1", see isPattern()
+	private float[] data;
 	private int rowshape;
-	@JsonProperty("COLCOUNT")
 	private int colshape;
+	// Every stored value is 1, computed when data is set
 	@JsonIgnore
-	private static final int BASEINDEX = 0;
+	private boolean binary = true;
 	@JsonIgnore
-	private static boolean USE_SPARSE_MULTIPLY = true;	
+	private static boolean USE_GUSTAVSON_MULTIPLY = true;
+	@JsonIgnore
+	private static boolean USE_SPARSE_MULTIPLY = true;
 	@JsonIgnore
 	private static final Logger logger = LoggerFactory.getLogger(CsrMatrix.class);
-	
+
 	public CsrMatrix() {}
-	
+
 	public CsrMatrix(List<Integer> rowPtr, List<Integer> colData, List<Float> data, int rowshape, int colshape) {
-		this.rowptr = ImmutableList.copyOf( rowPtr );
-		this.coldata = ImmutableList.copyOf( colData );
-		this.data = ImmutableList.copyOf( data );
-		this.rowshape = rowshape;
-		this.colshape = colshape;
+		this( Ints.toArray(rowPtr), Ints.toArray(colData), Floats.toArray(data), rowshape, colshape );
 	}
-	
+
+	// The arrays are not copied: callers hand over ownership
 	public CsrMatrix(int[] rowPtr, int[] colData, float[] data, int rowshape, int colshape) {
-		this( Ints.asList(rowPtr), Ints.asList(colData), Floats.asList( data ), rowshape, colshape);
+		this.rowptr = rowPtr;
+		this.coldata = colData;
+		this.data = data;
+		this.rowshape = rowshape;
+		this.colshape = colshape;
+		this.binary = allOnes(data);
 	}
-	
+
 	public CsrMatrix(List<Integer> rowPtr, List<Integer> colData, int rowshape, int colshape) {
-		this( rowPtr, colData, Floats.asList( binarydataInit(colData.size(), 1F)  ), rowshape, colshape);
-	}	
-	
+		this( Ints.toArray(rowPtr), Ints.toArray(colData), rowshape, colshape);
+	}
+
+	// Pattern only matrix: no values are stored
 	public CsrMatrix(int[] rowPtr, int[] colData, int rowshape, int colshape) {
-		this( Ints.asList(rowPtr), Ints.asList(colData), rowshape, colshape);
-	}	
-	
-	@JsonIgnore
-	public boolean isBinary() {
-		for(Float currData: this.getData()) {
-			if (currData != 1F) {
+		this( rowPtr, colData, null, rowshape, colshape);
+	}
+
+	private static boolean allOnes(float[] data) {
+		if (data == null) {
+			return true;
+		}
+
+		for(int k = 0; k < data.length; k++) {
+			if (data[k] != 1F) {
 				return false;
 			}
 		}
-		
+
 		return true;
 	}
-	
+
+	@JsonIgnore
+	public boolean isBinary() {
+		return this.binary;
+	}
+
+	@JsonIgnore
+	public boolean isPattern() {
+		return (this.data == null);
+	}
+
+	// Same structure without values, the index arrays are shared
+	@JsonIgnore
+	public CsrMatrix toPattern() {
+		if (this.isPattern()) {
+			return this;
+		}
+
+		return new CsrMatrix(this.rowptr, this.coldata, this.rowshape, this.colshape);
+	}
+
+	// Primitive accessors, hot loops should only use these
+	@JsonIgnore
+	public int rowPtrAt(int i) {
+		return this.rowptr[i];
+	}
+
+	@JsonIgnore
+	public int colAt(int k) {
+		return this.coldata[k];
+	}
+
+	@JsonIgnore
+	public float valueAt(int k) {
+		return (this.data == null) ? 1F : this.data[k];
+	}
+
+	// Rows [rowStart, rowEnd) sharing the arrays of this matrix
+	@JsonIgnore
+	public CsrMatrixView view(int rowStart, int rowEnd) {
+		return new CsrMatrixView(this, rowStart, rowEnd, 0, this.colshape);
+	}
+
+	@JsonIgnore
+	public CsrMatrixView view(int rowStart, int rowEnd, int fromCol, int toCol) {
+		return new CsrMatrixView(this, rowStart, rowEnd, fromCol, toCol);
+	}
+
+	// Flyweight over the rows of this matrix, see moveTo
+	@JsonIgnore
+	public RowView rowView() {
+		return new RowView(this.rowptr, this.coldata, this.data);
+	}
+
+	@JsonIgnore
+	public RowCursor rowCursor() {
+		return this.rowCursor(0, this.rowshape);
+	}
+
+	@JsonIgnore
+	public RowCursor rowCursor(int rowStart, int rowEnd) {
+		checkRowRange(rowStart, rowEnd);
+		return new RowCursor(this.rowView(), rowStart, rowEnd, 0, this.colshape, false);
+	}
+
+	// Rows [rowStart, rowEnd), each one restricted to the columns in [fromCol, toCol)
+	@JsonIgnore
+	public RowCursor rowCursor(int rowStart, int rowEnd, int fromCol, int toCol) {
+		checkRowRange(rowStart, rowEnd);
+		if ((fromCol < 0) || (fromCol > toCol)) {
+			throw new IndexOutOfBoundsException("Column window [" + fromCol + ", " + toCol + ") is not valid");
+		}
+		return new RowCursor(this.rowView(), rowStart, rowEnd, fromCol, toCol, true);
+	}
+
+	private void checkRowRange(int rowStart, int rowEnd) {
+		if ((rowStart < 0) || (rowStart > rowEnd) || (rowEnd > this.rowshape)) {
+			throw new IndexOutOfBoundsException("Row range [" + rowStart + ", " + rowEnd + ") is not in [0, " + this.rowshape + ")");
+		}
+	}
+
 	@JsonIgnore
 	public List<List<Float>> toDense() {
 		List<List<Float>> returnMatrix = new ArrayList<List<Float>>( this.getRowshape() );
-		
-		for(int i = 0; i < (this.getRowptr().size() - 1); i++) {
+
+		RowCursor rows = this.rowCursor();
+		while (rows.next()) {
+			RowView row = rows.view();
 			List<Float> curRow = new ArrayList<Float>(Collections.nCopies(this.getColshape(), 0F));
-			for(int k = this.getRowptr().get(i); k < this.getRowptr().get(i+1); k++) {
-				curRow.set( this.getColdata().get(k), this.getData().get(k) );
+			for(int k = 0; k < row.size(); k++) {
+				curRow.set( row.col(k), row.value(k) );
 			}
-			returnMatrix.add( new ArrayList<Float>(curRow) );
+			returnMatrix.add( curRow );
 		}
-		
+
 		return returnMatrix;
 	}
-	
-	@JsonIgnore
-	public CsrMatrix transpose() {		
-		// lookup
-		int m = this.getRowshape();
-		int n = this.getColshape();
-		int base = BASEINDEX;
-
-		// NNZ elements
-		int nnz = this.getRowptr().get(m) - base;
-
-		// New arrays
-		int[] newPtr = new int[n + 1];
-		int[] newCol = new int[nnz];
-		float[] newData = new float[nnz];
-		// Create and initialize to 0
-		int[] count_nnz = new int[n];
-
-		// Reused index
-		int i = 0;
-
-		// Count nnz per column
-		for(i = 0; i < nnz; i++) {
-			count_nnz[(this.getColdata().get(i) - base)]++;
-		}
-		
-		transposeHelper(count_nnz, n, newPtr);
-		
-		// Copia TrowPtr in modo tale che count_nnz[i] == location in Tind, Tval
-		for(i = 0; i < n; i++) {
-			count_nnz[i] = newPtr[i];
-		}
-		
-		// Copia i valori in posizione
-		for(i = 0; i < m; i++) {
-			int k;
-			for (k = (this.getRowptr().get(i) - base); k < (this.getRowptr().get(i+1) - base); k++ ) {
-				int j = this.getColdata().get(k) - base;
-				int l = count_nnz[j];
-
-				newCol[l] = i;
-				newData[l] = this.getData().get(k);
-				count_nnz[j]++;
-			}
-		}		
-		
-		return new CsrMatrix(newPtr, newCol, newData, n, m);
-	}
-	
-	private static void transposeHelper(int[] input, int maxN, int[] output) {
-		if (maxN == 0) {
-			return;
+
+	// Entries accepted by filter, for products that were not filtered while accumulated
+	@JsonIgnore
+	public CsrMatrix filter(ResultFilter filter) {
+		if (this.isPattern()) {
+			return filter.accept(1F) ? this : new CsrMatrix(new int[this.rowshape + 1], new int[0], this.rowshape, this.colshape);
 		}
 
-		output[0] = 0;
-		for (int i = 1; i <= maxN; i++) {
-			output[i] = output[i - 1] + input[i - 1];
+		int[] filteredRowPtr = new int[this.rowshape + 1];
+		int[] filteredColData = new int[this.coldata.length];
+		float[] filteredData = new float[this.data.length];
+		int nnz = 0;
+		RowCursor rows = this.rowCursor();
+		while (rows.next()) {
+			RowView row = rows.view();
+			for(int k = 0; k < row.size(); k++) {
+				if (filter.accept(row.value(k))) {
+					filteredColData[nnz] = row.col(k);
+					filteredData[nnz++] = row.value(k);
+				}
+			}
+			filteredRowPtr[row.getRow() + 1] = nnz;
 		}
+
+		return new CsrMatrix(filteredRowPtr, Arrays.copyOf(filteredColData, nnz), Arrays.copyOf(filteredData, nnz), this.rowshape, this.colshape);
+	}
+
+	@JsonIgnore
+	public CsrMatrix transpose() {
+		return ParallelTranspose.transpose(this);
 	}
-	
+
 	@JsonIgnore
 	public CsrMatrix multiply(CsrMatrix matrix) throws Exception {
+		return this.multiply(matrix, ResultFilter.POSITIVE);
+	}
+
+	// Only the entries accepted by filter are computed into the result
+	@JsonIgnore
+	public CsrMatrix multiply(CsrMatrix matrix, ResultFilter filter) throws Exception {
 		if (this.getColshape() != matrix.getRowshape()) {
 			throw new Exception("Current matrix columns are different from argument matrix rows");
 		}
 
-		if ( USE_SPARSE_MULTIPLY ) {
-			return this.sparseMultiply(matrix);
+		if ( USE_GUSTAVSON_MULTIPLY ) {
+			if (this.isBinary() && matrix.isBinary()) {
+				return PatternMultiply.multiplyCount(this, matrix, filter);
+			}
+			return ParallelMultiply.multiply(this, matrix, filter);
+		} else if ( USE_SPARSE_MULTIPLY ) {
+			return this.sparseMultiply(matrix, filter);
 		} else {
-			return this.denseMultiply(matrix);
+			return this.denseMultiply(matrix, filter);
 		}
-		
+
 	}
-	
+
+	// Product over another semiring, keeping the entries of its default filter
 	@JsonIgnore
-	public int nnzMultiplyCount(CsrMatrix matrix) throws Exception {
+	public CsrMatrix multiply(CsrMatrix matrix, Semiring semiring) throws Exception {
+		return this.multiply(matrix, semiring, semiring.defaultFilter());
+	}
+
+	@JsonIgnore
+	public CsrMatrix multiply(CsrMatrix matrix, Semiring semiring, ResultFilter filter) throws Exception {
+		if (semiring == Semiring.PLUS_TIMES) {
+			return this.multiply(matrix, filter);
+		}
 		if (this.getColshape() != matrix.getRowshape()) {
 			throw new Exception("Current matrix columns are different from argument matrix rows");
 		}
-		
-
-		
-		int[] tmp_rowptr;
-		int tmp_rowcount = this.getRowCount(),
-				tmp_colcount = matrix.getColCount();
-		
-		int i,j,k,l,count;
-		int[] JD = new int[tmp_colcount];
-		
-		// Init JD
-		Arrays.fill(JD, -1);
-		
-		// Init rowPtr
-		tmp_rowptr = new int[tmp_rowcount + 1];
-		
-		// Calculate rowPtr
-		for(i = 0; i < tmp_rowcount; ++i) {
-			count = 0; 
-
-			for (k = this.getRowPointer().get(i); k < this.getRowPointer().get(i + 1); ++k) {
-				for (j = matrix.getRowPointer().get( this.getColdata().get(k) ); j < matrix.getRowPointer().get( this.getColdata().get(k) + 1 ); ++j) {
-					for (l=0; l<count; l++) {
-						if ( JD[l] == matrix.getColdata().get(j) ) {
-							break;
-						}
-					}
 
-					if ( l == count ) {
-						JD[count] = matrix.getColdata().get(j);
-						count++;
-					}
-				}
-			}
+		return ParallelMultiply.multiply(this, matrix, semiring, filter);
+	}
 
-			tmp_rowptr[i+1] = count;
-			for (j=0; j < count; ++j) {
-				JD[j] = -1;
-			}
+	// this * transposed^T, with the right operand given already transposed.
+	// The Java engines read B by rows, so it is transposed back once here.
+	@JsonIgnore
+	public CsrMatrix multiplyTransposed(CsrMatrix transposed) throws Exception {
+		return this.multiplyTransposed(transposed, ResultFilter.POSITIVE);
+	}
+
+	@JsonIgnore
+	public CsrMatrix multiplyTransposed(CsrMatrix transposed, ResultFilter filter) throws Exception {
+		return this.multiplyTransposed(transposed, Semiring.PLUS_TIMES, filter);
+	}
+
+	@JsonIgnore
+	public CsrMatrix multiplyTransposed(CsrMatrix transposed, Semiring semiring, ResultFilter filter) throws Exception {
+		if (this.getColshape() != transposed.getColshape()) {
+			throw new Exception("Current matrix columns are different from argument matrix columns");
+		}
+
+		// Only the structure of B is needed when its values are never read
+		boolean structureOnly = !semiring.readsValues() || (this.isBinary() && transposed.isBinary());
+		CsrMatrix matrix = structureOnly ? transposed.toPattern().transpose() : transposed.transpose();
+		return this.multiply(matrix, semiring, filter);
+	}
+
+	// Structure only product: entry (i, j) counts the paths i -> k -> j
+	@JsonIgnore
+	public CsrMatrix multiplyCount(CsrMatrix matrix) throws Exception {
+		return this.multiplyCount(matrix, ResultFilter.POSITIVE);
+	}
+
+	@JsonIgnore
+	public CsrMatrix multiplyCount(CsrMatrix matrix, ResultFilter filter) throws Exception {
+		if (this.getColshape() != matrix.getRowshape()) {
+			throw new Exception("Current matrix columns are different from argument matrix rows");
+		}
+
+		return PatternMultiply.multiplyCount(this, matrix, filter);
+	}
+
+	// Structure only OR-AND product, the result is a pattern matrix
+	@JsonIgnore
+	public CsrMatrix multiplyBoolean(CsrMatrix matrix) throws Exception {
+		if (this.getColshape() != matrix.getRowshape()) {
+			throw new Exception("Current matrix columns are different from argument matrix rows");
+		}
+
+		return PatternMultiply.multiplyBoolean(this, matrix);
+	}
+
+	// Boolean or GF(2) product on bitsets, the result is a pattern matrix
+	@JsonIgnore
+	public CsrMatrix multiplyBitset(CsrMatrix matrix, BitAlgebra algebra) throws Exception {
+		return this.multiplyBitset(matrix, algebra, ResultFilter.POSITIVE);
+	}
+
+	@JsonIgnore
+	public CsrMatrix multiplyBitset(CsrMatrix matrix, BitAlgebra algebra, ResultFilter filter) throws Exception {
+		if (this.getColshape() != matrix.getRowshape()) {
+			throw new Exception("Current matrix columns are different from argument matrix rows");
 		}
-		
-		// Finally set
-		for ( i = 0; i < tmp_rowcount; ++i) { 
-			tmp_rowptr[i+1] += tmp_rowptr[i];
+
+		return BitsetMultiply.multiply(this, matrix, algebra, filter);
+	}
+
+	@JsonIgnore
+	public int nnzMultiplyCount(CsrMatrix matrix) throws Exception {
+		return this.multiplySymbolic(matrix).getNnz();
+	}
+
+	// Exact structure of this * matrix (row pointer of the result), linear in the flops
+	@JsonIgnore
+	public SymbolicProduct multiplySymbolic(CsrMatrix matrix) throws Exception {
+		if (this.getColshape() != matrix.getRowshape()) {
+			throw new Exception("Current matrix columns are different from argument matrix rows");
 		}
-		
-		return tmp_rowptr[tmp_rowcount];
+
+		return SymbolicMultiply.analyze(this, matrix);
 	}
 
 	@JsonIgnore
-	private CsrMatrix sparseMultiply(CsrMatrix matrix) {
+	private CsrMatrix sparseMultiply(CsrMatrix matrix, ResultFilter filter) {
 		CsrMatrix argMatrix = matrix.transpose();
-	    List<Float> resultList = Lists.newArrayList();
+		int[] aRowPtr = this.getRowptrArray(),
+				aColData = this.getColdataArray(),
+				bRowPtr = argMatrix.getRowptrArray(),
+				bColData = argMatrix.getColdataArray();
+		float[] aData = this.getDataArray(),
+				bData = argMatrix.getDataArray();
+
+		int resultCount = 0;
+		int[] resultRows = new int[Math.max(16, aColData.length)];
+		int[] resultCols = new int[resultRows.length];
+		float[] resultData = new float[resultRows.length];
 
 	    for (int i = 0; i < this.getRowshape(); i++) {
 			for (int j = 0; j < argMatrix.getRowshape(); j++) {
 
-				int ArowCur = this.getRowptr().get(i),
-					ArowEnd = this.getRowptr().get(i + 1),
-					curPosA = ArowCur;
+				int ArowEnd = aRowPtr[i + 1],
+					curPosA = aRowPtr[i];
 
-				int BrowCur = argMatrix.getRowptr().get(j),
-					BrowEnd = argMatrix.getRowptr().get(j + 1),
-					curPosB = BrowCur;
+				int BrowEnd = bRowPtr[j + 1],
+					curPosB = bRowPtr[j];
 
-				int AcurIdx = this.getColdata().get(ArowCur),
-					BcurIdx = argMatrix.getColdata().get(BrowCur);
+				int AcurIdx, BcurIdx;
 
 	            float localSum = 0F;
 
 	            while ((curPosA < ArowEnd) && (curPosB < BrowEnd)) {
-					AcurIdx = this.getColdata().get(curPosA);
-					BcurIdx = argMatrix.getColdata().get(curPosB);
+					AcurIdx = aColData[curPosA];
+					BcurIdx = bColData[curPosB];
 
 					if (AcurIdx == BcurIdx) {
-						localSum += this.getData().get(curPosA) * argMatrix.getData().get(curPosB);
+						localSum += aData[curPosA] * bData[curPosB];
 						curPosA++;
 						curPosB++;
 					} else if (AcurIdx < BcurIdx) {
@@ -244,44 +388,55 @@ public class CsrMatrix {
 					}
 				}
 
-	            if (localSum > 0F) {
-	            	resultList.add((float)i);
-	            	resultList.add((float)j);
-	            	resultList.add(localSum);
+	            if (filter.accept(localSum)) {
+	            	if (resultCount == resultRows.length) {
+	            		int newLength = resultCount + (resultCount >> 1);
+	            		resultRows = Arrays.copyOf(resultRows, newLength);
+	            		resultCols = Arrays.copyOf(resultCols, newLength);
+	            		resultData = Arrays.copyOf(resultData, newLength);
+	            	}
+	            	resultRows[resultCount] = i;
+	            	resultCols[resultCount] = j;
+	            	resultData[resultCount] = localSum;
+	            	resultCount++;
 	            }
 			}
 		}
 
-		return fromCOOArray(resultList, this.getRowshape(), matrix.getColshape());		
+		return fromCOOArray(Arrays.copyOf(resultRows, resultCount), Arrays.copyOf(resultCols, resultCount),
+				Arrays.copyOf(resultData, resultCount), this.getRowshape(), matrix.getColshape());
 	}
-	
+
 	@JsonIgnore
-	private CsrMatrix denseMultiply(CsrMatrix matrix) {
+	private CsrMatrix denseMultiply(CsrMatrix matrix, ResultFilter filter) {
 		CsrMatrix argMatrix = matrix.transpose();
+		int[] aRowPtr = this.getRowptrArray(),
+				aColData = this.getColdataArray(),
+				bRowPtr = argMatrix.getRowptrArray(),
+				bColData = argMatrix.getColdataArray();
+		float[] aData = this.getDataArray(),
+				bData = argMatrix.getDataArray();
 	    float[] denseResult = new float[(this.getRowshape() * matrix.getColshape())];
 
 	    for (int i = 0; i < this.getRowshape(); i++) {
 			for (int j = 0; j < argMatrix.getRowshape(); j++) {
 
-				int ArowCur = this.getRowptr().get(i),
-					ArowEnd = this.getRowptr().get(i + 1),
-					curPosA = ArowCur;
+				int ArowEnd = aRowPtr[i + 1],
+					curPosA = aRowPtr[i];
 
-				int BrowCur = argMatrix.getRowptr().get(j),
-					BrowEnd = argMatrix.getRowptr().get(j + 1),
-					curPosB = BrowCur;
+				int BrowEnd = bRowPtr[j + 1],
+					curPosB = bRowPtr[j];
 
-				int AcurIdx = this.getColdata().get(ArowCur),
-					BcurIdx = argMatrix.getColdata().get(BrowCur);
+				int AcurIdx, BcurIdx;
 
 	            float localSum = 0F;
 
 	            while ((curPosA < ArowEnd) && (curPosB < BrowEnd)) {
-					AcurIdx = this.getColdata().get(curPosA);
-					BcurIdx = argMatrix.getColdata().get(curPosB);
+					AcurIdx = aColData[curPosA];
+					BcurIdx = bColData[curPosB];
 
 					if (AcurIdx == BcurIdx) {
-						localSum += this.getData().get(curPosA) * argMatrix.getData().get(curPosB);
+						localSum += aData[curPosA] * bData[curPosB];
 						curPosA++;
 						curPosB++;
 					} else if (AcurIdx < BcurIdx) {
@@ -291,13 +446,13 @@ public class CsrMatrix {
 					}
 				}
 
-				denseResult[i*matrix.getColshape() + j] = localSum;
+				denseResult[i*matrix.getColshape() + j] = filter.accept(localSum) ? localSum : 0F;
 			}
 		}
 
-		return fromFlattenArray(denseResult, matrix.getColshape());		
-	}	
-	
+		return fromFlattenArray(denseResult, matrix.getColshape());
+	}
+
 	// Return a sub-row of the matrix:
 	//
 	// [a(i,j) ... a(i,j+length-1)];
@@ -307,7 +462,9 @@ public class CsrMatrix {
 	// The sub-row is returned in CSR format;
 	//
 	// The sub-row length is taken from the input parameters, if the specified length is
-	// over the last column of the matrix, the returned sub-row is padded with zeroes	
+	// over the last column of the matrix, the returned sub-row is padded with zeroes.
+	// Loops over rows should read rowView().moveTo(i).window(j, j + length) instead
+	@Deprecated
 	@JsonIgnore
 	public CsrMatrix getRowPiece(int i, int j, int length) throws Exception {
 		if ((i < 0) || (i >= this.getRowCount())) {
@@ -322,7 +479,7 @@ public class CsrMatrix {
 			throw new Exception("Length must be > 0");
 		}
 
-		if (this.getRowPointer().size() < 2) {
+		if (this.rowptr.length < 2) {
 			throw new Exception("Matrix is not valid");
 		}
 
@@ -330,59 +487,60 @@ public class CsrMatrix {
 			logger.debug("Warning: out of the bound of the matrix, padded with 0");
 		}
 
-		List<Integer> tmp_row = Lists.newArrayList(new Integer(0));
-		List<Integer> tmp_col = Lists.newArrayList();
-		List<Float> tmp_data = Lists.newArrayList();
-
-		if (this.getNonZeroElementsCount() > 0) {
-			// Matrix is valid so getRowPointer ever has an element in position [i + 1]
-			int ptr = this.getRowPointer().get(i);
-			int end_ptr = this.getRowPointer().get(i + 1);
-
-			int column = this.getColumnIndices().get(ptr);
-			int end_column = j + length;
+		RowView row = this.rowView().moveTo(i).window(j, j + length);
+		int[] pieceCols = new int[row.size()];
+		for(int k = 0; k < pieceCols.length; k++) {
+			pieceCols[k] = row.col(k) - j;
+		}
+		float[] pieceData = (this.data == null) ? null : Arrays.copyOfRange(this.data, row.offset(), row.offset() + row.size());
 
-			while ((ptr < end_ptr) && (column < end_column)) {
-				
-				if (column >= j) {
-					tmp_col.add(column - j);
-					tmp_data.add(this.getData().get(ptr));
-				}
+		return new CsrMatrix(new int[]{0, pieceCols.length}, pieceCols, pieceData, 1, length);
+	}
 
-				ptr++;
-				if (ptr < end_ptr) {
-					column = this.getColumnIndices().get(ptr);
-				}
-			}
+	// Raw storage, shared with the caller: do not modify
+	@JsonIgnore
+	public int[] getRowptrArray() {
+		return rowptr;
+	}
+	@JsonIgnore
+	public int[] getColdataArray() {
+		return coldata;
+	}
+	// A pattern matrix gets a new array of ones on every call, engines
+	// should check isPattern() or use getStoredDataArray() instead
+	@JsonIgnore
+	public float[] getDataArray() {
+		if (this.data == null) {
+			return binarydataInit(this.coldata.length, 1F);
 		}
-		
-		tmp_row.add(tmp_col.size());
-		
-		return new CsrMatrix(tmp_row, tmp_col, tmp_data, 1, length);
+
+		return data;
 	}
-	
+	// Values as stored, null for a pattern matrix: nothing is allocated
+	@JsonIgnore
+	public float[] getStoredDataArray() {
+		return data;
+	}
+
+	// Boxed read-only views, kept for compatibility
 	public List<Integer> getRowptr() {
-		return rowptr;
+		return (rowptr == null) ? null : Collections.unmodifiableList( Ints.asList(rowptr) );
 	}
 	public void setRowptr(List<Integer> rowptr) {
-		this.rowptr = rowptr;
+		this.rowptr = Ints.toArray(rowptr);
 	}
 	public List<Integer> getColdata() {
-		return coldata;
+		return (coldata == null) ? null : Collections.unmodifiableList( Ints.asList(coldata) );
 	}
 	public void setColdata(List<Integer> coldata) {
-		this.coldata = coldata;
+		this.coldata = Ints.toArray(coldata);
 	}
-	public synchronized List<Float> getData() {
-		// Lazy init
-		if (this.data == null) {
-			this.data = ImmutableList.copyOf( Floats.asList( binarydataInit(this.getColdata().size(), 1F) ) );
-		}
-		
-		return data;
+	public List<Float> getData() {
+		return Collections.unmodifiableList( Floats.asList(this.getDataArray()) );
 	}
 	public void setData(List<Float> data) {
-		this.data = data;
+		this.data = (data == null) ? null : Floats.toArray(data);
+		this.binary = allOnes(this.data);
 	}
 	public int getRowshape() {
 		return rowshape;
@@ -395,8 +553,8 @@ public class CsrMatrix {
 	}
 	public void setColshape(int colshape) {
 		this.colshape = colshape;
-	}	
-	
+	}
+
 	// For compatibility with JS code
 	@JsonIgnore
 	public int getRowCount() {
@@ -408,7 +566,7 @@ public class CsrMatrix {
 	}
 	@JsonIgnore
 	public int getNonZeroElementsCount() {
-		return this.getData().size();
+		return this.coldata.length;
 	}
 	@JsonIgnore
 	public List<Integer> getRowPointer() {
@@ -419,19 +577,19 @@ public class CsrMatrix {
 		return this.getColdata();
 	}
 	// ------------------------------
-	
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((coldata == null) ? 0 : coldata.hashCode());
-		result = prime * result + (int) (colshape ^ (colshape >>> 32));
-		result = prime * result + ((data == null) ? 0 : data.hashCode());
-		result = prime * result + ((rowptr == null) ? 0 : rowptr.hashCode());
-		result = prime * result + (int) (rowshape ^ (rowshape >>> 32));
+		result = prime * result + Arrays.hashCode(coldata);
+		result = prime * result + colshape;
+		result = prime * result + ((coldata == null) ? 0 : valuesHashCode());
+		result = prime * result + Arrays.hashCode(rowptr);
+		result = prime * result + rowshape;
 		return result;
 	}
-	
+
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
@@ -441,161 +599,123 @@ public class CsrMatrix {
 		if (getClass() != obj.getClass())
 			return false;
 		CsrMatrix other = (CsrMatrix) obj;
-		if (coldata == null) {
-			if (other.coldata != null)
-				return false;
-		} else if (!coldata.equals(other.coldata))
+		if (!Arrays.equals(coldata, other.coldata))
 			return false;
 		if (colshape != other.colshape)
 			return false;
-		if (data == null) {
-			if (other.data != null)
-				return false;
-		} else if (!data.equals(other.data))
-			return false;
-		if (rowptr == null) {
-			if (other.rowptr != null)
-				return false;
-		} else if (!rowptr.equals(other.rowptr))
+		if (!Arrays.equals(rowptr, other.rowptr))
 			return false;
 		if (rowshape != other.rowshape)
 			return false;
+		if ((coldata != null) && !sameValues(other))
+			return false;
+		return true;
+	}
+
+	// Arrays.hashCode of the values, ones included, without materializing them
+	private int valuesHashCode() {
+		int result = 1;
+		for(int k = 0; k < coldata.length; k++) {
+			result = 31 * result + Float.floatToIntBits( valueAt(k) );
+		}
+		return result;
+	}
+
+	// Same semantics as Arrays.equals on the values: pattern matrices hold ones
+	private boolean sameValues(CsrMatrix other) {
+		if ((this.data == null) && (other.data == null)) {
+			return true;
+		}
+
+		for(int k = 0; k < coldata.length; k++) {
+			if (Float.floatToIntBits( valueAt(k) ) != Float.floatToIntBits( other.valueAt(k) )) {
+				return false;
+			}
+		}
 		return true;
 	}
 
 	@Override
 	public String toString() {
-		return "CsrMatrix [rowptr=" + rowptr + ", coldata=" + coldata
-				+ ", data=" + data + ", rowshape=" + rowshape + ", colshape="
+		return "CsrMatrix [rowptr=" + Arrays.toString(rowptr) + ", coldata=" + Arrays.toString(coldata)
+				+ ", data=" + Arrays.toString(data) + ", rowshape=" + rowshape + ", colshape="
 				+ colshape + "]";
 	}
-	
+
+	// Binary CSR file, see CsrMatrixFile. CsrMatrixFile.map keeps the operand off the heap
+	@JsonIgnore
+	public static CsrMatrix load(File file) throws IOException {
+		return CsrMatrixFile.load(file);
+	}
+
 	@JsonIgnore
-	public static CsrMatrix fromFlattenArray(int[] input, int columns) {	
+	public void save(File file) throws IOException {
+		CsrMatrixFile.save(this, file);
+	}
+
+	@JsonIgnore
+	public static CsrMatrix fromFlattenArray(int[] input, int columns) {
 		float[] fInput = new float[input.length];
 		for(int i = 0; i < input.length; i++) {
 			fInput[i] = input[i];
 		}
-		
+
 		return fromFlattenArray(fInput,columns);
 	}
-	
+
 	@JsonIgnore
-	public static CsrMatrix fromFlattenArray(float[] input, int columns) {		
-		List<Integer> rowPtr = Lists.newArrayList();
-		List<Integer> cols = Lists.newArrayList();
-		List<Float> data = Lists.newArrayList();
+	public static CsrMatrix fromFlattenArray(float[] input, int columns) {
+		int rows = (columns == 0) ? 0 : input.length / columns;
 		int nnz = 0;
-		int colIdx = 0;
-		int rowCount = 0;
-		int prevRow = -1;
-		
-		for (int i = 0; i < input.length; i++, colIdx++) {
-			if (prevRow != rowCount) {
-				rowPtr.add( nnz );
-				prevRow = rowCount;
-			}
-
+		for (int i = 0; i < input.length; i++) {
 			if ( input[i] != 0F ) {
-				cols.add( colIdx );
-				data.add( input[i] );
-				nnz += 1;
+				nnz++;
 			}
+		}
 
-			if ((colIdx+1) == columns) {
-				colIdx = -1;
-				rowCount += 1;
+		int[] rowPtr = new int[rows + 1];
+		int[] cols = new int[nnz];
+		float[] data = new float[nnz];
+		int pos = 0;
+
+		for (int r = 0; r < rows; r++) {
+			int offset = r * columns;
+			for (int c = 0; c < columns; c++) {
+				float value = input[offset + c];
+				if ( value != 0F ) {
+					cols[pos] = c;
+					data[pos] = value;
+					pos++;
+				}
 			}
+			rowPtr[r + 1] = pos;
 		}
-		
-		rowPtr.add( data.size() );
-		
-		return new CsrMatrix(rowPtr, cols, data, rowPtr.size() - 1, columns);
+
+		return new CsrMatrix(rowPtr, cols, data, rows, columns);
 	}
-	
+
 	@JsonIgnore
 	public static CsrMatrix fromCOOArray(float[] cooArray, int rowshape, int colshape) {
-		return fromCOOArray(Floats.asList(cooArray), rowshape, colshape); 
+		return CooToCsr.convert(cooArray, rowshape, colshape);
 	}
-	
+
 	@JsonIgnore
 	public static CsrMatrix fromCOOArray(List<Float> cooArray, int rowshape, int colshape) {
-		int nnz = cooArray.size() / 3;
-			
-		List<Integer> cooArray_x = Lists.newArrayListWithCapacity(nnz);
-		List<Integer> cooArray_y = Lists.newArrayListWithCapacity(nnz);
-		List<Float> cooArray_data = Lists.newArrayListWithCapacity(nnz);
-		
-		for(int i = 0; i < nnz; i++) {
-			cooArray_x.add( cooArray.get(i*3 + 0).intValue() );
-			cooArray_y.add( cooArray.get(i*3 + 1).intValue() );
-			cooArray_data.add( cooArray.get(i*3 + 2) );
-		}
-		
-		return fromCOOArray(cooArray_x,cooArray_y,cooArray_data,rowshape,colshape);
+		return fromCOOArray(Floats.toArray(cooArray), rowshape, colshape);
 	}
 
 	@JsonIgnore
-	public static CsrMatrix fromCOOArray(int[] xVal, int[] yVal, float[] dVal, 
-			int rowshape, int colshape) {
-		
-		return fromCOOArray( Ints.asList(xVal), Ints.asList(yVal), Floats.asList(dVal), rowshape, colshape );
+	public static CsrMatrix fromCOOArray(List<Integer> xVal, List<Integer> yVal, List<Float> dVal, int rowshape, int colshape) {
+		return fromCOOArray( Ints.toArray(xVal), Ints.toArray(yVal), Floats.toArray(dVal), rowshape, colshape );
 	}
-	
+
+	// Counting sort by row, then columns sorted inside every row
 	@JsonIgnore
-	public static CsrMatrix fromCOOArray(List<Integer> xVal, List<Integer> yVal, List<Float> dVal, int rowshape, int colshape) {
-		// System.err.println("Converting COO to CSR...");
-		int nnz = xVal.size();
-		
-		List<CooTriplet> unsorted = Lists.newArrayListWithExpectedSize(nnz);
-		for(int i = 0; i < nnz; i++) {
-			unsorted.add(new CooTriplet(xVal.get(i), yVal.get(i), dVal.get(i)));
-		}
-		
-		// System.err.println("Converting COO to CSR... Java MergeSort");
-		Collections.sort(unsorted);
-		
-		List<Integer> rowptr = Lists.newArrayListWithExpectedSize(rowshape+1);
-		List<Integer> colIndex = Lists.newArrayListWithExpectedSize(nnz);
-		List<Float> data = Lists.newArrayListWithExpectedSize(nnz);
-
-		//
-		CooTriplet currTriplet;
-		int prevRow, currRow;
-		prevRow = 0;
-		rowptr.add(prevRow);
-		
-		// System.err.println("Converting COO to CSR... Step 1");
-		for(int i = 0; i < nnz; i++) {
-			currTriplet = unsorted.get(i);
-			currRow = currTriplet.getX();
-			
-			colIndex.add(currTriplet.getY());
-			data.add(currTriplet.getVal());
-			
-			if (prevRow != currRow) {
-				for (int k = prevRow; k < currRow; k++) {
-					rowptr.add(i);
-				}
-				prevRow = currRow;
-			}
-		}
-		
-		if ( rowptr.size() < rowshape ) {
-			int fill = rowshape - rowptr.size();
-			for(int i = 0; i < fill; i++) {
-				rowptr.add(nnz);
-			}
-		}
-		
-		// Rowshape + 1
-		rowptr.add(nnz);
-		
-		// System.err.println("Converting COO to CSR... Done");
-		
-		return new CsrMatrix(rowptr,colIndex,data,rowshape,colshape);
-	}	
-	
+	public static CsrMatrix fromCOOArray(int[] xVal, int[] yVal, float[] dVal,
+			int rowshape, int colshape) {
+		return CooToCsr.convert(xVal, yVal, dVal, rowshape, colshape);
+	}
+
 	@JsonIgnore
 	private static float[] binarydataInit(int length, float initValue) {
 		float[] arr = new float[length];
@@ -0,0 +1,126 @@
+package it.cvdlab.lar.model;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.DeserializationContext;
+import org.codehaus.jackson.map.JsonDeserializer;
+
+// Reads the ROW/COL/DATA/ROWCOUNT/COLCOUNT layout into primitive arrays,
+// a missing DATA field means a binary matrix. COLPACKED, the base64 of a
+// ColumnCodec stream, can stand for COL
+public final class CsrMatrixDeserializer extends JsonDeserializer<CsrMatrix> {
+	private static final int INITIAL_CAPACITY = 16;
+	// Sizes known from earlier fields pre-size the arrays, a bogus ROWCOUNT
+	// cannot allocate more than this up front
+	private static final int MAX_PRESIZE = 1 << 24;
+
+	@Override
+	public CsrMatrix deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException, JsonProcessingException {
+		int[] rowPtr = null;
+		int[] colData = null;
+		float[] data = null;
+		int rowshape = 0;
+		int colshape = 0;
+		int expectedRows = -1;
+		byte[] packedCol = null;
+
+		JsonToken token = jp.getCurrentToken();
+		if (token == JsonToken.START_OBJECT) {
+			token = jp.nextToken();
+		}
+
+		for(; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+			String fieldName = jp.getCurrentName();
+			token = jp.nextToken();
+
+			if (CsrMatrix.JSON_ROW.equals(fieldName)) {
+				rowPtr = readIntArray(jp, ctxt, expectedRows + 1);
+			} else if (CsrMatrix.JSON_COL.equals(fieldName)) {
+				colData = readIntArray(jp, ctxt, expectedNnz(rowPtr));
+			} else if (CsrMatrix.JSON_COL_PACKED.equals(fieldName)) {
+				packedCol = jp.getBinaryValue();
+			} else if (CsrMatrix.JSON_DATA.equals(fieldName)) {
+				data = readFloatArray(jp, ctxt, expectedNnz(rowPtr));
+			} else if (CsrMatrix.JSON_ROWCOUNT.equals(fieldName)) {
+				rowshape = jp.getIntValue();
+				expectedRows = rowshape;
+			} else if (CsrMatrix.JSON_COLCOUNT.equals(fieldName)) {
+				colshape = jp.getIntValue();
+			} else {
+				jp.skipChildren();
+			}
+		}
+
+		if (token != JsonToken.END_OBJECT) {
+			throw ctxt.mappingException(CsrMatrix.class);
+		}
+
+		// ROW may come after the packed columns
+		if ((rowPtr != null) && (colData == null) && (packedCol != null)) {
+			colData = ColumnCodec.decode(packedCol, rowPtr);
+		}
+
+		if ((rowPtr == null) || (colData == null)) {
+			throw ctxt.mappingException("Missing " + CsrMatrix.JSON_ROW + " or " + CsrMatrix.JSON_COL);
+		}
+
+		if ((data != null) && (data.length != colData.length)) {
+			throw ctxt.mappingException(CsrMatrix.JSON_DATA + " and " + CsrMatrix.JSON_COL + " have different lengths");
+		}
+
+		return new CsrMatrix(rowPtr, colData, data, rowshape, colshape);
+	}
+
+	// Row pointers read first give the length of COL and DATA
+	private static int expectedNnz(int[] rowPtr) {
+		return ((rowPtr != null) && (rowPtr.length > 0)) ? rowPtr[rowPtr.length - 1] : 0;
+	}
+
+	private static int initialCapacity(int expected) {
+		return (expected > 0) ? Math.min(expected, MAX_PRESIZE) : INITIAL_CAPACITY;
+	}
+
+	private static int[] readIntArray(JsonParser jp, DeserializationContext ctxt, int expected) throws IOException, JsonProcessingException {
+		if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+			throw ctxt.mappingException(int[].class);
+		}
+
+		int[] values = new int[initialCapacity(expected)];
+		int size = 0;
+		while (jp.nextToken() != JsonToken.END_ARRAY) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size + (size >> 1) + 1);
+			}
+			values[size++] = jp.getIntValue();
+		}
+
+		return (size == values.length) ? values : Arrays.copyOf(values, size);
+	}
+
+	private static float[] readFloatArray(JsonParser jp, DeserializationContext ctxt, int expected) throws IOException, JsonProcessingException {
+		if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+			throw ctxt.mappingException(float[].class);
+		}
+
+		float[] values = new float[initialCapacity(expected)];
+		int size = 0;
+		while (jp.nextToken() != JsonToken.END_ARRAY) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size + (size >> 1) + 1);
+			}
+			values[size++] = jp.getFloatValue();
+		}
+
+		return (size == values.length) ? values : Arrays.copyOf(values, size);
+	}
+}
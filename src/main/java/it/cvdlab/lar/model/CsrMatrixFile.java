@@ -0,0 +1,556 @@
+package it.cvdlab.lar.model;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+// Binary CSR file, little-endian, every section aligned to ALIGNMENT bytes:
+//
+//   offset  size  field
+//        0     4  MAGIC ("LCSR")
+//        4     4  format VERSION
+//        8     4  flags, FLAG_DATA when a data section follows,
+//                 FLAG_PACKED_COL when the col section is a ColumnCodec stream
+//       12     4  rows
+//       16     4  columns
+//       20     4  reserved, 0
+//       24     8  nnz
+//       32     8  rowptr offset  (rows + 1 ints)
+//       40     8  col offset     (nnz ints, or the packed stream)
+//       48     8  data offset    (nnz floats), 0 without FLAG_DATA
+//       56     8  col length in bytes, version 2 only
+//
+// A binary matrix has no data section. Sections are mapped one by one, so
+// each of them is limited to 2 GB (about 500M entries). Version 1 files
+// (no packed columns) are still read.
+//
+// The same layout is the application/octet-stream wire format: read and
+// write go through a stream in section order, offsets relative to the
+// start of each matrix, so a saved file can be sent as it is and several
+// matrices can follow each other.
+public final class CsrMatrixFile {
+	public static final int MAGIC = 0x5253434C;
+	public static final int VERSION = 2;
+	public static final int FLAG_DATA = 1;
+	public static final int FLAG_PACKED_COL = 2;
+	public static final int HEADER_SIZE = 64;
+	public static final int ALIGNMENT = 64;
+	public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+	// Streamed heap arrays go through a chunk of this size
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private CsrMatrixFile() {}
+
+	// Zero-copy: the buffers of the result are the mapped file, nothing is read
+	// on the heap (but packed columns). The OpenCL engine takes them in place on
+	// little-endian hosts
+	public static DirectCsrMatrix map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			if (length < HEADER_SIZE) {
+				throw new IOException(file + ": not a CSR file, too short");
+			}
+
+			Header header = Header.parse(channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE), file.toString());
+			header.checkSections(length);
+
+			IntBuffer rowptr = mapBytes(channel, header.rowptrOffset, header.rowptrLength()).asIntBuffer();
+			// Cheap consistency check, the sections themselves are not scanned
+			header.checkRowptr(rowptr);
+
+			IntBuffer coldata;
+			if (header.packedCol) {
+				byte[] packed = new byte[(int) header.colLength];
+				mapBytes(channel, header.colOffset, header.colLength).get(packed);
+				coldata = header.unpack(packed, rowptr);
+			} else {
+				coldata = mapBytes(channel, header.colOffset, header.colLength).asIntBuffer();
+			}
+			FloatBuffer data = header.hasData ? mapBytes(channel, header.dataOffset, header.dataLength()).asFloatBuffer() : null;
+
+			// The mapping outlives the channel
+			return new DirectCsrMatrix(rowptr, coldata, data, header.rows, header.cols);
+		} finally {
+			raf.close();
+		}
+	}
+
+	// One bulk copy per section from the mapping
+	public static CsrMatrix load(File file) throws IOException {
+		return map(file).toCsrMatrix();
+	}
+
+	public static void save(CsrMatrix matrix, File file) throws IOException {
+		save(matrix, file, false);
+	}
+
+	// Packed columns take about a quarter of the space of LAR boundary
+	// matrices, but map() has to decode them instead of mapping them
+	public static void save(CsrMatrix matrix, File file, boolean packColumns) throws IOException {
+		float[] data = matrix.getStoredDataArray();
+		byte[] packed = packColumns ? ColumnCodec.encode(matrix.getRowptrArray(), matrix.getColdataArray()) : null;
+		Header header = Header.of(matrix.getRowCount(), matrix.getColCount(), matrix.getNonZeroElementsCount(), packed, data != null);
+		MappedByteBuffer[] sections = create(file, header);
+
+		sections[0].asIntBuffer().put(matrix.getRowptrArray());
+		if (packColumns) {
+			sections[1].put(packed);
+		} else {
+			sections[1].asIntBuffer().put(matrix.getColdataArray());
+		}
+		if (data != null) {
+			sections[2].asFloatBuffer().put(data);
+		}
+		force(sections);
+	}
+
+	public static void save(DirectCsrMatrix matrix, File file) throws IOException {
+		FloatBuffer data = matrix.getDataBuffer();
+		Header header = Header.of(matrix.getRowCount(), matrix.getColCount(), matrix.getNonZeroElementsCount(), null, data != null);
+		MappedByteBuffer[] sections = create(file, header);
+
+		// put(IntBuffer) swaps the bytes when the orders differ
+		sections[0].asIntBuffer().put(matrix.getRowptrBuffer());
+		sections[1].asIntBuffer().put(matrix.getColdataBuffer());
+		if (data != null) {
+			sections[2].asFloatBuffer().put(data);
+		}
+		force(sections);
+	}
+
+	// The next matrix of the stream into heap arrays, null when the stream
+	// ends before a header. Nothing past the matrix is consumed
+	public static CsrMatrix read(InputStream stream) throws IOException {
+		ReadableByteChannel channel = Channels.newChannel(stream);
+		Header header = readHeader(channel);
+		if (header == null) {
+			return null;
+		}
+		ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ORDER);
+
+		long position = skipTo(channel, HEADER_SIZE, header.rowptrOffset);
+		int[] rowPtr = readInts(channel, chunk, header.rows + 1);
+		position += header.rowptrLength();
+		header.checkRowptr(IntBuffer.wrap(rowPtr));
+		header.checkRowOrder(IntBuffer.wrap(rowPtr));
+
+		position = skipTo(channel, position, header.colOffset);
+		int[] colData;
+		if (header.packedCol) {
+			ByteBuffer packed = readSection(channel, header.colLength, false);
+			colData = header.unpack(packed.array(), rowPtr);
+		} else {
+			colData = readInts(channel, chunk, header.nnz);
+		}
+		header.checkColumns(IntBuffer.wrap(colData));
+		position += header.colLength;
+
+		if (!header.hasData) {
+			return new CsrMatrix(rowPtr, colData, header.rows, header.cols);
+		}
+		skipTo(channel, position, header.dataOffset);
+		float[] data = readFloats(channel, chunk, header.nnz);
+		return new CsrMatrix(rowPtr, colData, data, header.rows, header.cols);
+	}
+
+	// As read, but straight into direct buffers in the wire byte order
+	public static DirectCsrMatrix readDirect(InputStream stream) throws IOException {
+		ReadableByteChannel channel = Channels.newChannel(stream);
+		Header header = readHeader(channel);
+		if (header == null) {
+			return null;
+		}
+
+		long position = skipTo(channel, HEADER_SIZE, header.rowptrOffset);
+		IntBuffer rowptr = readSection(channel, header.rowptrLength(), true).asIntBuffer();
+		position += header.rowptrLength();
+		header.checkRowptr(rowptr);
+		header.checkRowOrder(rowptr);
+
+		position = skipTo(channel, position, header.colOffset);
+		IntBuffer coldata;
+		if (header.packedCol) {
+			ByteBuffer packed = readSection(channel, header.colLength, false);
+			coldata = header.unpack(packed.array(), rowptr);
+		} else {
+			coldata = readSection(channel, header.colLength, true).asIntBuffer();
+		}
+		header.checkColumns(coldata);
+		position += header.colLength;
+
+		FloatBuffer data = null;
+		if (header.hasData) {
+			skipTo(channel, position, header.dataOffset);
+			data = readSection(channel, header.dataLength(), true).asFloatBuffer();
+		}
+		return new DirectCsrMatrix(rowptr, coldata, data, header.rows, header.cols);
+	}
+
+	// Columns are never packed on the way out
+	public static void write(CsrMatrix matrix, OutputStream stream) throws IOException {
+		float[] data = matrix.getStoredDataArray();
+		Header header = Header.of(matrix.getRowCount(), matrix.getColCount(), matrix.getNonZeroElementsCount(), null, data != null);
+		WritableByteChannel channel = Channels.newChannel(stream);
+		ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE).order(ORDER);
+
+		ByteBuffer headerBytes = ByteBuffer.allocate(HEADER_SIZE);
+		header.put(headerBytes);
+		writeFully(channel, headerBytes);
+
+		long position = padTo(channel, HEADER_SIZE, header.rowptrOffset);
+		writeInts(channel, chunk, matrix.getRowptrArray());
+		position += header.rowptrLength();
+
+		position = padTo(channel, position, header.colOffset);
+		writeInts(channel, chunk, matrix.getColdataArray());
+		position += header.colLength;
+
+		if (data != null) {
+			padTo(channel, position, header.dataOffset);
+			writeFloats(channel, chunk, data);
+		}
+	}
+
+	static long align(long offset) {
+		return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	// The fields of the header, and the section bounds derived from them
+	private static final class Header {
+		final String source;
+		final boolean hasData, packedCol;
+		final int rows, cols, nnz;
+		final long rowptrOffset, colOffset, dataOffset, colLength;
+
+		private Header(String source, int flags, int rows, int cols, int nnz,
+				long rowptrOffset, long colOffset, long dataOffset, long colLength) {
+			this.source = source;
+			this.hasData = (flags & FLAG_DATA) != 0;
+			this.packedCol = (flags & FLAG_PACKED_COL) != 0;
+			this.rows = rows;
+			this.cols = cols;
+			this.nnz = nnz;
+			this.rowptrOffset = rowptrOffset;
+			this.colOffset = colOffset;
+			this.dataOffset = dataOffset;
+			this.colLength = colLength;
+		}
+
+		// Sections in order, each one aligned
+		static Header of(int rows, int cols, int nnz, byte[] packed, boolean hasData) {
+			long colLength = (packed != null) ? packed.length : (nnz * 4L);
+			long rowptrOffset = HEADER_SIZE;
+			long colOffset = align(rowptrOffset + (rows + 1L) * 4);
+			long dataOffset = hasData ? align(colOffset + colLength) : 0;
+			int flags = (hasData ? FLAG_DATA : 0) | ((packed != null) ? FLAG_PACKED_COL : 0);
+			return new Header("", flags, rows, cols, nnz, rowptrOffset, colOffset, dataOffset, colLength);
+		}
+
+		static Header parse(ByteBuffer bytes, String source) throws IOException {
+			bytes.order(ORDER);
+			if (bytes.getInt(0) != MAGIC) {
+				throw new IOException(source + ": not a CSR file, bad magic");
+			}
+			int version = bytes.getInt(4);
+			if ((version < 1) || (version > VERSION)) {
+				throw new IOException(source + ": unsupported CSR file version " + version);
+			}
+			int flags = bytes.getInt(8);
+			int rows = bytes.getInt(12);
+			int cols = bytes.getInt(16);
+			long nnz = bytes.getLong(24);
+			if ((rows < 0) || (rows == Integer.MAX_VALUE) || (cols < 0) || (nnz < 0) || (nnz > Integer.MAX_VALUE / 4)) {
+				throw new IOException(source + ": bad CSR file shape " + rows + "x" + cols + ", nnz=" + nnz);
+			}
+			// Version 1 has no packed columns, its col length is implied
+			long colLength = (version == 1) ? (nnz * 4) : bytes.getLong(56);
+			// Packed columns take at least a byte each, after the flags byte
+			boolean packed = (flags & FLAG_PACKED_COL) != 0;
+			if (packed ? (colLength <= nnz) : (colLength != nnz * 4)) {
+				throw new IOException(source + ": col section of " + colLength + " bytes for nnz=" + nnz);
+			}
+
+			return new Header(source, flags, rows, cols, (int) nnz,
+					bytes.getLong(32), bytes.getLong(40), bytes.getLong(48), colLength);
+		}
+
+		void put(ByteBuffer bytes) {
+			bytes.order(ORDER);
+			bytes.putInt(0, MAGIC);
+			bytes.putInt(4, VERSION);
+			bytes.putInt(8, (hasData ? FLAG_DATA : 0) | (packedCol ? FLAG_PACKED_COL : 0));
+			bytes.putInt(12, rows);
+			bytes.putInt(16, cols);
+			bytes.putInt(20, 0);
+			bytes.putLong(24, nnz);
+			bytes.putLong(32, rowptrOffset);
+			bytes.putLong(40, colOffset);
+			bytes.putLong(48, dataOffset);
+			bytes.putLong(56, colLength);
+		}
+
+		long rowptrLength() {
+			return (rows + 1L) * 4;
+		}
+
+		long dataLength() {
+			return nnz * 4L;
+		}
+
+		long length() {
+			return hasData ? (dataOffset + dataLength()) : (colOffset + colLength);
+		}
+
+		// In order, aligned, within length bytes
+		void checkSections(long length) throws IOException {
+			checkSection(rowptrOffset, rowptrLength(), HEADER_SIZE, length);
+			checkSection(colOffset, colLength, rowptrOffset + rowptrLength(), length);
+			if (hasData) {
+				checkSection(dataOffset, dataLength(), colOffset + colLength, length);
+			}
+		}
+
+		private void checkSection(long offset, long size, long previousEnd, long length) throws IOException {
+			if ((size < 0) || (size > Integer.MAX_VALUE) || (offset < previousEnd) || ((offset % ALIGNMENT) != 0) || (offset > length - size)) {
+				throw new IOException(source + ": bad CSR file section at " + offset + ", " + size + " bytes");
+			}
+		}
+
+		// A stream cannot seek: each section follows the previous one, past
+		// the alignment padding only
+		void checkStreamSections() throws IOException {
+			checkSections(Long.MAX_VALUE);
+			checkPadding(rowptrOffset, HEADER_SIZE);
+			checkPadding(colOffset, rowptrOffset + rowptrLength());
+			if (hasData) {
+				checkPadding(dataOffset, colOffset + colLength);
+			}
+		}
+
+		private void checkPadding(long offset, long previousEnd) throws IOException {
+			if (offset != align(previousEnd)) {
+				throw new IOException(source + ": CSR stream section at " + offset + ", expected " + align(previousEnd));
+			}
+		}
+
+		void checkRowptr(IntBuffer rowptr) throws IOException {
+			if ((rowptr.get(0) != 0) || (rowptr.get(rows) != nnz)) {
+				throw new IOException(source + ": row pointers do not match nnz=" + nnz);
+			}
+		}
+
+		// Streams are request bodies, which go on to the kernels unchecked: their
+		// whole structure is scanned, unlike mapped files
+		void checkRowOrder(IntBuffer rowptr) throws IOException {
+			for(int i = 0; i < rows; i++) {
+				if (rowptr.get(i) > rowptr.get(i + 1)) {
+					throw new IOException(source + ": row pointers decrease at row " + i);
+				}
+			}
+		}
+
+		void checkColumns(IntBuffer coldata) throws IOException {
+			for(int k = 0; k < nnz; k++) {
+				int column = coldata.get(k);
+				if ((column < 0) || (column >= cols)) {
+					throw new IOException(source + ": column " + column + " outside " + rows + "x" + cols);
+				}
+			}
+		}
+
+		int[] unpack(byte[] packed, int[] rowPtr) throws IOException {
+			int[] colData = new int[nnz];
+			if (ColumnCodec.decode(packed, 0, rowPtr, colData) != packed.length) {
+				throw new IOException(source + ": packed col section has trailing bytes");
+			}
+			return colData;
+		}
+
+		// Decoded once into a direct buffer, only the packed bytes go through the heap
+		IntBuffer unpack(byte[] packed, IntBuffer rowptr) throws IOException {
+			int[] rowPtr = new int[rows + 1];
+			rowptr.duplicate().get(rowPtr);
+			IntBuffer coldata = ByteBuffer.allocateDirect(nnz * 4).order(ORDER).asIntBuffer();
+			coldata.put(unpack(packed, rowPtr)).rewind();
+			return coldata;
+		}
+	}
+
+	private static ByteBuffer mapBytes(FileChannel channel, long offset, long size) throws IOException {
+		return channel.map(MapMode.READ_ONLY, offset, size).order(ORDER);
+	}
+
+	// Writes the header and maps the rowptr, col and data sections for writing
+	private static MappedByteBuffer[] create(File file, Header header) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			raf.setLength(header.length());
+			FileChannel channel = raf.getChannel();
+
+			MappedByteBuffer headerBytes = map(channel, 0, HEADER_SIZE);
+			header.put(headerBytes);
+			headerBytes.force();
+
+			MappedByteBuffer[] sections = new MappedByteBuffer[3];
+			sections[0] = map(channel, header.rowptrOffset, header.rowptrLength());
+			sections[1] = map(channel, header.colOffset, header.colLength);
+			sections[2] = header.hasData ? map(channel, header.dataOffset, header.dataLength()) : null;
+			return sections;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+		MappedByteBuffer section = channel.map(MapMode.READ_WRITE, offset, size);
+		section.order(ORDER);
+		return section;
+	}
+
+	private static void force(MappedByteBuffer[] sections) {
+		for(MappedByteBuffer section : sections) {
+			if (section != null) {
+				section.force();
+			}
+		}
+	}
+
+	// null on a clean end of stream
+	private static Header readHeader(ReadableByteChannel channel) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(HEADER_SIZE);
+		if (channel.read(bytes) < 0) {
+			return null;
+		}
+		readFully(channel, bytes);
+
+		Header header = Header.parse(bytes, "CSR stream");
+		header.checkStreamSections();
+		return header;
+	}
+
+	private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("CSR stream: " + buffer.remaining() + " bytes missing");
+			}
+		}
+	}
+
+	// The sizes come from the header, so the buffer grows with the bytes
+	// that actually arrive: a short stream fails before the whole size is taken
+	private static ByteBuffer readSection(ReadableByteChannel channel, long size, boolean direct) throws IOException {
+		ByteBuffer bytes = allocate((int) Math.min(size, CHUNK_SIZE), direct);
+		readFully(channel, bytes);
+		while (bytes.capacity() < size) {
+			ByteBuffer grown = allocate((int) Math.min(size, 2L * bytes.capacity()), direct);
+			bytes.flip();
+			grown.put(bytes);
+			readFully(channel, grown);
+			bytes = grown;
+		}
+		bytes.flip();
+		return bytes;
+	}
+
+	private static ByteBuffer allocate(int size, boolean direct) {
+		return (direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size)).order(ORDER);
+	}
+
+	// Discards the padding up to offset, less than ALIGNMENT bytes
+	private static long skipTo(ReadableByteChannel channel, long position, long offset) throws IOException {
+		ByteBuffer scratch = ByteBuffer.allocate(ALIGNMENT);
+		for(long left = offset - position; left > 0; left -= scratch.limit()) {
+			scratch.clear();
+			scratch.limit((int) Math.min(left, ALIGNMENT));
+			readFully(channel, scratch);
+		}
+		return offset;
+	}
+
+	// Grown as the values arrive, as in readSection
+	private static int[] readInts(ReadableByteChannel channel, ByteBuffer chunk, int length) throws IOException {
+		int[] values = new int[Math.min(length, CHUNK_SIZE / 4)];
+		for(int k = 0; k < length; ) {
+			if (k == values.length) {
+				values = Arrays.copyOf(values, (int) Math.min(length, 2L * k));
+			}
+			int count = Math.min(values.length - k, CHUNK_SIZE / 4);
+			chunk.clear();
+			chunk.limit(count * 4);
+			readFully(channel, chunk);
+			chunk.flip();
+			chunk.asIntBuffer().get(values, k, count);
+			k += count;
+		}
+		return values;
+	}
+
+	private static float[] readFloats(ReadableByteChannel channel, ByteBuffer chunk, int length) throws IOException {
+		float[] values = new float[Math.min(length, CHUNK_SIZE / 4)];
+		for(int k = 0; k < length; ) {
+			if (k == values.length) {
+				values = Arrays.copyOf(values, (int) Math.min(length, 2L * k));
+			}
+			int count = Math.min(values.length - k, CHUNK_SIZE / 4);
+			chunk.clear();
+			chunk.limit(count * 4);
+			readFully(channel, chunk);
+			chunk.flip();
+			chunk.asFloatBuffer().get(values, k, count);
+			k += count;
+		}
+		return values;
+	}
+
+	private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static long padTo(WritableByteChannel channel, long position, long offset) throws IOException {
+		if (offset > position) {
+			writeFully(channel, ByteBuffer.allocate((int) (offset - position)));
+		}
+		return offset;
+	}
+
+	private static void writeInts(WritableByteChannel channel, ByteBuffer chunk, int[] values) throws IOException {
+		for(int k = 0; k < values.length; ) {
+			int count = Math.min(values.length - k, CHUNK_SIZE / 4);
+			chunk.clear();
+			chunk.asIntBuffer().put(values, k, count);
+			chunk.limit(count * 4);
+			writeFully(channel, chunk);
+			k += count;
+		}
+	}
+
+	private static void writeFloats(WritableByteChannel channel, ByteBuffer chunk, float[] values) throws IOException {
+		for(int k = 0; k < values.length; ) {
+			int count = Math.min(values.length - k, CHUNK_SIZE / 4);
+			chunk.clear();
+			chunk.asFloatBuffer().put(values, k, count);
+			chunk.limit(count * 4);
+			writeFully(channel, chunk);
+			k += count;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package it.cvdlab.lar.model;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Streaming JSON writer for the ROW/COL/DATA/ROWCOUNT/COLCOUNT layout:
+// numbers are formatted from the primitive arrays into one reusable byte
+// buffer, which goes out whenever it fills up. The document is never held
+// as a whole. Pattern matrices are written without DATA.
+public final class CsrMatrixJsonWriter implements Closeable, Flushable {
+	private static final int BUFFER_SIZE = 1 << 16;
+	// Longest number: "-2147483648", or Float.toString
+	private static final int MAX_NUMBER = 16;
+	// Larger values keep the float notation
+	private static final float MAX_WHOLE = 1 << 24;
+
+	private final OutputStream output;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+
+	public CsrMatrixJsonWriter(OutputStream output) {
+		this.output = output;
+	}
+
+	public void write(CsrMatrix matrix) throws IOException {
+		float[] data = matrix.getStoredDataArray();
+
+		writeAscii("{\"" + CsrMatrix.JSON_ROW + "\":");
+		writeIntArray(matrix.getRowptrArray());
+		writeAscii(",\"" + CsrMatrix.JSON_COL + "\":");
+		writeIntArray(matrix.getColdataArray());
+		if (data != null) {
+			writeAscii(",\"" + CsrMatrix.JSON_DATA + "\":");
+			writeFloatArray(data);
+		}
+		writeAscii(",\"" + CsrMatrix.JSON_ROWCOUNT + "\":");
+		ensure(MAX_NUMBER);
+		writeInt(matrix.getRowCount());
+		writeAscii(",\"" + CsrMatrix.JSON_COLCOUNT + "\":");
+		ensure(MAX_NUMBER);
+		writeInt(matrix.getColCount());
+		writeAscii("}");
+	}
+
+	private void writeIntArray(int[] array) throws IOException {
+		if (array == null) {
+			writeAscii("null");
+			return;
+		}
+
+		ensure(1);
+		buffer[position++] = '[';
+		for(int i = 0; i < array.length; i++) {
+			ensure(MAX_NUMBER + 2);
+			if (i > 0) {
+				buffer[position++] = ',';
+			}
+			writeInt(array[i]);
+		}
+		ensure(1);
+		buffer[position++] = ']';
+	}
+
+	private void writeFloatArray(float[] array) throws IOException {
+		ensure(1);
+		buffer[position++] = '[';
+		for(int i = 0; i < array.length; i++) {
+			ensure(MAX_NUMBER + 4);
+			if (i > 0) {
+				buffer[position++] = ',';
+			}
+			writeFloat(array[i]);
+		}
+		ensure(1);
+		buffer[position++] = ']';
+	}
+
+	// Digits are produced right to left, then the buffer slice is reversed
+	private void writeInt(int value) {
+		if (value == Integer.MIN_VALUE) {
+			putAscii("-2147483648");
+			return;
+		}
+		if (value < 0) {
+			buffer[position++] = '-';
+			value = -value;
+		}
+
+		int start = position;
+		do {
+			int next = value / 10;
+			buffer[position++] = (byte) ('0' + (value - next * 10));
+			value = next;
+		} while (value != 0);
+
+		for(int i = start, j = position - 1; i < j; i++, j--) {
+			byte digit = buffer[i];
+			buffer[i] = buffer[j];
+			buffer[j] = digit;
+		}
+	}
+
+	// Whole values (counts, 0/1 incidences) as integers, the rest as
+	// Float.toString; NaN and infinities quoted, as Jackson does
+	private void writeFloat(float value) {
+		if ((value == (int) value) && (Math.abs(value) <= MAX_WHOLE)) {
+			writeInt((int) value);
+		} else if (Float.isNaN(value) || Float.isInfinite(value)) {
+			putAscii("\"" + value + "\"");
+		} else {
+			putAscii(Float.toString(value));
+		}
+	}
+
+	private void writeAscii(String text) throws IOException {
+		ensure(text.length());
+		putAscii(text);
+	}
+
+	private void putAscii(String text) {
+		for(int i = 0; i < text.length(); i++) {
+			buffer[position++] = (byte) text.charAt(i);
+		}
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (position + bytes > buffer.length) {
+			drain();
+		}
+	}
+
+	private void drain() throws IOException {
+		output.write(buffer, 0, position);
+		position = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drain();
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		output.close();
+	}
+}
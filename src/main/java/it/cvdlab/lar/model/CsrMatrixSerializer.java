@@ -0,0 +1,52 @@
+package it.cvdlab.lar.model;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+
+// Writes the ROW/COL/DATA/ROWCOUNT/COLCOUNT layout straight from the primitive arrays,
+// through Jackson; CsrMatrixJsonWriter writes the same layout to a plain stream
+public final class CsrMatrixSerializer extends JsonSerializer<CsrMatrix> {
+	@Override
+	public void serialize(CsrMatrix value, JsonGenerator jgen, SerializerProvider provider) throws IOException, JsonProcessingException {
+		jgen.writeStartObject();
+
+		jgen.writeFieldName(CsrMatrix.JSON_ROW);
+		writeIntArray(value.getRowptrArray(), jgen);
+		jgen.writeFieldName(CsrMatrix.JSON_COL);
+		writeIntArray(value.getColdataArray(), jgen);
+		// A pattern matrix has no DATA: the deserializers read it back as a pattern
+		if (value.getStoredDataArray() != null) {
+			jgen.writeFieldName(CsrMatrix.JSON_DATA);
+			writeFloatArray(value.getStoredDataArray(), jgen);
+		}
+		jgen.writeNumberField(CsrMatrix.JSON_ROWCOUNT, value.getRowshape());
+		jgen.writeNumberField(CsrMatrix.JSON_COLCOUNT, value.getColshape());
+
+		jgen.writeEndObject();
+	}
+
+	private static void writeIntArray(int[] array, JsonGenerator jgen) throws IOException, JsonProcessingException {
+		if (array == null) {
+			jgen.writeNull();
+			return;
+		}
+
+		jgen.writeStartArray();
+		for(int i = 0; i < array.length; i++) {
+			jgen.writeNumber(array[i]);
+		}
+		jgen.writeEndArray();
+	}
+
+	private static void writeFloatArray(float[] array, JsonGenerator jgen) throws IOException, JsonProcessingException {
+		jgen.writeStartArray();
+		for(int i = 0; i < array.length; i++) {
+			jgen.writeNumber(array[i]);
+		}
+		jgen.writeEndArray();
+	}
+}
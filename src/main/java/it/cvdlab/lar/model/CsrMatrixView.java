@@ -0,0 +1,159 @@
+package it.cvdlab.lar.model;
+
+import it.cvdlab.lar.cpuengine.AccumulatorPolicy;
+import it.cvdlab.lar.cpuengine.ParallelMultiply;
+
+import java.util.Arrays;
+
+// Rows [rowStart, rowEnd) and columns [fromCol, toCol) of a CsrMatrix,
+// reading the arrays of the matrix in place. Views are cut in O(1) and
+// views of views stay views of the same matrix; the row pointer of the
+// view is rebased only when asked for, in O(rows of the view).
+public final class CsrMatrixView {
+	private final CsrMatrix matrix;
+	private final int rowStart, rowEnd;
+	private final int fromCol, toCol;
+	// Rebased row pointer, built on first use
+	private int[] rowPtr = null;
+
+	CsrMatrixView(CsrMatrix matrix, int rowStart, int rowEnd, int fromCol, int toCol) {
+		if ((rowStart < 0) || (rowStart > rowEnd) || (rowEnd > matrix.getRowCount())) {
+			throw new IndexOutOfBoundsException("Row range [" + rowStart + ", " + rowEnd + ") is not in [0, " + matrix.getRowCount() + ")");
+		}
+		if ((fromCol < 0) || (fromCol > toCol) || (toCol > matrix.getColCount())) {
+			throw new IndexOutOfBoundsException("Column range [" + fromCol + ", " + toCol + ") is not in [0, " + matrix.getColCount() + ")");
+		}
+		this.matrix = matrix;
+		this.rowStart = rowStart;
+		this.rowEnd = rowEnd;
+		this.fromCol = fromCol;
+		this.toCol = toCol;
+	}
+
+	// Rows [from, to) of this view
+	public CsrMatrixView rows(int from, int to) {
+		// The constructor only checks against the matrix, not this view
+		if ((from < 0) || (from > to) || (to > getRowCount())) {
+			throw new IndexOutOfBoundsException("Row range [" + from + ", " + to + ") is not in [0, " + getRowCount() + ")");
+		}
+		return new CsrMatrixView(matrix, rowStart + from, rowStart + to, fromCol, toCol);
+	}
+
+	// Columns [from, to) of this view
+	public CsrMatrixView columns(int from, int to) {
+		if ((from < 0) || (from > to) || (to > getColCount())) {
+			throw new IndexOutOfBoundsException("Column range [" + from + ", " + to + ") is not in [0, " + getColCount() + ")");
+		}
+		return new CsrMatrixView(matrix, rowStart, rowEnd, fromCol + from, fromCol + to);
+	}
+
+	public CsrMatrix getMatrix() {
+		return matrix;
+	}
+
+	public int getRowStart() {
+		return rowStart;
+	}
+
+	public int getFromCol() {
+		return fromCol;
+	}
+
+	public int getRowCount() {
+		return rowEnd - rowStart;
+	}
+
+	public int getColCount() {
+		return toCol - fromCol;
+	}
+
+	// A window cutting columns: its entries are not contiguous in the matrix arrays
+	public boolean isWindowed() {
+		return (fromCol > 0) || (toCol < matrix.getColCount());
+	}
+
+	public RowView rowView() {
+		return new RowView(matrix.getRowptrArray(), matrix.getColdataArray(), matrix.getStoredDataArray(),
+				rowStart, fromCol, toCol, isWindowed());
+	}
+
+	public RowCursor rowCursor() {
+		return new RowCursor(rowView(), 0, getRowCount(), 0, getColCount(), false);
+	}
+
+	// rowPtr[i] is the first entry of row i counted from the first entry of the view
+	public int[] getRowptrArray() {
+		if (rowPtr == null) {
+			int[] rebased = new int[getRowCount() + 1];
+			if (isWindowed()) {
+				RowCursor rows = rowCursor();
+				while (rows.next()) {
+					rebased[rows.view().getRow() + 1] = rebased[rows.view().getRow()] + rows.view().size();
+				}
+			} else {
+				int[] matrixRowPtr = matrix.getRowptrArray();
+				int base = matrixRowPtr[rowStart];
+				for(int i = 0; i < rebased.length; i++) {
+					rebased[i] = matrixRowPtr[rowStart + i] - base;
+				}
+			}
+			rowPtr = rebased;
+		}
+		return rowPtr;
+	}
+
+	public int getNonZeroElementsCount() {
+		if (!isWindowed()) {
+			return matrix.rowPtrAt(rowEnd) - matrix.rowPtrAt(rowStart);
+		}
+		return getRowptrArray()[getRowCount()];
+	}
+
+	// Copy the view into a CsrMatrix of its own
+	public CsrMatrix toCsrMatrix() {
+		int[] viewRowPtr = getRowptrArray();
+		int nnz = viewRowPtr[getRowCount()];
+		float[] matrixData = matrix.getStoredDataArray();
+
+		if (!isWindowed()) {
+			int offset = matrix.rowPtrAt(rowStart);
+			return new CsrMatrix(viewRowPtr.clone(),
+					Arrays.copyOfRange(matrix.getColdataArray(), offset, offset + nnz),
+					(matrixData == null) ? null : Arrays.copyOfRange(matrixData, offset, offset + nnz),
+					getRowCount(), getColCount());
+		}
+
+		int[] colData = new int[nnz];
+		float[] data = (matrixData == null) ? null : new float[nnz];
+		RowCursor rows = rowCursor();
+		while (rows.next()) {
+			RowView row = rows.view();
+			int position = viewRowPtr[row.getRow()];
+			for(int k = 0; k < row.size(); k++) {
+				colData[position + k] = row.col(k);
+			}
+			if (data != null) {
+				System.arraycopy(matrixData, row.offset(), data, position, row.size());
+			}
+		}
+		return new CsrMatrix(viewRowPtr.clone(), colData, data, getRowCount(), getColCount());
+	}
+
+	// Product of the rows of this view by matrix: row blocks are read in place,
+	// a column window is copied out first
+	public CsrMatrix multiply(CsrMatrix other, Semiring semiring, ResultFilter filter) throws Exception {
+		if (this.getColCount() != other.getRowCount()) {
+			throw new Exception("Current matrix columns are different from argument matrix rows");
+		}
+
+		if (isWindowed()) {
+			return toCsrMatrix().multiply(other, semiring, filter);
+		}
+		return ParallelMultiply.multiplyRows(matrix, rowStart, rowEnd, other, AccumulatorPolicy.ADAPTIVE, semiring, filter);
+	}
+
+	@Override
+	public String toString() {
+		return "CsrMatrixView [rows " + rowStart + ".." + rowEnd + ", cols " + fromCol + ".." + toCol + " of " + matrix.getRowCount() + "x" + matrix.getColCount() + "]";
+	}
+}
@@ -0,0 +1,121 @@
+package it.cvdlab.lar.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.codehaus.jackson.map.annotate.JsonDeserialize;
+
+// CSR arrays off the Java heap, in direct buffers of the native byte order:
+// the OpenCL engine hands them to the device as they are, with no staging
+// copy. The JSON layout is the one of CsrMatrix and is parsed straight into
+// the buffers. A null data buffer means a binary matrix.
+@JsonDeserialize(using = DirectCsrMatrixDeserializer.class)
+public final class DirectCsrMatrix {
+	private final IntBuffer rowptr;
+	private final IntBuffer coldata;
+	private final FloatBuffer data;
+	private final int rowshape;
+	private final int colshape;
+
+	public DirectCsrMatrix(IntBuffer rowptr, IntBuffer coldata, FloatBuffer data, int rowshape, int colshape) {
+		if (!rowptr.isDirect() || !coldata.isDirect() || ((data != null) && !data.isDirect())) {
+			throw new IllegalArgumentException("DirectCsrMatrix needs direct buffers");
+		}
+		if ((coldata.order() != rowptr.order()) || ((data != null) && (data.order() != rowptr.order()))) {
+			throw new IllegalArgumentException("DirectCsrMatrix buffers have mixed byte orders");
+		}
+		this.rowptr = rowptr;
+		this.coldata = coldata;
+		this.data = data;
+		this.rowshape = rowshape;
+		this.colshape = colshape;
+	}
+
+	// Zeroed buffers for a matrix with nnz entries
+	public static DirectCsrMatrix allocate(int rowshape, int colshape, int nnz, boolean binary) {
+		return new DirectCsrMatrix(allocateInts(rowshape + 1), allocateInts(nnz), binary ? null : allocateFloats(nnz), rowshape, colshape);
+	}
+
+	public static DirectCsrMatrix fromCsrMatrix(CsrMatrix matrix) {
+		DirectCsrMatrix direct = allocate(matrix.getRowCount(), matrix.getColCount(), matrix.getNonZeroElementsCount(), matrix.isPattern());
+		direct.rowptr.put(matrix.getRowptrArray()).rewind();
+		direct.coldata.put(matrix.getColdataArray()).rewind();
+		if (direct.data != null) {
+			direct.data.put(matrix.getStoredDataArray()).rewind();
+		}
+		return direct;
+	}
+
+	static IntBuffer allocateInts(int size) {
+		return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+
+	static FloatBuffer allocateFloats(int size) {
+		return ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	// Bulk copy back to the heap
+	public CsrMatrix toCsrMatrix() {
+		int[] rowPtrArray = new int[rowshape + 1];
+		int[] colDataArray = new int[getNonZeroElementsCount()];
+		getRowptrBuffer().get(rowPtrArray);
+		getColdataBuffer().get(colDataArray);
+
+		if (data == null) {
+			return new CsrMatrix(rowPtrArray, colDataArray, rowshape, colshape);
+		}
+		float[] dataArray = new float[colDataArray.length];
+		getDataBuffer().get(dataArray);
+		return new CsrMatrix(rowPtrArray, colDataArray, dataArray, rowshape, colshape);
+	}
+
+	// The buffers are shared: every getter returns a view positioned at 0
+	public IntBuffer getRowptrBuffer() {
+		return (IntBuffer) rowptr.duplicate().rewind();
+	}
+
+	public IntBuffer getColdataBuffer() {
+		return (IntBuffer) coldata.duplicate().rewind();
+	}
+
+	// null for binary matrices
+	public FloatBuffer getDataBuffer() {
+		return (data == null) ? null : (FloatBuffer) data.duplicate().rewind();
+	}
+
+	// Native for allocated matrices, the file order for mapped ones
+	public ByteOrder order() {
+		return rowptr.order();
+	}
+
+	public int getRowCount() {
+		return rowshape;
+	}
+
+	public int getColCount() {
+		return colshape;
+	}
+
+	public int getNonZeroElementsCount() {
+		return coldata.capacity();
+	}
+
+	public boolean isBinary() {
+		if (data == null) {
+			return true;
+		}
+		for(int k = 0; k < data.capacity(); k++) {
+			if (data.get(k) != 1F) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "DirectCsrMatrix [" + rowshape + "x" + colshape + ", nnz=" + getNonZeroElementsCount() + (data == null ? ", binary" : "") + "]";
+	}
+}
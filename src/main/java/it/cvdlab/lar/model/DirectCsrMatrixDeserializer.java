@@ -0,0 +1,140 @@
+package it.cvdlab.lar.model;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.DeserializationContext;
+import org.codehaus.jackson.map.JsonDeserializer;
+
+// Same layout as CsrMatrixDeserializer, every array is read straight into
+// direct memory; buffers grow by half their size and are trimmed by a
+// view of the filled part, the heap never holds a copy
+public final class DirectCsrMatrixDeserializer extends JsonDeserializer<DirectCsrMatrix> {
+	private static final int INITIAL_CAPACITY = 16;
+	// Sizes known from earlier fields pre-size the arrays, a bogus ROWCOUNT
+	// cannot allocate more than this up front
+	private static final int MAX_PRESIZE = 1 << 24;
+
+	@Override
+	public DirectCsrMatrix deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException, JsonProcessingException {
+		IntBuffer rowPtr = null;
+		IntBuffer colData = null;
+		FloatBuffer data = null;
+		int rowshape = 0;
+		int colshape = 0;
+		int expectedRows = -1;
+		byte[] packedCol = null;
+
+		JsonToken token = jp.getCurrentToken();
+		if (token == JsonToken.START_OBJECT) {
+			token = jp.nextToken();
+		}
+
+		for(; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+			String fieldName = jp.getCurrentName();
+			token = jp.nextToken();
+
+			if (CsrMatrix.JSON_ROW.equals(fieldName)) {
+				rowPtr = readIntBuffer(jp, ctxt, expectedRows + 1);
+			} else if (CsrMatrix.JSON_COL.equals(fieldName)) {
+				colData = readIntBuffer(jp, ctxt, expectedNnz(rowPtr));
+			} else if (CsrMatrix.JSON_COL_PACKED.equals(fieldName)) {
+				packedCol = jp.getBinaryValue();
+			} else if (CsrMatrix.JSON_DATA.equals(fieldName)) {
+				data = readFloatBuffer(jp, ctxt, expectedNnz(rowPtr));
+			} else if (CsrMatrix.JSON_ROWCOUNT.equals(fieldName)) {
+				rowshape = jp.getIntValue();
+				expectedRows = rowshape;
+			} else if (CsrMatrix.JSON_COLCOUNT.equals(fieldName)) {
+				colshape = jp.getIntValue();
+			} else {
+				jp.skipChildren();
+			}
+		}
+
+		if (token != JsonToken.END_OBJECT) {
+			throw ctxt.mappingException(DirectCsrMatrix.class);
+		}
+
+		// ROW may come after the packed columns
+		if ((rowPtr != null) && (colData == null) && (packedCol != null)) {
+			int[] rowPtrArray = new int[rowPtr.capacity()];
+			rowPtr.duplicate().get(rowPtrArray);
+			int[] colDataArray = ColumnCodec.decode(packedCol, rowPtrArray);
+			colData = DirectCsrMatrix.allocateInts(colDataArray.length);
+			colData.put(colDataArray).rewind();
+		}
+
+		if ((rowPtr == null) || (colData == null)) {
+			throw ctxt.mappingException("Missing " + CsrMatrix.JSON_ROW + " or " + CsrMatrix.JSON_COL);
+		}
+
+		if ((data != null) && (data.capacity() != colData.capacity())) {
+			throw ctxt.mappingException(CsrMatrix.JSON_DATA + " and " + CsrMatrix.JSON_COL + " have different lengths");
+		}
+
+		return new DirectCsrMatrix(rowPtr, colData, data, rowshape, colshape);
+	}
+
+	// Row pointers read first give the length of COL and DATA
+	private static int expectedNnz(IntBuffer rowPtr) {
+		return ((rowPtr != null) && (rowPtr.capacity() > 0)) ? rowPtr.get(rowPtr.capacity() - 1) : 0;
+	}
+
+	private static int initialCapacity(int expected) {
+		return (expected > 0) ? Math.min(expected, MAX_PRESIZE) : INITIAL_CAPACITY;
+	}
+
+	private static IntBuffer readIntBuffer(JsonParser jp, DeserializationContext ctxt, int expected) throws IOException, JsonProcessingException {
+		if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+			throw ctxt.mappingException(int[].class);
+		}
+
+		IntBuffer values = DirectCsrMatrix.allocateInts(initialCapacity(expected));
+		while (jp.nextToken() != JsonToken.END_ARRAY) {
+			if (!values.hasRemaining()) {
+				IntBuffer grown = DirectCsrMatrix.allocateInts(values.capacity() + (values.capacity() >> 1) + 1);
+				values.flip();
+				values = grown.put(values);
+			}
+			values.put(jp.getIntValue());
+		}
+
+		return trim(values).slice();
+	}
+
+	private static FloatBuffer readFloatBuffer(JsonParser jp, DeserializationContext ctxt, int expected) throws IOException, JsonProcessingException {
+		if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+			throw ctxt.mappingException(float[].class);
+		}
+
+		FloatBuffer values = DirectCsrMatrix.allocateFloats(initialCapacity(expected));
+		while (jp.nextToken() != JsonToken.END_ARRAY) {
+			if (!values.hasRemaining()) {
+				FloatBuffer grown = DirectCsrMatrix.allocateFloats(values.capacity() + (values.capacity() >> 1) + 1);
+				values.flip();
+				values = grown.put(values);
+			}
+			values.put(jp.getFloatValue());
+		}
+
+		return trim(values).slice();
+	}
+
+	// Limit to the filled part, from position 0
+	private static <T extends Buffer> T trim(T buffer) {
+		buffer.flip();
+		return buffer;
+	}
+}
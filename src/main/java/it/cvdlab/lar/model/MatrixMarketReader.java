@@ -0,0 +1,241 @@
+package it.cvdlab.lar.model;
+
+import it.cvdlab.lar.cpuengine.CooToCsr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Streaming Matrix Market reader: coordinate matrices, real, integer or
+// pattern fields, general, symmetric or skew-symmetric. Entries are
+// tokenized straight from a char buffer into the COO arrays, grown as the
+// entries arrive (the header count is only trusted as a limit), and CooToCsr
+// sorts them into CSR: no line strings, no boxing. Entries given more than once are summed. A pattern file gives a
+// pattern matrix.
+//
+// Each read() stops right after the last entry of its matrix, so several
+// matrices can follow each other in one stream.
+public final class MatrixMarketReader implements Closeable {
+	static final String BANNER = "%%MatrixMarket";
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int INITIAL_ENTRIES = 1 << 14;
+	private static final int EOF = -1;
+
+	private final Reader reader;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int position, limit;
+	private int line = 1;
+	private char[] token = new char[32];
+	private int tokenLength;
+
+	public MatrixMarketReader(InputStream stream) {
+		this(new InputStreamReader(stream, Charset.forName("US-ASCII")));
+	}
+
+	public MatrixMarketReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	// The next matrix of the stream, null when only blanks are left
+	public CsrMatrix read() throws IOException {
+		skipBlanks();
+		if (peek() == EOF) {
+			return null;
+		}
+
+		String[] banner = readLine().trim().toLowerCase(Locale.ROOT).split("\\s+");
+		if ((banner.length != 5) || !banner[0].equals(BANNER.toLowerCase(Locale.ROOT)) || !banner[1].equals("matrix")) {
+			throw error("not a Matrix Market banner");
+		}
+		if (!banner[2].equals("coordinate")) {
+			throw error("only coordinate matrices are supported, not " + banner[2]);
+		}
+		String field = banner[3], symmetry = banner[4];
+		boolean pattern = field.equals("pattern");
+		if (!pattern && !field.equals("real") && !field.equals("integer")) {
+			throw error("unsupported field " + field);
+		}
+		boolean symmetric = symmetry.equals("symmetric");
+		boolean skew = symmetry.equals("skew-symmetric");
+		if (!symmetric && !skew && !symmetry.equals("general")) {
+			throw error("unsupported symmetry " + symmetry);
+		}
+
+		// Comments only come before the size line
+		skipBlanks();
+		while (peek() == '%') {
+			readLine();
+			skipBlanks();
+		}
+
+		int rows = readInt(), cols = readInt(), entries = readInt();
+		if ((rows < 0) || (cols < 0) || (entries < 0)) {
+			throw error("bad size " + rows + " " + cols + " " + entries);
+		}
+
+		// Off-diagonal entries of a symmetric file are stored once and mirrored
+		long mirrored = (symmetric || skew) ? (2L * entries) : entries;
+		if (mirrored > Integer.MAX_VALUE - 8) {
+			throw error("too many entries: " + entries);
+		}
+		int capacity = (int) mirrored;
+		int initial = Math.min(capacity, INITIAL_ENTRIES);
+		int[] xVal = new int[initial];
+		int[] yVal = new int[initial];
+		float[] dVal = pattern ? null : new float[initial];
+		int nnz = 0;
+
+		for(int k = 0; k < entries; k++) {
+			// Room for an entry and its mirror
+			if ((xVal.length - nnz < 2) && (xVal.length < capacity)) {
+				int grown = (int) Math.min(capacity, 2L * xVal.length + 2);
+				xVal = Arrays.copyOf(xVal, grown);
+				yVal = Arrays.copyOf(yVal, grown);
+				dVal = (dVal == null) ? null : Arrays.copyOf(dVal, grown);
+			}
+			int i = readInt() - 1, j = readInt() - 1;
+			if ((i < 0) || (i >= rows) || (j < 0) || (j >= cols)) {
+				throw error("entry (" + (i + 1) + ", " + (j + 1) + ") outside " + rows + "x" + cols);
+			}
+			float value = pattern ? 1F : readFloat();
+
+			xVal[nnz] = i;
+			yVal[nnz] = j;
+			if (dVal != null) {
+				dVal[nnz] = value;
+			}
+			nnz++;
+
+			if ((symmetric || skew) && (i != j)) {
+				xVal[nnz] = j;
+				yVal[nnz] = i;
+				if (dVal != null) {
+					dVal[nnz] = skew ? -value : value;
+				}
+				nnz++;
+			}
+		}
+
+		if (nnz < xVal.length) {
+			xVal = Arrays.copyOf(xVal, nnz);
+			yVal = Arrays.copyOf(yVal, nnz);
+			dVal = (dVal == null) ? null : Arrays.copyOf(dVal, nnz);
+		}
+		// Repeated coordinates are summed
+		return CooToCsr.sumDuplicates( CooToCsr.convert(xVal, yVal, dVal, rows, cols) );
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private IOException error(String message) {
+		return new IOException("Matrix Market line " + line + ": " + message);
+	}
+
+	private int peek() throws IOException {
+		if (position == limit) {
+			limit = reader.read(buffer, 0, buffer.length);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return EOF;
+			}
+		}
+		return buffer[position];
+	}
+
+	private void advance() {
+		if (buffer[position++] == '\n') {
+			line++;
+		}
+	}
+
+	private void skipBlanks() throws IOException {
+		int c;
+		while (((c = peek()) == ' ') || (c == '\t') || (c == '\r') || (c == '\n')) {
+			advance();
+		}
+	}
+
+	// Header lines only, the entries never build strings
+	private String readLine() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		int c;
+		while (((c = peek()) != EOF) && (c != '\n')) {
+			builder.append((char) c);
+			advance();
+		}
+		if (c == '\n') {
+			advance();
+		}
+		return builder.toString();
+	}
+
+	private void readToken() throws IOException {
+		skipBlanks();
+		tokenLength = 0;
+		int c;
+		while (((c = peek()) != EOF) && (c != ' ') && (c != '\t') && (c != '\r') && (c != '\n')) {
+			if (tokenLength == token.length) {
+				token = Arrays.copyOf(token, token.length * 2);
+			}
+			token[tokenLength++] = (char) c;
+			advance();
+		}
+		if (tokenLength == 0) {
+			throw error("unexpected end of stream");
+		}
+	}
+
+	// Parsed in place, Long.MIN_VALUE when the token is not a plain integer
+	private long parseInteger() {
+		int k = 0;
+		boolean negative = false;
+		if ((token[0] == '-') || (token[0] == '+')) {
+			negative = (token[0] == '-');
+			k = 1;
+		}
+		if ((k == tokenLength) || (tokenLength - k > 18)) {
+			return Long.MIN_VALUE;
+		}
+
+		long value = 0;
+		for(; k < tokenLength; k++) {
+			char c = token[k];
+			if ((c < '0') || (c > '9')) {
+				return Long.MIN_VALUE;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return negative ? -value : value;
+	}
+
+	private int readInt() throws IOException {
+		readToken();
+		long value = parseInteger();
+		if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE)) {
+			throw error("not an integer: " + new String(token, 0, tokenLength));
+		}
+		return (int) value;
+	}
+
+	private float readFloat() throws IOException {
+		readToken();
+		long value = parseInteger();
+		if (value != Long.MIN_VALUE) {
+			return value;
+		}
+		try {
+			return Float.parseFloat(new String(token, 0, tokenLength));
+		} catch (NumberFormatException e) {
+			throw error("not a number: " + new String(token, 0, tokenLength));
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package it.cvdlab.lar.model;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+// Streaming Matrix Market writer: one coordinate general matrix per write(),
+// entries go out row by row from the CSR arrays. Pattern matrices are
+// written with the pattern field, whole values without a fraction.
+public final class MatrixMarketWriter implements Closeable, Flushable {
+	private static final int BUFFER_SIZE = 1 << 16;
+	// Larger values keep the float notation
+	private static final float MAX_WHOLE = 1 << 24;
+
+	private final Writer writer;
+
+	public MatrixMarketWriter(OutputStream stream) {
+		this(new OutputStreamWriter(stream, Charset.forName("US-ASCII")));
+	}
+
+	public MatrixMarketWriter(Writer writer) {
+		this.writer = new BufferedWriter(writer, BUFFER_SIZE);
+	}
+
+	public void write(CsrMatrix matrix) throws IOException {
+		int[] rowPtr = matrix.getRowptrArray();
+		int[] colData = matrix.getColdataArray();
+		float[] data = matrix.getStoredDataArray();
+
+		writer.write(MatrixMarketReader.BANNER);
+		writer.write((data == null) ? " matrix coordinate pattern general\n" : " matrix coordinate real general\n");
+		writer.write(matrix.getRowCount() + " " + matrix.getColCount() + " " + matrix.getNonZeroElementsCount() + "\n");
+
+		for(int i = 0; i < matrix.getRowCount(); i++) {
+			String row = Integer.toString(i + 1);
+			for(int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+				writer.write(row);
+				writer.write(' ');
+				writer.write(Integer.toString(colData[k] + 1));
+				if (data != null) {
+					writer.write(' ');
+					writer.write(format(data[k]));
+				}
+				writer.write('\n');
+			}
+		}
+	}
+
+	static String format(float value) {
+		if ((value == (int) value) && (Math.abs(value) <= MAX_WHOLE)) {
+			return Integer.toString((int) value);
+		}
+		return Float.toString(value);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
@@ -0,0 +1,101 @@
+package it.cvdlab.lar.model;
+
+// Which entries of a product are kept: every value v with
+// min <= v <= max, bounds included. Engines test it while accumulating,
+// so rejected entries are never written. The default keeps v > 0, as the
+// multiply engines always did.
+public final class ResultFilter {
+	public static final ResultFilter POSITIVE = new ResultFilter(Float.MIN_VALUE, Float.POSITIVE_INFINITY);
+	// Every computed entry, whatever its value
+	public static final ResultFilter ALL = new ResultFilter(Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+
+	private final float min;
+	private final float max;
+
+	private ResultFilter(float min, float max) {
+		this.min = min;
+		this.max = max;
+	}
+
+	public static ResultFilter equalTo(float value) {
+		return new ResultFilter(value, value);
+	}
+
+	public static ResultFilter atLeast(float min) {
+		return new ResultFilter(min, Float.POSITIVE_INFINITY);
+	}
+
+	public static ResultFilter between(float min, float max) {
+		if (min > max) {
+			throw new IllegalArgumentException("Filter minimum " + min + " is greater than maximum " + max);
+		}
+		return new ResultFilter(min, max);
+	}
+
+	// Filter bounds as sent by clients, each one may be missing (null):
+	// equals wins over min/max, a missing bound comes from defaults
+	public static ResultFilter parse(String equals, String min, String max, ResultFilter defaults) {
+		if (equals != null) {
+			return equalTo( parseBound(equals) );
+		}
+		if ((min == null) && (max == null)) {
+			return defaults;
+		}
+
+		return between((min != null) ? parseBound(min) : defaults.getMin(),
+				(max != null) ? parseBound(max) : defaults.getMax());
+	}
+
+	// NaN accepts nothing and has no OpenCL literal
+	private static float parseBound(String bound) {
+		float value = Float.parseFloat(bound.trim());
+		if (Float.isNaN(value)) {
+			throw new IllegalArgumentException("Filter bound " + bound + " is not a number");
+		}
+		return value;
+	}
+
+	// Entries kept by both filters; the result may keep nothing at all
+	public ResultFilter intersect(ResultFilter other) {
+		return new ResultFilter(Math.max(min, other.min), Math.min(max, other.max));
+	}
+
+	public boolean acceptsNothing() {
+		return min > max;
+	}
+
+	public boolean accept(float value) {
+		return (value >= min) && (value <= max);
+	}
+
+	public float getMin() {
+		return min;
+	}
+
+	public float getMax() {
+		return max;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Float.floatToIntBits(min) + Float.floatToIntBits(max);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ResultFilter)) {
+			return false;
+		}
+		ResultFilter other = (ResultFilter) obj;
+		return (Float.floatToIntBits(min) == Float.floatToIntBits(other.min))
+				&& (Float.floatToIntBits(max) == Float.floatToIntBits(other.max));
+	}
+
+	@Override
+	public String toString() {
+		return "ResultFilter [" + min + ", " + max + "]";
+	}
+}
@@ -0,0 +1,44 @@
+package it.cvdlab.lar.model;
+
+// Walks rows [rowStart, rowEnd) of a CsrMatrix through a single RowView,
+// optionally windowed on columns [fromCol, toCol):
+//
+//   RowCursor rows = matrix.rowCursor();
+//   while (rows.next()) {
+//       RowView row = rows.view();
+//       ...
+//   }
+public final class RowCursor {
+	private final RowView view;
+	private final int rowEnd;
+	private final int fromCol, toCol;
+	private final boolean windowed;
+	private int nextRow;
+
+	RowCursor(RowView view, int rowStart, int rowEnd, int fromCol, int toCol, boolean windowed) {
+		this.view = view;
+		this.nextRow = rowStart;
+		this.rowEnd = rowEnd;
+		this.fromCol = fromCol;
+		this.toCol = toCol;
+		this.windowed = windowed;
+	}
+
+	// Move to the next row, false past the last one
+	public boolean next() {
+		if (nextRow >= rowEnd) {
+			return false;
+		}
+
+		view.moveTo(nextRow++);
+		if (windowed) {
+			view.window(fromCol, toCol);
+		}
+		return true;
+	}
+
+	// The current row, the same object after every next()
+	public RowView view() {
+		return view;
+	}
+}
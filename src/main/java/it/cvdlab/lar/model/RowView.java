@@ -0,0 +1,96 @@
+package it.cvdlab.lar.model;
+
+// Reusable view over one row of a CsrMatrix, or over a column window of it:
+// entries 0 .. size() - 1 are read straight from the arrays of the matrix, and
+// moving the view to another row allocates nothing. Columns of a row are
+// sorted, so windows are found by binary search. Views over a CsrMatrixView
+// count rows and columns from the corner of the view.
+public final class RowView {
+	private final int[] rowPtr;
+	private final int[] colData;
+	// null for pattern matrices
+	private final float[] data;
+	// Corner of the view in the matrix, and the columns every row is cut to
+	private final int rowBase;
+	private final int fromCol, toCol;
+	private final boolean windowed;
+	private int row = -1;
+	private int start, end;
+
+	RowView(int[] rowPtr, int[] colData, float[] data) {
+		this(rowPtr, colData, data, 0, 0, 0, false);
+	}
+
+	RowView(int[] rowPtr, int[] colData, float[] data, int rowBase, int fromCol, int toCol, boolean windowed) {
+		this.rowPtr = rowPtr;
+		this.colData = colData;
+		this.data = data;
+		this.rowBase = rowBase;
+		this.fromCol = fromCol;
+		this.toCol = toCol;
+		this.windowed = windowed;
+	}
+
+	public RowView moveTo(int row) {
+		this.row = row;
+		this.start = rowPtr[rowBase + row];
+		this.end = rowPtr[rowBase + row + 1];
+		if (windowed) {
+			this.start = lowerBound(start, end, fromCol);
+			this.end = lowerBound(start, end, toCol);
+		}
+		return this;
+	}
+
+	// Narrow the view to the columns in [fromCol, toCol)
+	public RowView window(int fromCol, int toCol) {
+		this.start = lowerBound(start, end, this.fromCol + fromCol);
+		this.end = lowerBound(start, end, this.fromCol + toCol);
+		return this;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	public int size() {
+		return end - start;
+	}
+
+	public boolean isEmpty() {
+		return end == start;
+	}
+
+	public int col(int k) {
+		return colData[start + k] - fromCol;
+	}
+
+	public float value(int k) {
+		return (data == null) ? 1F : data[start + k];
+	}
+
+	// Position of the view in the arrays of the matrix, for bulk copies
+	public int offset() {
+		return start;
+	}
+
+	// k such that col(k) == column, or -1
+	public int find(int column) {
+		int position = lowerBound(start, end, fromCol + column);
+		return ((position < end) && (colData[position] == fromCol + column)) ? (position - start) : -1;
+	}
+
+	// First position in [from, to) holding a column >= column
+	private int lowerBound(int from, int to, int column) {
+		int low = from, high = to;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (colData[middle] < column) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
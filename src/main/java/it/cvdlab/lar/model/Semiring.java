@@ -0,0 +1,33 @@
+package it.cvdlab.lar.model;
+
+// Algebra of a sparse product: how the values along a path i -> k -> j
+// are combined (multiply) and how the paths reaching the same entry are
+// merged (add). Entries that are not stored are the additive identity.
+public enum Semiring {
+	// The usual float product
+	PLUS_TIMES(true),
+	// Reachability: 1 wherever a path exists, values are ignored
+	OR_AND(false),
+	// Shortest paths: the lightest path, the weights along it are added
+	MIN_PLUS(true),
+	// Number of paths, values are ignored
+	COUNT(false);
+
+	private final boolean valued;
+
+	private Semiring(boolean valued) {
+		this.valued = valued;
+	}
+
+	// false when only the structure of the operands matters
+	public boolean readsValues() {
+		return valued;
+	}
+
+	// Entries kept when the request has no filter: the positive ones, as
+	// products always did, except for min-plus where zero and negative
+	// path weights are legitimate results
+	public ResultFilter defaultFilter() {
+		return (this == MIN_PLUS) ? ResultFilter.ALL : ResultFilter.POSITIVE;
+	}
+}
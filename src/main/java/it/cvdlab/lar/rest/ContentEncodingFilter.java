@@ -0,0 +1,549 @@
+package it.cvdlab.lar.rest;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+// gzip/deflate for the REST bodies, both ways. A request with
+// Content-Encoding is inflated while the endpoint reads it, a response is
+// deflated while the endpoint writes it, whenever Accept-Encoding allows:
+// neither side is ever buffered whole. "deflate" is the zlib format.
+// The time spent (de)compressing, network reads and writes excluded, is
+// logged with the encoded and decoded sizes, one line per request.
+public final class ContentEncodingFilter implements Filter {
+    private static final String PROPERTY_COMPRESSION_LEVEL = ContentEncodingFilter.class.getPackage().getName()
+            + ".compressionLevel";
+
+	static final String GZIP = "gzip";
+	static final String DEFLATE = "deflate";
+	private static final String IDENTITY = "identity";
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private int level = Deflater.DEFAULT_COMPRESSION;
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+		String compressionLevel = System.getProperty(PROPERTY_COMPRESSION_LEVEL);
+		if (compressionLevel == null) {
+			compressionLevel = filterConfig.getInitParameter("compressionLevel");
+		}
+
+		if (compressionLevel != null) {
+			try {
+				int value = Integer.valueOf(compressionLevel.trim());
+				if ((value >= Deflater.NO_COMPRESSION) && (value <= Deflater.BEST_COMPRESSION)) {
+					System.out.println(PROPERTY_COMPRESSION_LEVEL + ": " + value);
+					level = value;
+				}
+			} catch(NumberFormatException e) {
+
+			}
+		}
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+			chain.doFilter(request, response);
+			return;
+		}
+		HttpServletRequest httpRequest = (HttpServletRequest) request;
+		HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+		String contentEncoding = normalize(httpRequest.getHeader("Content-Encoding"));
+		if ((contentEncoding != null) && !GZIP.equals(contentEncoding) && !DEFLATE.equals(contentEncoding)) {
+			httpResponse.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Unsupported Content-Encoding: " + contentEncoding);
+			return;
+		}
+		String acceptEncoding = selectEncoding(httpRequest.getHeader("Accept-Encoding"));
+
+		DecodingRequest decodingRequest = (contentEncoding != null) ? new DecodingRequest(httpRequest, contentEncoding) : null;
+		EncodingResponse encodingResponse = (acceptEncoding != null) ? new EncodingResponse(httpResponse, acceptEncoding, level) : null;
+		httpResponse.addHeader("Vary", "Accept-Encoding");
+
+		try {
+			chain.doFilter((decodingRequest != null) ? decodingRequest : request,
+					(encodingResponse != null) ? encodingResponse : response);
+			if (encodingResponse != null) {
+				encodingResponse.finish();
+			}
+		} finally {
+			if (encodingResponse != null) {
+				encodingResponse.end();
+			}
+			if (decodingRequest != null) {
+				decodingRequest.end();
+			}
+			StringBuilder log = new StringBuilder(httpRequest.getRequestURI());
+			boolean coded = false;
+			if ((decodingRequest != null) && (decodingRequest.stream != null)) {
+				DecodingInputStream stream = decodingRequest.stream;
+				coded = true;
+				log.append(" request ").append(contentEncoding).append(' ').append(stream.encodedBytes())
+						.append(" -> ").append(stream.decodedBytes()).append(" bytes, ")
+						.append(stream.codingNanos() / 1000000).append(" ms");
+			}
+			if ((encodingResponse != null) && (encodingResponse.stream != null)) {
+				EncodingOutputStream stream = encodingResponse.stream;
+				coded = true;
+				log.append(" response ").append(acceptEncoding).append(' ').append(stream.decodedBytes())
+						.append(" -> ").append(stream.encodedBytes()).append(" bytes, ")
+						.append(stream.codingNanos() / 1000000).append(" ms");
+			}
+			if (coded) {
+				System.err.println(log);
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {}
+
+	// gzip over deflate, nothing when identity is all the client takes
+	static String selectEncoding(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+
+		boolean gzip = false, deflate = false;
+		for(String part : acceptEncoding.split(",")) {
+			String[] tokens = part.split(";");
+			String name = normalize(tokens[0]);
+			if ((name == null) || (quality(tokens) <= 0)) {
+				continue;
+			}
+			if (GZIP.equals(name) || "*".equals(name)) {
+				gzip = true;
+			} else if (DEFLATE.equals(name)) {
+				deflate = true;
+			}
+		}
+
+		return gzip ? GZIP : (deflate ? DEFLATE : null);
+	}
+
+	private static float quality(String[] tokens) {
+		for(int i = 1; i < tokens.length; i++) {
+			String token = tokens[i].trim();
+			if (token.startsWith("q=")) {
+				try {
+					return Float.parseFloat(token.substring(2));
+				} catch(NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+
+	// Lower case, x-gzip as gzip, identity and blank as null
+	private static String normalize(String encoding) {
+		if (encoding == null) {
+			return null;
+		}
+		encoding = encoding.trim().toLowerCase();
+		if (encoding.isEmpty() || IDENTITY.equals(encoding)) {
+			return null;
+		}
+		return "x-gzip".equals(encoding) ? GZIP : encoding;
+	}
+
+	private static final class DecodingRequest extends HttpServletRequestWrapper {
+		private final String encoding;
+		private DecodingInputStream stream;
+		private BufferedReader reader;
+
+		DecodingRequest(HttpServletRequest request, String encoding) {
+			super(request);
+			this.encoding = encoding;
+		}
+
+		@Override
+		public ServletInputStream getInputStream() throws IOException {
+			if (reader != null) {
+				throw new IllegalStateException("getReader() already called");
+			}
+			if (stream == null) {
+				stream = new DecodingInputStream(super.getInputStream(), encoding);
+			}
+			return stream;
+		}
+
+		@Override
+		public BufferedReader getReader() throws IOException {
+			if (reader == null) {
+				String charset = getCharacterEncoding();
+				reader = new BufferedReader(new InputStreamReader(getInputStream(), (charset != null) ? charset : "ISO-8859-1"));
+			}
+			return reader;
+		}
+
+		// Closing the decoder ends its Inflater
+		void end() {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+					System.err.println( e.toString() );
+				}
+			}
+		}
+
+		// The decoded length is unknown until the end
+		@Override
+		public int getContentLength() {
+			return -1;
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return isHidden(name) ? null : super.getHeader(name);
+		}
+
+		@Override
+		public Enumeration<String> getHeaders(String name) {
+			return isHidden(name) ? Collections.enumeration(Collections.<String>emptyList()) : super.getHeaders(name);
+		}
+
+		private static boolean isHidden(String name) {
+			return "Content-Encoding".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name);
+		}
+	}
+
+	private static final class EncodingResponse extends HttpServletResponseWrapper {
+		private final String encoding;
+		private final int level;
+		private EncodingOutputStream stream;
+		private PrintWriter writer;
+
+		EncodingResponse(HttpServletResponse response, String encoding, int level) {
+			super(response);
+			this.encoding = encoding;
+			this.level = level;
+		}
+
+		// Content-Encoding goes out with the first body byte: empty
+		// responses (204, errors) stay as they are
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (writer != null) {
+				throw new IllegalStateException("getWriter() already called");
+			}
+			if (stream == null) {
+				super.setHeader("Content-Encoding", encoding);
+				stream = new EncodingOutputStream(super.getOutputStream(), encoding, level);
+			}
+			return stream;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				String charset = getCharacterEncoding();
+				writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), (charset != null) ? charset : "ISO-8859-1"));
+			}
+			return writer;
+		}
+
+		// Lengths set by the endpoint are those of the uncompressed body
+		@Override
+		public void setContentLength(int length) {}
+
+		@Override
+		public void setHeader(String name, String value) {
+			if (!"Content-Length".equalsIgnoreCase(name)) {
+				super.setHeader(name, value);
+			}
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+			if (!"Content-Length".equalsIgnoreCase(name)) {
+				super.addHeader(name, value);
+			}
+		}
+
+		@Override
+		public void setIntHeader(String name, int value) {
+			if (!"Content-Length".equalsIgnoreCase(name)) {
+				super.setIntHeader(name, value);
+			}
+		}
+
+		@Override
+		public void addIntHeader(String name, int value) {
+			if (!"Content-Length".equalsIgnoreCase(name)) {
+				super.addIntHeader(name, value);
+			}
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			if (writer != null) {
+				writer.flush();
+			} else if (stream != null) {
+				stream.flush();
+			}
+			super.flushBuffer();
+		}
+
+		void finish() throws IOException {
+			if (writer != null) {
+				writer.flush();
+			}
+			if (stream != null) {
+				stream.finish();
+			}
+		}
+
+		void end() {
+			if (stream != null) {
+				stream.end();
+			}
+		}
+	}
+
+	// Inflates the request while it is read; encoded bytes and network
+	// time are counted below the inflater, so codingNanos is its own time
+	static final class DecodingInputStream extends ServletInputStream {
+		private final CountingInputStream encoded;
+		private final InputStream decoded;
+		private long decodedBytes = 0;
+		private long nanos = 0;
+
+		DecodingInputStream(InputStream input, String encoding) throws IOException {
+			this.encoded = new CountingInputStream(input);
+			long start = System.nanoTime();
+			this.decoded = GZIP.equals(encoding) ? new GZIPInputStream(encoded, BUFFER_SIZE) : new InflaterInputStream(encoded);
+			nanos += System.nanoTime() - start;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return (read(one, 0, 1) == 1) ? (one[0] & 0xFF) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			int read = decoded.read(b, off, len);
+			nanos += System.nanoTime() - start;
+			if (read > 0) {
+				decodedBytes += read;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			decoded.close();
+		}
+
+		long encodedBytes() {
+			return encoded.bytes;
+		}
+
+		long decodedBytes() {
+			return decodedBytes;
+		}
+
+		long codingNanos() {
+			return nanos - encoded.nanos;
+		}
+	}
+
+	// Deflates the response while it is written, same accounting as above
+	// gzip is a raw deflate stream framed here (header, CRC-32 and size
+	// trailer, RFC 1952), so both encodings own their Deflater and end it
+	static final class EncodingOutputStream extends ServletOutputStream {
+		private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+		private final CountingOutputStream encoded;
+		private final DeflaterOutputStream encoder;
+		private final Deflater deflater;
+		// null for deflate
+		private final CRC32 crc;
+		private long decodedBytes = 0;
+		private long nanos = 0;
+		private boolean finished = false;
+
+		EncodingOutputStream(OutputStream output, String encoding, int level) throws IOException {
+			this.encoded = new CountingOutputStream(output);
+			boolean gzip = GZIP.equals(encoding);
+			long start = System.nanoTime();
+			this.deflater = new Deflater(level, gzip);
+			this.encoder = new DeflaterOutputStream(encoded, deflater, BUFFER_SIZE, true);
+			this.crc = gzip ? new CRC32() : null;
+			nanos += System.nanoTime() - start;
+			if (gzip) {
+				encoded.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{ (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			if (crc != null) {
+				crc.update(b, off, len);
+			}
+			encoder.write(b, off, len);
+			nanos += System.nanoTime() - start;
+			decodedBytes += len;
+		}
+
+		// A sync flush: whatever was written so far can be inflated by the client
+		@Override
+		public void flush() throws IOException {
+			if (!finished) {
+				long start = System.nanoTime();
+				encoder.flush();
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		void finish() throws IOException {
+			if (finished) {
+				return;
+			}
+			finished = true;
+			long start = System.nanoTime();
+			try {
+				encoder.finish();
+			} finally {
+				end();
+				nanos += System.nanoTime() - start;
+			}
+			if (crc != null) {
+				byte[] trailer = new byte[8];
+				writeIntLE(trailer, 0, (int) crc.getValue());
+				writeIntLE(trailer, 4, (int) decodedBytes);
+				encoded.write(trailer, 0, trailer.length);
+			}
+			encoded.flush();
+		}
+
+		// Frees the native zlib memory, also when the response was cut short
+		void end() {
+			deflater.end();
+		}
+
+		private static void writeIntLE(byte[] bytes, int offset, int value) {
+			for(int i = 0; i < 4; i++) {
+				bytes[offset + i] = (byte) (value >>> (8 * i));
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			finish();
+			encoded.close();
+		}
+
+		long encodedBytes() {
+			return encoded.bytes;
+		}
+
+		long decodedBytes() {
+			return decodedBytes;
+		}
+
+		long codingNanos() {
+			return nanos - encoded.nanos;
+		}
+	}
+
+	private static final class CountingInputStream extends FilterInputStream {
+		private long bytes = 0;
+		private long nanos = 0;
+
+		CountingInputStream(InputStream input) {
+			super(input);
+		}
+
+		@Override
+		public int read() throws IOException {
+			long start = System.nanoTime();
+			int read = in.read();
+			nanos += System.nanoTime() - start;
+			if (read >= 0) {
+				bytes++;
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			int read = in.read(b, off, len);
+			nanos += System.nanoTime() - start;
+			if (read > 0) {
+				bytes += read;
+			}
+			return read;
+		}
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+		private long bytes = 0;
+		private long nanos = 0;
+
+		CountingOutputStream(OutputStream output) {
+			super(output);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			long start = System.nanoTime();
+			out.write(b);
+			nanos += System.nanoTime() - start;
+			bytes++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			out.write(b, off, len);
+			nanos += System.nanoTime() - start;
+			bytes += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			long start = System.nanoTime();
+			out.flush();
+			nanos += System.nanoTime() - start;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package it.cvdlab.lar.rest;
+
+import it.cvdlab.lar.expression.ExpressionEvaluator;
+import it.cvdlab.lar.model.CsrMatrix;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// One submitted product or expression. The public getters are its status,
+// as sent back by /jobs/{id}; the result is only reachable from JobService.
+public final class Job {
+	public enum State { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+	private final String id = UUID.randomUUID().toString();
+	private final String kind;
+	private final long submitted = System.currentTimeMillis();
+	// Expression jobs count their products as they go
+	private final ExpressionEvaluator evaluator;
+	private final CountDownLatch finished = new CountDownLatch(1);
+
+	private volatile State state = State.QUEUED;
+	private volatile long started = 0;
+	private volatile long ended = 0;
+	private volatile String error = null;
+	private volatile CsrMatrix result = null;
+	private volatile Future<?> future = null;
+
+	Job(String kind, ExpressionEvaluator evaluator) {
+		this.kind = kind;
+		this.evaluator = evaluator;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getKind() {
+		return kind;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	// Products completed so far: a single product counts once it is done
+	public int getProductsDone() {
+		if (evaluator != null) {
+			return evaluator.getProductCount();
+		}
+		return (state == State.DONE) ? 1 : 0;
+	}
+
+	public long getQueuedMillis() {
+		return ((started != 0) ? started : ((ended != 0) ? ended : System.currentTimeMillis())) - submitted;
+	}
+
+	public long getRunningMillis() {
+		if (started == 0) {
+			return 0;
+		}
+		return ((ended != 0) ? ended : System.currentTimeMillis()) - started;
+	}
+
+	public Integer getResultRows() {
+		CsrMatrix matrix = result;
+		return (matrix != null) ? matrix.getRowCount() : null;
+	}
+
+	public Integer getResultNonZeros() {
+		CsrMatrix matrix = result;
+		return (matrix != null) ? matrix.getNonZeroElementsCount() : null;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	CsrMatrix result() {
+		return result;
+	}
+
+	boolean isFinished() {
+		return finished.getCount() == 0;
+	}
+
+	long endedAt() {
+		return ended;
+	}
+
+	void setFuture(Future<?> future) {
+		this.future = future;
+	}
+
+	// The state changes below are synchronized: a cancel racing the worker
+	// must leave exactly one final state
+	synchronized boolean start() {
+		if (state != State.QUEUED) {
+			return false;
+		}
+		started = System.currentTimeMillis();
+		state = State.RUNNING;
+		return true;
+	}
+
+	synchronized void succeed(CsrMatrix matrix) {
+		if (state == State.RUNNING) {
+			result = matrix;
+			finish(State.DONE);
+		}
+	}
+
+	synchronized void fail(String message) {
+		if (state == State.RUNNING) {
+			error = message;
+			finish(State.FAILED);
+		}
+	}
+
+	// A queued job never runs. A running one is interrupted, but the engines
+	// do not stop halfway: its worker is busy until the product ends, and
+	// the product is then dropped.
+	synchronized boolean cancel() {
+		if ((state != State.QUEUED) && (state != State.RUNNING)) {
+			return false;
+		}
+		finish(State.CANCELLED);
+		Future<?> task = future;
+		if (task != null) {
+			task.cancel(true);
+		}
+		return true;
+	}
+
+	private void finish(State finalState) {
+		ended = System.currentTimeMillis();
+		state = finalState;
+		finished.countDown();
+	}
+
+	// Long poll: true when the job finished within the timeout
+	boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		return finished.await(timeout, unit);
+	}
+}
@@ -0,0 +1,203 @@
+package it.cvdlab.lar.rest;
+
+import it.cvdlab.lar.expression.ExpressionEvaluator;
+import it.cvdlab.lar.model.CsrMatrix;
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Runs the /jobs products on a fixed pool of workers behind a bounded queue:
+// a submission past the queue limit is refused, not piled up. Finished jobs
+// keep their result for the TTL after they end, then a sweeper drops them.
+final class JobManager {
+    private static final String PROPERTY_JOBTHREADS = JobManager.class.getPackage().getName()
+            + ".jobThreads";
+    private static final String PROPERTY_JOBQUEUE = JobManager.class.getPackage().getName()
+            + ".jobQueue";
+    private static final String PROPERTY_JOBTTL = JobManager.class.getPackage().getName()
+            + ".jobTtl";
+
+	// MultiplyCL runs one device product at a time anyway
+	private static int JOB_THREADS = 1;
+	private static int JOB_QUEUE = 16;
+	// Seconds
+	private static int JOB_TTL = 600;
+	private static final int SHUTDOWN_WAIT = 5;
+
+	static {
+		JOB_THREADS = positiveProperty(PROPERTY_JOBTHREADS, JOB_THREADS);
+		JOB_QUEUE = positiveProperty(PROPERTY_JOBQUEUE, JOB_QUEUE);
+		JOB_TTL = positiveProperty(PROPERTY_JOBTTL, JOB_TTL);
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(JobManager.class);
+	private static final JobManager INSTANCE = new JobManager(JOB_THREADS, JOB_QUEUE, JOB_TTL * 1000L);
+
+	private final ConcurrentMap<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService sweeper;
+	private final long ttlMillis;
+
+	JobManager(int threads, int queueLimit, long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueLimit), daemonThreads("lar-job"));
+		this.sweeper = Executors.newSingleThreadScheduledExecutor(daemonThreads("lar-job-sweeper"));
+
+		long period = Math.max(1000L, Math.min(ttlMillis, 60000L));
+		sweeper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evict(System.currentTimeMillis());
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	static JobManager getInstance() {
+		return INSTANCE;
+	}
+
+	// RejectedExecutionException when the queue is full. evaluator, when
+	// given, is the one task uses: its product count is the job progress.
+	Job submit(String kind, ExpressionEvaluator evaluator, final Callable<CsrMatrix> task) {
+		final Job job = new Job(kind, evaluator);
+		jobs.put(job.getId(), job);
+
+		try {
+			job.setFuture(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					execute(job, task);
+				}
+			}));
+		} catch (RejectedExecutionException e) {
+			jobs.remove(job.getId());
+			throw e;
+		}
+
+		return job;
+	}
+
+	private static void execute(Job job, Callable<CsrMatrix> task) {
+		if (!job.start()) {
+			return;
+		}
+
+		System.err.println("Starting job " + job.getId() + " (" + job.getKind() + ")...");
+		try {
+			CsrMatrix result = task.call();
+			if (result == null) {
+				job.fail("The product failed");
+			} else {
+				job.succeed(result);
+			}
+		} catch (Exception e) {
+			logger.error(e.toString());
+			job.fail(e.toString());
+		} catch (OutOfMemoryError e) {
+			logger.error(e.toString());
+			job.fail(e.toString());
+		}
+		System.err.println("Job " + job.getId() + ": " + job.getState());
+	}
+
+	// null once the job is unknown, deleted or evicted
+	Job get(String id) {
+		Job job = jobs.get(id);
+		if ((job != null) && expired(job, System.currentTimeMillis())) {
+			jobs.remove(id, job);
+			return null;
+		}
+		return job;
+	}
+
+	// Cancels the job if it has not finished and forgets it
+	boolean remove(String id) {
+		Job job = jobs.remove(id);
+		if (job == null) {
+			return false;
+		}
+		if (job.cancel()) {
+			// Cancelled tasks would hold their queue slots until a worker takes them
+			executor.purge();
+		}
+		return true;
+	}
+
+	// The webapp is going away: unfinished jobs are cancelled and both pools
+	// stopped, so that no thread keeps the old classloader. A running product
+	// does not stop halfway, its worker is waited for a little while.
+	void shutdown() {
+		for(Job job : jobs.values()) {
+			job.cancel();
+		}
+		jobs.clear();
+		sweeper.shutdownNow();
+		executor.shutdownNow();
+
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_WAIT, TimeUnit.SECONDS)) {
+				logger.error("Job workers still running after " + SHUTDOWN_WAIT + " seconds");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	int queued() {
+		return executor.getQueue().size();
+	}
+
+	void evict(long now) {
+		for(Iterator<Job> i = jobs.values().iterator(); i.hasNext(); ) {
+			if (expired(i.next(), now)) {
+				i.remove();
+			}
+		}
+	}
+
+	private boolean expired(Job job, long now) {
+		return job.isFinished() && (now - job.endedAt() >= ttlMillis);
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static int positiveProperty(String name, int defaultValue) {
+		String property = System.getProperty(name);
+		if (property != null) {
+			try {
+				int value = Integer.valueOf(property.trim());
+				if (value >= 1) {
+					System.out.println(name + ": " + value);
+					return value;
+				}
+			} catch(NumberFormatException e) {
+
+			}
+		}
+		return defaultValue;
+	}
+}
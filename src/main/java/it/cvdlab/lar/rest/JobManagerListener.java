@@ -0,0 +1,17 @@
+package it.cvdlab.lar.rest;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+// Registered in web.xml: the job workers and their sweeper are stopped when
+// the webapp is undeployed, otherwise every redeploy would leak them
+public final class JobManagerListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		JobManager.getInstance().shutdown();
+	}
+}
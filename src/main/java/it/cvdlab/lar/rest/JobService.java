@@ -0,0 +1,187 @@
+package it.cvdlab.lar.rest;
+
+import it.cvdlab.lar.expression.Expression;
+import it.cvdlab.lar.expression.ExpressionEvaluator;
+import it.cvdlab.lar.expression.ExpressionParser;
+import it.cvdlab.lar.expression.ProductEngine;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Asynchronous products: a submission reads its body, queues the product and
+// answers 202 with the job status at once. Clients then poll (or long poll
+// with ?wait=seconds) /jobs/{id}, fetch /jobs/{id}/result and DELETE the job
+// when done with it, or to cancel it.
+@Path(JobService.REST_SERVICE_URL)
+public class JobService {
+	// Long polls are capped, so that proxies do not time out first
+	private static final int MAX_WAIT = 60;
+
+    // Jackson
+    private ObjectMapper jacksonMapper = new ObjectMapper();
+
+	private static final Logger logger = LoggerFactory.getLogger(JobService.class);
+    public static final String REST_SERVICE_URL = "/jobs";
+
+    // The body of /multiply/executeJson
+    @Path("/product")
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON })
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Response submitProduct(InputStream body) {
+    	logger.error("/jobs/product");
+    	JsonProductRequest request = null;
+    	Semiring semiring = null;
+    	ResultFilter filter = null;
+
+    	try {
+    		request = JsonProductRequest.parse(jacksonMapper, body);
+    		semiring = RestService.parseSemiring(request.semiring);
+    		filter = ResultFilter.parse(request.filterEquals, request.filterMin, request.filterMax, semiring.defaultFilter());
+    	} catch (IOException e) {
+    		logger.error(e.toString());
+    	} catch (IllegalArgumentException e) {
+    		logger.error(e.toString());
+    	}
+
+    	if ((request == null) || (request.firstMatrix == null) || (request.secondMatrix == null) || (filter == null)) {
+    		return Response.status(Status.BAD_REQUEST).build();
+    	}
+
+    	final JsonProductRequest product = request;
+    	final Semiring productSemiring = semiring;
+    	final ResultFilter productFilter = filter;
+    	return submit("product", null, new Callable<CsrMatrix>() {
+    		@Override
+    		public CsrMatrix call() {
+    			return RestService.product(product.firstMatrix, product.secondMatrix, false, product.transposed,
+    					product.algebra, productSemiring, productFilter);
+    		}
+    	});
+    }
+
+    // The body of /multiply/expressionJson
+    @Path("/expression")
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON })
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Response submitExpression(InputStream body) {
+    	logger.error("/jobs/expression");
+    	final Expression expression;
+
+    	try {
+    		expression = new ExpressionParser(jacksonMapper).parse(body);
+    	} catch (Exception e) {
+    		logger.error(e.toString());
+    		return Response.status(Status.BAD_REQUEST).build();
+    	}
+
+    	final ExpressionEvaluator evaluator = new ExpressionEvaluator(ProductEngine.OPENCL);
+    	return submit("expression", evaluator, new Callable<CsrMatrix>() {
+    		@Override
+    		public CsrMatrix call() throws Exception {
+    			return evaluator.evaluate(expression);
+    		}
+    	});
+    }
+
+    // 503 when the queue is full: the client should retry later
+    private static Response submit(String kind, ExpressionEvaluator evaluator, Callable<CsrMatrix> task) {
+    	try {
+    		Job job = JobManager.getInstance().submit(kind, evaluator, task);
+    		return Response.status(Status.ACCEPTED).entity(job).build();
+    	} catch (RejectedExecutionException e) {
+    		logger.error("Job queue full (" + JobManager.getInstance().queued() + " queued)");
+    		return Response.status(Status.SERVICE_UNAVAILABLE).build();
+    	}
+    }
+
+    @Path("/{id}")
+    @GET
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Response getStatus(@PathParam("id") String id, @QueryParam("wait") @DefaultValue("0") int wait) {
+    	Job job = JobManager.getInstance().get(id);
+    	if (job == null) {
+    		return Response.status(Status.NOT_FOUND).build();
+    	}
+
+    	if (wait > 0) {
+    		try {
+    			job.await(Math.min(wait, MAX_WAIT), TimeUnit.SECONDS);
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		}
+    	}
+
+    	return Response.ok(job).build();
+    }
+
+    // 409 with the status until the job is done, 500 with it if it failed
+    @Path("/{id}/result")
+    @GET
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Response getResult(@PathParam("id") String id) {
+    	Job job = JobManager.getInstance().get(id);
+    	if ((job == null) || (job.getState() != Job.State.DONE)) {
+    		return notDone(job);
+    	}
+
+    	return Response.ok(RestService.jsonResult(job.result())).build();
+    }
+
+    // The same result in the CsrMatrixFile layout, for Accept: application/octet-stream
+    @Path("/{id}/result")
+    @GET
+    @Produces({ MediaType.APPLICATION_OCTET_STREAM })
+    public Response getBinaryResult(@PathParam("id") String id) {
+    	Job job = JobManager.getInstance().get(id);
+    	if ((job == null) || (job.getState() != Job.State.DONE)) {
+    		return notDone(job);
+    	}
+
+    	return Response.ok(RestService.binaryResult(job.result())).build();
+    }
+
+    private static Response notDone(Job job) {
+    	if (job == null) {
+    		return Response.status(Status.NOT_FOUND).build();
+    	}
+
+    	Status status = (job.getState() == Job.State.FAILED) ? Status.INTERNAL_SERVER_ERROR : Status.CONFLICT;
+    	return Response.status(status).entity(job).type(MediaType.APPLICATION_JSON).build();
+    }
+
+    // Cancels a queued or running job, or frees a finished one before its TTL
+    @Path("/{id}")
+    @DELETE
+    public Response deleteJob(@PathParam("id") String id) {
+    	if (!JobManager.getInstance().remove(id)) {
+    		return Response.status(Status.NOT_FOUND).build();
+    	}
+
+    	return Response.noContent().build();
+    }
+}
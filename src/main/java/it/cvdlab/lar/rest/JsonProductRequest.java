@@ -0,0 +1,79 @@
+package it.cvdlab.lar.rest;
+
+import it.cvdlab.lar.model.CsrMatrix;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+// The body of /executeJson, read token by token from the request stream:
+// { "matrixa": <matrix>, "matrixb": <matrix>, "semiring": ..., "algebra": ...,
+//   "filterEquals": ..., "filterMin": ..., "filterMax": ..., "transposed": true }
+// Matrices go straight into their primitive arrays, the body is never held
+// as a string. Every field but the matrices is optional, as in the form.
+final class JsonProductRequest {
+	static final String JSON_TRANSPOSED = "transposed";
+
+	CsrMatrix firstMatrix;
+	CsrMatrix secondMatrix;
+	String semiring;
+	String algebra;
+	String filterEquals;
+	String filterMin;
+	String filterMax;
+	boolean transposed;
+
+	static JsonProductRequest parse(ObjectMapper jacksonMapper, InputStream body) throws IOException {
+		JsonParser jp = jacksonMapper.getJsonFactory().createJsonParser(body);
+		try {
+			return parse(jacksonMapper, jp);
+		} finally {
+			jp.close();
+		}
+	}
+
+	private static JsonProductRequest parse(ObjectMapper jacksonMapper, JsonParser jp) throws IOException {
+		JsonProductRequest request = new JsonProductRequest();
+
+		JsonToken token = jp.nextToken();
+		if (token != JsonToken.START_OBJECT) {
+			throw new JsonParseException("Expected a JSON object, found " + token, jp.getCurrentLocation());
+		}
+
+		for(token = jp.nextToken(); token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+			String fieldName = jp.getCurrentName();
+			token = jp.nextToken();
+
+			if (RestService.MATRIX_FIRST_PARAM.equals(fieldName)) {
+				request.firstMatrix = jacksonMapper.readValue(jp, CsrMatrix.class);
+			} else if (RestService.MATRIX_SECOND_PARAM.equals(fieldName)) {
+				request.secondMatrix = jacksonMapper.readValue(jp, CsrMatrix.class);
+			} else if (RestService.SEMIRING_PARAM.equals(fieldName)) {
+				request.semiring = text(jp, token);
+			} else if (RestService.ALGEBRA_PARAM.equals(fieldName)) {
+				request.algebra = text(jp, token);
+			} else if (RestService.FILTER_EQUALS_PARAM.equals(fieldName)) {
+				request.filterEquals = text(jp, token);
+			} else if (RestService.FILTER_MIN_PARAM.equals(fieldName)) {
+				request.filterMin = text(jp, token);
+			} else if (RestService.FILTER_MAX_PARAM.equals(fieldName)) {
+				request.filterMax = text(jp, token);
+			} else if (JSON_TRANSPOSED.equals(fieldName)) {
+				request.transposed = (token == JsonToken.VALUE_TRUE);
+			} else {
+				jp.skipChildren();
+			}
+		}
+
+		return request;
+	}
+
+	// Numbers and strings alike, null stays null
+	private static String text(JsonParser jp, JsonToken token) throws IOException {
+		return (token == JsonToken.VALUE_NULL) ? null : jp.getText();
+	}
+}
@@ -1,11 +1,28 @@
 package it.cvdlab.lar.rest;
 
 import it.cvdlab.lar.clengine.MultiplyCL;
+import it.cvdlab.lar.cpuengine.BitAlgebra;
+import it.cvdlab.lar.expression.Expression;
+import it.cvdlab.lar.expression.ExpressionEvaluator;
+import it.cvdlab.lar.expression.ExpressionParser;
+import it.cvdlab.lar.expression.ProductEngine;
 import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.CsrMatrixFile;
+import it.cvdlab.lar.model.CsrMatrixJsonWriter;
+import it.cvdlab.lar.model.DirectCsrMatrix;
+import it.cvdlab.lar.model.MatrixMarketReader;
+import it.cvdlab.lar.model.MatrixMarketWriter;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URLDecoder;
 
 import javax.servlet.http.HttpServletRequest;
@@ -15,9 +32,11 @@ import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.codehaus.jackson.JsonGenerationException;
@@ -29,8 +48,18 @@ import org.slf4j.LoggerFactory;
 
 @Path(RestService.REST_SERVICE_URL)
 public class RestService {
-	private static final String MATRIX_FIRST_PARAM = "matrixa";
-	private static final String MATRIX_SECOND_PARAM = "matrixb";
+	static final String MATRIX_FIRST_PARAM = "matrixa";
+	static final String MATRIX_SECOND_PARAM = "matrixb";
+	// Optional: "boolean" or "gf2" runs the bitset engine on the 0/1 patterns
+	static final String ALGEBRA_PARAM = "algebra";
+	// Optional: plus_times (default), or_and, min_plus or count
+	static final String SEMIRING_PARAM = "semiring";
+	// Optional: keep only result entries equal to filterEquals, or within [filterMin, filterMax]
+	static final String FILTER_EQUALS_PARAM = "filterEquals";
+	static final String FILTER_MIN_PARAM = "filterMin";
+	static final String FILTER_MAX_PARAM = "filterMax";
+	// /expression: the JSON expression read by ExpressionParser
+	private static final String EXPRESSION_PARAM = "expression";
 	
 	
     @Context
@@ -52,22 +81,59 @@ public class RestService {
     @POST
     @Consumes({ MediaType.APPLICATION_FORM_URLENCODED })
     @Produces({ MediaType.APPLICATION_JSON })
-    public CsrMatrix doMultiply(@Context UriInfo uriInfo, MultivaluedMap<String, String> form) throws JsonGenerationException, JsonMappingException, IOException {
+    public StreamingOutput doMultiply(@Context UriInfo uriInfo, MultivaluedMap<String, String> form) throws JsonGenerationException, JsonMappingException, IOException {
     	// httpServletResponse.addHeader("Access-Control-Allow-Origin", "*");
     	logger.error("/execute");
-    	return computeProduct(form, false);
+    	return jsonResult( computeProduct(form, false, false) );
     }
     
     @Path("/executeCOO")
     @POST
     @Consumes({ MediaType.APPLICATION_FORM_URLENCODED })
     @Produces({ MediaType.APPLICATION_JSON })
-    public CsrMatrix doMultiplyCOO(@Context UriInfo uriInfo, MultivaluedMap<String, String> form) throws JsonGenerationException, JsonMappingException, IOException {
+    public StreamingOutput doMultiplyCOO(@Context UriInfo uriInfo, MultivaluedMap<String, String> form) throws JsonGenerationException, JsonMappingException, IOException {
     	// httpServletResponse.addHeader("Access-Control-Allow-Origin", "*");
     	logger.error("/executeCOO");
-    	return computeProduct(form, true);
+    	return jsonResult( computeProduct(form, true, false) );
     }    
     
+    // matrixb holds B already transposed: the product is matrixa * matrixb^T
+    @Path("/multiplyTransposed")
+    @POST
+    @Consumes({ MediaType.APPLICATION_FORM_URLENCODED })
+    @Produces({ MediaType.APPLICATION_JSON })
+    public StreamingOutput doMultiplyTransposed(@Context UriInfo uriInfo, MultivaluedMap<String, String> form) throws JsonGenerationException, JsonMappingException, IOException {
+    	// httpServletResponse.addHeader("Access-Control-Allow-Origin", "*");
+    	logger.error("/multiplyTransposed");
+    	return jsonResult( computeProduct(form, false, true) );
+    }
+    
+    // A whole expression (products, transposes, filters) over named operands:
+    // intermediates stay on the server, only the result is sent back
+    @Path("/expression")
+    @POST
+    @Consumes({ MediaType.APPLICATION_FORM_URLENCODED })
+    @Produces({ MediaType.APPLICATION_JSON })
+    public StreamingOutput doExpression(@Context UriInfo uriInfo, MultivaluedMap<String, String> form) {
+    	logger.error("/expression");
+    	
+    	CsrMatrix resultMatrix = null;
+    	if ( form.containsKey(EXPRESSION_PARAM) ) {
+    		try {
+    			String expressionContent = URLDecoder.decode(form.getFirst(EXPRESSION_PARAM), "UTF-8");
+    			writeLogMatrix(EXPRESSION_PARAM, expressionContent);
+    			Expression expression = new ExpressionParser(jacksonMapper).parse(expressionContent);
+    			
+    			System.err.println("Starting RESULT matrix..."); 
+    			resultMatrix = new ExpressionEvaluator(ProductEngine.OPENCL).evaluate(expression);
+    		} catch (Exception e) {
+    			logger.error(e.toString());
+    		}
+    	}
+    	
+    	return jsonResult(resultMatrix);
+    }
+    
     @Path("/serialize")
     @POST
     @Consumes({ MediaType.APPLICATION_FORM_URLENCODED })
@@ -104,7 +170,7 @@ public class RestService {
     }
     
     
-    private CsrMatrix computeProduct(MultivaluedMap<String, String> form, boolean forceCOO) throws JsonGenerationException, JsonMappingException, IOException {
+    private CsrMatrix computeProduct(MultivaluedMap<String, String> form, boolean forceCOO, boolean transposed) throws JsonGenerationException, JsonMappingException, IOException {
     	String matrixContent = null;
     	CsrMatrix firstMatrix = null;
     	CsrMatrix secondMatrix = null;
@@ -145,20 +211,269 @@ public class RestService {
 			}
     	}
     	
+    	Semiring semiring = null;
+    	ResultFilter filter = null;
+    	try {
+    		semiring = parseSemiring(form.getFirst(SEMIRING_PARAM));
+    		filter = parseFilter(form, semiring);
+    	} catch (IllegalArgumentException e) {
+    		logger.error(e.toString());
+    	}
+    	
     	CsrMatrix resultMatrix = null;
-    	if ((firstMatrix != null) && (secondMatrix != null) && firstParse && secondParse) {
-    		System.err.println("Starting RESULT matrix..."); 
-    		resultMatrix = MultiplyCL.multiply(firstMatrix, secondMatrix, forceCOO);
-    		writeLogMatrix("result", jacksonMapper.writeValueAsString(resultMatrix));   
-    		System.err.println("Sending RESULT matrix..."); 
+    	if ((firstMatrix != null) && (secondMatrix != null) && firstParse && secondParse && (filter != null)) {
+    		resultMatrix = product(firstMatrix, secondMatrix, forceCOO, transposed, form.getFirst(ALGEBRA_PARAM), semiring, filter);
     	}
     	
         return resultMatrix;        	
     }
     
+    // The fields of /execute in a JSON body, read as a stream: no form string,
+    // no URL decoding, the matrices go straight into primitive arrays
+    @Path("/executeJson")
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON })
+    @Produces({ MediaType.APPLICATION_JSON })
+    public StreamingOutput doMultiplyJson(InputStream body) throws JsonGenerationException, JsonMappingException, IOException {
+    	logger.error("/executeJson");
+    	JsonProductRequest request = null;
+    	Semiring semiring = null;
+    	ResultFilter filter = null;
+    	
+    	try {
+    		request = JsonProductRequest.parse(jacksonMapper, body);
+    		semiring = parseSemiring(request.semiring);
+    		filter = ResultFilter.parse(request.filterEquals, request.filterMin, request.filterMax, semiring.defaultFilter());
+    	} catch (IOException e) {
+    		logger.error(e.toString());
+    	} catch (IllegalArgumentException e) {
+    		logger.error(e.toString());
+    	}
+    	
+    	if ((request == null) || (request.firstMatrix == null) || (request.secondMatrix == null) || (filter == null)) {
+    		return null;
+    	}
+    	
+    	return jsonResult( product(request.firstMatrix, request.secondMatrix, false, request.transposed, request.algebra, semiring, filter) );
+    }
+    
+    // /expression with the expression as the JSON body
+    @Path("/expressionJson")
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON })
+    @Produces({ MediaType.APPLICATION_JSON })
+    public StreamingOutput doExpressionJson(InputStream body) {
+    	logger.error("/expressionJson");
+    	CsrMatrix resultMatrix = null;
+    	
+    	try {
+    		Expression expression = new ExpressionParser(jacksonMapper).parse(body);
+    		
+    		System.err.println("Starting RESULT matrix..."); 
+    		resultMatrix = new ExpressionEvaluator(ProductEngine.OPENCL).evaluate(expression);
+    	} catch (Exception e) {
+    		logger.error(e.toString());
+    	}
+    	
+    	return jsonResult(resultMatrix);
+    }
+    
+    // algebra, when given, runs the bitset engine instead of the semiring
+    static CsrMatrix product(CsrMatrix firstMatrix, CsrMatrix secondMatrix, boolean forceCOO, boolean transposed,
+    		String algebra, Semiring semiring, ResultFilter filter) {
+    	CsrMatrix resultMatrix;
+    	
+    	System.err.println("Starting RESULT matrix..."); 
+    	if ( algebra != null ) {
+    		// The bitset engine reads B by rows
+    		CsrMatrix rightMatrix = transposed ? secondMatrix.toPattern().transpose() : secondMatrix;
+    		resultMatrix = bitsetProduct(firstMatrix, rightMatrix, algebra, filter);
+    	} else if (transposed) {
+    		resultMatrix = MultiplyCL.multiplyTransposed(firstMatrix, secondMatrix, false, semiring, filter);
+    	} else {
+    		resultMatrix = MultiplyCL.multiply(firstMatrix, secondMatrix, forceCOO, semiring, filter);
+    	}
+    	
+    	return resultMatrix;
+    }
+    
+    // Two Matrix Market matrices, A then B, one after the other in the body.
+    // The result goes back in Matrix Market too: nothing becomes JSON
+    @Path("/executeMatrixMarket")
+    @POST
+    @Consumes({ MediaType.TEXT_PLAIN })
+    @Produces({ MediaType.TEXT_PLAIN })
+    public StreamingOutput doMultiplyMatrixMarket(InputStream body, @QueryParam(SEMIRING_PARAM) String semiringName,
+    		@QueryParam(FILTER_EQUALS_PARAM) String filterEquals, @QueryParam(FILTER_MIN_PARAM) String filterMin, @QueryParam(FILTER_MAX_PARAM) String filterMax) {
+    	logger.error("/executeMatrixMarket");
+    	CsrMatrix firstMatrix = null;
+    	CsrMatrix secondMatrix = null;
+    	Semiring semiring = null;
+    	ResultFilter filter = null;
+    	
+    	try {
+    		MatrixMarketReader reader = new MatrixMarketReader(body);
+    		firstMatrix = reader.read();
+    		secondMatrix = reader.read();
+    		semiring = parseSemiring(semiringName);
+    		filter = ResultFilter.parse(filterEquals, filterMin, filterMax, semiring.defaultFilter());
+    	} catch (IOException e) {
+    		logger.error(e.toString());
+    	} catch (IllegalArgumentException e) {
+    		logger.error(e.toString());
+    	}
+    	
+    	if ((firstMatrix == null) || (secondMatrix == null) || (filter == null)) {
+    		return null;
+    	}
+    	
+    	System.err.println("Starting RESULT matrix..."); 
+    	final CsrMatrix resultMatrix = MultiplyCL.multiply(firstMatrix, secondMatrix, false, semiring, filter);
+    	if (resultMatrix == null) {
+    		return null;
+    	}
+    	
+    	System.err.println("Sending RESULT matrix..."); 
+    	return new StreamingOutput() {
+    		@Override
+    		public void write(OutputStream output) throws IOException {
+    			MatrixMarketWriter writer = new MatrixMarketWriter(output);
+    			writer.write(resultMatrix);
+    			writer.flush();
+    		}
+    	};
+    }
+    
+    // Two binary CSR matrices (see CsrMatrixFile), A then B, read from the body
+    // straight into primitive arrays; the result goes back in the same layout
+    @Path("/executeBinary")
+    @POST
+    @Consumes({ MediaType.APPLICATION_OCTET_STREAM })
+    @Produces({ MediaType.APPLICATION_OCTET_STREAM })
+    public StreamingOutput doMultiplyBinary(InputStream body, @QueryParam(SEMIRING_PARAM) String semiringName,
+    		@QueryParam(FILTER_EQUALS_PARAM) String filterEquals, @QueryParam(FILTER_MIN_PARAM) String filterMin, @QueryParam(FILTER_MAX_PARAM) String filterMax) {
+    	logger.error("/executeBinary");
+    	CsrMatrix firstMatrix = null;
+    	CsrMatrix secondMatrix = null;
+    	Semiring semiring = null;
+    	ResultFilter filter = null;
+    	
+    	try {
+    		firstMatrix = CsrMatrixFile.read(body);
+    		secondMatrix = CsrMatrixFile.read(body);
+    		semiring = parseSemiring(semiringName);
+    		filter = ResultFilter.parse(filterEquals, filterMin, filterMax, semiring.defaultFilter());
+    	} catch (IOException e) {
+    		logger.error(e.toString());
+    	} catch (IllegalArgumentException e) {
+    		logger.error(e.toString());
+    	}
+    	
+    	if ((firstMatrix == null) || (secondMatrix == null) || (filter == null)) {
+    		return null;
+    	}
+    	
+    	System.err.println("Starting RESULT matrix..."); 
+    	return binaryResult( MultiplyCL.multiply(firstMatrix, secondMatrix, false, semiring, filter) );
+    }
+    
+    // As /executeBinary with B sent already transposed: A * B^T. Both operands
+    // are read into direct memory, which the OpenCL kernels take in place
+    @Path("/multiplyTransposedBinary")
+    @POST
+    @Consumes({ MediaType.APPLICATION_OCTET_STREAM })
+    @Produces({ MediaType.APPLICATION_OCTET_STREAM })
+    public StreamingOutput doMultiplyTransposedBinary(InputStream body, @QueryParam(SEMIRING_PARAM) String semiringName,
+    		@QueryParam(FILTER_EQUALS_PARAM) String filterEquals, @QueryParam(FILTER_MIN_PARAM) String filterMin, @QueryParam(FILTER_MAX_PARAM) String filterMax) {
+    	logger.error("/multiplyTransposedBinary");
+    	DirectCsrMatrix firstMatrix = null;
+    	DirectCsrMatrix secondMatrix = null;
+    	Semiring semiring = null;
+    	ResultFilter filter = null;
+    	
+    	try {
+    		firstMatrix = CsrMatrixFile.readDirect(body);
+    		secondMatrix = CsrMatrixFile.readDirect(body);
+    		semiring = parseSemiring(semiringName);
+    		filter = ResultFilter.parse(filterEquals, filterMin, filterMax, semiring.defaultFilter());
+    	} catch (IOException e) {
+    		logger.error(e.toString());
+    	} catch (IllegalArgumentException e) {
+    		logger.error(e.toString());
+    	}
+    	
+    	if ((firstMatrix == null) || (secondMatrix == null) || (filter == null)) {
+    		return null;
+    	}
+    	
+    	System.err.println("Starting RESULT matrix..."); 
+    	return binaryResult( MultiplyCL.multiplyTransposed(firstMatrix, secondMatrix, false, semiring, filter) );
+    }
+    
+    static StreamingOutput binaryResult(final CsrMatrix resultMatrix) {
+    	if (resultMatrix == null) {
+    		return null;
+    	}
+    	
+    	System.err.println("Sending RESULT matrix..."); 
+    	return new StreamingOutput() {
+    		@Override
+    		public void write(OutputStream output) throws IOException {
+    			CsrMatrixFile.write(resultMatrix, output);
+    			output.flush();
+    		}
+    	};
+    }
+    
+    // The result goes out from its arrays as it is formatted, and the same
+    // bytes go to the result log: the matrix is serialized once
+    static StreamingOutput jsonResult(final CsrMatrix resultMatrix) {
+    	if (resultMatrix == null) {
+    		return null;
+    	}
+    	
+    	System.err.println("Sending RESULT matrix..."); 
+    	return new StreamingOutput() {
+    		@Override
+    		public void write(OutputStream output) throws IOException {
+    			LogTeeOutputStream tee = new LogTeeOutputStream(output, "result");
+    			try {
+    				CsrMatrixJsonWriter writer = new CsrMatrixJsonWriter(tee);
+    				writer.write(resultMatrix);
+    				writer.flush();
+    			} finally {
+    				tee.closeLog();
+    			}
+    		}
+    	};
+    }
+    
+    static Semiring parseSemiring(String name) {
+    	return (name != null) ? Semiring.valueOf( name.trim().toUpperCase() ) : Semiring.PLUS_TIMES;
+    }
+    
+    // Without filter fields the default filter of the semiring applies
+    private static ResultFilter parseFilter(MultivaluedMap<String, String> form, Semiring semiring) {
+    	return ResultFilter.parse(form.getFirst(FILTER_EQUALS_PARAM), form.getFirst(FILTER_MIN_PARAM), form.getFirst(FILTER_MAX_PARAM), semiring.defaultFilter());
+    }
+    
+    private static CsrMatrix bitsetProduct(CsrMatrix firstMatrix, CsrMatrix secondMatrix, String algebra, ResultFilter filter) {
+    	try {
+    		System.err.println("== Bitset Multiply (" + algebra + ") ==");
+    		return firstMatrix.multiplyBitset(secondMatrix, BitAlgebra.valueOf( algebra.trim().toUpperCase() ), filter);
+    	} catch (Exception e) {
+    		logger.error(e.toString());
+    		return null;
+    	}
+    }
+    
+    private static String logFileName(String name) {
+    	return name + "." + System.currentTimeMillis() + ".log";
+    }
+    
     private static void writeLogMatrix(String name, String content){
         try {
-            FileWriter fw = new FileWriter(name + "." + System.currentTimeMillis() + ".log");
+            FileWriter fw = new FileWriter(logFileName(name));
             BufferedWriter bw = new BufferedWriter(fw);
             bw.write(content);
             bw.close();
@@ -167,6 +482,53 @@ public class RestService {
             e.printStackTrace();
         }
     }    
+    
+    // Copies a response to a log file; a failing log is dropped, never the response
+    private static final class LogTeeOutputStream extends FilterOutputStream {
+    	private final String name;
+    	private OutputStream log;
+    	
+    	LogTeeOutputStream(OutputStream output, String name) {
+    		super(output);
+    		this.name = name;
+    		try {
+    			this.log = new BufferedOutputStream(new FileOutputStream(logFileName(name)));
+    		} catch (IOException e) {
+    			System.err.print("Unable to write to file " + name + ".");
+    			e.printStackTrace();
+    		}
+    	}
+    	
+    	@Override
+    	public void write(int b) throws IOException {
+    		write(new byte[]{ (byte) b }, 0, 1);
+    	}
+    	
+    	@Override
+    	public void write(byte[] b, int off, int len) throws IOException {
+    		out.write(b, off, len);
+    		if (log != null) {
+    			try {
+    				log.write(b, off, len);
+    			} catch (IOException e) {
+    				System.err.print("Unable to write to file " + name + ".");
+    				e.printStackTrace();
+    				closeLog();
+    			}
+    		}
+    	}
+    	
+    	void closeLog() {
+    		if (log != null) {
+    			try {
+    				log.close();
+    			} catch (IOException e) {
+    				e.printStackTrace();
+    			}
+    			log = null;
+    		}
+    	}
+    }
 }
 
 /*
@@ -1,6 +1,13 @@
 // To be replaced before kernel compiling
 #define MAXROW %%AROW%%
 #define MAXCOL %%BCOL%%
+// Kept entries: FILTER_MIN <= value <= FILTER_MAX
+#define FILTER_MIN %%FMIN%%
+#define FILTER_MAX %%FMAX%%
+// Semiring: SR_MUL combines the values along a path, SR_ADD merges the paths
+#define SR_ZERO %%SRZERO%%
+#define SR_ADD(x, y) %%SRADD%%
+#define SR_MUL(x, y) %%SRMUL%%
 
 // #pragma OPENCL EXTENSION cl_khr_global_int32_base_atomics : enable
 
@@ -29,7 +36,8 @@ __kernel void spmm_coo_kernel_naive(
 	int AcurIdx = -1;
 	int BcurIdx = -1;
 
-	float localSum = 0;
+	float localSum = SR_ZERO;
+	int hit = 0;
 
 	while ((ArowCur < ArowEnd) && (BrowCur < BrowEnd)) {
 
@@ -37,7 +45,8 @@ __kernel void spmm_coo_kernel_naive(
 		BcurIdx = Bcols[BrowCur];
 
 		if (AcurIdx == BcurIdx) {
-			localSum += Adata[ArowCur] * Bdata[BrowCur];
+			localSum = SR_ADD(localSum, SR_MUL(Adata[ArowCur], Bdata[BrowCur]));
+			hit = 1;
 			ArowCur++;
 			BrowCur++;
 		} else if ( AcurIdx < BcurIdx) {
@@ -47,7 +56,7 @@ __kernel void spmm_coo_kernel_naive(
 		}
 	}
 
-	if (localSum > 0) {
+	if (hit && (localSum >= FILTER_MIN) && (localSum <= FILTER_MAX)) {
 		int localIndex = atomic_add(counter,1);
 		cooArr_X[localIndex] = currRow;
 		cooArr_Y[localIndex] = currCol;
@@ -81,7 +90,8 @@ __kernel void spmm_coo_binary_kernel_naive(
 	
 	// printf("(%d,%d): raS: %d raE: %d rbS: %d rbE: %d\n", currRow, currCol, ArowCur, ArowEnd, BrowCur, BrowEnd);
 
-	float localSum = 0;
+	float localSum = SR_ZERO;
+	int hit = 0;
 
 	while ((ArowCur < ArowEnd) && (BrowCur < BrowEnd)) {
 
@@ -89,7 +99,8 @@ __kernel void spmm_coo_binary_kernel_naive(
 		BcurIdx = Bcols[BrowCur];
 
 		if (AcurIdx == BcurIdx) {
-			localSum += 1;
+			localSum = SR_ADD(localSum, SR_MUL(1.0f, 1.0f));
+			hit = 1;
 			ArowCur++;
 			BrowCur++;
 		} else if ( AcurIdx < BcurIdx) {
@@ -99,7 +110,7 @@ __kernel void spmm_coo_binary_kernel_naive(
 		}
 	}
 
-	if (localSum > 0) {
+	if (hit && (localSum >= FILTER_MIN) && (localSum <= FILTER_MAX)) {
 		int localIndex = atomic_add(counter,1);
 		cooArr_X[localIndex] = currRow;
 		cooArr_Y[localIndex] = currCol;
@@ -1,6 +1,13 @@
 // To be replaced before kernel compiling
 #define MAXROW %%AROW%%
 #define MAXCOL %%BCOL%%
+// Kept entries: FILTER_MIN <= value <= FILTER_MAX
+#define FILTER_MIN %%FMIN%%
+#define FILTER_MAX %%FMAX%%
+// Semiring: SR_MUL combines the values along a path, SR_ADD merges the paths
+#define SR_ZERO %%SRZERO%%
+#define SR_ADD(x, y) %%SRADD%%
+#define SR_MUL(x, y) %%SRMUL%%
 
 __kernel void spmm_kernel_naive(
 	__global const uint * restrict ArowPtr, __global const uint * restrict Acols,
@@ -26,7 +33,8 @@ __kernel void spmm_kernel_naive(
 	int AcurIdx = -1;
 	int BcurIdx = -1;
 
-	float localSum = 0;
+	float localSum = SR_ZERO;
+	int hit = 0;
 
 	while ((ArowCur < ArowEnd) && (BrowCur < BrowEnd)) {
 
@@ -34,7 +42,8 @@ __kernel void spmm_kernel_naive(
 		BcurIdx = Bcols[BrowCur];
 
 		if (AcurIdx == BcurIdx) {
-			localSum += Adata[ArowCur] * Bdata[BrowCur];
+			localSum = SR_ADD(localSum, SR_MUL(Adata[ArowCur], Bdata[BrowCur]));
+			hit = 1;
 			ArowCur++;
 			BrowCur++;
 		} else if ( AcurIdx < BcurIdx) {
@@ -44,7 +53,7 @@ __kernel void spmm_kernel_naive(
 		}
 	}
 
-	denseVal[currRow*MAXCOL + currCol] = localSum;
+	denseVal[currRow*MAXCOL + currCol] = (hit && (localSum >= FILTER_MIN) && (localSum <= FILTER_MAX)) ? localSum : 0;
 }
 
 __kernel void spmm_binary_kernel_naive(
@@ -71,7 +80,8 @@ __kernel void spmm_binary_kernel_naive(
 	
 	// printf("(%d,%d): raS: %d raE: %d rbS: %d rbE: %d\n", currRow, currCol, ArowCur, ArowEnd, BrowCur, BrowEnd);
 
-	float localSum = 0;
+	float localSum = SR_ZERO;
+	int hit = 0;
 
 	while ((ArowCur < ArowEnd) && (BrowCur < BrowEnd)) {
 
@@ -79,7 +89,8 @@ __kernel void spmm_binary_kernel_naive(
 		BcurIdx = Bcols[BrowCur];
 
 		if (AcurIdx == BcurIdx) {
-			localSum += 1;
+			localSum = SR_ADD(localSum, SR_MUL(1.0f, 1.0f));
+			hit = 1;
 			ArowCur++;
 			BrowCur++;
 		} else if ( AcurIdx < BcurIdx) {
@@ -89,5 +100,5 @@ __kernel void spmm_binary_kernel_naive(
 		}
 	}
 
-	denseVal[currRow*MAXCOL + currCol] = localSum;
+	denseVal[currRow*MAXCOL + currCol] = (hit && (localSum >= FILTER_MIN) && (localSum <= FILTER_MAX)) ? localSum : 0;
 }
\ No newline at end of file
@@ -1,5 +1,12 @@
 #define MAXROW %%AROW%%
 #define MAXCOL %%BCOL%%
+// Kept entries: FILTER_MIN <= value <= FILTER_MAX
+#define FILTER_MIN %%FMIN%%
+#define FILTER_MAX %%FMAX%%
+// Semiring: SR_MUL combines the values along a path, SR_ADD merges the paths
+#define SR_ZERO %%SRZERO%%
+#define SR_ADD(x, y) %%SRADD%%
+#define SR_MUL(x, y) %%SRMUL%%
 
 __kernel void spmm_coo_kernel_naive(
 	__global const uint * restrict ArowPtr, __global const uint * restrict Acols,
@@ -26,7 +33,8 @@ __kernel void spmm_coo_kernel_naive(
 	int AcurIdx = -1;
 	int BcurIdx = -1;
 	
-	float localSum = 0;
+	float localSum = SR_ZERO;
+	int hit = 0;
 			
 	for(int currCol = 0; currCol < MAXCOL; currCol++) {
 		
@@ -37,7 +45,8 @@ __kernel void spmm_coo_kernel_naive(
 		AcurIdx = -1;
 		BcurIdx = -1;
 	
-		localSum = 0;
+		localSum = SR_ZERO;
+		hit = 0;
 	
 		while ((ArowCur < ArowEnd) && (BrowCur < BrowEnd)) {
 	
@@ -45,7 +54,8 @@ __kernel void spmm_coo_kernel_naive(
 			BcurIdx = Bcols[BrowCur];
 	
 			if (AcurIdx == BcurIdx) {
-				localSum += Adata[ArowCur] * Bdata[BrowCur];
+				localSum = SR_ADD(localSum, SR_MUL(Adata[ArowCur], Bdata[BrowCur]));
+				hit = 1;
 				ArowCur++;
 				BrowCur++;
 			} else if ( AcurIdx < BcurIdx) {
@@ -55,7 +65,7 @@ __kernel void spmm_coo_kernel_naive(
 			}
 		}
 	
-		if (localSum > 0) {
+		if (hit && (localSum >= FILTER_MIN) && (localSum <= FILTER_MAX)) {
 			int localIndex = atomic_add(counter,1);
 			cooArr_X[localIndex] = currRow;
 			cooArr_Y[localIndex] = currCol;
@@ -89,7 +99,8 @@ __kernel void spmm_coo_binary_kernel_naive(
 	int AcurIdx = -1;
 	int BcurIdx = -1;
 	
-	float localSum = 0;
+	float localSum = SR_ZERO;
+	int hit = 0;
 			
 	for(int currCol = 0; currCol < MAXCOL; currCol++) {
 		
@@ -100,14 +111,16 @@ __kernel void spmm_coo_binary_kernel_naive(
 		AcurIdx = -1;
 		BcurIdx = -1;
 	
-		localSum = 0;
+		localSum = SR_ZERO;
+		hit = 0;
 	
 		while ((ArowCur < ArowEnd) && (BrowCur < BrowEnd)) {
 			AcurIdx = Acols[ArowCur];
 			BcurIdx = Bcols[BrowCur];
 	
 			if (AcurIdx == BcurIdx) {
-				localSum += 1;
+				localSum = SR_ADD(localSum, SR_MUL(1.0f, 1.0f));
+				hit = 1;
 				
 				ArowCur++;
 				BrowCur++;
@@ -118,7 +131,7 @@ __kernel void spmm_coo_binary_kernel_naive(
 			}
 		}
 	
-		if (localSum > 0) {
+		if (hit && (localSum >= FILTER_MIN) && (localSum <= FILTER_MAX)) {
 			int localIndex = atomic_add(counter,1);
 			cooArr_X[localIndex] = currRow;
 			cooArr_Y[localIndex] = currCol;
@@ -128,6 +141,148 @@ __kernel void spmm_coo_binary_kernel_naive(
 	}
 }
 
+
+// CSR output: CrowPtr comes from the symbolic phase, so every row writes
+// its own slice in column order, without atomics and without sorting
+__kernel void spmm_csr_kernel_naive(
+	__global const uint * restrict ArowPtr, __global const uint * restrict Acols,
+	__global const float * restrict Adata,
+	__global const uint * restrict BrowPtr, __global const uint * restrict Bcols,
+	__global const float * restrict Bdata,
+	__global const uint * restrict CrowPtr,
+    __global int * CrowCount, __global int * Ccols, __global float * Cdata) 
+{
+	int currRow = get_global_id(0);
+
+	if( !(currRow < MAXROW) )
+	{
+		return;
+	}
+
+	int ArowCur = ArowPtr[currRow];
+	int ArowCur2 = ArowPtr[currRow];
+	int ArowEnd = ArowPtr[currRow+1];
+	
+	int BrowCur = -1;
+	int BrowEnd = -1;
+	
+	int AcurIdx = -1;
+	int BcurIdx = -1;
+	
+	int CrowCur = CrowPtr[currRow];
+	int CrowEnd = CrowPtr[currRow+1];
+	
+	float localSum = SR_ZERO;
+	int hit = 0;
+			
+	for(int currCol = 0; (currCol < MAXCOL) && (CrowCur < CrowEnd); currCol++) {
+		
+		ArowCur = ArowCur2;
+		BrowCur = BrowPtr[currCol];
+		BrowEnd = BrowPtr[currCol+1];
+		
+		AcurIdx = -1;
+		BcurIdx = -1;
+	
+		localSum = SR_ZERO;
+		hit = 0;
+	
+		while ((ArowCur < ArowEnd) && (BrowCur < BrowEnd)) {
+	
+			AcurIdx = Acols[ArowCur];
+			BcurIdx = Bcols[BrowCur];
+	
+			if (AcurIdx == BcurIdx) {
+				localSum = SR_ADD(localSum, SR_MUL(Adata[ArowCur], Bdata[BrowCur]));
+				hit = 1;
+				ArowCur++;
+				BrowCur++;
+			} else if ( AcurIdx < BcurIdx) {
+				ArowCur++;
+			} else {
+				BrowCur++;
+			}
+		}
+	
+		if (hit && (localSum >= FILTER_MIN) && (localSum <= FILTER_MAX)) {
+			Ccols[CrowCur] = currCol;
+			Cdata[CrowCur] = localSum;
+			CrowCur++;
+		}
+	}
+	
+	CrowCount[currRow] = CrowCur - CrowPtr[currRow];
+}
+
+
+__kernel void spmm_csr_binary_kernel_naive(
+	__global const uint * restrict ArowPtr, __global const uint * restrict Acols,
+	__global const uint * restrict BrowPtr, __global const uint * restrict Bcols,
+	__global const uint * restrict CrowPtr,
+    __global int * CrowCount, __global int * Ccols, __global float * Cdata) 
+{
+	int currRow = get_global_id(0);
+
+	if( !(currRow < MAXROW) )
+	{
+		return;
+	}
+
+	int ArowCur = ArowPtr[currRow];
+	int ArowCur2 = ArowPtr[currRow];
+	int ArowEnd = ArowPtr[currRow+1];
+		
+	int BrowCur = -1;
+	int BrowEnd = -1;
+	
+	int AcurIdx = -1;
+	int BcurIdx = -1;
+	
+	int CrowCur = CrowPtr[currRow];
+	int CrowEnd = CrowPtr[currRow+1];
+	
+	float localSum = SR_ZERO;
+	int hit = 0;
+			
+	for(int currCol = 0; (currCol < MAXCOL) && (CrowCur < CrowEnd); currCol++) {
+		
+		ArowCur = ArowCur2;
+		BrowCur = BrowPtr[currCol];
+		BrowEnd = BrowPtr[currCol+1];
+		
+		AcurIdx = -1;
+		BcurIdx = -1;
+	
+		localSum = SR_ZERO;
+		hit = 0;
+	
+		while ((ArowCur < ArowEnd) && (BrowCur < BrowEnd)) {
+			AcurIdx = Acols[ArowCur];
+			BcurIdx = Bcols[BrowCur];
+	
+			if (AcurIdx == BcurIdx) {
+				localSum = SR_ADD(localSum, SR_MUL(1.0f, 1.0f));
+				hit = 1;
+				
+				ArowCur++;
+				BrowCur++;
+			} else if ( AcurIdx < BcurIdx) {
+				ArowCur++;
+			} else {
+				BrowCur++;
+			}
+		}
+	
+		if (hit && (localSum >= FILTER_MIN) && (localSum <= FILTER_MAX)) {
+			Ccols[CrowCur] = currCol;
+			Cdata[CrowCur] = localSum;
+			CrowCur++;
+		}
+	}
+	
+	CrowCount[currRow] = CrowCur - CrowPtr[currRow];
+}
+
 /*
 
 __kernel void spmm_coo_binary_kernel_naive(
@@ -164,7 +319,8 @@ __kernel void spmm_coo_binary_kernel_naive(
 	int AcurIdx = -1;
 	int BcurIdx = -1;
 	
-	float localSum = 0;
+	float localSum = SR_ZERO;
+	int hit = 0;
 			
 	for(int currCol = 0; currCol < MAXCOL; currCol++) {
 		
@@ -175,14 +331,16 @@ __kernel void spmm_coo_binary_kernel_naive(
 		AcurIdx = -1;
 		BcurIdx = -1;
 	
-		localSum = 0;
+		localSum = SR_ZERO;
+		hit = 0;
 	
 		while ((ArowCur < ArowEndLocal) && (BrowCur < BrowEnd)) {
 			AcurIdx = AcolsLocal[ArowCur];
 			BcurIdx = Bcols[BrowCur];
 	
 			if (AcurIdx == BcurIdx) {
-				localSum += 1;
+				localSum = SR_ADD(localSum, SR_MUL(1.0f, 1.0f));
+				hit = 1;
 				
 				ArowCur++;
 				BrowCur++;
@@ -193,7 +351,7 @@ __kernel void spmm_coo_binary_kernel_naive(
 			}
 		}
 	
-		if (localSum > 0) {
+		if (hit && (localSum >= FILTER_MIN) && (localSum <= FILTER_MAX)) {
 			int localIndex = atomic_add(counter,1);
 			cooArr_X[localIndex] = currRow;
 			cooArr_Y[localIndex] = currCol;
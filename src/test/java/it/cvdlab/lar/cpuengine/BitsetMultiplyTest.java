@@ -0,0 +1,66 @@
+package it.cvdlab.lar.cpuengine;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.TestMatrices;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BitsetMultiplyTest {
+
+	@Test
+	public void testMatchesIndexProducts() {
+		Random random = new Random(13);
+		// B mixes rows dense enough to be packed with sparse ones
+		CsrMatrix matrixA = TestMatrices.random(random, 400, 300, 0.05);
+		float[] denseB = TestMatrices.randomDense(random, 300, 700, 0.01);
+		for(int k = 0; k < 300; k += 3) {
+			for(int j = 0; j < 700; j++) {
+				denseB[k * 700 + j] = (random.nextDouble() < 0.3) ? 1 : 0;
+			}
+		}
+		CsrMatrix matrixB = CsrMatrix.fromFlattenArray(denseB, 700);
+
+		CsrMatrix counts = PatternMultiply.multiplyCount(matrixA, matrixB);
+		CsrMatrix orAnd = BitsetMultiply.multiply(matrixA, matrixB, BitAlgebra.BOOLEAN);
+		CsrMatrix parity = BitsetMultiply.multiply(matrixA, matrixB, BitAlgebra.GF2);
+
+		assertEquals(PatternMultiply.multiplyBoolean(matrixA, matrixB), orAnd);
+		assertTrue(parity.isPattern());
+
+		// Odd entries of the count product
+		int[] oddRowPtr = new int[counts.getRowCount() + 1];
+		int[] oddCols = new int[counts.getNonZeroElementsCount()];
+		int odd = 0;
+		for(int i = 0; i < counts.getRowCount(); i++) {
+			for(int k = counts.rowPtrAt(i); k < counts.rowPtrAt(i + 1); k++) {
+				if (((int) counts.valueAt(k)) % 2 == 1) {
+					oddCols[odd++] = counts.colAt(k);
+				}
+			}
+			oddRowPtr[i + 1] = odd;
+		}
+		assertArrayEquals(oddRowPtr, parity.getRowptrArray());
+		assertArrayEquals(Arrays.copyOf(oddCols, odd), parity.getColdataArray());
+	}
+
+	@Test
+	public void testParityCancels() {
+		// Both rows of B are the same: every product entry is hit twice
+		CsrMatrix matrixA = CsrMatrix.fromFlattenArray(new float[]{1, 1}, 2);
+		CsrMatrix matrixB = CsrMatrix.fromFlattenArray(new float[]{1, 0, 1, 1, 0, 1}, 3);
+
+		assertEquals(0, BitsetMultiply.multiply(matrixA, matrixB, BitAlgebra.GF2).getNonZeroElementsCount());
+		assertEquals(2, BitsetMultiply.multiply(matrixA, matrixB, BitAlgebra.BOOLEAN).getNonZeroElementsCount());
+	}
+
+	@Test
+	public void testEdgeShapes() {
+		for(CsrMatrix[] pair : TestMatrices.edgeProducts()) {
+			assertEquals(PatternMultiply.multiplyBoolean(pair[0], pair[1]), BitsetMultiply.multiply(pair[0], pair[1], BitAlgebra.BOOLEAN));
+		}
+	}
+}
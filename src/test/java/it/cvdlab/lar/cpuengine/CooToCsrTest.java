@@ -0,0 +1,64 @@
+package it.cvdlab.lar.cpuengine;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.TestMatrices;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CooToCsrTest {
+
+	@Test
+	public void testShuffledTriplets() {
+		Random random = new Random(5);
+		CsrMatrix expected = TestMatrices.random(random, 900, 400, 0.5);
+		int nnz = expected.getNonZeroElementsCount();
+
+		int[] xVal = new int[nnz], yVal = new int[nnz];
+		float[] dVal = new float[nnz];
+		for(int i = 0; i < expected.getRowCount(); i++) {
+			for(int k = expected.rowPtrAt(i); k < expected.rowPtrAt(i + 1); k++) {
+				xVal[k] = i;
+				yVal[k] = expected.colAt(k);
+				dVal[k] = expected.valueAt(k);
+			}
+		}
+
+		// Fisher-Yates on the three arrays
+		for(int k = nnz - 1; k > 0; k--) {
+			int l = random.nextInt(k + 1);
+			int x = xVal[k]; xVal[k] = xVal[l]; xVal[l] = x;
+			int y = yVal[k]; yVal[k] = yVal[l]; yVal[l] = y;
+			float d = dVal[k]; dVal[k] = dVal[l]; dVal[l] = d;
+		}
+
+		float[] triplets = new float[3 * nnz];
+		for(int k = 0; k < nnz; k++) {
+			triplets[3 * k] = xVal[k];
+			triplets[3 * k + 1] = yVal[k];
+			triplets[3 * k + 2] = dVal[k];
+		}
+
+		assertEquals(expected, CooToCsr.convert(xVal, yVal, dVal, 900, 400));
+		assertEquals(expected, CooToCsr.convert(triplets, 900, 400));
+	}
+
+	@Test
+	public void testDuplicatesKeepInputOrder() {
+		int[] colData = new int[40];
+		float[] data = new float[40];
+		for(int k = 0; k < 40; k++) {
+			colData[k] = (39 - k) / 2;
+			data[k] = k;
+		}
+
+		CooToCsr.sortRow(colData, data, 0, 40, new long[40]);
+		for(int k = 0; k < 40; k += 2) {
+			assertEquals(k / 2, colData[k]);
+			assertEquals(k / 2, colData[k + 1]);
+			assertTrue(data[k] < data[k + 1]);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package it.cvdlab.lar.cpuengine;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.TestMatrices;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FilteredMultiplyTest {
+	private CsrMatrix matrixA;
+	private CsrMatrix matrixB;
+	private float[] denseProduct;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(10);
+		float[] denseA = TestMatrices.randomDense(random, 300, 200, 0.1);
+		float[] denseB = TestMatrices.randomDense(random, 200, 250, 0.1);
+		matrixA = CsrMatrix.fromFlattenArray(denseA, 200);
+		matrixB = CsrMatrix.fromFlattenArray(denseB, 250);
+		denseProduct = flatten(ParallelMultiply.multiply(matrixA, matrixB));
+	}
+
+	private static float[] flatten(CsrMatrix matrix) {
+		float[] dense = new float[matrix.getRowCount() * matrix.getColCount()];
+		int[] rowPtr = matrix.getRowptrArray();
+		int[] colData = matrix.getColdataArray();
+		float[] data = matrix.getDataArray();
+		for(int i = 0; i < matrix.getRowCount(); i++) {
+			for(int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+				dense[i * matrix.getColCount() + colData[k]] = data[k];
+			}
+		}
+		return dense;
+	}
+
+	// The full product with the filter applied afterwards
+	private CsrMatrix expected(float[] dense, int colshape, ResultFilter filter) {
+		float[] kept = new float[dense.length];
+		for(int i = 0; i < dense.length; i++) {
+			kept[i] = filter.accept(dense[i]) ? dense[i] : 0;
+		}
+		return CsrMatrix.fromFlattenArray(kept, colshape);
+	}
+
+	@Test
+	public void testRange() {
+		ResultFilter filter = ResultFilter.between(4, 12);
+
+		assertEquals(expected(denseProduct, 250, filter), ParallelMultiply.multiply(matrixA, matrixB, filter));
+		assertEquals(expected(denseProduct, 250, filter), GustavsonMultiply.multiply(matrixA, matrixB, AccumulatorPolicy.HASH, filter));
+	}
+
+	@Test
+	public void testAtLeast() throws Exception {
+		ResultFilter filter = ResultFilter.atLeast(9);
+
+		assertEquals(expected(denseProduct, 250, filter), matrixA.multiply(matrixB, filter));
+	}
+
+	@Test
+	public void testEqualCount() {
+		// FV * EV^T == 2 style: count shared vertices, keep the pairs sharing exactly two
+		CsrMatrix patternA = matrixA.toPattern(), patternB = matrixB.toPattern();
+		float[] counts = flatten(PatternMultiply.multiplyCount(patternA, patternB));
+		ResultFilter filter = ResultFilter.equalTo(2);
+
+		CsrMatrix filtered = PatternMultiply.multiplyCount(patternA, patternB, filter);
+		assertEquals(expected(counts, 250, filter), filtered);
+		assertTrue(filtered.getNonZeroElementsCount() > 0);
+	}
+
+	@Test
+	public void testAllOrNothing() {
+		CsrMatrix patternA = matrixA.toPattern(), patternB = matrixB.toPattern();
+
+		assertEquals(0, PatternMultiply.multiplyBoolean(patternA, patternB, ResultFilter.atLeast(2)).getNonZeroElementsCount());
+		assertEquals(0, BitsetMultiply.multiply(patternA, patternB, BitAlgebra.BOOLEAN, ResultFilter.equalTo(3)).getNonZeroElementsCount());
+		assertEquals(PatternMultiply.multiplyBoolean(patternA, patternB),
+				BitsetMultiply.multiply(patternA, patternB, BitAlgebra.BOOLEAN, ResultFilter.equalTo(1)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptyRange() {
+		ResultFilter.between(3, 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNaNBound() {
+		ResultFilter.parse(null, "NaN", null, ResultFilter.POSITIVE);
+	}
+}
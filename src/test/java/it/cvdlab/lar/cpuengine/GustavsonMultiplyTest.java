@@ -0,0 +1,75 @@
+package it.cvdlab.lar.cpuengine;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.TestMatrices;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class GustavsonMultiplyTest {
+	private CsrMatrix matrixA;
+	private CsrMatrix matrixB;
+	private CsrMatrix expected;
+
+	@Before
+	public void setUp() throws Exception {
+		Random random = new Random(42);
+		int rows = 37, inner = 23, cols = 41;
+		float[] denseA = TestMatrices.randomDense(random, rows, inner, 0.2);
+		float[] denseB = TestMatrices.randomDense(random, inner, cols, 0.15);
+
+		float[] denseC = new float[rows * cols];
+		for(int i = 0; i < rows; i++) {
+			for(int k = 0; k < inner; k++) {
+				for(int j = 0; j < cols; j++) {
+					denseC[i * cols + j] += denseA[i * inner + k] * denseB[k * cols + j];
+				}
+			}
+		}
+
+		matrixA = CsrMatrix.fromFlattenArray(denseA, inner);
+		matrixB = CsrMatrix.fromFlattenArray(denseB, cols);
+		expected = CsrMatrix.fromFlattenArray(denseC, cols);
+	}
+
+	@Test
+	public void testDenseAccumulator() {
+		assertEquals(expected, GustavsonMultiply.multiply(matrixA, matrixB, AccumulatorPolicy.DENSE));
+	}
+
+	@Test
+	public void testHashAccumulator() {
+		assertEquals(expected, GustavsonMultiply.multiply(matrixA, matrixB, AccumulatorPolicy.HASH));
+	}
+
+	@Test
+	public void testAdaptive() {
+		assertEquals(expected, GustavsonMultiply.multiply(matrixA, matrixB));
+	}
+
+	@Test
+	public void testWideAdaptive() {
+		// Wide enough for ADAPTIVE to go through the hash accumulator
+		int cols = 200000;
+		CsrMatrix wide = CsrMatrix.fromCOOArray(
+				new int[]{0, 0, 1, 2, 2, 2},
+				new int[]{199999, 7, 150000, 7, 3, 150000},
+				new float[]{1, 2, 3, 4, 5, 6}, 3, cols);
+		CsrMatrix left = CsrMatrix.fromFlattenArray(new float[]{1, 1, 0, 0, 0, 2}, 3);
+
+		assertTrue(GustavsonMultiply.useHash(AccumulatorPolicy.ADAPTIVE, 4, cols));
+		assertEquals(GustavsonMultiply.multiply(left, wide, AccumulatorPolicy.DENSE), GustavsonMultiply.multiply(left, wide));
+	}
+
+	@Test
+	public void testEdgeShapes() {
+		for(CsrMatrix[] pair : TestMatrices.edgeProducts()) {
+			CsrMatrix expected = TestMatrices.denseProduct(pair[0], pair[1]);
+			assertEquals(expected, GustavsonMultiply.multiply(pair[0], pair[1], AccumulatorPolicy.DENSE));
+			assertEquals(expected, GustavsonMultiply.multiply(pair[0], pair[1], AccumulatorPolicy.HASH));
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package it.cvdlab.lar.cpuengine;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.TestMatrices;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NnzEstimatorTest {
+
+	private static CsrMatrix random(Random random, int rows, int cols, double density) {
+		return TestMatrices.random(random, rows, cols, density);
+	}
+
+	@Test
+	public void testExactWhenSmall() {
+		Random random = new Random(13);
+		CsrMatrix matrixA = random(random, 40, 30, 0.1);
+		CsrMatrix matrixB = random(random, 30, 50, 0.1);
+
+		NnzEstimate estimate = NnzEstimator.estimate(matrixA, matrixB.transpose());
+		assertTrue(estimate.isExact());
+		assertEquals(SymbolicMultiply.analyze(matrixA, matrixB).getNnz(), estimate.getNnz());
+	}
+
+	@Test
+	public void testWithinBounds() {
+		Random random = new Random(13);
+		for(double density : new double[]{ 0.002, 0.01, 0.05 }) {
+			CsrMatrix matrixA = random(random, 400, 300, density);
+			CsrMatrix matrixB = random(random, 300, 500, density);
+			long nnz = SymbolicMultiply.analyze(matrixA, matrixB).getNnz();
+
+			NnzEstimate estimate = NnzEstimator.estimate(matrixA, matrixB.transpose());
+			assertFalse(estimate.isExact());
+			assertTrue(density + ": " + nnz + " outside " + estimate, (estimate.getLow() <= nnz) && (nnz <= estimate.getHigh()));
+		}
+	}
+
+	@Test
+	public void testPathChoice() {
+		Random random = new Random(13);
+		CsrMatrix sparse = random(random, 400, 400, 0.001);
+		CsrMatrix dense = random(random, 400, 400, 0.2);
+		long denseSize = 400L * 400L;
+
+		assertTrue(NnzEstimator.estimate(sparse, sparse.transpose()).favorsCOO(denseSize, 3));
+		assertFalse(NnzEstimator.estimate(dense, dense.transpose()).favorsCOO(denseSize, 3));
+	}
+
+	@Test
+	public void testEmpty() {
+		CsrMatrix empty = PatternMultiply.emptyPattern(20, 30);
+		NnzEstimate estimate = NnzEstimator.estimate(empty, empty);
+		assertEquals(0, estimate.getNnz());
+		assertTrue(estimate.isExact());
+	}
+}
@@ -0,0 +1,77 @@
+package it.cvdlab.lar.cpuengine;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
+import it.cvdlab.lar.model.TestMatrices;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ParallelMultiplyTest {
+
+	@Test
+	public void testPartitionRows() {
+		long[] flopsPrefix = new long[]{0, 10, 10, 40, 50, 100, 100};
+		int[] bounds = ParallelMultiply.partitionRows(flopsPrefix, 4, 1);
+
+		assertEquals(0, bounds[0]);
+		assertEquals(6, bounds[bounds.length - 1]);
+		assertTrue(bounds.length - 1 <= 4);
+		for(int c = 1; c < bounds.length; c++) {
+			assertTrue(bounds[c] > bounds[c - 1]);
+		}
+	}
+
+	@Test
+	public void testMatchesSequential() {
+		Random random = new Random(7);
+		CsrMatrix matrixA = TestMatrices.random(random, 600, 500, 0.05);
+		CsrMatrix matrixB = TestMatrices.random(random, 500, 700, 0.05);
+
+		// Enough flops for several chunks
+		assertTrue(ParallelMultiply.rowFlopsPrefix(matrixA, matrixB)[600] > 4 * (1 << 16));
+		assertEquals(GustavsonMultiply.multiply(matrixA, matrixB), ParallelMultiply.multiply(matrixA, matrixB));
+	}
+
+	@Test
+	public void testInPlaceMatchesStitched() {
+		Random random = new Random(9);
+		CsrMatrix matrixA = TestMatrices.random(random, 600, 500, 0.05);
+		CsrMatrix matrixB = TestMatrices.random(random, 500, 700, 0.05);
+
+		// Whole products go through the symbolic row pointer, row blocks through the chunk builders
+		for(Semiring semiring : new Semiring[]{ Semiring.PLUS_TIMES, Semiring.MIN_PLUS }) {
+			for(ResultFilter filter : new ResultFilter[]{ semiring.defaultFilter(), ResultFilter.equalTo(2) }) {
+				assertEquals(ParallelMultiply.multiplyRows(matrixA, 0, 600, matrixB, AccumulatorPolicy.ADAPTIVE, semiring, filter),
+						ParallelMultiply.multiply(matrixA, matrixB, AccumulatorPolicy.ADAPTIVE, semiring, filter));
+			}
+		}
+	}
+
+	// No rows gives no chunk: the product is empty, not a pool task
+	@Test
+	public void testNoRows() throws Exception {
+		CsrMatrix matrixA = new CsrMatrix(new int[]{ 0 }, new int[0], new float[0], 0, 4);
+		CsrMatrix matrixB = CsrMatrix.fromFlattenArray(new float[]{ 1, 0, 2, 0, 0, 3, 4, 0 }, 2);
+		CsrMatrix expected = new CsrMatrix(new int[]{ 0 }, new int[0], new float[0], 0, 2);
+
+		for(Semiring semiring : new Semiring[]{ Semiring.PLUS_TIMES, Semiring.MIN_PLUS }) {
+			assertEquals(expected, ParallelMultiply.multiply(matrixA, matrixB, AccumulatorPolicy.ADAPTIVE, semiring, semiring.defaultFilter()));
+			assertEquals(expected, ParallelMultiply.multiplyRows(matrixA, 0, 0, matrixB, AccumulatorPolicy.ADAPTIVE, semiring, semiring.defaultFilter()));
+		}
+		assertEquals(expected, matrixA.multiply(matrixB));
+	}
+
+	@Test
+	public void testEdgeShapes() {
+		for(CsrMatrix[] pair : TestMatrices.edgeProducts()) {
+			CsrMatrix expected = TestMatrices.denseProduct(pair[0], pair[1]);
+			assertEquals(expected, ParallelMultiply.multiply(pair[0], pair[1]));
+			assertEquals(expected, ParallelMultiply.multiplyRows(pair[0], 0, pair[0].getRowCount(), pair[1],
+					AccumulatorPolicy.ADAPTIVE, Semiring.PLUS_TIMES, ResultFilter.POSITIVE));
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package it.cvdlab.lar.cpuengine;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.TestMatrices;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ParallelTransposeTest {
+
+	private static float[] denseTranspose(float[] dense, int rows, int cols) {
+		float[] transposed = new float[dense.length];
+		for(int i = 0; i < rows; i++) {
+			for(int j = 0; j < cols; j++) {
+				transposed[j * rows + i] = dense[i * cols + j];
+			}
+		}
+		return transposed;
+	}
+
+	@Test
+	public void testSplitRows() {
+		int[] rowPtr = new int[]{0, 4, 4, 4, 8, 12, 16};
+		int[] bounds = ParallelTranspose.splitRows(rowPtr, 4);
+
+		assertEquals(0, bounds[0]);
+		assertEquals(6, bounds[4]);
+		for(int b = 1; b < bounds.length; b++) {
+			assertTrue(bounds[b] >= bounds[b - 1]);
+		}
+	}
+
+	@Test
+	public void testMatchesDenseTranspose() {
+		Random random = new Random(3);
+		float[] dense = TestMatrices.randomDense(random, 1200, 300, 0.5);
+		CsrMatrix matrix = CsrMatrix.fromFlattenArray(dense, 300);
+
+		// Enough nnz for several blocks
+		assertTrue(ParallelTranspose.blockCount(matrix.getNonZeroElementsCount(), 300, 4) > 1);
+
+		CsrMatrix transposed = ParallelTranspose.transpose(matrix);
+		assertEquals(CsrMatrix.fromFlattenArray(denseTranspose(dense, 1200, 300), 1200), transposed);
+		assertEquals(matrix, transposed.transpose());
+	}
+
+	@Test
+	public void testBinaryStaysImplicit() {
+		CsrMatrix matrix = new CsrMatrix(new int[]{0, 2, 3}, new int[]{0, 2, 1}, null, 2, 3);
+		CsrMatrix transposed = matrix.transpose();
+
+		assertNull(transposed.getStoredDataArray());
+		assertArrayEquals(new int[]{0, 1, 2, 3}, transposed.getRowptrArray());
+		assertArrayEquals(new int[]{0, 1, 0}, transposed.getColdataArray());
+	}
+
+	@Test
+	public void testEdgeShapes() {
+		for(CsrMatrix[] pair : TestMatrices.edgeProducts()) {
+			for(CsrMatrix matrix : pair) {
+				CsrMatrix transposed = ParallelTranspose.transpose(matrix);
+				assertEquals(matrix.getColCount(), transposed.getRowCount());
+				assertEquals(matrix.getRowCount(), transposed.getColCount());
+				assertEquals(matrix, ParallelTranspose.transpose(transposed));
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package it.cvdlab.lar.cpuengine;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.TestMatrices;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PatternMultiplyTest {
+	private CsrMatrix matrixA;
+	private CsrMatrix matrixB;
+	private CsrMatrix expected;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(9);
+		float[] denseA = TestMatrices.randomDense(random, 300, 200, 0.1);
+		float[] denseB = TestMatrices.randomDense(random, 200, 250, 0.1);
+		for(int i = 0; i < denseA.length; i++) {
+			denseA[i] = Math.min(denseA[i], 1F);
+		}
+		for(int i = 0; i < denseB.length; i++) {
+			denseB[i] = Math.min(denseB[i], 1F);
+		}
+
+		// Explicit ones, multiplied through the float engine
+		matrixA = CsrMatrix.fromFlattenArray(denseA, 200);
+		matrixB = CsrMatrix.fromFlattenArray(denseB, 250);
+		expected = ParallelMultiply.multiply(matrixA, matrixB);
+	}
+
+	@Test
+	public void testBinaryFlag() {
+		assertTrue(matrixA.isBinary());
+		assertFalse(matrixA.isPattern());
+		assertTrue(matrixA.toPattern().isPattern());
+		assertEquals(matrixA, matrixA.toPattern());
+		assertFalse(CsrMatrix.fromFlattenArray(new float[]{1, 2}, 2).isBinary());
+	}
+
+	@Test
+	public void testCount() {
+		CsrMatrix counted = PatternMultiply.multiplyCount(matrixA, matrixB);
+
+		assertEquals(expected, counted);
+		// the operand is left untouched
+		assertNotNull(matrixA.getStoredDataArray());
+	}
+
+	@Test
+	public void testBoolean() {
+		CsrMatrix product = PatternMultiply.multiplyBoolean(matrixA, matrixB);
+
+		assertTrue(product.isPattern());
+		assertArrayEquals(expected.getRowptrArray(), product.getRowptrArray());
+		assertArrayEquals(expected.getColdataArray(), product.getColdataArray());
+	}
+
+	@Test
+	public void testEdgeShapes() {
+		for(CsrMatrix[] pair : TestMatrices.edgeProducts()) {
+			CsrMatrix left = pair[0].toPattern(), right = pair[1].toPattern();
+			CsrMatrix expected = TestMatrices.denseProduct(left, right);
+
+			assertEquals(expected, PatternMultiply.multiplyCount(left, right));
+			assertArrayEquals(expected.getColdataArray(), PatternMultiply.multiplyBoolean(left, right).getColdataArray());
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package it.cvdlab.lar.cpuengine;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
+import it.cvdlab.lar.model.TestMatrices;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SemiringMultiplyTest {
+	private static final int ROWS = 120, INNER = 90, COLS = 150;
+
+	private float[] denseA;
+	private float[] denseB;
+	private CsrMatrix matrixA;
+	private CsrMatrix matrixB;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(12);
+		denseA = TestMatrices.randomDense(random, ROWS, INNER, 0.08);
+		denseB = TestMatrices.randomDense(random, INNER, COLS, 0.08);
+		matrixA = CsrMatrix.fromFlattenArray(denseA, INNER);
+		matrixB = CsrMatrix.fromFlattenArray(denseB, COLS);
+	}
+
+	// Triple loop over the stored entries, the semiring spelled out
+	private CsrMatrix reference(Semiring semiring) {
+		int[] rowPtr = new int[ROWS + 1];
+		int[] colData = new int[ROWS * COLS];
+		float[] data = new float[ROWS * COLS];
+		int nnz = 0;
+
+		for(int i = 0; i < ROWS; i++) {
+			for(int j = 0; j < COLS; j++) {
+				boolean reached = false;
+				float value = (semiring == Semiring.MIN_PLUS) ? Float.POSITIVE_INFINITY : 0;
+				for(int k = 0; k < INNER; k++) {
+					float a = denseA[i * INNER + k], b = denseB[k * COLS + j];
+					if ((a == 0) || (b == 0)) {
+						continue;
+					}
+					reached = true;
+					switch (semiring) {
+					case MIN_PLUS:
+						value = Math.min(value, a + b);
+						break;
+					case OR_AND:
+						value = 1;
+						break;
+					case COUNT:
+						value += 1;
+						break;
+					default:
+						value += a * b;
+						break;
+					}
+				}
+				if (reached) {
+					colData[nnz] = j;
+					data[nnz++] = value;
+				}
+			}
+			rowPtr[i + 1] = nnz;
+		}
+
+		return new CsrMatrix(rowPtr, Arrays.copyOf(colData, nnz), Arrays.copyOf(data, nnz), ROWS, COLS);
+	}
+
+	@Test
+	public void testEverySemiring() throws Exception {
+		for(Semiring semiring : Semiring.values()) {
+			assertEquals(semiring.toString(), reference(semiring), matrixA.multiply(matrixB, semiring));
+		}
+	}
+
+	@Test
+	public void testAccumulators() {
+		for(Semiring semiring : Semiring.values()) {
+			CsrMatrix expected = reference(semiring);
+			for(AccumulatorPolicy policy : AccumulatorPolicy.values()) {
+				assertEquals(semiring + " " + policy, expected,
+						GustavsonMultiply.multiply(matrixA, matrixB, policy, semiring, ResultFilter.ALL));
+			}
+		}
+	}
+
+	@Test
+	public void testMinPlusFilter() throws Exception {
+		ResultFilter filter = ResultFilter.between(2, 3);
+		CsrMatrix shortest = matrixA.multiply(matrixB, Semiring.MIN_PLUS, filter);
+
+		assertTrue(shortest.getNonZeroElementsCount() > 0);
+		for(int k = 0; k < shortest.getNonZeroElementsCount(); k++) {
+			assertTrue(filter.accept(shortest.valueAt(k)));
+		}
+	}
+}
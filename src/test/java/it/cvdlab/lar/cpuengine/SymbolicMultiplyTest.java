@@ -0,0 +1,52 @@
+package it.cvdlab.lar.cpuengine;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.TestMatrices;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SymbolicMultiplyTest {
+
+	@Test
+	public void testStructureMatchesProduct() {
+		Random random = new Random(11);
+		CsrMatrix matrixA = TestMatrices.random(random, 600, 500, 0.05);
+		CsrMatrix matrixB = TestMatrices.random(random, 500, 700, 0.05);
+
+		SymbolicProduct symbolic = SymbolicMultiply.analyze(matrixA, matrixB);
+		CsrMatrix expected = GustavsonMultiply.multiply(matrixA, matrixB);
+
+		// Inputs are positive, nothing cancels out
+		assertArrayEquals(expected.getRowptrArray(), symbolic.getRowPtr());
+		assertEquals(expected, ParallelMultiply.multiply(matrixA, matrixB, symbolic));
+	}
+
+	@Test
+	public void testCompactsDroppedEntries() {
+		// Row 0 of the product holds a zero, row 1 is full
+		CsrMatrix matrixA = CsrMatrix.fromFlattenArray(new float[]{1, -1, 1, 1}, 2);
+		CsrMatrix matrixB = CsrMatrix.fromFlattenArray(new float[]{1, 1, 1, 0}, 2);
+
+		SymbolicProduct symbolic = SymbolicMultiply.analyze(matrixA, matrixB);
+		assertEquals(4, symbolic.getNnz());
+
+		CsrMatrix result = ParallelMultiply.multiply(matrixA, matrixB, symbolic);
+		assertEquals(3, result.getNonZeroElementsCount());
+		assertArrayEquals(new int[]{0, 1, 3}, result.getRowptrArray());
+		assertEquals(GustavsonMultiply.multiply(matrixA, matrixB), result);
+	}
+
+	@Test
+	public void testEdgeShapes() {
+		for(CsrMatrix[] pair : TestMatrices.edgeProducts()) {
+			SymbolicProduct symbolic = SymbolicMultiply.analyze(pair[0], pair[1]);
+			CsrMatrix expected = TestMatrices.denseProduct(pair[0], pair[1]);
+
+			assertArrayEquals(expected.getRowptrArray(), symbolic.getRowPtr());
+			assertEquals(expected, ParallelMultiply.multiply(pair[0], pair[1], symbolic));
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package it.cvdlab.lar.expression;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ChainOrderTest {
+
+	@Test
+	public void testDenseShapes() {
+		// 10x1000 * 1000x10 * 10x1000: the small product first
+		ChainOrder order = ChainOrder.of(new int[]{ 10, 1000, 10 }, new int[]{ 1000, 10, 1000 },
+				new long[]{ 10000, 10000, 10000 });
+		assertEquals("((0 * 1) * 2)", order.toString());
+
+		// 1000x10 * 10x1000 * 1000x10: same on the right
+		order = ChainOrder.of(new int[]{ 1000, 10, 1000 }, new int[]{ 10, 1000, 10 },
+				new long[]{ 10000, 10000, 10000 });
+		assertEquals("(0 * (1 * 2))", order.toString());
+	}
+
+	@Test
+	public void testSparsityWins() {
+		// Square factors: shapes alone would not tell, the nearly empty last factor does
+		ChainOrder order = ChainOrder.of(new int[]{ 1000, 1000, 1000 }, new int[]{ 1000, 1000, 1000 },
+				new long[]{ 500000, 500000, 10 });
+		assertEquals("(0 * (1 * 2))", order.toString());
+
+		order = ChainOrder.of(new int[]{ 1000, 1000, 1000 }, new int[]{ 1000, 1000, 1000 },
+				new long[]{ 10, 500000, 500000 });
+		assertEquals("((0 * 1) * 2)", order.toString());
+	}
+
+	@Test
+	public void testTwoFactors() {
+		ChainOrder order = ChainOrder.of(new int[]{ 5, 7 }, new int[]{ 7, 3 }, new long[]{ 10, 10 });
+		assertEquals(0, order.split(0, 1));
+		assertTrue(order.getCost() > 0);
+	}
+}
@@ -0,0 +1,126 @@
+package it.cvdlab.lar.expression;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.ResultFilter;
+import it.cvdlab.lar.model.Semiring;
+import it.cvdlab.lar.model.TestMatrices;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExpressionEvaluatorTest {
+	private CsrMatrix matrixFV;
+	private CsrMatrix matrixEV;
+	private CsrMatrix matrixC;
+	private ExpressionEvaluator evaluator;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(14);
+		matrixFV = TestMatrices.random(random, 60, 80, 0.05).toPattern();
+		matrixEV = TestMatrices.random(random, 90, 80, 0.03).toPattern();
+		matrixC = TestMatrices.random(random, 80, 40, 0.1);
+		evaluator = new ExpressionEvaluator(ProductEngine.CPU);
+	}
+
+	@Test
+	public void testChain() throws Exception {
+		// FV * EV^T * EV * C, the transpose fused into the chain
+		Expression fv = Expression.operand(matrixFV), ev = Expression.operand(matrixEV);
+		Expression chain = Expression.multiply(Arrays.asList(fv, Expression.transpose(ev), ev, Expression.operand(matrixC)), Semiring.PLUS_TIMES);
+
+		CsrMatrix expected = matrixFV.multiply(matrixEV.transpose()).multiply(matrixEV).multiply(matrixC);
+		assertEquals(expected, evaluator.evaluate(chain));
+	}
+
+	@Test
+	public void testNestedProducts() throws Exception {
+		// (FV^T * FV) * C is flattened into one chain
+		Expression fv = Expression.operand(matrixFV), c = Expression.operand(matrixC);
+		Expression inner = Expression.multiply(Arrays.asList(Expression.transpose(fv), fv), Semiring.PLUS_TIMES);
+		Expression outer = Expression.multiply(Arrays.asList(inner, c), Semiring.PLUS_TIMES);
+
+		assertEquals(matrixFV.transpose().multiply(matrixFV).multiply(matrixC), evaluator.evaluate(outer));
+	}
+
+	@Test
+	public void testCountOrder() throws Exception {
+		// COUNT is not associative: nested or as one node it runs left to right
+		Expression fv = Expression.operand(matrixFV), c = Expression.operand(matrixC);
+		Expression inner = Expression.multiply(Arrays.asList(Expression.transpose(fv), fv), Semiring.COUNT);
+		Expression nested = Expression.multiply(Arrays.asList(inner, c), Semiring.COUNT);
+		Expression chain = Expression.multiply(Arrays.asList(Expression.transpose(fv), fv, c), Semiring.COUNT);
+
+		CsrMatrix expected = matrixFV.transpose().multiplyCount(matrixFV).multiplyCount(matrixC);
+		assertEquals(expected, evaluator.evaluate(nested));
+		assertEquals(expected, evaluator.evaluate(chain));
+	}
+
+	@Test
+	public void testSignedOrder() throws Exception {
+		// The intermediates drop non-positive values: with signed factors the nesting is kept
+		Expression a = scalar(1), b = scalar(-1), c = scalar(-1);
+		Expression right = Expression.multiply(Arrays.asList(a, Expression.multiply(Arrays.asList(b, c), Semiring.PLUS_TIMES)), Semiring.PLUS_TIMES);
+		Expression left = Expression.multiply(Arrays.asList(Expression.multiply(Arrays.asList(a, b), Semiring.PLUS_TIMES), c), Semiring.PLUS_TIMES);
+		Expression chain = Expression.multiply(Arrays.asList(a, b, c), Semiring.PLUS_TIMES);
+
+		assertEquals(((Expression.Operand) a).getMatrix(), evaluator.evaluate(right));
+		assertEquals(0, evaluator.evaluate(left).getNonZeroElementsCount());
+		assertEquals(0, evaluator.evaluate(chain).getNonZeroElementsCount());
+	}
+
+	private static Expression scalar(float value) {
+		return Expression.operand(new CsrMatrix(new int[]{ 0, 1 }, new int[]{ 0 }, new float[]{ value }, 1, 1));
+	}
+
+	@Test
+	public void testFusedFilter() throws Exception {
+		// FV * EV^T == 2: faces and edges sharing two vertices
+		Expression fv = Expression.operand(matrixFV), ev = Expression.operand(matrixEV);
+		Expression product = Expression.multiply(Arrays.asList(fv, Expression.transpose(ev)), Semiring.COUNT);
+		Expression filtered = Expression.filter(product, ResultFilter.equalTo(2));
+
+		CsrMatrix expected = matrixFV.multiplyCount(matrixEV.transpose(), ResultFilter.equalTo(2));
+		assertEquals(expected, evaluator.evaluate(filtered));
+		assertEquals(0, evaluator.evaluate(Expression.filter(filtered, ResultFilter.atLeast(3))).getNonZeroElementsCount());
+	}
+
+	@Test
+	public void testSharedNode() throws Exception {
+		// The shared product is computed once and filtered afterwards
+		Expression product = Expression.multiply(Arrays.asList(Expression.operand(matrixFV), Expression.operand(matrixC)), Semiring.PLUS_TIMES);
+		Expression gram = Expression.multiply(Arrays.asList(Expression.transpose(product), Expression.filter(product, ResultFilter.atLeast(2))), Semiring.PLUS_TIMES);
+
+		CsrMatrix shared = matrixFV.multiply(matrixC);
+		assertEquals(shared.transpose().multiply(shared.filter(ResultFilter.atLeast(2))), evaluator.evaluate(gram));
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		String json = "{\"operands\": {\"FV\": " + mapper.writeValueAsString(matrixFV) + ", \"EV\": " + mapper.writeValueAsString(matrixEV) + "},"
+				+ " \"nodes\": {"
+				+ " \"FE\": {\"op\": \"multiply\", \"args\": [\"FV\", \"EVt\"], \"semiring\": \"count\", \"filterEquals\": 2},"
+				+ " \"EVt\": {\"op\": \"transpose\", \"arg\": \"EV\"}},"
+				+ " \"result\": \"FE\"}";
+
+		Expression expression = new ExpressionParser(mapper).parse(json);
+		assertEquals(matrixFV.multiplyCount(matrixEV.transpose(), ResultFilter.equalTo(2)), evaluator.evaluate(expression));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCycle() throws Exception {
+		String json = "{\"nodes\": {\"A\": {\"op\": \"transpose\", \"arg\": \"B\"}, \"B\": {\"op\": \"transpose\", \"arg\": \"A\"}}, \"result\": \"A\"}";
+		new ExpressionParser(new ObjectMapper()).parse(json);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testShape() {
+		Expression.multiply(Arrays.asList(Expression.operand(matrixFV), Expression.operand(matrixEV)), Semiring.PLUS_TIMES);
+	}
+}
@@ -0,0 +1,82 @@
+package it.cvdlab.lar.model;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ColumnCodecTest {
+
+	@Test
+	public void testSortedRows() throws IOException {
+		CsrMatrix matrix = TestMatrices.random(new Random(20), 200, 100, 0.08);
+		byte[] packed = ColumnCodec.encode(matrix.getRowptrArray(), matrix.getColdataArray());
+
+		assertEquals(0, packed[0]);
+		// Deltas below 128 columns: one byte each
+		assertEquals(1 + matrix.getNonZeroElementsCount(), packed.length);
+		assertArrayEquals(matrix.getColdataArray(), ColumnCodec.decode(packed, matrix.getRowptrArray()));
+	}
+
+	@Test
+	public void testUnsortedAndWide() throws IOException {
+		int[] rowPtr = { 0, 3, 3, 6 };
+		int[] colData = { 9, 2, 7, 0, 1 << 20, Integer.MAX_VALUE };
+		byte[] packed = ColumnCodec.encode(rowPtr, colData);
+
+		assertEquals(ColumnCodec.FLAG_ZIGZAG, packed[0]);
+		assertArrayEquals(colData, ColumnCodec.decode(packed, rowPtr));
+
+		int[] sorted = { 1, 200, 70000, 0, 1 << 20, Integer.MAX_VALUE };
+		assertArrayEquals(sorted, ColumnCodec.decode(ColumnCodec.encode(rowPtr, sorted), rowPtr));
+	}
+
+	@Test
+	public void testBoundaryMatrix() throws IOException {
+		// Faces of a 100x100 grid, each bounded by four nearby edges
+		int n = 100, faces = n * n;
+		int[] rowPtr = new int[faces + 1];
+		int[] colData = new int[4 * faces];
+		for(int f = 0; f < faces; f++) {
+			int r = f / n, c = f % n;
+			int[] edges = { r * n + c, (r + 1) * n + c, faces + n + r * (n + 1) + c, faces + n + r * (n + 1) + c + 1 };
+			Arrays.sort(edges);
+			System.arraycopy(edges, 0, colData, 4 * f, 4);
+			rowPtr[f + 1] = 4 * (f + 1);
+		}
+		byte[] packed = ColumnCodec.encode(rowPtr, colData);
+
+		// The first column of each row is the only wide one
+		assertTrue(packed.length * 2 < colData.length * 4);
+		assertArrayEquals(colData, ColumnCodec.decode(packed, rowPtr));
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException {
+		int[] rowPtr = { 0, 2 };
+		byte[] packed = ColumnCodec.encode(rowPtr, new int[]{ 3, 1000 });
+		ColumnCodec.decode(Arrays.copyOf(packed, packed.length - 1), rowPtr);
+	}
+
+	@Test
+	public void testPackedFile() throws IOException {
+		CsrMatrix matrix = TestMatrices.random(new Random(21), 300, 250, 0.05);
+		File plain = File.createTempFile("csr", ".bin");
+		File packed = File.createTempFile("csr", ".bin");
+		try {
+			CsrMatrixFile.save(matrix, plain);
+			CsrMatrixFile.save(matrix, packed, true);
+
+			assertTrue(packed.length() < plain.length());
+			assertEquals(matrix, CsrMatrix.load(packed));
+			assertEquals(matrix, CsrMatrixFile.map(packed).toCsrMatrix());
+		} finally {
+			plain.delete();
+			packed.delete();
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package it.cvdlab.lar.model;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CsrMatrixFileTest {
+	private File file;
+	private CsrMatrix matrix;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("csr", ".bin");
+		matrix = TestMatrices.random(new Random(18), 170, 90, 0.05);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		matrix.save(file);
+
+		assertEquals(matrix, CsrMatrix.load(file));
+	}
+
+	@Test
+	public void testLayout() throws IOException {
+		matrix.save(file);
+		long colOffset = CsrMatrixFile.align(CsrMatrixFile.HEADER_SIZE + (matrix.getRowCount() + 1) * 4);
+		long dataOffset = CsrMatrixFile.align(colOffset + matrix.getNonZeroElementsCount() * 4);
+
+		assertEquals(dataOffset + matrix.getNonZeroElementsCount() * 4, file.length());
+		assertEquals(0, colOffset % CsrMatrixFile.ALIGNMENT);
+	}
+
+	@Test
+	public void testMapped() throws IOException {
+		matrix.save(file);
+		DirectCsrMatrix mapped = CsrMatrixFile.map(file);
+
+		assertTrue(mapped.getColdataBuffer().isDirect());
+		assertEquals(ByteOrder.LITTLE_ENDIAN, mapped.order());
+		assertEquals(matrix, mapped.toCsrMatrix());
+	}
+
+	@Test
+	public void testPatternHasNoData() throws IOException {
+		CsrMatrix pattern = matrix.toPattern();
+		pattern.save(file);
+		DirectCsrMatrix mapped = CsrMatrixFile.map(file);
+
+		assertNull(mapped.getDataBuffer());
+		assertEquals(pattern, mapped.toCsrMatrix());
+
+		// And back through the off-heap writer
+		File copy = File.createTempFile("csr", ".bin");
+		try {
+			CsrMatrixFile.save(DirectCsrMatrix.fromCsrMatrix(pattern), copy);
+			assertEquals(file.length(), copy.length());
+			assertEquals(pattern, CsrMatrix.load(copy));
+		} finally {
+			copy.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testBadMagic() throws IOException {
+		matrix.save(file);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.writeInt(0);
+		} finally {
+			raf.close();
+		}
+		CsrMatrixFile.map(file);
+	}
+
+	@Test
+	public void testStream() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CsrMatrixFile.write(matrix, bytes);
+		CsrMatrixFile.write(matrix.toPattern(), bytes);
+		InputStream stream = new ByteArrayInputStream(bytes.toByteArray());
+
+		assertEquals(matrix, CsrMatrixFile.read(stream));
+		DirectCsrMatrix pattern = CsrMatrixFile.readDirect(stream);
+		assertTrue(pattern.getRowptrBuffer().isDirect());
+		assertEquals(matrix.toPattern(), pattern.toCsrMatrix());
+		assertNull(CsrMatrixFile.read(stream));
+	}
+
+	@Test
+	public void testStreamIsFileLayout() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CsrMatrixFile.write(matrix, bytes);
+		matrix.save(file);
+
+		byte[] saved = new byte[(int) file.length()];
+		FileInputStream input = new FileInputStream(file);
+		try {
+			assertEquals(saved.length, input.read(saved));
+		} finally {
+			input.close();
+		}
+		assertTrue(Arrays.equals(saved, bytes.toByteArray()));
+
+		// Packed files stream as well
+		CsrMatrixFile.save(matrix, file, true);
+		input = new FileInputStream(file);
+		try {
+			assertEquals(matrix, CsrMatrixFile.read(input));
+		} finally {
+			input.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedStream() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CsrMatrixFile.write(matrix, bytes);
+		byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 1);
+
+		CsrMatrixFile.read(new ByteArrayInputStream(truncated));
+	}
+
+	@Test
+	public void testCorruptStreamStructure() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CsrMatrixFile.write(matrix, bytes);
+
+		// A decreasing row pointer, then a column past the last one
+		ByteBuffer rows = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		rows.putInt(CsrMatrixFile.HEADER_SIZE + 4 * 50, rows.getInt(CsrMatrixFile.HEADER_SIZE + 4 * 51) + 1);
+		ByteBuffer cols = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		cols.putInt((int) cols.getLong(40) + 4 * 7, matrix.getColCount());
+
+		for(ByteBuffer corrupt : new ByteBuffer[]{ rows, cols }) {
+			try {
+				CsrMatrixFile.read(new ByteArrayInputStream(corrupt.array()));
+				fail("Corrupt structure read");
+			} catch (IOException e) {
+			}
+			try {
+				CsrMatrixFile.readDirect(new ByteArrayInputStream(corrupt.array()));
+				fail("Corrupt structure read");
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	// A 64 byte header must not be able to claim gigabytes
+	@Test
+	public void testHostileStreamHeader() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CsrMatrixFile.write(matrix, bytes);
+
+		ByteBuffer gap = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		gap.putLong(40, 1L << 40);
+		try {
+			CsrMatrixFile.readDirect(new ByteArrayInputStream(gap.array()));
+			fail("The col section is past the padding");
+		} catch (IOException e) {
+		}
+
+		// A 2 GB rowptr section, on a stream that ends after the header
+		ByteBuffer huge = ByteBuffer.wrap(Arrays.copyOf(bytes.toByteArray(), CsrMatrixFile.HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+		int rows = Integer.MAX_VALUE / 4 - 1;
+		long colOffset = CsrMatrixFile.align(CsrMatrixFile.HEADER_SIZE + (rows + 1L) * 4);
+		huge.putInt(12, rows);
+		huge.putLong(24, 0);
+		huge.putLong(40, colOffset);
+		huge.putLong(48, colOffset);
+		huge.putLong(56, 0);
+		try {
+			CsrMatrixFile.readDirect(new ByteArrayInputStream(huge.array()));
+			fail("The stream ends after the header");
+		} catch (IOException e) {
+		}
+		try {
+			CsrMatrixFile.read(new ByteArrayInputStream(huge.array()));
+			fail("The stream ends after the header");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testEdgeShapesStream() throws IOException {
+		for(CsrMatrix[] pair : TestMatrices.edgeProducts()) {
+			for(CsrMatrix edge : pair) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				CsrMatrixFile.write(edge, bytes);
+				CsrMatrixFile.write(edge.toPattern(), bytes);
+				InputStream stream = new ByteArrayInputStream(bytes.toByteArray());
+
+				assertEquals(edge, CsrMatrixFile.read(stream));
+				assertEquals(edge.toPattern(), CsrMatrixFile.readDirect(stream).toCsrMatrix());
+			}
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package it.cvdlab.lar.model;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+public class CsrMatrixJsonWriterTest {
+	private final ObjectMapper jacksonMapper = new ObjectMapper();
+
+	private static String toJson(CsrMatrix matrix) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CsrMatrixJsonWriter writer = new CsrMatrixJsonWriter(bytes);
+		writer.write(matrix);
+		writer.flush();
+		return bytes.toString("US-ASCII");
+	}
+
+	@Test
+	public void testValues() throws IOException {
+		CsrMatrix matrix = new CsrMatrix(new int[]{ 0, 3, 3, 5 }, new int[]{ 0, 2, 7, 1, 9 },
+				new float[]{ 2, -0.5F, 1.0E20F, Integer.MIN_VALUE, 3.25F }, 3, 10);
+		String json = toJson(matrix);
+
+		assertEquals("{\"ROW\":[0,3,3,5],\"COL\":[0,2,7,1,9],\"DATA\":[2,-0.5,1.0E20,-2.14748365E9,3.25],\"ROWCOUNT\":3,\"COLCOUNT\":10}", json);
+		assertEquals(matrix, jacksonMapper.readValue(json, CsrMatrix.class));
+	}
+
+	@Test
+	public void testPatternHasNoData() throws IOException {
+		CsrMatrix pattern = new CsrMatrix(new int[]{ 0, 1, 2 }, new int[]{ 1, 0 }, 2, 2);
+		String json = toJson(pattern);
+
+		assertEquals("{\"ROW\":[0,1,2],\"COL\":[1,0],\"ROWCOUNT\":2,\"COLCOUNT\":2}", json);
+		assertEquals(pattern, jacksonMapper.readValue(json, CsrMatrix.class));
+	}
+
+	@Test
+	public void testLargerThanBuffer() throws IOException {
+		CsrMatrix matrix = TestMatrices.random(new Random(23), 400, 300, 0.2);
+		String json = toJson(matrix);
+
+		assertTrue(json.length() > (1 << 16));
+		assertEquals(matrix, jacksonMapper.readValue(json, CsrMatrix.class));
+	}
+}
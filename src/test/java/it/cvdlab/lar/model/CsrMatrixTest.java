@@ -0,0 +1,75 @@
+package it.cvdlab.lar.model;
+
+import static org.junit.Assert.*;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CsrMatrixTest {
+	private ObjectMapper jacksonMapper;
+	private CsrMatrix matrixOne;
+	private CsrMatrix matrixTwo;
+
+	@Before
+	public void setUp() throws Exception {
+		jacksonMapper = new ObjectMapper();
+		matrixOne = CsrMatrix.fromFlattenArray(new int[]{1,0,0,0,1,0,1,0,0,0,0,0,0,0,1,0,0,1,1,0}, 5);
+		matrixTwo = CsrMatrix.fromFlattenArray(new int[]{1,0,0,1,0,1,0,0,0,0,0,1,0,0,0,1,1,1,0,1}, 4);
+	}
+
+	@Test
+	public void testJsonRoundTrip() throws Exception {
+		String json = jacksonMapper.writeValueAsString(matrixOne);
+		assertTrue(json.contains("\"ROW\":[0,2,3,4,6]"));
+		assertEquals(matrixOne, jacksonMapper.readValue(json, CsrMatrix.class));
+	}
+
+	@Test
+	public void testJsonWithoutData() throws Exception {
+		CsrMatrix parsed = jacksonMapper.readValue("{\"ROW\":[0,1,2],\"COL\":[0,1],\"ROWCOUNT\":2,\"COLCOUNT\":2}", CsrMatrix.class);
+		assertTrue(parsed.isBinary());
+		assertEquals(1F, parsed.valueAt(1), 0F);
+		assertEquals(new CsrMatrix(new int[]{0,1,2}, new int[]{0,1}, 2, 2), parsed);
+	}
+
+	@Test
+	public void testJsonFieldOrder() throws Exception {
+		// Sizes first pre-size the arrays, sizes last grow them: same matrix
+		String sizesFirst = "{\"ROWCOUNT\":4,\"COLCOUNT\":5,\"ROW\":[0,2,3,4,6],\"COL\":[0,4,1,4,2,3],\"DATA\":[1,1,1,1,1,1]}";
+		String sizesLast = "{\"DATA\":[1,1,1,1,1,1],\"COL\":[0,4,1,4,2,3],\"ROW\":[0,2,3,4,6],\"ROWCOUNT\":4,\"COLCOUNT\":5}";
+		String wrongSizes = "{\"ROWCOUNT\":1,\"ROW\":[0,2,3,4,6],\"COL\":[0,4,1,4,2,3],\"ROWCOUNT\":4,\"COLCOUNT\":5}";
+
+		assertEquals(matrixOne, jacksonMapper.readValue(sizesFirst, CsrMatrix.class));
+		assertEquals(matrixOne, jacksonMapper.readValue(sizesLast, CsrMatrix.class));
+		assertEquals(matrixOne.toPattern(), jacksonMapper.readValue(wrongSizes, CsrMatrix.class));
+	}
+
+	@Test
+	public void testTranspose() {
+		CsrMatrix transposed = matrixTwo.transpose();
+		assertEquals(matrixTwo.getColshape(), transposed.getRowshape());
+		assertEquals(matrixTwo.getNonZeroElementsCount(), transposed.getNonZeroElementsCount());
+		assertEquals(matrixTwo, transposed.transpose());
+	}
+
+	@Test
+	public void testMultiply() throws Exception {
+		CsrMatrix expected = CsrMatrix.fromFlattenArray(new int[]{2,1,0,2,0,1,0,0,1,1,0,1,0,0,0,2}, 4);
+		CsrMatrix result = matrixOne.multiply(matrixTwo);
+		assertEquals(expected, result);
+		assertEquals(expected.getNonZeroElementsCount(), matrixOne.nnzMultiplyCount(matrixTwo));
+	}
+
+	@Test
+	public void testMultiplyTransposed() throws Exception {
+		CsrMatrix valued = CsrMatrix.fromFlattenArray(new float[]{1,0,3,0,0,2,0,0,1,0,2,0,0,0,1,4,0,1,1,0}, 4);
+		assertEquals(matrixOne.multiply(matrixTwo), matrixOne.multiplyTransposed(matrixTwo.transpose()));
+		assertEquals(matrixOne.multiply(valued), matrixOne.multiplyTransposed(valued.transpose()));
+	}
+
+	@Test(expected = Exception.class)
+	public void testMultiplyTransposedShape() throws Exception {
+		matrixOne.multiplyTransposed(matrixTwo);
+	}
+}
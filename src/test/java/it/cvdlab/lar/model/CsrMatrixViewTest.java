@@ -0,0 +1,118 @@
+package it.cvdlab.lar.model;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CsrMatrixViewTest {
+	private static final int ROWS = 300, COLS = 200;
+
+	private float[] dense;
+	private CsrMatrix matrix;
+
+	@Before
+	public void setUp() {
+		dense = TestMatrices.randomDense(new Random(16), ROWS, COLS, 0.05);
+		matrix = CsrMatrix.fromFlattenArray(dense, COLS);
+	}
+
+	// The same block cut from the dense array
+	private CsrMatrix block(int rowStart, int rowEnd, int fromCol, int toCol) {
+		float[] cut = new float[(rowEnd - rowStart) * (toCol - fromCol)];
+		for(int i = rowStart; i < rowEnd; i++) {
+			System.arraycopy(dense, i * COLS + fromCol, cut, (i - rowStart) * (toCol - fromCol), toCol - fromCol);
+		}
+		return CsrMatrix.fromFlattenArray(cut, toCol - fromCol);
+	}
+
+	@Test
+	public void testRowBlock() {
+		CsrMatrixView view = matrix.view(40, 170);
+		CsrMatrix expected = block(40, 170, 0, COLS);
+
+		assertFalse(view.isWindowed());
+		assertEquals(expected.getNonZeroElementsCount(), view.getNonZeroElementsCount());
+		assertArrayEquals(expected.getRowptrArray(), view.getRowptrArray());
+		assertEquals(expected, view.toCsrMatrix());
+	}
+
+	@Test
+	public void testWindow() {
+		CsrMatrixView view = matrix.view(10, 250, 30, 120);
+		CsrMatrix expected = block(10, 250, 30, 120);
+
+		assertTrue(view.isWindowed());
+		assertEquals(expected.getNonZeroElementsCount(), view.getNonZeroElementsCount());
+		assertEquals(expected, view.toCsrMatrix());
+
+		RowView row = view.rowView().moveTo(5);
+		for(int k = 0; k < row.size(); k++) {
+			assertEquals(dense[15 * COLS + 30 + row.col(k)], row.value(k), 0F);
+		}
+	}
+
+	@Test
+	public void testNested() {
+		CsrMatrixView view = matrix.view(10, 250, 30, 120).rows(20, 60).columns(5, 50);
+		assertEquals(block(30, 70, 35, 80), view.toCsrMatrix());
+		assertSame(matrix, view.getMatrix());
+	}
+
+	@Test
+	public void testMultiply() throws Exception {
+		CsrMatrix other = TestMatrices.random(new Random(17), COLS, 90, 0.05);
+		CsrMatrix product = matrix.multiply(other);
+
+		for(Semiring semiring : Arrays.asList(Semiring.PLUS_TIMES, Semiring.MIN_PLUS)) {
+			assertEquals(matrix.multiply(other, semiring).view(100, 260).toCsrMatrix(),
+					matrix.view(100, 260).multiply(other, semiring, semiring.defaultFilter()));
+		}
+		assertEquals(product.view(0, 1).toCsrMatrix(), matrix.view(0, 1).multiply(other, Semiring.PLUS_TIMES, ResultFilter.POSITIVE));
+		assertEquals(0, matrix.view(7, 7).multiply(other, Semiring.PLUS_TIMES, ResultFilter.POSITIVE).getRowCount());
+
+		CsrMatrix window = matrix.view(0, ROWS, 50, 110).toCsrMatrix();
+		CsrMatrix otherRows = other.view(50, 110).toCsrMatrix();
+		assertEquals(window.multiply(otherRows), matrix.view(0, ROWS, 50, 110).multiply(otherRows, Semiring.PLUS_TIMES, ResultFilter.POSITIVE));
+	}
+
+	@Test
+	public void testLargeBlock() throws Exception {
+		// Enough flops for several chunks, none starting at row 0
+		Random random = new Random(18);
+		CsrMatrix left = TestMatrices.random(random, 2000, 1500, 0.02);
+		CsrMatrix right = TestMatrices.random(random, 1500, 1500, 0.02);
+
+		assertEquals(left.multiply(right).view(333, 1900).toCsrMatrix(),
+				left.view(333, 1900).multiply(right, Semiring.PLUS_TIMES, ResultFilter.POSITIVE));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testBounds() {
+		matrix.view(0, 10, 0, 50).columns(10, 60);
+	}
+
+	@Test
+	public void testBoundsOfInnerViews() {
+		// Inside the matrix, but not inside the view
+		CsrMatrixView view = matrix.view(10, 20, 30, 40);
+		try {
+			view.rows(-5, 3);
+			fail("Rows before the view");
+		} catch (IndexOutOfBoundsException e) {
+		}
+		try {
+			view.columns(-1, 5);
+			fail("Columns before the view");
+		} catch (IndexOutOfBoundsException e) {
+		}
+		try {
+			view.rows(6, 4);
+			fail("Reversed rows");
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package it.cvdlab.lar.model;
+
+import static org.junit.Assert.*;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectCsrMatrixTest {
+	private ObjectMapper jacksonMapper;
+	private CsrMatrix matrix;
+
+	@Before
+	public void setUp() {
+		jacksonMapper = new ObjectMapper();
+		matrix = TestMatrices.random(new Random(17), 150, 120, 0.05);
+	}
+
+	@Test
+	public void testHeapRoundTrip() {
+		DirectCsrMatrix direct = DirectCsrMatrix.fromCsrMatrix(matrix);
+
+		assertTrue(direct.getRowptrBuffer().isDirect());
+		assertTrue(direct.getColdataBuffer().isDirect());
+		assertTrue(direct.getDataBuffer().isDirect());
+		assertEquals(matrix.getNonZeroElementsCount(), direct.getNonZeroElementsCount());
+		assertEquals(matrix, direct.toCsrMatrix());
+	}
+
+	@Test
+	public void testJsonIntoBuffers() throws Exception {
+		String json = jacksonMapper.writeValueAsString(matrix);
+		DirectCsrMatrix direct = jacksonMapper.readValue(json, DirectCsrMatrix.class);
+
+		assertFalse(direct.isBinary());
+		assertEquals(matrix.getRowCount(), direct.getRowCount());
+		assertEquals(matrix.getColCount(), direct.getColCount());
+		assertEquals(matrix, direct.toCsrMatrix());
+	}
+
+	@Test
+	public void testBinaryWithoutData() throws Exception {
+		CsrMatrix pattern = matrix.toPattern();
+		String json = "{\"" + CsrMatrix.JSON_ROW + "\":" + Arrays.toString(pattern.getRowptrArray())
+				+ ",\"" + CsrMatrix.JSON_COL + "\":" + Arrays.toString(pattern.getColdataArray())
+				+ ",\"" + CsrMatrix.JSON_ROWCOUNT + "\":" + pattern.getRowCount()
+				+ ",\"" + CsrMatrix.JSON_COLCOUNT + "\":" + pattern.getColCount() + "}";
+		DirectCsrMatrix direct = jacksonMapper.readValue(json, DirectCsrMatrix.class);
+
+		assertTrue(direct.isBinary());
+		assertNull(direct.getDataBuffer());
+		assertEquals(pattern, direct.toCsrMatrix());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testHeapBuffers() {
+		new DirectCsrMatrix(IntBuffer.allocate(2), IntBuffer.allocate(0), null, 1, 1);
+	}
+}
@@ -0,0 +1,140 @@
+package it.cvdlab.lar.model;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MatrixMarketTest {
+
+	private static CsrMatrix read(String text) throws IOException {
+		return new MatrixMarketReader(new StringReader(text)).read();
+	}
+
+	private static String write(CsrMatrix matrix) throws IOException {
+		StringWriter text = new StringWriter();
+		MatrixMarketWriter writer = new MatrixMarketWriter(text);
+		writer.write(matrix);
+		writer.flush();
+		return text.toString();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		float[] dense = TestMatrices.randomDense(new Random(19), 80, 60, 0.1);
+		dense[7] = 0.125F;
+		dense[8] = -3.5e-6F;
+		CsrMatrix matrix = CsrMatrix.fromFlattenArray(dense, 60);
+
+		assertEquals(matrix, read(write(matrix)));
+		assertEquals(matrix.toPattern(), read(write(matrix.toPattern())));
+	}
+
+	@Test
+	public void testUnsortedWithComments() throws IOException {
+		CsrMatrix matrix = read("%%MatrixMarket matrix coordinate real general\n"
+				+ "% written by hand\n"
+				+ "%\n"
+				+ "3 4 4\n"
+				+ "3 1 2.5\n"
+				+ "1 4 1e1\n"
+				+ "1 2 -1\n"
+				+ "2 3 7\n");
+		float[] expected = {
+				0, -1, 0, 10,
+				0, 0, 7, 0,
+				2.5F, 0, 0, 0 };
+
+		assertEquals(CsrMatrix.fromFlattenArray(expected, 4), matrix);
+	}
+
+	@Test
+	public void testSymmetric() throws IOException {
+		CsrMatrix symmetric = read("%%MatrixMarket matrix coordinate integer symmetric\n3 3 3\n1 1 4\n3 1 2\n3 2 5\n");
+		CsrMatrix skew = read("%%MatrixMarket matrix coordinate real skew-symmetric\n2 2 1\n2 1 3\n");
+
+		assertEquals(CsrMatrix.fromFlattenArray(new float[]{ 4, 0, 2, 0, 0, 5, 2, 5, 0 }, 3), symmetric);
+		assertEquals(CsrMatrix.fromFlattenArray(new float[]{ 0, -3, 3, 0 }, 2), skew);
+	}
+
+	@Test
+	public void testPattern() throws IOException {
+		CsrMatrix pattern = read("%%MatrixMarket matrix coordinate pattern general\n2 3 3\n2 3\n2 1\n1 2\n");
+
+		assertNull(pattern.getStoredDataArray());
+		assertArrayEquals(new int[]{ 0, 1, 3 }, pattern.getRowptrArray());
+		assertArrayEquals(new int[]{ 1, 0, 2 }, pattern.getColdataArray());
+	}
+
+	@Test
+	public void testDuplicatesAreSummed() throws Exception {
+		CsrMatrix matrix = read("%%MatrixMarket matrix coordinate real general\n2 3 5\n1 2 1.5\n2 3 1\n1 2 2\n1 1 4\n1 2 -0.5\n");
+		CsrMatrix pattern = read("%%MatrixMarket matrix coordinate pattern general\n2 2 3\n2 1\n1 2\n2 1\n");
+
+		assertArrayEquals(new int[]{ 0, 2, 3 }, matrix.getRowptrArray());
+		assertEquals(CsrMatrix.fromFlattenArray(new float[]{ 4, 3, 0, 0, 0, 1 }, 3), matrix);
+		assertArrayEquals(new int[]{ 0, 1, 2 }, pattern.getRowptrArray());
+		assertArrayEquals(new int[]{ 1, 0 }, pattern.getColdataArray());
+
+		// One entry per column, so each pairs with B's row exactly once
+		CsrMatrix matrixB = CsrMatrix.fromFlattenArray(new float[]{ 1, 0, 0, 1, 2, 0 }, 2);
+		assertEquals(CsrMatrix.fromFlattenArray(new float[]{ 4, 3, 2, 0 }, 2), matrix.multiply(matrixB));
+	}
+
+	@Test
+	public void testConcatenated() throws IOException {
+		MatrixMarketReader reader = new MatrixMarketReader(new StringReader(
+				"%%MatrixMarket matrix coordinate real general\n1 2 1\n1 2 3\n"
+				+ "%%MatrixMarket matrix coordinate real general\n2 1 1\n2 1 4\n\n"));
+
+		assertEquals(CsrMatrix.fromFlattenArray(new float[]{ 0, 3 }, 2), reader.read());
+		assertEquals(CsrMatrix.fromFlattenArray(new float[]{ 0, 4 }, 1), reader.read());
+		assertNull(reader.read());
+	}
+
+	@Test
+	public void testManySymmetricEntries() throws IOException {
+		// More entries than the arrays start with, each one mirrored
+		int n = 300;
+		float[] dense = new float[n * n];
+		StringBuilder text = new StringBuilder("%%MatrixMarket matrix coordinate integer symmetric\n");
+		text.append(n).append(' ').append(n).append(' ').append(n * (n - 1) / 2).append('\n');
+		for(int i = 1; i < n; i++) {
+			for(int j = 0; j < i; j++) {
+				text.append(i + 1).append(' ').append(j + 1).append(' ').append(i + j).append('\n');
+				dense[i * n + j] = dense[j * n + i] = i + j;
+			}
+		}
+
+		assertEquals(CsrMatrix.fromFlattenArray(dense, n), read(text.toString()));
+	}
+
+	// The header count is not trusted: a short stream fails, it does not allocate the count
+	@Test(expected = IOException.class)
+	public void testBogusEntryCount() throws IOException {
+		read("%%MatrixMarket matrix coordinate real general\n2 2 2000000000\n1 1 1\n");
+	}
+
+	@Test(expected = IOException.class)
+	public void testOutOfRange() throws IOException {
+		read("%%MatrixMarket matrix coordinate real general\n2 2 1\n3 1 1\n");
+	}
+
+	@Test(expected = IOException.class)
+	public void testArrayFormat() throws IOException {
+		read("%%MatrixMarket matrix array real general\n2 2\n1\n2\n3\n4\n");
+	}
+
+	@Test
+	public void testEdgeShapes() throws IOException {
+		for(CsrMatrix[] pair : TestMatrices.edgeProducts()) {
+			for(CsrMatrix edge : pair) {
+				assertEquals(edge, read(write(edge)));
+			}
+		}
+	}
+}
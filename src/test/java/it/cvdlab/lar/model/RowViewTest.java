@@ -0,0 +1,71 @@
+package it.cvdlab.lar.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RowViewTest {
+	private CsrMatrix matrix;
+
+	@Before
+	public void setUp() {
+		matrix = CsrMatrix.fromFlattenArray(new int[]{
+				1,0,2,0,3,0,
+				0,0,0,0,0,0,
+				4,5,0,0,0,6,
+				0,0,0,7,0,0}, 6);
+	}
+
+	@Test
+	public void testMoveTo() {
+		RowView row = matrix.rowView().moveTo(2);
+		assertEquals(3, row.size());
+		assertEquals(1, row.col(1));
+		assertEquals(5F, row.value(1), 0F);
+		assertTrue(row.moveTo(1).isEmpty());
+	}
+
+	@Test
+	public void testWindow() {
+		RowView row = matrix.rowView().moveTo(0).window(1, 4);
+		assertEquals(1, row.size());
+		assertEquals(2, row.col(0));
+		assertEquals(2F, row.value(0), 0F);
+
+		// moveTo drops the window
+		assertEquals(3, row.moveTo(0).size());
+		assertEquals(0, row.window(5, 6).size());
+	}
+
+	@Test
+	public void testFind() {
+		RowView row = matrix.rowView().moveTo(2);
+		assertEquals(2, row.find(5));
+		assertEquals(-1, row.find(3));
+	}
+
+	@Test
+	public void testCursor() {
+		RowCursor rows = matrix.rowCursor(1, 4, 0, 2);
+		int[] sizes = new int[3];
+		int count = 0;
+		while (rows.next()) {
+			assertSame(rows.view(), rows.view());
+			sizes[count++] = rows.view().size();
+		}
+		assertArrayEquals(new int[]{ 0, 2, 0 }, sizes);
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testRowPiece() throws Exception {
+		assertEquals(CsrMatrix.fromFlattenArray(new int[]{5,0,0,0}, 4), matrix.getRowPiece(2, 1, 4));
+		assertEquals(CsrMatrix.fromFlattenArray(new int[]{0,0,0}, 3), matrix.getRowPiece(1, 2, 3));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testRange() {
+		matrix.rowCursor(2, 5);
+	}
+}
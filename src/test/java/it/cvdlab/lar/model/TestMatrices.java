@@ -0,0 +1,95 @@
+package it.cvdlab.lar.model;
+
+import java.util.Random;
+
+// Matrices shared by the tests: random ones, and the degenerate shapes
+// every engine has to take as well (no rows, no columns, no entries)
+public final class TestMatrices {
+	private TestMatrices() {}
+
+	// Row major, entries 1, 2 or 3 with the given density
+	public static float[] randomDense(Random random, int rows, int cols, double density) {
+		float[] dense = new float[rows * cols];
+		for(int i = 0; i < dense.length; i++) {
+			if (random.nextDouble() < density) {
+				dense[i] = 1 + random.nextInt(3);
+			}
+		}
+		return dense;
+	}
+
+	public static CsrMatrix random(Random random, int rows, int cols, double density) {
+		return fromDense(randomDense(random, rows, cols, density), rows, cols);
+	}
+
+	public static CsrMatrix empty(int rows, int cols) {
+		return new CsrMatrix(new int[rows + 1], new int[0], new float[0], rows, cols);
+	}
+
+	// As CsrMatrix.fromFlattenArray, which cannot tell the rows of a 0 column matrix
+	public static CsrMatrix fromDense(float[] dense, int rows, int cols) {
+		int nnz = 0;
+		for(float value : dense) {
+			if (value != 0F) {
+				nnz++;
+			}
+		}
+
+		int[] rowPtr = new int[rows + 1];
+		int[] colData = new int[nnz];
+		float[] data = new float[nnz];
+		int k = 0;
+		for(int i = 0; i < rows; i++) {
+			for(int j = 0; j < cols; j++) {
+				if (dense[i * cols + j] != 0F) {
+					colData[k] = j;
+					data[k++] = dense[i * cols + j];
+				}
+			}
+			rowPtr[i + 1] = k;
+		}
+		return new CsrMatrix(rowPtr, colData, data, rows, cols);
+	}
+
+	public static float[] toDense(CsrMatrix matrix) {
+		int cols = matrix.getColCount();
+		float[] dense = new float[matrix.getRowCount() * cols];
+		for(int i = 0; i < matrix.getRowCount(); i++) {
+			for(int k = matrix.rowPtrAt(i); k < matrix.rowPtrAt(i + 1); k++) {
+				dense[i * cols + matrix.colAt(k)] = matrix.valueAt(k);
+			}
+		}
+		return dense;
+	}
+
+	// Dense triple loop: the reference PLUS_TIMES product, zeros dropped
+	public static CsrMatrix denseProduct(CsrMatrix left, CsrMatrix right) {
+		int rows = left.getRowCount(), inner = left.getColCount(), cols = right.getColCount();
+		float[] denseLeft = toDense(left), denseRight = toDense(right);
+		float[] product = new float[rows * cols];
+		for(int i = 0; i < rows; i++) {
+			for(int k = 0; k < inner; k++) {
+				for(int j = 0; j < cols; j++) {
+					product[i * cols + j] += denseLeft[i * inner + k] * denseRight[k * cols + j];
+				}
+			}
+		}
+		return fromDense(product, rows, cols);
+	}
+
+	// {left, right} pairs of degenerate products: no rows, no inner
+	// dimension, no columns, an empty factor, single entries
+	public static CsrMatrix[][] edgeProducts() {
+		Random random = new Random(3);
+		CsrMatrix one = new CsrMatrix(new int[]{ 0, 1 }, new int[]{ 0 }, new float[]{ 2 }, 1, 1);
+		return new CsrMatrix[][] {
+			{ empty(0, 4), random(random, 4, 3, 0.5) },
+			{ empty(3, 0), empty(0, 5) },
+			{ random(random, 3, 4, 0.5), empty(4, 0) },
+			{ empty(3, 4), random(random, 4, 5, 0.5) },
+			{ random(random, 4, 5, 0.5), empty(5, 3) },
+			{ one, one },
+			{ empty(1, 1), one }
+		};
+	}
+}
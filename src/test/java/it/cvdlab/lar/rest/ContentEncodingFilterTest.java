@@ -0,0 +1,71 @@
+package it.cvdlab.lar.rest;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+import it.cvdlab.lar.model.CsrMatrixJsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+public class ContentEncodingFilterTest {
+
+	@Test
+	public void testSelectEncoding() {
+		assertEquals(ContentEncodingFilter.GZIP, ContentEncodingFilter.selectEncoding("gzip, deflate"));
+		assertEquals(ContentEncodingFilter.GZIP, ContentEncodingFilter.selectEncoding("X-GZIP;q=0.5"));
+		assertEquals(ContentEncodingFilter.GZIP, ContentEncodingFilter.selectEncoding("*"));
+		assertEquals(ContentEncodingFilter.DEFLATE, ContentEncodingFilter.selectEncoding("gzip;q=0, deflate"));
+		assertNull(ContentEncodingFilter.selectEncoding("identity"));
+		assertNull(ContentEncodingFilter.selectEncoding("br, gzip;q=0"));
+		assertNull(ContentEncodingFilter.selectEncoding(null));
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		// A boundary-like matrix: long runs of close, repeated indices
+		int rows = 5000;
+		int[] rowPtr = new int[rows + 1];
+		int[] colData = new int[2 * rows];
+		for(int i = 0; i < rows; i++) {
+			colData[2 * i] = i;
+			colData[2 * i + 1] = i + 1;
+			rowPtr[i + 1] = 2 * (i + 1);
+		}
+		CsrMatrix matrix = new CsrMatrix(rowPtr, colData, rows, rows + 1);
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		CsrMatrixJsonWriter writer = new CsrMatrixJsonWriter(plain);
+		writer.write(matrix);
+		writer.flush();
+
+		for(String encoding : new String[]{ ContentEncodingFilter.GZIP, ContentEncodingFilter.DEFLATE }) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ContentEncodingFilter.EncodingOutputStream encoder = new ContentEncodingFilter.EncodingOutputStream(bytes, encoding, Deflater.BEST_SPEED);
+			writer = new CsrMatrixJsonWriter(encoder);
+			writer.write(matrix);
+			writer.flush();
+			encoder.finish();
+			// The filter ends the encoder again on every path
+			encoder.end();
+
+			assertEquals(plain.size(), encoder.decodedBytes());
+			assertEquals(bytes.size(), encoder.encodedBytes());
+			assertTrue(bytes.size() * 3 < plain.size());
+			assertTrue(encoder.codingNanos() >= 0);
+
+			ContentEncodingFilter.DecodingInputStream decoder = new ContentEncodingFilter.DecodingInputStream(new ByteArrayInputStream(bytes.toByteArray()), encoding);
+			ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+			byte[] chunk = new byte[4096];
+			for(int read = decoder.read(chunk, 0, chunk.length); read >= 0; read = decoder.read(chunk, 0, chunk.length)) {
+				decoded.write(chunk, 0, read);
+			}
+
+			assertArrayEquals(plain.toByteArray(), decoded.toByteArray());
+			assertEquals(bytes.size(), decoder.encodedBytes());
+			assertEquals(plain.size(), decoder.decodedBytes());
+		}
+	}
+}
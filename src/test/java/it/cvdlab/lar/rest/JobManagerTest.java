@@ -0,0 +1,111 @@
+package it.cvdlab.lar.rest;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class JobManagerTest {
+	private static final CsrMatrix RESULT = new CsrMatrix(new int[]{ 0, 1 }, new int[]{ 0 }, 1, 1);
+
+	// Blocks its worker until the latch opens
+	private static Callable<CsrMatrix> blocking(final CountDownLatch latch, final CsrMatrix result) {
+		return new Callable<CsrMatrix>() {
+			@Override
+			public CsrMatrix call() throws Exception {
+				latch.await();
+				return result;
+			}
+		};
+	}
+
+	@Test
+	public void testLifecycle() throws Exception {
+		JobManager manager = new JobManager(1, 1, 60000L);
+		CountDownLatch latch = new CountDownLatch(1);
+		Job running = manager.submit("product", null, blocking(latch, RESULT));
+		Job queued = manager.submit("product", null, blocking(latch, null));
+
+		// One worker, one queue slot
+		try {
+			manager.submit("product", null, blocking(latch, RESULT));
+			fail("The queue is full");
+		} catch (RejectedExecutionException e) {
+		}
+		assertFalse(running.await(50, TimeUnit.MILLISECONDS));
+		assertEquals(Job.State.QUEUED, queued.getState());
+
+		latch.countDown();
+		assertTrue(running.await(5, TimeUnit.SECONDS));
+		assertTrue(queued.await(5, TimeUnit.SECONDS));
+		assertEquals(Job.State.DONE, running.getState());
+		assertSame(RESULT, running.result());
+		assertEquals(1, running.getProductsDone());
+		assertEquals(Job.State.FAILED, queued.getState());
+		assertNotNull(queued.getError());
+		assertSame(running, manager.get(running.getId()));
+	}
+
+	@Test
+	public void testCancelQueued() throws Exception {
+		JobManager manager = new JobManager(1, 1, 60000L);
+		CountDownLatch latch = new CountDownLatch(1);
+		Job running = manager.submit("product", null, blocking(latch, RESULT));
+		Job queued = manager.submit("product", null, blocking(latch, RESULT));
+
+		assertTrue(manager.remove(queued.getId()));
+		assertEquals(Job.State.CANCELLED, queued.getState());
+		assertNull(manager.get(queued.getId()));
+		assertFalse(manager.remove(queued.getId()));
+		// The cancelled job gave its queue slot back
+		Job next = manager.submit("product", null, blocking(latch, RESULT));
+
+		latch.countDown();
+		assertTrue(next.await(5, TimeUnit.SECONDS));
+		assertEquals(Job.State.DONE, running.getState());
+		assertEquals(Job.State.DONE, next.getState());
+		assertEquals(0, queued.getRunningMillis());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		JobManager manager = new JobManager(1, 4, 1000L);
+		CountDownLatch latch = new CountDownLatch(1);
+		Job done = manager.submit("product", null, blocking(new CountDownLatch(0), RESULT));
+		Job running = manager.submit("product", null, blocking(latch, RESULT));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		manager.evict(System.currentTimeMillis());
+		assertSame(done, manager.get(done.getId()));
+
+		// Past the TTL only the finished job goes
+		manager.evict(System.currentTimeMillis() + 1000L);
+		assertNull(manager.get(done.getId()));
+		assertSame(running, manager.get(running.getId()));
+		latch.countDown();
+		assertTrue(running.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testShutdown() throws Exception {
+		JobManager manager = new JobManager(1, 1, 60000L);
+		CountDownLatch latch = new CountDownLatch(1);
+		Job running = manager.submit("product", null, blocking(latch, RESULT));
+		Job queued = manager.submit("product", null, blocking(latch, RESULT));
+
+		manager.shutdown();
+		assertEquals(Job.State.CANCELLED, running.getState());
+		assertEquals(Job.State.CANCELLED, queued.getState());
+		assertNull(manager.get(running.getId()));
+		try {
+			manager.submit("product", null, blocking(latch, RESULT));
+			fail("The workers are stopped");
+		} catch (RejectedExecutionException e) {
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package it.cvdlab.lar.rest;
+
+import static org.junit.Assert.*;
+import it.cvdlab.lar.model.CsrMatrix;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+public class JsonProductRequestTest {
+	private final ObjectMapper jacksonMapper = new ObjectMapper();
+
+	private static InputStream body(String json) throws IOException {
+		return new ByteArrayInputStream(json.getBytes("UTF-8"));
+	}
+
+	@Test
+	public void testFields() throws IOException {
+		CsrMatrix matrix = CsrMatrix.fromFlattenArray(new float[]{ 1, 0, 2, 0, 3, 0 }, 3);
+		String json = "{\"semiring\":\"count\",\"filterEquals\":2,\"unknown\":{\"a\":[1,2]},"
+				+ "\"matrixb\":" + jacksonMapper.writeValueAsString(matrix.transpose()) + ","
+				+ "\"matrixa\":" + jacksonMapper.writeValueAsString(matrix) + ","
+				+ "\"filterMin\":null,\"transposed\":true}";
+		JsonProductRequest request = JsonProductRequest.parse(jacksonMapper, body(json));
+
+		assertEquals(matrix, request.firstMatrix);
+		assertEquals(matrix.transpose(), request.secondMatrix);
+		assertEquals("count", request.semiring);
+		assertEquals("2", request.filterEquals);
+		assertNull(request.filterMin);
+		assertNull(request.algebra);
+		assertTrue(request.transposed);
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAnObject() throws IOException {
+		JsonProductRequest.parse(jacksonMapper, body("[1,2]"));
+	}
+}